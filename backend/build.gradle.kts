@@ -1,6 +1,7 @@
 plugins {
 id("org.springframework.boot") version "3.3.3"
 id("io.spring.dependency-management") version "1.1.6"
+id("me.champeau.jmh") version "0.7.2"
 java
 }
 
@@ -26,12 +27,28 @@ implementation("org.flywaydb:flyway-core")
 implementation("org.postgresql:postgresql")
 implementation("org.springframework.boot:spring-boot-starter-validation")
 implementation("org.springframework.boot:spring-boot-starter-actuator")
+implementation("com.github.ben-manes.caffeine:caffeine")
+implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
 
 testImplementation("org.springframework.boot:spring-boot-starter-test")
 testImplementation("org.testcontainers:junit-jupiter:1.19.8")
 testImplementation("org.testcontainers:postgresql:1.19.8")
+testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks.test {
 useJUnitPlatform()
+// ./gradlew test -PrecordSqlBudget rewrites src/test/resources/sql-budget.txt from this run
+systemProperty("artzooka.sql-budget.record", project.hasProperty("recordSqlBudget"))
+// ./gradlew test -PloadTest --tests '*RoomFanOutLoadIT' runs the 10k-socket fan-out
+systemProperty("artzooka.load", project.hasProperty("loadTest"))
+// -PshardedBroker serves room topics from RoomBroker instead of the simple broker, in every test of the run
+if (project.hasProperty("shardedBroker")) systemProperty("artzooka.broker.sharded", true)
+if (project.hasProperty("loadTest")) maxHeapSize = "3g"
+}
+
+// ./gradlew jmh; allocation rates come from the gc profiler
+jmh {
+profilers.add("gc")
+fork.set(1)
 }
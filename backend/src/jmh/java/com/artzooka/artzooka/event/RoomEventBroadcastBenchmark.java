@@ -0,0 +1,111 @@
+package com.artzooka.artzooka.event;
+
+import com.artzooka.artzooka.config.RoomBroker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One VOTE_DELTA broadcast, from the call site to the handler standing in for the WebSocket
+ * handler, for a room of 8 players and a room of 200 spectators. {@code mapPayload} is the old
+ * path: a {@code LinkedHashMap} converted by the messaging template; {@code typedEvent} goes
+ * through {@link RoomEventPublisher}. Run with {@code ./gradlew jmh}; the gc profiler reports
+ * {@code gc.alloc.rate.norm}, the bytes allocated per broadcast.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoomEventBroadcastBenchmark {
+    private static final String ROOM = "BENCH";
+
+    @Param({"8", "200"})
+    int subscribers;
+
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final AtomicLong delivered = new AtomicLong();
+    private final UUID gameId = UUID.randomUUID();
+    private final UUID targetId = UUID.randomUUID();
+    private RoomBroker broker;
+    private SimpMessagingTemplate mapTemplate;
+    private RoomEventPublisher publisher;
+    private long seq;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        broker = new RoomBroker(brokerChannel, message -> delivered.incrementAndGet(), new SimpleMeterRegistry(), 1, 4,
+                DataSize.ofKilobytes(64), Duration.ofSeconds(10), Duration.ofMillis(500), 256);
+        broker.start();
+        for (int s = 0; s < subscribers; s++) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            accessor.setSessionId("s" + s);
+            accessor.setSubscriptionId("sub-0");
+            accessor.setDestination(RoomBroker.PREFIX + ROOM);
+            broker.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        mapTemplate = new SimpMessagingTemplate(brokerChannel);
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        mapTemplate.setMessageConverter(converter);
+        publisher = new RoomEventPublisher(new SimpMessagingTemplate(brokerChannel), objectMapper,
+                new RoomEventLog(new SimpleMeterRegistry(), 256, DataSize.ofKilobytes(256), Duration.ofMinutes(30)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        broker.stop();
+    }
+
+    @Benchmark
+    public void mapPayload() {
+        long target = delivered.get() + subscribers;
+        Map<String, Object> evt = new LinkedHashMap<>();
+        evt.put("type", "VOTE_DELTA");
+        evt.put("roomCode", ROOM);
+        evt.put("gameId", gameId);
+        evt.put("seq", ++seq);
+        evt.put("targetId", targetId);
+        evt.put("count", 3);
+        mapTemplate.convertAndSend(RoomBroker.PREFIX + ROOM, evt);
+        awaitDelivered(target);
+    }
+
+    @Benchmark
+    public void typedEvent() {
+        long target = delivered.get() + subscribers;
+        publisher.publish(new RoomEvent.VoteDelta(ROOM, gameId, ++seq, targetId, 3));
+        awaitDelivered(target);
+    }
+
+    /** Broadcasts fan out on the broker's lane; each one is measured until its last delivery. */
+    private void awaitDelivered(long target) {
+        while (delivered.get() < target) Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,440 @@
+package com.artzooka.artzooka.cluster;
+
+import com.artzooka.artzooka.config.RoomBroker;
+import com.artzooka.artzooka.drawing.GalleryManifests;
+import com.artzooka.artzooka.event.EncodedEvent;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.VoteTally;
+import com.artzooka.artzooka.room.RoomInvalidated;
+import com.artzooka.artzooka.room.RoomRegistry;
+import com.artzooka.artzooka.room.RoomSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.MimeTypeUtils;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays room events between backend nodes through Postgres {@code LISTEN/NOTIFY}, so a player's
+ * socket may be connected to any node. Every event published to a room topic on this node is
+ * queued; a publisher thread drains the queue into batches numbered per node, stores each batch in
+ * {@code cluster_events} and notifies it in the same transaction. A listener thread on its own
+ * connection delivers other nodes' batches to the subscribers connected to this node only: through
+ * {@link RoomBroker} when it is sharded, otherwise through the broker channel, marked so they are
+ * not relayed again. What this node cached about a room another node wrote to (its
+ * {@link RoomRegistry} snapshot, current game, completion bits, vote tally and gallery) is dropped
+ * first, so a client reloading on the event is not served what this node cached before. A room
+ * changed without an event, such as one deleted by retention, is relayed as a
+ * {@link RoomInvalidated} with no body, which only drops the caches. Relayed events are kept in this node's {@code RoomEventLog} under the numbers
+ * they were given where they were published, so a room has one numbering whichever node publishes
+ * to it and a client can catch up from any node; if two nodes numbered a room at once, its
+ * clients here get a {@code RESYNC}.
+ * <p>
+ * A batch whose sequence number is not the next one expected from its node, or that was too large
+ * to carry in the notification, is read back from the table. If the rows up to the notified batch
+ * are not all there, because they were pruned or never written, the rooms with subscribers here get
+ * a {@code RESYNC} event and clients reload their state. A batch that cannot be written after a few
+ * attempts is dropped, but its number is used up, so the next batch shows the other nodes the gap.
+ * After the listen connection is lost, the node catches up from the table once it is listening
+ * again, up to each node's latest batch there; if it was not listening for longer than rows are
+ * kept, the rooms here get a {@code RESYNC} as well, since batches may be gone without a trace.
+ */
+@Component
+@ConditionalOnProperty(name = "artzooka.cluster.enabled", havingValue = "true")
+public class ClusterRelay implements MessageHandler, SmartLifecycle {
+    static final String CHANNEL = "artzooka_rooms";
+    /** Header of a frame this relay delivered from another node, which is not relayed back. */
+    private static final String RELAYED_HEADER = "artzooka-relayed";
+    /** NOTIFY payloads must stay under 8000 bytes; larger batches are announced by sequence number only. */
+    private static final int MAX_NOTIFY_BYTES = 7900;
+    private static final int MAX_BATCH = 256;
+    private static final int WRITE_ATTEMPTS = 3;
+
+    /**
+     * One room event: the room code, the JSON body sent to its topic, and the room's id if the
+     * publishing node had it cached. A null body only tells the other nodes to drop the room's caches.
+     */
+    record Event(String room, String body, UUID roomId) { }
+
+    /** Events published by one node, numbered per node. Events are null in a notification that only announces the batch. */
+    record Batch(String node, long seq, List<Event> events) { }
+
+    private final String node = UUID.randomUUID().toString();
+    private final SubscribableChannel brokerChannel;
+    private final RoomBroker roomBroker;
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomRegistry roomRegistry;
+    private final CurrentGameResolver currentGameResolver;
+    private final CompletionTracker completionTracker;
+    private final VoteTally voteTally;
+    private final GalleryManifests galleryManifests;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration retention;
+    private final BlockingQueue<Event> outbox = new LinkedBlockingQueue<>();
+    /** Last batch delivered per publishing node; only the listener thread touches it. */
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder fetched = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    /** Sequence number of the last batch written; only the publisher thread touches it. */
+    private long seq;
+    private volatile boolean running;
+    private Thread publisher;
+    private Thread listener;
+
+    public ClusterRelay(@Lazy @Qualifier("brokerChannel") SubscribableChannel brokerChannel,
+                        RoomBroker roomBroker,
+                        RoomEventPublisher roomEventPublisher,
+                        RoomRegistry roomRegistry,
+                        CurrentGameResolver currentGameResolver,
+                        CompletionTracker completionTracker,
+                        VoteTally voteTally,
+                        GalleryManifests galleryManifests,
+                        DataSource dataSource,
+                        JdbcTemplate jdbcTemplate,
+                        TransactionTemplate transactionTemplate,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${artzooka.cluster.retention:5m}") Duration retention) {
+        this.brokerChannel = brokerChannel;
+        this.roomBroker = roomBroker;
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomRegistry = roomRegistry;
+        this.currentGameResolver = currentGameResolver;
+        this.completionTracker = completionTracker;
+        this.voteTally = voteTally;
+        this.galleryManifests = galleryManifests;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.retention = retention;
+        FunctionCounter.builder("artzooka.cluster.events", published, LongAdder::sum)
+                .tag("direction", "published")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.cluster.events", received, LongAdder::sum)
+                .tag("direction", "received")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.cluster.batches.fetched", fetched, LongAdder::sum)
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.cluster.resyncs", resyncs, LongAdder::sum)
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.cluster.events", dropped, LongAdder::sum)
+                .tag("direction", "dropped")
+                .register(meterRegistry);
+        Gauge.builder("artzooka.cluster.outbox", outbox, BlockingQueue::size)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        publisher = daemon("cluster-publisher", this::publishLoop);
+        listener = daemon("cluster-listener", this::listenLoop);
+        brokerChannel.subscribe(this);
+        System.out.println("[ARTZOOKA] Cluster relay started node=" + node);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        brokerChannel.unsubscribe(this);
+        publisher.interrupt();
+        listener.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** A room event published on this node, queued for the other nodes. */
+    @Override
+    public void handleMessage(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return;
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(RoomBroker.PREFIX)) return;
+        if (headers.containsKey(RELAYED_HEADER)) return;
+        String body;
+        if (message.getPayload() instanceof EncodedEvent encoded) body = new String(encoded.json(), StandardCharsets.UTF_8);
+        else if (message.getPayload() instanceof byte[] bytes) body = new String(bytes, StandardCharsets.UTF_8);
+        else if (message.getPayload() instanceof String s) body = s;
+        else return;
+        String room = destination.substring(RoomBroker.PREFIX.length());
+        outbox.add(new Event(room, body, roomRegistry.peek(room).map(RoomSnapshot::id).orElse(null)));
+    }
+
+    /** A room changed here without an event; the other nodes drop what they cached about it. */
+    @EventListener
+    public void roomInvalidated(RoomInvalidated invalidated) {
+        outbox.add(new Event(invalidated.code(), null, invalidated.roomId()));
+    }
+
+    /** Drops this node's batches once no listener can still be catching up on them. */
+    @Scheduled(fixedDelayString = "${artzooka.cluster.prune-interval-ms:60000}")
+    public void prune() {
+        jdbcTemplate.update("DELETE FROM cluster_events WHERE node = ? AND created_at < ?",
+                node, OffsetDateTime.now().minus(retention));
+    }
+
+    private void publishLoop() {
+        List<Event> events = new ArrayList<>();
+        while (running) {
+            try {
+                events.add(outbox.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // whatever queued up while the last batch was written goes out together
+            outbox.drainTo(events, MAX_BATCH - 1);
+            if (!writeWithRetry(events)) {
+                // give up on the batch but not on its number: other nodes see the gap and RESYNC
+                seq++;
+                dropped.add(events.size());
+            }
+            events.clear();
+        }
+    }
+
+    /** Writes a batch, retrying a failed transaction a few times (e.g. while the pool reconnects). */
+    private boolean writeWithRetry(List<Event> events) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(events);
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt == WRITE_ATTEMPTS || !running) {
+                    System.out.println("[ARTZOOKA] Cluster relay dropped batch seq=" + (seq + 1)
+                            + " events=" + events.size() + " error=" + e);
+                    return false;
+                }
+                try {
+                    Thread.sleep(100L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void write(List<Event> events) {
+        long next = seq + 1;
+        String payload = toJson(new Batch(node, next, events));
+        String notification = payload.getBytes(StandardCharsets.UTF_8).length <= MAX_NOTIFY_BYTES
+                ? payload
+                : toJson(new Batch(node, next, null));
+        transactionTemplate.executeWithoutResult(tx -> {
+            jdbcTemplate.update("INSERT INTO cluster_events(node, seq, payload) VALUES (?, ?, ?)", node, next, payload);
+            // queued by Postgres and sent on commit, after the row is visible
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, CHANNEL, notification);
+        });
+        seq = next;
+        published.add(events.size());
+    }
+
+    private void listenLoop() {
+        long lostAt = 0;
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                if (lostAt != 0 && System.nanoTime() - lostAt >= retention.toNanos()) {
+                    // whatever was published meanwhile may be pruned without a row left to show it
+                    resync();
+                }
+                lostAt = 0;
+                // batches published while this node was not listening
+                lastSeen.forEach((from, after) -> catchUp(from, after, latest(from)));
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(500);
+                    if (notifications == null) continue;
+                    for (PGNotification notification : notifications) onNotification(notification.getParameter());
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) return;
+                if (lostAt == 0) lostAt = System.nanoTime();
+                System.out.println("[ARTZOOKA] Cluster listener lost its connection, retrying error=" + e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void onNotification(String json) {
+        Batch batch = fromJson(json);
+        if (batch.node().equals(node)) return;
+        Long last = lastSeen.get(batch.node());
+        if (last != null && batch.seq() <= last) return;
+        if (batch.events() != null && (last == null || batch.seq() == last + 1)) {
+            deliver(batch);
+        } else {
+            // a gap, or a batch too large to notify: read it from the table
+            catchUp(batch.node(), last != null ? last : batch.seq() - 1, batch.seq());
+        }
+    }
+
+    /**
+     * Delivers the node's batches after {@code after} from the table, which must reach
+     * {@code upTo}. Batches missing on the way, or at the end because they were pruned, are lost
+     * for good and the rooms here get a {@code RESYNC}.
+     */
+    private void catchUp(String from, long after, long upTo) {
+        List<String> rows = jdbcTemplate.queryForList(
+                "SELECT payload FROM cluster_events WHERE node = ? AND seq > ? ORDER BY seq", String.class, from, after);
+        long expected = after + 1;
+        boolean lost = false;
+        for (String row : rows) {
+            Batch batch = fromJson(row);
+            if (batch.seq() != expected && !lost) {
+                lost = true;
+                resync();
+            }
+            fetched.increment();
+            deliver(batch);
+            expected = batch.seq() + 1;
+        }
+        if (expected <= upTo) {
+            if (!lost) resync();
+            // nothing left to read up to it; the next batch is delivered as it comes
+            lastSeen.merge(from, upTo, Math::max);
+        }
+    }
+
+    /** Number of the node's latest batch still in the table, or 0 if none is. */
+    private long latest(String from) {
+        Long max = jdbcTemplate.queryForObject("SELECT max(seq) FROM cluster_events WHERE node = ?", Long.class, from);
+        return max == null ? 0 : max;
+    }
+
+    private void deliver(Batch batch) {
+        Set<String> written = new HashSet<>();
+        for (Event event : batch.events()) {
+            if (written.add(event.room())) evict(event.room(), event.roomId());
+            if (event.body() == null) continue;
+            if (!roomEventPublisher.relay(event.room(), event.body(), payload -> deliverLocally(event.room(), payload))) {
+                // two nodes numbered the room at once; its clients here reload
+                resyncs.increment();
+                resync(event.room());
+            }
+        }
+        received.add(batch.events().size());
+        lastSeen.put(batch.node(), batch.seq());
+    }
+
+    /** Drops what this node cached about a room another node wrote to. */
+    private void evict(String room, UUID roomId) {
+        UUID id = roomId != null ? roomId : roomRegistry.peek(room).map(RoomSnapshot::id).orElseGet(() -> roomId(room));
+        roomRegistry.drop(room);
+        if (id == null) return;
+        currentGameResolver.evict(id);
+        completionTracker.evict(id);
+        voteTally.evict(id);
+        galleryManifests.evict(id);
+    }
+
+    /** The room's id when neither node had it cached, which is rare: the publishing node just wrote it. */
+    private UUID roomId(String room) {
+        List<UUID> ids = jdbcTemplate.queryForList("SELECT id FROM rooms WHERE code = ?", UUID.class, room);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /** Events were lost for good: every room with subscribers here reloads its state. */
+    private void resync() {
+        resyncs.increment();
+        for (String room : roomBroker.rooms()) resync(room);
+    }
+
+    private void resync(String room) {
+        deliverLocally(room, roomEventPublisher.encode(new RoomEvent.Resync(room)));
+    }
+
+    /** Delivers JSON bytes, or an {@link EncodedEvent}, to the room's subscribers on this node. */
+    private void deliverLocally(String room, Object payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(RoomBroker.PREFIX + room);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        if (roomBroker.isSharded()) {
+            roomBroker.handleMessage(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+            return;
+        }
+        accessor.setHeader(RELAYED_HEADER, true);
+        Object json = payload instanceof EncodedEvent encoded ? encoded.json() : payload;
+        brokerChannel.send(MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Batch fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, Batch.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Thread daemon(String name, Runnable body) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
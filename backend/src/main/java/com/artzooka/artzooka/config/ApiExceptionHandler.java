@@ -0,0 +1,50 @@
+package com.artzooka.artzooka.config;
+
+import com.artzooka.artzooka.drawing.DrawingRejectedException;
+import com.artzooka.artzooka.player.InvalidTokenException;
+import com.artzooka.artzooka.support.Outcome;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+
+@RestControllerAdvice
+public class ApiExceptionHandler {
+    @ExceptionHandler(InvalidTokenException.class)
+    public ResponseEntity<?> invalidToken(InvalidTokenException e) {
+        return ResponseEntity.status(401).body(Map.of("error", e.getMessage()));
+    }
+
+    /**
+     * A session whose player left or was kicked since it connected. The ack carries the message's
+     * {@code request-id} and action so the client can settle the request that failed.
+     */
+    @MessageExceptionHandler(InvalidTokenException.class)
+    @SendToUser(destinations = "/queue/acks", broadcast = false)
+    public Map<String, Object> invalidSessionToken(InvalidTokenException e,
+                                                   @Header(name = SimpMessageHeaderAccessor.DESTINATION_HEADER, required = false) String destination,
+                                                   @Header(name = "request-id", required = false) String requestId) {
+        return Outcome.error(401, e.getMessage()).toAck(actionOf(destination), requestId);
+    }
+
+    @ExceptionHandler(DrawingRejectedException.class)
+    public ResponseEntity<?> drawingRejected(DrawingRejectedException e) {
+        return ResponseEntity.status(e.getStatus()).body(Map.of("error", e.getMessage()));
+    }
+
+    /** {@code /app/rooms/{code}/votes} acks as VOTE, {@code .../reactions} as REACTION. */
+    private static String actionOf(String destination) {
+        if (destination == null) return null;
+        String last = destination.substring(destination.lastIndexOf('/') + 1);
+        return switch (last) {
+            case "votes" -> "VOTE";
+            case "reactions" -> "REACTION";
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package com.artzooka.artzooka.config;
+
+import com.artzooka.artzooka.player.PlayerPrincipalArgumentResolver;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class AuthConfig implements WebMvcConfigurer {
+    private final PlayerPrincipalArgumentResolver playerPrincipalArgumentResolver;
+
+    public AuthConfig(PlayerPrincipalArgumentResolver playerPrincipalArgumentResolver) {
+        this.playerPrincipalArgumentResolver = playerPrincipalArgumentResolver;
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(playerPrincipalArgumentResolver);
+    }
+}
@@ -0,0 +1,87 @@
+package com.artzooka.artzooka.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subscriptions of the simple broker, looked up by exact destination: the per-user queues, and
+ * room topics while {@link RoomBroker} is not sharded. Every session's queues resolve to destinations of their own
+ * ({@code /queue/acks-user<session>}), so the default registry missed its cache on each session's
+ * first ack or prompt and scanned every subscription of every session for it; with 16,000 sessions
+ * a game start held its room lane, and its database connection, for seconds. Pattern subscriptions
+ * are still matched by a scan, over the pattern subscriptions only. STOMP selectors are not supported.
+ */
+public class QueueSubscriptionRegistry extends AbstractSubscriptionRegistry {
+    private static final MultiValueMap<String, String> NONE = new LinkedMultiValueMap<>();
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    /** Subscribers per exact destination; replaced, never changed, so a lookup can hand it out. */
+    private final Map<String, LinkedMultiValueMap<String, String>> byDestination = new ConcurrentHashMap<>();
+    /** Destination per subscription id, per session. */
+    private final Map<String, Map<String, String>> bySession = new ConcurrentHashMap<>();
+    /** Pattern per subscription id, per session, for the sessions that have any. */
+    private final Map<String, Map<String, String>> patterns = new ConcurrentHashMap<>();
+
+    @Override
+    protected void addSubscriptionInternal(String sessionId, String subscriptionId, String destination, Message<?> message) {
+        bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        if (pathMatcher.isPattern(destination)) {
+            patterns.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+            return;
+        }
+        byDestination.compute(destination, (d, subscribers) -> {
+            LinkedMultiValueMap<String, String> copy = subscribers == null ? new LinkedMultiValueMap<>() : subscribers.deepCopy();
+            copy.add(sessionId, subscriptionId);
+            return copy;
+        });
+    }
+
+    @Override
+    protected void removeSubscriptionInternal(String sessionId, String subscriptionId, Message<?> message) {
+        Map<String, String> subscriptions = bySession.get(sessionId);
+        String destination = subscriptions == null ? null : subscriptions.remove(subscriptionId);
+        if (destination != null) remove(sessionId, subscriptionId, destination);
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        Map<String, String> subscriptions = bySession.remove(sessionId);
+        if (subscriptions != null) subscriptions.forEach((subscriptionId, destination) -> remove(sessionId, subscriptionId, destination));
+    }
+
+    private void remove(String sessionId, String subscriptionId, String destination) {
+        Map<String, String> sessionPatterns = patterns.get(sessionId);
+        if (sessionPatterns != null && sessionPatterns.remove(subscriptionId) != null) {
+            if (sessionPatterns.isEmpty()) patterns.remove(sessionId, sessionPatterns);
+            return;
+        }
+        byDestination.computeIfPresent(destination, (d, subscribers) -> {
+            LinkedMultiValueMap<String, String> copy = subscribers.deepCopy();
+            List<String> ids = copy.get(sessionId);
+            if (ids != null) {
+                ids.remove(subscriptionId);
+                if (ids.isEmpty()) copy.remove(sessionId);
+            }
+            return copy.isEmpty() ? null : copy;
+        });
+    }
+
+    @Override
+    protected MultiValueMap<String, String> findSubscriptionsInternal(String destination, Message<?> message) {
+        LinkedMultiValueMap<String, String> subscribers = byDestination.get(destination);
+        if (patterns.isEmpty()) return subscribers != null ? subscribers : NONE;
+        LinkedMultiValueMap<String, String> matched = subscribers != null ? subscribers.deepCopy() : new LinkedMultiValueMap<>();
+        patterns.forEach((sessionId, sessionPatterns) -> sessionPatterns.forEach((subscriptionId, pattern) -> {
+            if (pathMatcher.match(pattern, destination)) matched.add(sessionId, subscriptionId);
+        }));
+        return matched;
+    }
+}
@@ -0,0 +1,543 @@
+package com.artzooka.artzooka.config;
+
+import com.artzooka.artzooka.event.EncodedEvent;
+import com.artzooka.artzooka.support.HashedWheelTimer;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Broker for {@code /topic/rooms/{code}}, in place of the simple broker. Subscriptions are kept per
+ * room, so a broadcast looks up its subscribers with one map hit instead of matching every
+ * subscription of every session. Rooms are sharded by code across a fixed number of single-threaded
+ * outbound lanes; a room's events are written to its sessions from one lane, in the order they were
+ * published. Lanes write through the WebSocket handler directly rather than the client outbound
+ * channel, whose pool would let two events of one room overtake each other.
+ * <p>
+ * SUBSCRIBE, UNSUBSCRIBE and DISCONNECT are seen as an interceptor on the client inbound channel;
+ * broadcasts arrive as a subscriber of the broker channel, where {@code SimpMessagingTemplate} sends.
+ * <p>
+ * Lanes do not write to sockets themselves. Each session has an outbox, drained in order by one
+ * writer at a time, so a socket on a bad link holds up its own frames and nobody else's. While
+ * frames wait, a newer event replaces a queued one it supersedes (see
+ * {@link EncodedEvent#coalesceKey()}), and it goes to the back of the queue, so numbers still arrive in order.
+ * An outbox over {@code outbox.budget} bytes sheds its reaction batches, oldest first; everything
+ * else is kept. Only a session that is over budget and whose current write has not returned in
+ * {@code outbox.stuck-after} is closed.
+ * <p>
+ * A write blocks its writer until the socket takes the frame, up to the transport's send timeout.
+ * A write that has not returned in {@code outbox.stall-after} no longer counts against the writer
+ * pool: the pool gets a spare thread until it returns, up to {@code spare-writers} at a time, so
+ * sessions on bad links tie up spares rather than the writers everyone else is waiting on.
+ * <p>
+ * An {@link EncodedEvent} payload is serialized once for all subscribers. Sessions that sent
+ * {@code accept-format: cbor} on CONNECT get its CBOR bytes as {@code application/octet-stream},
+ * which goes out as a binary frame, with an {@code event-format: cbor} header; everyone else gets
+ * the JSON bytes. SockJS only carries text, so SockJS clients should not ask for CBOR. Plain
+ * {@code byte[]} payloads, such as events relayed from other nodes, go to every session as they are.
+ * <p>
+ * Delivery is opt-in, with {@code artzooka.broker.sharded}, until its latency has been measured
+ * against the simple broker at a load both sustain. Off, the simple broker serves room topics too,
+ * with JSON only, and this class still tracks which rooms have subscribers here ({@link #rooms()}).
+ */
+@Component
+public class RoomBroker implements MessageHandler, ChannelInterceptor, WebSocketHandlerDecoratorFactory, SmartLifecycle {
+    public static final String PREFIX = "/topic/rooms/";
+    public static final String ACCEPT_FORMAT_HEADER = "accept-format";
+    public static final String EVENT_FORMAT_HEADER = "event-format";
+    public static final String CBOR = "cbor";
+    private static final Subscriber[] NONE = new Subscriber[0];
+    /** Frames a writer sends from one outbox before it lets other sessions' outboxes have a turn. */
+    private static final int WRITE_BATCH = 16;
+
+    /** One session's subscription to one room topic. */
+    record Subscriber(String sessionId, String subscriptionId, boolean cbor) { }
+
+    /** A broadcast waiting in one subscriber's outbox; {@code encoded} is null for plain payloads. */
+    private record Frame(Subscriber subscriber, Message<?> source, EncodedEvent encoded, int size) {
+        static Frame of(Subscriber subscriber, Message<?> source) {
+            Object payload = source.getPayload();
+            if (payload instanceof EncodedEvent encoded) return new Frame(subscriber, source, encoded, encoded.json().length);
+            return new Frame(subscriber, source, null, payload instanceof byte[] bytes ? bytes.length : 0);
+        }
+
+        String coalesceKey() {
+            return encoded == null ? null : encoded.coalesceKey();
+        }
+
+        boolean droppable() {
+            return encoded != null && encoded.droppable();
+        }
+
+        Frame coalesce(Frame older) {
+            EncodedEvent merged = encoded.coalesce(older.encoded);
+            return merged == encoded ? this : new Frame(subscriber, source, merged, merged.json().length);
+        }
+    }
+
+    private final SubscribableChannel brokerChannel;
+    private volatile MessageHandler outbound;
+    private final ThreadPoolExecutor[] lanes;
+    private final Map<String, Subscriber[]> rooms = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> roomsBySession = new ConcurrentHashMap<>();
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Map<String, WebSocketSession> sockets = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor writers;
+    private final int writerCount;
+    private final int spareWriters;
+    private final boolean sharded;
+    private final Set<Outbox> inFlight = ConcurrentHashMap.newKeySet();
+    private int stalledWrites;
+    private final HashedWheelTimer stalls;
+    private final long budget;
+    private final long stuckAfterNanos;
+    private final long stallAfterNanos;
+    private final DistributionSummary depth;
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private volatile boolean running;
+
+    public RoomBroker(@Lazy @Qualifier("brokerChannel") SubscribableChannel brokerChannel,
+                      @Lazy @Qualifier("subProtocolWebSocketHandler") MessageHandler outbound,
+                      MeterRegistry meterRegistry,
+                      @Value("${artzooka.broker.lanes:8}") int laneCount,
+                      @Value("${artzooka.broker.writers:16}") int writerCount,
+                      @Value("${artzooka.broker.outbox.budget:64KB}") DataSize budget,
+                      @Value("${artzooka.broker.outbox.stuck-after:10s}") Duration stuckAfter,
+                      @Value("${artzooka.broker.outbox.stall-after:500ms}") Duration stallAfter,
+                      @Value("${artzooka.broker.spare-writers:256}") int spareWriters,
+                      @Value("${artzooka.broker.sharded:false}") boolean sharded) {
+        if (laneCount <= 0) throw new IllegalArgumentException("lanes must be positive");
+        if (writerCount <= 0) throw new IllegalArgumentException("writers must be positive");
+        if (spareWriters < 0) throw new IllegalArgumentException("spare-writers must not be negative");
+        if (stallAfter.isNegative() || stallAfter.isZero()) throw new IllegalArgumentException("stall-after must be positive");
+        this.brokerChannel = brokerChannel;
+        this.outbound = outbound;
+        this.budget = budget.toBytes();
+        this.stuckAfterNanos = stuckAfter.toNanos();
+        this.stallAfterNanos = stallAfter.toNanos();
+        this.writerCount = writerCount;
+        this.spareWriters = spareWriters;
+        this.sharded = sharded;
+        AtomicInteger writerIds = new AtomicInteger();
+        // threads over the core size are spares; they end as soon as they are idle
+        this.writers = new ThreadPoolExecutor(writerCount, writerCount + spareWriters, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "room-broker-writer-" + writerIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.stalls = new HashedWheelTimer("room-broker-stalls", Math.max(1, stallAfterNanos / 4), TimeUnit.NANOSECONDS, 64);
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "room-broker-" + (i + 1);
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        Gauge.builder("artzooka.broker.rooms", rooms, Map::size)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.broker.pending", this, RoomBroker::pendingCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.broker.deliveries", deliveries, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.broker.outbox.sessions", outboxes, Map::size)
+                .register(meterRegistry);
+        // one series per socket would not survive 100k sockets; depth is recorded as a distribution instead
+        this.depth = DistributionSummary.builder("artzooka.broker.outbox.depth")
+                .baseUnit("frames")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.broker.frames", coalesced, LongAdder::sum)
+                .tag("outcome", "coalesced")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.broker.frames", dropped, LongAdder::sum)
+                .tag("outcome", "dropped")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.broker.outbox.closed", closed, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.broker.writers.spare", this, RoomBroker::spareCount)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        // the @Lazy proxy looks the handler up again on every call, which is most of a write's cost;
+        // by now it exists, so look it up once
+        if (outbound instanceof Advised lazy) {
+            try {
+                outbound = (MessageHandler) lazy.getTargetSource().getTarget();
+            } catch (Exception e) {
+                throw new IllegalStateException("outbound handler not available", e);
+            }
+        }
+        running = true;
+        if (!sharded) return;
+        brokerChannel.subscribe(this);
+        stalls.schedule(this::sweepStalls, stallAfterNanos / 2, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        brokerChannel.unsubscribe(this);
+        for (ExecutorService lane : lanes) lane.shutdown();
+        writers.shutdown();
+        stalls.close();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Tracks room subscriptions as frames come in from clients; the frames themselves pass unchanged. */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (type == null || sessionId == null) return message;
+        switch (type) {
+            case CONNECT -> {
+                if (CBOR.equalsIgnoreCase(SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(ACCEPT_FORMAT_HEADER))) {
+                    cborSessions.add(sessionId);
+                }
+            }
+            case SUBSCRIBE -> {
+                String destination = SimpMessageHeaderAccessor.getDestination(headers);
+                String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+                if (destination != null && subscriptionId != null && destination.startsWith(PREFIX)) {
+                    subscribe(destination.substring(PREFIX.length()), sessionId, subscriptionId);
+                }
+            }
+            case UNSUBSCRIBE -> {
+                String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+                if (subscriptionId != null) unsubscribe(sessionId, subscriptionId);
+            }
+            case DISCONNECT -> disconnect(sessionId);
+            default -> { }
+        }
+        return message;
+    }
+
+    /** A broadcast from the broker channel: queued on its room's lane, other destinations ignored. */
+    @Override
+    public void handleMessage(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return;
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(PREFIX)) return;
+        String code = destination.substring(PREFIX.length());
+        lanes[Math.floorMod(code.hashCode(), lanes.length)].execute(() -> deliver(code, message));
+    }
+
+    /** Keeps each open socket by session id, so an outbox that is stuck can close it. */
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                sockets.put(session.getId(), session);
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sockets.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /** Whether room topics are delivered here; if not, the simple broker delivers them. */
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /** Codes of the rooms that have subscribers on this node. */
+    public Set<String> rooms() {
+        return rooms.keySet();
+    }
+
+    public int subscriberCount(String code) {
+        return rooms.getOrDefault(code, NONE).length;
+    }
+
+    public int pendingCount() {
+        int pending = 0;
+        for (ThreadPoolExecutor lane : lanes) pending += lane.getQueue().size();
+        return pending;
+    }
+
+    /** Frames waiting in the session's outbox, 0 if it has none. */
+    public int queuedCount(String sessionId) {
+        Outbox outbox = outboxes.get(sessionId);
+        if (outbox == null) return 0;
+        synchronized (outbox) {
+            return outbox.frames.size();
+        }
+    }
+
+    /** Writer threads added in place of writes that stalled. */
+    public int spareCount() {
+        return writers.getCorePoolSize() - writerCount;
+    }
+
+    private void subscribe(String code, String sessionId, String subscriptionId) {
+        Subscriber subscriber = new Subscriber(sessionId, subscriptionId, cborSessions.contains(sessionId));
+        outboxes.computeIfAbsent(sessionId, Outbox::new);
+        roomsBySession.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>()).put(subscriptionId, code);
+        rooms.compute(code, (k, current) -> {
+            if (current == null) return new Subscriber[] { subscriber };
+            Subscriber[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscriber;
+            return next;
+        });
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = roomsBySession.get(sessionId);
+        if (subscriptions == null) return;
+        String code = subscriptions.remove(subscriptionId);
+        if (code != null) remove(code, sessionId, subscriptionId);
+    }
+
+    private void disconnect(String sessionId) {
+        cborSessions.remove(sessionId);
+        Outbox outbox = outboxes.remove(sessionId);
+        if (outbox != null) outbox.discard();
+        Map<String, String> subscriptions = roomsBySession.remove(sessionId);
+        if (subscriptions == null) return;
+        subscriptions.forEach((subscriptionId, code) -> remove(code, sessionId, subscriptionId));
+    }
+
+    private void remove(String code, String sessionId, String subscriptionId) {
+        rooms.computeIfPresent(code, (k, current) -> {
+            int at = -1;
+            for (int i = 0; i < current.length && at < 0; i++) {
+                if (current[i].sessionId().equals(sessionId) && current[i].subscriptionId().equals(subscriptionId)) at = i;
+            }
+            if (at < 0) return current;
+            if (current.length == 1) return null;
+            Subscriber[] next = new Subscriber[current.length - 1];
+            System.arraycopy(current, 0, next, 0, at);
+            System.arraycopy(current, at + 1, next, at, next.length - at);
+            return next;
+        });
+    }
+
+    private void deliver(String code, Message<?> message) {
+        for (Subscriber subscriber : rooms.getOrDefault(code, NONE)) {
+            Outbox outbox = outboxes.get(subscriber.sessionId());
+            if (outbox != null) outbox.offer(Frame.of(subscriber, message));
+        }
+    }
+
+    private void write(Frame frame) {
+        Subscriber subscriber = frame.subscriber();
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(subscriber.sessionId());
+        accessor.setSubscriptionId(subscriber.subscriptionId());
+        Object payload = frame.source().getPayload();
+        if (frame.encoded() != null && subscriber.cbor()) {
+            accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+            accessor.setNativeHeader(EVENT_FORMAT_HEADER, CBOR);
+            payload = frame.encoded().cbor();
+        } else if (frame.encoded() != null) {
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            payload = frame.encoded().json();
+        }
+        accessor.copyHeadersIfAbsent(frame.source().getHeaders());
+        accessor.setLeaveMutable(true);
+        try {
+            outbound.handleMessage(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+            deliveries.increment();
+        } catch (Throwable t) {
+            System.out.println("[ARTZOOKA] Room broadcast failed session=" + subscriber.sessionId() + " error=" + t);
+        }
+    }
+
+    /** Gives the pool a spare writer for every write that stalled since the last sweep. */
+    private void sweepStalls() {
+        if (!running) return;
+        long now = System.nanoTime();
+        for (Outbox outbox : inFlight) {
+            if (outbox.stall(now)) resizeWriters(1);
+        }
+        stalls.schedule(this::sweepStalls, stallAfterNanos / 2, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a write as stalled, or as returned after it had stalled, and sizes the pool to one spare
+     * per stalled write, so queued drains still get threads. Idle spares end once they are not needed.
+     */
+    private synchronized void resizeWriters(int delta) {
+        stalledWrites += delta;
+        writers.setCorePoolSize(writerCount + Math.min(stalledWrites, spareWriters));
+    }
+
+    private void close(String sessionId) {
+        outboxes.remove(sessionId);
+        closed.increment();
+        System.out.println("[ARTZOOKA] Closing stuck session=" + sessionId);
+        WebSocketSession socket = sockets.get(sessionId);
+        if (socket == null) return;
+        // closing can block on the same stalled socket; keep it off the lane
+        writers.execute(() -> {
+            try {
+                socket.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                System.out.println("[ARTZOOKA] Closing stuck session failed session=" + sessionId + " error=" + e);
+            }
+        });
+    }
+
+    /** Frames on their way to one session, offered by room lanes and written by one writer at a time. Guarded by itself. */
+    private final class Outbox {
+        final String sessionId;
+        final ArrayDeque<Frame> frames = new ArrayDeque<>();
+        long bytes;
+        boolean draining;
+        boolean discarded;
+        boolean writing;
+        boolean stalled;
+        long writeStarted;
+
+        Outbox(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        void offer(Frame frame) {
+            boolean stuck;
+            boolean schedule;
+            synchronized (this) {
+                if (discarded) return;
+                String key = frame.coalesceKey();
+                if (key != null) {
+                    // at most one frame per key is ever queued
+                    for (Iterator<Frame> it = frames.iterator(); it.hasNext(); ) {
+                        Frame queued = it.next();
+                        if (key.equals(queued.coalesceKey())) {
+                            it.remove();
+                            bytes -= queued.size();
+                            frame = frame.coalesce(queued);
+                            coalesced.increment();
+                            break;
+                        }
+                    }
+                }
+                frames.addLast(frame);
+                bytes += frame.size();
+                for (Iterator<Frame> it = frames.iterator(); bytes > budget && it.hasNext(); ) {
+                    Frame queued = it.next();
+                    if (queued.droppable()) {
+                        it.remove();
+                        bytes -= queued.size();
+                        dropped.increment();
+                    }
+                }
+                depth.record(frames.size());
+                stuck = bytes > budget && writing && System.nanoTime() - writeStarted > stuckAfterNanos;
+                if (stuck) discard();
+                schedule = !stuck && !draining;
+                if (schedule) draining = true;
+            }
+            if (stuck) {
+                close(sessionId);
+            } else if (schedule) {
+                writers.execute(this::drain);
+            }
+        }
+
+        /** Marks the current write as stalled, once; true if it just became so. */
+        synchronized boolean stall(long now) {
+            if (!writing || stalled || now - writeStarted <= stallAfterNanos) return false;
+            stalled = true;
+            return true;
+        }
+
+        /** The current write returned; true if it had stalled. */
+        synchronized boolean returned() {
+            writing = false;
+            boolean was = stalled;
+            stalled = false;
+            return was;
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            frames.clear();
+            bytes = 0;
+        }
+
+        void drain() {
+            for (int written = 0; ; written++) {
+                Frame frame;
+                synchronized (this) {
+                    if (written == WRITE_BATCH && !frames.isEmpty()) {
+                        writers.execute(this::drain);
+                        return;
+                    }
+                    frame = frames.pollFirst();
+                    if (frame == null) {
+                        draining = false;
+                        return;
+                    }
+                    bytes -= frame.size();
+                    writing = true;
+                    writeStarted = System.nanoTime();
+                }
+                inFlight.add(this);
+                try {
+                    write(frame);
+                } finally {
+                    inFlight.remove(this);
+                    if (returned()) resizeWriters(-1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.artzooka.artzooka.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives the simple broker a {@link QueueSubscriptionRegistry}. The default registry caches the
+ * subscribers of a destination after a scan of every subscription of every session, and each
+ * player session has its own ack and prompt queues, so every first message to a session paid the
+ * scan however large the cache. Room topics reach this registry only while {@link RoomBroker} is not sharded.
+ */
+@Component
+public class SimpleBrokerTuning implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof SimpleBrokerMessageHandler broker) {
+            broker.setSubscriptionRegistry(new QueueSubscriptionRegistry());
+        }
+        return bean;
+    }
+}
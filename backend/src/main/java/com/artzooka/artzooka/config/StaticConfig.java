@@ -1,6 +1,8 @@
 package com.artzooka.artzooka.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -8,10 +10,18 @@ import java.nio.file.Path;
 
 @Configuration
 public class StaticConfig implements WebMvcConfigurer {
+    private final String uploadsDir;
+
+    public StaticConfig(@Value("${artzooka.uploads.dir:uploads}") String uploadsDir) {
+        this.uploadsDir = uploadsDir;
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        Path uploadsDir = Path.of("uploads").toAbsolutePath().normalize();
+        Path uploadsDir = Path.of(this.uploadsDir).toAbsolutePath().normalize();
         registry.addResourceHandler("/static/**")
-                .addResourceLocations("file:" + uploadsDir.toString() + "/");
+                .addResourceLocations("file:" + uploadsDir.toString() + "/")
+                // files under /static could be overwritten in place before keys were hashed; revalidate them
+                .setCacheControl(CacheControl.noCache());
     }
 }
@@ -1,22 +1,99 @@
 package com.artzooka.artzooka.config;
 
+import com.artzooka.artzooka.player.PlayerSessionArgumentResolver;
+import com.artzooka.artzooka.player.PlayerSessionInterceptor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolver;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * STOMP over a raw WebSocket at {@value #NATIVE_ENDPOINT}, with SockJS at {@code /ws} as the
+ * fallback for clients that cannot open one. permessage-deflate is negotiated by the container on
+ * both whenever the client offers it. Heartbeats are sent by the server every
+ * {@code heartbeat.server} and expected from the client every {@code heartbeat.client}.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+public static final String NATIVE_ENDPOINT = "/ws-native";
+public static final String SOCKJS_ENDPOINT = "/ws";
+
+private final PlayerSessionInterceptor playerSessionInterceptor;
+private final PlayerSessionArgumentResolver playerSessionArgumentResolver;
+private final RoomBroker roomBroker;
+private final DataSize sendBufferSize;
+private final Duration sendTimeout;
+private final Duration serverHeartbeat;
+private final Duration clientHeartbeat;
+private final TaskScheduler heartbeatScheduler;
+
+public WebSocketConfig(PlayerSessionInterceptor playerSessionInterceptor,
+                       PlayerSessionArgumentResolver playerSessionArgumentResolver,
+                       RoomBroker roomBroker,
+                       @Value("${artzooka.broker.send-buffer-size:512KB}") DataSize sendBufferSize,
+                       @Value("${artzooka.broker.send-timeout:10s}") Duration sendTimeout,
+                       @Value("${artzooka.websocket.heartbeat.server:10s}") Duration serverHeartbeat,
+                       @Value("${artzooka.websocket.heartbeat.client:10s}") Duration clientHeartbeat,
+                       @Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler heartbeatScheduler) {
+this.playerSessionInterceptor = playerSessionInterceptor;
+this.playerSessionArgumentResolver = playerSessionArgumentResolver;
+this.roomBroker = roomBroker;
+this.sendBufferSize = sendBufferSize;
+this.sendTimeout = sendTimeout;
+this.serverHeartbeat = serverHeartbeat;
+this.clientHeartbeat = clientHeartbeat;
+this.heartbeatScheduler = heartbeatScheduler;
+}
+
 @Override
 public void registerStompEndpoints(StompEndpointRegistry registry) {
-registry.addEndpoint("/ws").setAllowedOriginPatterns("*").withSockJS();
+registry.addEndpoint(NATIVE_ENDPOINT).setAllowedOriginPatterns("*");
+registry.addEndpoint(SOCKJS_ENDPOINT).setAllowedOriginPatterns("*").withSockJS();
 }
 
 @Override
 public void configureMessageBroker(MessageBrokerRegistry registry) {
-registry.enableSimpleBroker("/topic", "/queue");
+// room topics go through RoomBroker when it is sharded; the simple broker always has the per-user queues
+String[] prefixes = roomBroker.isSharded() ? new String[] { "/queue" } : new String[] { "/topic", "/queue" };
+registry.enableSimpleBroker(prefixes)
+        .setHeartbeatValue(new long[] { serverHeartbeat.toMillis(), clientHeartbeat.toMillis() })
+        .setTaskScheduler(heartbeatScheduler);
 registry.setApplicationDestinationPrefixes("/app");
+// clients drop a numbered event that arrives after a higher one; the outbound pool must not reorder them
+registry.setPreservePublishOrder(!roomBroker.isSharded());
+}
+
+@Override
+public void configureClientInboundChannel(ChannelRegistration registration) {
+registration.interceptors(playerSessionInterceptor, roomBroker);
+}
+
+/**
+ * A socket that falls this far behind, in bytes or time, is closed instead of stalling its lane.
+ * With a sharded {@link RoomBroker}, room topics are held back earlier, in its per-session outboxes.
+ */
+@Override
+public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+registration.addDecoratorFactory(roomBroker);
+registration.setSendBufferSizeLimit((int) sendBufferSize.toBytes());
+registration.setSendTimeLimit((int) sendTimeout.toMillis());
+}
+
+@Override
+public void addArgumentResolvers(List<HandlerMethodArgumentResolver> argumentResolvers) {
+argumentResolvers.add(playerSessionArgumentResolver);
 }
 }
@@ -0,0 +1,66 @@
+package com.artzooka.artzooka.drawing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The bytes of one stored drawing, written out without copying them onto the heap.
+ */
+public interface DrawingContent {
+    long length();
+
+    String contentType();
+
+    /**
+     * Content hash carried by the key (suffixed with the variant for derived images), or null for
+     * keys written before keys were hashed.
+     */
+    String hash();
+
+    /** Writes {@code count} bytes starting at {@code from}; the caller has checked the range. */
+    void writeTo(WritableByteChannel out, long from, long count) throws IOException;
+
+    default void writeTo(WritableByteChannel out) throws IOException {
+        writeTo(out, 0, length());
+    }
+
+    /** A range of a file, sent with {@link FileChannel#transferTo}. */
+    static DrawingContent ofFile(Path file, long offset, long length, String contentType, String hash) {
+        return new DrawingContent() {
+            @Override public long length() { return length; }
+            @Override public String contentType() { return contentType; }
+            @Override public String hash() { return hash; }
+
+            @Override
+            public void writeTo(WritableByteChannel out, long from, long count) throws IOException {
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long sent = 0;
+                    while (sent < count) {
+                        long n = in.transferTo(offset + from + sent, count - sent, out);
+                        if (n <= 0) break;
+                        sent += n;
+                    }
+                }
+            }
+        };
+    }
+
+    /** A slice of a memory-mapped file. */
+    static DrawingContent ofBuffer(ByteBuffer buffer, String contentType, String hash) {
+        return new DrawingContent() {
+            @Override public long length() { return buffer.remaining(); }
+            @Override public String contentType() { return contentType; }
+            @Override public String hash() { return hash; }
+
+            @Override
+            public void writeTo(WritableByteChannel out, long from, long count) throws IOException {
+                ByteBuffer view = buffer.slice((int) from, (int) count);
+                while (view.hasRemaining()) out.write(view);
+            }
+        };
+    }
+}
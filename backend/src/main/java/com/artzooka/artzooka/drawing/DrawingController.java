@@ -1,22 +1,30 @@
 package com.artzooka.artzooka.drawing;
 
-import com.artzooka.artzooka.game.Game;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.GamePhaseService;
 import com.artzooka.artzooka.game.GameRepository;
-import com.artzooka.artzooka.game.GameParticipantRepository;
-import com.artzooka.artzooka.player.Player;
+import com.artzooka.artzooka.game.GameSnapshot;
+import com.artzooka.artzooka.player.CurrentPlayer;
+import com.artzooka.artzooka.player.PlayerPrincipal;
 import com.artzooka.artzooka.player.PlayerRepository;
+import com.artzooka.artzooka.room.RoomMailbox;
 import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.support.AfterCommit;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.*;
 import java.util.UUID;
 
@@ -27,168 +35,203 @@ public class DrawingController {
     private final RoomService roomService;
     private final PlayerRepository playerRepository;
     private final GameRepository gameRepository;
-    private final GameParticipantRepository gameParticipantRepository;
+    private final CurrentGameResolver currentGameResolver;
+    private final GamePhaseService gamePhaseService;
+    private final CompletionTracker completionTracker;
     private final DrawingRepository drawingRepository;
-    private final SimpMessagingTemplate messagingTemplate;
-
-    public DrawingController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, GameParticipantRepository gameParticipantRepository, DrawingRepository drawingRepository, SimpMessagingTemplate messagingTemplate) {
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomMailbox roomMailbox;
+    private final TransactionTemplate transactionTemplate;
+    private final DrawingStore drawingStore;
+    private final DrawingVariants drawingVariants;
+    private final GalleryManifests galleryManifests;
+
+    public DrawingController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, CurrentGameResolver currentGameResolver, GamePhaseService gamePhaseService, CompletionTracker completionTracker, DrawingRepository drawingRepository, RoomEventPublisher roomEventPublisher, RoomMailbox roomMailbox, TransactionTemplate transactionTemplate, DrawingStore drawingStore, DrawingVariants drawingVariants, GalleryManifests galleryManifests) {
         this.roomService = roomService;
         this.playerRepository = playerRepository;
         this.gameRepository = gameRepository;
-        this.gameParticipantRepository = gameParticipantRepository;
+        this.currentGameResolver = currentGameResolver;
+        this.gamePhaseService = gamePhaseService;
+        this.completionTracker = completionTracker;
         this.drawingRepository = drawingRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomMailbox = roomMailbox;
+        this.transactionTemplate = transactionTemplate;
+        this.drawingStore = drawingStore;
+        this.drawingVariants = drawingVariants;
+        this.galleryManifests = galleryManifests;
     }
 
+    /**
+     * Multipart upload, kept for older clients. The part is read through the same streaming path.
+     */
     @PostMapping
-    @Transactional
-    public ResponseEntity<?> uploadDrawing(@PathVariable String code, @RequestParam("token") String token, @RequestParam("file") MultipartFile file) throws IOException {
-        var roomOpt = roomService.findByCode(code);
+    public ResponseEntity<?> uploadDrawing(@PathVariable String code, @CurrentPlayer PlayerPrincipal player, @RequestParam("file") MultipartFile file) throws IOException {
+        if (file.getSize() > drawingStore.getMaxBytes()) return tooLarge();
+        try (InputStream in = file.getInputStream()) {
+            return submit(code, player, in);
+        }
+    }
+
+    /**
+     * Raw upload: the request body is the PNG or WebP image and is streamed straight to storage.
+     */
+    @PutMapping(consumes = {"image/png", "image/webp"})
+    public ResponseEntity<?> streamDrawing(@PathVariable String code, @CurrentPlayer PlayerPrincipal player, HttpServletRequest request) throws IOException {
+        if (request.getContentLengthLong() > drawingStore.getMaxBytes()) return tooLarge();
+        return submit(code, player, request.getInputStream());
+    }
+
+    private ResponseEntity<?> submit(String code, PlayerPrincipal player, InputStream body) throws IOException {
+        // cheap checks from the registry first, so a stale client does not get to write a file
+        var roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        if (!player.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+        if (!player.roomId().equals(roomOpt.get().id())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+        UUID gameId = gameOpt.get().id();
+
+        // the file is written before the room lane is entered, so a slow upload holds neither the lane nor a database connection
+        String filePath = drawingStore.store(code, gameId, player.playerId(), Channels.newChannel(body));
+        String mediaBase = mediaBase();
+        ResponseEntity<?> response;
+        try {
+            response = roomMailbox.call(code, () -> transactionTemplate.execute(tx -> recordDrawing(code, player, gameId, filePath, mediaBase)));
+        } catch (RuntimeException e) {
+            releaseUnused(gameId, filePath);
+            throw e;
+        }
+        if (!response.getStatusCode().is2xxSuccessful()) releaseUnused(gameId, filePath);
+        return response;
+    }
 
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
+    private ResponseEntity<?> recordDrawing(String code, PlayerPrincipal player, UUID gameId, String filePath, String mediaBase) {
+        var roomOpt = roomService.findSnapshot(code);
+        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty() || !gameOpt.get().id().equals(gameId)) {
+            return ResponseEntity.status(409).body(Map.of("error", "Game is no longer running"));
+        }
+        GameSnapshot game = gameOpt.get();
+        CompletionTracker.Completion completion = completionTracker.of(game);
 
         // Check if player has already submitted for this game
-        Drawing existingDrawing = drawingRepository.findFirstByGame_IdAndPlayer_Id(game.getId(), player.getId());
+        Drawing existingDrawing = drawingRepository.findFirstByGame_IdAndPlayer_Id(game.id(), player.playerId());
         if (existingDrawing != null) {
-            System.out.println("[ARTZOOKA] Player " + player.getName() + " attempted duplicate submission - blocked");
+            System.out.println("[ARTZOOKA] Player " + player.name() + " attempted duplicate submission - blocked");
             return ResponseEntity.badRequest().body(Map.of("error", "Drawing already submitted for this game", "alreadySubmitted", true));
         }
 
-        Path uploadsRoot = Path.of("uploads");
-        Path relativeDir = Path.of(code, game.getId().toString());
-        Path absoluteDir = uploadsRoot.resolve(relativeDir);
-        Files.createDirectories(absoluteDir);
-        String filename = player.getId() + "_" + Objects.requireNonNullElse(file.getOriginalFilename(), "drawing.png");
-        Path dest = absoluteDir.resolve(filename);
-        
-        // Handle file replacement robustly by using atomic operations
-        // First, write to a temporary file, then move it to the final location
-        Path tempFile = dest.getParent().resolve(dest.getFileName() + ".tmp." + UUID.randomUUID().toString());
-        try {
-            Files.copy(file.getInputStream(), tempFile);
-            Files.move(tempFile, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        } finally {
-            // Clean up temp file if it still exists (in case of failure)
-            Files.deleteIfExists(tempFile);
-        }
-
         // Create new drawing record (we already checked it doesn't exist)
         Drawing drawing = new Drawing();
-        drawing.setGame(game);
-        drawing.setPlayer(player);
-        drawing.setFilePath(relativeDir.resolve(filename).toString());
+        drawing.setGame(gameRepository.getReferenceById(game.id()));
+        drawing.setPlayer(playerRepository.getReferenceById(player.playerId()));
+        drawing.setFilePath(filePath);
         drawingRepository.save(drawing);
-        // notify room subscribers to refresh gallery
-        Map<String, Object> evt = Map.of(
-            "type", "DRAWING_UPLOADED",
-            "roomCode", code,
-            "gameId", game.getId(),
-            "playerId", player.getId()
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        System.out.println("[ARTZOOKA] Drawing uploaded room=" + code + " player=" + player.getName());
-
-        // If all active game participants submitted at least once, broadcast DISCUSS_STARTED to move everyone to voting
-        int uniquePlayersSubmitted = (int) drawingRepository.countDistinctPlayersByGame_Id(game.getId());
-        int totalActiveParticipants = (int) gameParticipantRepository.countByGame_IdAndActiveTrue(game.getId());
-        
-        if (totalActiveParticipants > 0 && uniquePlayersSubmitted >= totalActiveParticipants) {
-            // Update room status to VOTING
-            var room = roomOpt.get();
-            room.setStatus("VOTING");
-            roomService.save(room);
-            
-            Map<String, Object> discuss = new java.util.LinkedHashMap<>();
-            discuss.put("type", "DISCUSS_STARTED");
-            discuss.put("roomCode", code);
-            discuss.put("serverTime", System.currentTimeMillis());
-            discuss.put("voteSeconds", 60);
-            messagingTemplate.convertAndSend("/topic/rooms/" + code, discuss);
+        completion.submitted(player.playerId());
+        // thumbnails are made in the background once the row is visible; the gallery links the original until then
+        AfterCommit.run(() -> drawingVariants.submit(filePath));
+        galleryChanged(code, roomOpt.get().id(), game.id(), player.playerId(), mediaBase);
+        System.out.println("[ARTZOOKA] Drawing uploaded room=" + code + " player=" + player.name());
+
+        // If all active game participants submitted, broadcast DISCUSS_STARTED to move everyone to voting;
+        // a no-op once the room is past DRAWING
+        if (completion.allSubmittedWith(player.playerId())) {
+            gamePhaseService.startVoting(roomOpt.get(), game);
         }
         return ResponseEntity.ok(Map.of("ok", true));
     }
 
+    /**
+     * Keys are content hashes, so a resubmission of the same image lands on the key of the committed
+     * drawing; only release the key if no row points at it.
+     */
+    private void releaseUnused(UUID gameId, String filePath) {
+        if (!drawingRepository.existsByGame_IdAndFilePath(gameId, filePath)) drawingStore.delete(filePath);
+    }
+
+    /**
+     * Rebuilds the game's gallery once the change commits and sends it to the room with
+     * DRAWING_UPLOADED, so clients can show it without listing again.
+     */
+    private void galleryChanged(String code, UUID roomId, UUID gameId, UUID playerId, String mediaBase) {
+        AfterCommit.run(() -> {
+            GalleryManifest gallery = galleryManifests.rebuild(roomId, gameId);
+            roomEventPublisher.publish(new RoomEvent.DrawingUploaded(code, gameId, playerId, gallery.version(), gallery.drawings(mediaBase)));
+        });
+    }
+
+    /** Scheme, host and context path of the current request, that media paths are made absolute with. */
+    private static String mediaBase() {
+        return ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+    }
+
+    private ResponseEntity<?> tooLarge() {
+        return ResponseEntity.status(413).body(Map.of("error", "Drawing is larger than " + drawingStore.getMaxBytes() + " bytes"));
+    }
+
     @DeleteMapping
-    @Transactional
-    public ResponseEntity<?> unsubmitDrawing(@PathVariable String code, @RequestParam("token") String token) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        if (!player.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
-
-        drawingRepository.deleteByGame_IdAndPlayer_Id(game.getId(), player.getId());
-
-        Map<String, Object> evt = Map.of(
-                "type", "DRAWING_UPLOADED",
-                "roomCode", code,
-                "gameId", game.getId(),
-                "playerId", player.getId()
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        return ResponseEntity.ok(Map.of("ok", true));
+    public ResponseEntity<?> unsubmitDrawing(@PathVariable String code, @CurrentPlayer PlayerPrincipal player) {
+        String mediaBase = mediaBase();
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            if (!player.roomId().equals(roomOpt.get().id())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+            var gameOpt = currentGameResolver.resolve(roomOpt.get());
+            if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+            GameSnapshot game = gameOpt.get();
+            CompletionTracker.Completion completion = completionTracker.of(game);
+
+            Drawing existing = drawingRepository.findFirstByGame_IdAndPlayer_Id(game.id(), player.playerId());
+            if (existing != null) {
+                drawingRepository.delete(existing);
+                completion.unsubmitted(player.playerId());
+                String key = existing.getFilePath();
+                AfterCommit.run(() -> drawingStore.delete(key));
+            }
+
+            galleryChanged(code, roomOpt.get().id(), game.id(), player.playerId(), mediaBase);
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 
+    /**
+     * The current game's gallery, from {@link GalleryManifests}. The ETag is the manifest version, so
+     * a client that has the gallery gets a 304.
+     */
     @GetMapping
-    @Transactional(readOnly = true)
     public ResponseEntity<?> listDrawings(@PathVariable String code) {
-        var roomOpt = roomService.findByCode(code);
+        var roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
-        var list = new ArrayList<Map<String,Object>>();
-        for (Drawing d : drawingRepository.findByGame_Id(game.getId())) {
-            String relative = Path.of(d.getFilePath()).toString();
-            if (relative.startsWith("uploads/")) {
-                relative = relative.substring("uploads/".length());
-            }
-            String absoluteUrl = ServletUriComponentsBuilder.fromCurrentContextPath()
-                .path("/static/")
-                .path(relative)
-                .toUriString();
-            list.add(Map.of(
-                "playerId", d.getPlayer().getId(),
-                "filePath", absoluteUrl
-            ));
-        }
-        return ResponseEntity.ok(list);
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+        GalleryManifest gallery = galleryManifests.get(roomOpt.get().id(), gameOpt.get().id());
+        return ResponseEntity.ok()
+            .eTag(gallery.etag())
+            .cacheControl(CacheControl.noCache())
+            .body(gallery.drawings(mediaBase()));
     }
 
     @GetMapping("/status")
     @Transactional(readOnly = true)
-    public ResponseEntity<?> getSubmissionStatus(@PathVariable String code, @RequestParam("token") String token) {
-        var roomOpt = roomService.findByCode(code);
+    public ResponseEntity<?> getSubmissionStatus(@PathVariable String code, @CurrentPlayer PlayerPrincipal player) {
+        var roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        if (!player.getRoom().getId().equals(roomOpt.get().getId())) {
+        if (!player.roomId().equals(roomOpt.get().id())) {
             return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
         }
 
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+        GameSnapshot game = gameOpt.get();
 
         // Check if player has submitted for current game
-        Drawing existingDrawing = drawingRepository.findFirstByGame_IdAndPlayer_Id(game.getId(), player.getId());
+        Drawing existingDrawing = drawingRepository.findFirstByGame_IdAndPlayer_Id(game.id(), player.playerId());
         boolean hasSubmitted = existingDrawing != null;
 
         Map<String, Object> response = new HashMap<>();
         response.put("hasSubmitted", hasSubmitted);
-        response.put("gameId", game.getId());
+        response.put("gameId", game.id());
         response.put("submittedAt", hasSubmitted ? existingDrawing.getSubmittedAt() : null);
         return ResponseEntity.ok(response);
     }
@@ -0,0 +1,111 @@
+package com.artzooka.artzooka.drawing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Format and size checks shared by the drawing stores, applied while the upload streams to disk.
+ */
+final class DrawingFormat {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int HEADER_BYTES = 12;
+    private static final int HASH_BYTES = 16;
+    /** Content hash as it appears in keys: 128 bits of SHA-256, lower-case hex. */
+    static final Pattern HASH = Pattern.compile("[0-9a-f]{" + HASH_BYTES * 2 + "}");
+    /** Last path element of a hashed key or variant file: {@code ..._hash.png}, {@code ...-hash.png}, {@code hash.thumb.png}. */
+    private static final Pattern VERSIONED_NAME =
+            Pattern.compile("(?:.*[_-])?(" + HASH.pattern() + ")(?:\\.([a-z]+))?\\.(?:png|webp)");
+    // digests keep their scratch buffer between uses, and looking one up is not free either
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private DrawingFormat() { }
+
+    /**
+     * Copies the body into {@code out} from its current position and returns the file extension
+     * matching its signature. The first bytes are checked against the PNG and WebP signatures, then
+     * the rest goes across with {@link FileChannel#transferFrom}, stopping as soon as it passes
+     * {@code maxBytes}.
+     */
+    static String copyChecked(ReadableByteChannel body, FileChannel out, long maxBytes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && body.read(header) >= 0) { }
+        header.flip();
+        String extension = extensionOf(header);
+        if (extension == null) throw new DrawingRejectedException(415, "Drawing must be a PNG or WebP image");
+
+        long start = out.position();
+        long size = out.write(header);
+        while (size <= maxBytes) {
+            // ask for one byte past the limit so an oversized body is detected without reading it all
+            long n = out.transferFrom(body, start + size, maxBytes + 1 - size);
+            if (n <= 0) break;
+            size += n;
+        }
+        if (size > maxBytes) {
+            throw new DrawingRejectedException(413, "Drawing is larger than " + maxBytes + " bytes");
+        }
+        return extension;
+    }
+
+    /**
+     * Hashes {@code length} bytes of the file from {@code position} through a read-only mapping,
+     * so the image is not copied onto the heap.
+     */
+    static String hash(FileChannel file, long position, long length) throws IOException {
+        MessageDigest sha256 = SHA_256.get();
+        sha256.reset();
+        if (length > 0) sha256.update(file.map(FileChannel.MapMode.READ_ONLY, position, length));
+        byte[] digest = sha256.digest();
+        return HexFormat.of().formatHex(digest, 0, HASH_BYTES);
+    }
+
+    /**
+     * The content hash a key or file name carries, or null for names written before keys were hashed.
+     */
+    static String hashOf(String key) {
+        Matcher m = VERSIONED_NAME.matcher(key.substring(key.lastIndexOf('/') + 1));
+        return m.matches() ? m.group(1) : null;
+    }
+
+    /**
+     * What identifies the bytes behind a key or file name: the content hash, suffixed with the
+     * variant for derived images. Null if the name carries no hash.
+     */
+    static String versionOf(String key) {
+        Matcher m = VERSIONED_NAME.matcher(key.substring(key.lastIndexOf('/') + 1));
+        if (!m.matches()) return null;
+        return m.group(2) == null ? m.group(1) : m.group(1) + "-" + m.group(2);
+    }
+
+    static String contentType(String key) {
+        return key.endsWith(".webp") ? "image/webp" : "image/png";
+    }
+
+    private static String extensionOf(ByteBuffer header) {
+        if (header.remaining() < HEADER_BYTES) return null;
+        boolean png = true;
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (header.get(i) != PNG_SIGNATURE[i]) png = false;
+        }
+        if (png) return ".png";
+        // RIFF <size> WEBP
+        if (header.get(0) == 'R' && header.get(1) == 'I' && header.get(2) == 'F' && header.get(3) == 'F'
+                && header.get(8) == 'W' && header.get(9) == 'E' && header.get(10) == 'B' && header.get(11) == 'P') {
+            return ".webp";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package com.artzooka.artzooka.drawing;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves drawing images by store key ({@code /media/{key}}), whichever {@link DrawingStore} is
+ * configured. Keys carry a hash of the content and are never rewritten, so hashed keys are sent
+ * as {@code immutable} for a year with the hash as a strong ETag: browsers and the nginx cache keep
+ * them, and a revalidation is answered with 304 before the store is touched. Single byte ranges are
+ * honoured; the bytes go from the file or its mapping straight to the response.
+ */
+@RestController
+@CrossOrigin(origins = "*")
+public class DrawingMediaController {
+    private static final String PREFIX = "/media/";
+    private static final String IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable().getHeaderValue();
+    private static final String REVALIDATE = CacheControl.noCache().getHeaderValue();
+
+    private final DrawingStore drawingStore;
+
+    public DrawingMediaController(DrawingStore drawingStore) {
+        this.drawingStore = drawingStore;
+    }
+
+    @GetMapping(PREFIX + "**")
+    public void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String key = request.getRequestURI().substring(request.getContextPath().length() + PREFIX.length());
+        Optional<DrawingContent> found = drawingStore.open(key);
+        if (found.isEmpty()) {
+            response.sendError(404);
+            return;
+        }
+        DrawingContent content = found.get();
+        String etag = content.hash() == null ? null : "\"" + content.hash() + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, etag == null ? REVALIDATE : IMMUTABLE);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (etag != null && new ServletWebRequest(request, response).checkNotModified(etag)) return;
+
+        long length = content.length();
+        long from = 0;
+        long count = length;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        // a range against a different version than the client has must be answered in full
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+            // several ranges are allowed to be answered with the whole image, which is what a gallery wants anyway
+            if (ranges.size() == 1) {
+                HttpRange only = ranges.get(0);
+                try {
+                    from = only.getRangeStart(length);
+                    count = only.getRangeEnd(length) - from + 1;
+                    if (from >= length || count <= 0) throw new IllegalArgumentException("Range not satisfiable");
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(416);
+                    return;
+                }
+                response.setStatus(206);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + from + "-" + (from + count - 1) + "/" + length);
+            }
+        }
+        response.setContentType(content.contentType());
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod())) return;
+        content.writeTo(Channels.newChannel(response.getOutputStream()), from, count);
+    }
+}
@@ -0,0 +1,15 @@
+package com.artzooka.artzooka.drawing;
+
+/**
+ * An upload that is not a drawing we accept: wrong format or over the size limit.
+ */
+public class DrawingRejectedException extends RuntimeException {
+    private final int status;
+
+    public DrawingRejectedException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() { return status; }
+}
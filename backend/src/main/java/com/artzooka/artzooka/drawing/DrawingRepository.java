@@ -6,13 +6,18 @@ import java.util.List;
 import java.util.UUID;
 
 public interface DrawingRepository extends JpaRepository<Drawing, UUID> {
+    /** What the gallery needs of a drawing, read without loading the player. */
+    record GalleryRow(UUID playerId, String filePath) { }
+
     List<Drawing> findByGame_Id(UUID gameId);
+
+    @Query("SELECT new com.artzooka.artzooka.drawing.DrawingRepository$GalleryRow(d.player.id, d.filePath) " +
+            "FROM Drawing d WHERE d.game.id = ?1 ORDER BY d.submittedAt, d.id")
+    List<GalleryRow> findGalleryRows(UUID gameId);
     boolean existsByGame_IdAndPlayer_Id(UUID gameId, UUID playerId);
+    boolean existsByGame_IdAndFilePath(UUID gameId, String filePath);
     long countByGame_Id(UUID gameId);
     
-    @Query("SELECT COUNT(DISTINCT d.player.id) FROM Drawing d WHERE d.game.id = ?1")
-    long countDistinctPlayersByGame_Id(UUID gameId);
-    
     Drawing findFirstByGame_IdAndPlayer_Id(UUID gameId, UUID playerId);
     void deleteByGame_IdAndPlayer_Id(UUID gameId, UUID playerId);
 }
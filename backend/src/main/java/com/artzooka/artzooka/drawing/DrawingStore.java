@@ -0,0 +1,39 @@
+package com.artzooka.artzooka.drawing;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Where drawing images live. A store hands out an opaque key on write, which is what
+ * {@code drawings.file_path} holds, and serves the bytes back for that key. Keys are relative,
+ * URL-safe paths, so they can be used as-is under {@code /media/}.
+ *
+ * <p>Selected with {@code artzooka.uploads.store}: {@code files} (one file per drawing, the default)
+ * or {@code segments} (one append-only file per game).
+ */
+public interface DrawingStore {
+
+    /**
+     * Streams an upload into the store, checking format and size on the way, and returns its key.
+     *
+     * @throws DrawingRejectedException if the body is not a PNG or WebP image or is too large
+     */
+    String store(String code, UUID gameId, UUID playerId, ReadableByteChannel body) throws IOException;
+
+    Optional<DrawingContent> open(String key) throws IOException;
+
+    /**
+     * Releases a drawing whose row is gone or was never committed. Best effort.
+     */
+    void delete(String key);
+
+    /**
+     * The file under the uploads root that holds this key, relative to the root. Retention uses it
+     * to tell referenced files from orphans.
+     */
+    String fileOf(String key);
+
+    long getMaxBytes();
+}
@@ -0,0 +1,99 @@
+package com.artzooka.artzooka.drawing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves drawings stored one file per row into their game's segment when the app runs with
+ * {@code artzooka.uploads.store=segments}. Runs once on a background thread after startup, in
+ * batches by drawing id; each row is switched with a compare-and-set on its old key, so a row
+ * unsubmitted in the meantime is left alone. Old files are not deleted here: once unreferenced
+ * they are picked up by the retention sweep after its grace period, so a gallery that has just
+ * loaded the old URL can still fetch it.
+ */
+@Component
+@ConditionalOnProperty(name = "artzooka.uploads.store", havingValue = "segments")
+public class DrawingStoreMigration {
+    private static final String NEXT_BATCH =
+            "SELECT id, player_id, file_path FROM drawings WHERE id > ? AND file_path NOT LIKE '%/" +
+            SegmentDrawingStore.SEGMENT_NAME + "/%' ORDER BY id LIMIT ?";
+    private static final String SWITCH_KEY =
+            "UPDATE drawings SET file_path = ? WHERE id = ? AND file_path = ?";
+
+    private final SegmentDrawingStore segmentStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final GalleryManifests galleryManifests;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public DrawingStoreMigration(SegmentDrawingStore segmentStore,
+                                 JdbcTemplate jdbcTemplate,
+                                 GalleryManifests galleryManifests,
+                                 @Value("${artzooka.uploads.migrate:true}") boolean enabled,
+                                 @Value("${artzooka.uploads.migrate-batch-size:200}") int batchSize) {
+        this.segmentStore = segmentStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.galleryManifests = galleryManifests;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    private record Row(UUID id, UUID playerId, String key) { }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        Thread thread = new Thread(this::migrate, "drawing-store-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Returns the number of rows moved into segments. */
+    public int migrate() {
+        int moved = 0;
+        int missing = 0;
+        // Postgres orders uuids as unsigned bytes, so the nil uuid sorts first
+        UUID cursor = new UUID(0, 0);
+        while (true) {
+            List<Row> batch = jdbcTemplate.query(NEXT_BATCH,
+                    (rs, i) -> new Row(rs.getObject("id", UUID.class), rs.getObject("player_id", UUID.class), rs.getString("file_path")),
+                    cursor, batchSize);
+            if (batch.isEmpty()) break;
+            List<Object[]> switches = new ArrayList<>();
+            for (Row row : batch) {
+                if (segmentStore.isSegmentKey(row.key())) continue;
+                String key = row.key().startsWith("uploads/") ? row.key().substring("uploads/".length()) : row.key();
+                try {
+                    switches.add(new Object[] {segmentStore.importFile(key, row.playerId()), row.id(), row.key()});
+                } catch (IOException e) {
+                    missing++;
+                }
+            }
+            for (int[] counts : jdbcTemplate.batchUpdate(SWITCH_KEY, switches, switches.size(),
+                    (ps, args) -> {
+                        ps.setString(1, (String) args[0]);
+                        ps.setObject(2, args[1]);
+                        ps.setString(3, (String) args[2]);
+                    })) {
+                for (int count : counts) moved += count;
+            }
+            // cached galleries still link the old keys, whose files retention is free to remove now
+            if (!switches.isEmpty()) galleryManifests.clear();
+            if (batch.size() < batchSize) break;
+            cursor = batch.get(batch.size() - 1).id();
+        }
+        if (moved > 0 || missing > 0) {
+            System.out.println("[ARTZOOKA] Moved " + moved + " drawings into segments, " + missing + " files missing");
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,274 @@
+package com.artzooka.artzooka.drawing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Produces the smaller images the gallery shows, off the upload path. A committed drawing is queued
+ * here; a fixed pool of workers (one per core by default) decodes it once and writes a PNG per
+ * {@link Variant}, scaled down to the variant's width, next to the original as
+ * {@code {code}/{gameId}/{contentHash}.{variant}.png}. Variant names carry the content hash, so they
+ * are served with the same immutable caching as the originals and retention keeps them with them.
+ *
+ * <p>The queue is bounded. When it is full the drawing is dropped rather than waited for, and the
+ * gallery links the original until a later listing queues it again; an upload never waits on
+ * a transcode.
+ */
+@Component
+public class DrawingVariants {
+    public enum Variant {
+        THUMB("thumb", 320),
+        MEDIUM("medium", 640);
+
+        private final String suffix;
+        private final int width;
+
+        Variant(String suffix, int width) {
+            this.suffix = suffix;
+            this.width = width;
+        }
+
+        public String suffix() { return suffix; }
+        public int width() { return width; }
+    }
+
+    private static final int MAX_FAILED = 10_000;
+
+    static {
+        // decode from memory; the default disk cache would add a temp file per image
+        ImageIO.setUseCache(false);
+    }
+
+    private final DrawingStore drawingStore;
+    private final Path uploadsRoot;
+    private final ThreadPoolExecutor workers;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    /** Keys that could not be decoded (WebP, damaged files); not queued again by listings. */
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final Timer transcodeTime;
+    private final Counter rejected;
+    private final Counter failures;
+    private final List<Consumer<String>> readyListeners = new CopyOnWriteArrayList<>();
+
+    public DrawingVariants(DrawingStore drawingStore,
+                           MeterRegistry meterRegistry,
+                           @Value("${artzooka.uploads.dir:uploads}") String uploadsDir,
+                           @Value("${artzooka.thumbnails.threads:0}") int threads,
+                           @Value("${artzooka.thumbnails.queue-capacity:256}") int queueCapacity) {
+        this.drawingStore = drawingStore;
+        this.uploadsRoot = Path.of(uploadsDir).toAbsolutePath().normalize();
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger ids = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "drawing-variants-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    // transcodes are background work; let request threads have the cores first
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.transcodeTime = Timer.builder("artzooka.thumbnails.transcode")
+                .description("Time to decode a drawing and write all of its variants")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("artzooka.thumbnails.rejected")
+                .description("Drawings not queued because the transcode queue was full")
+                .register(meterRegistry);
+        this.failures = Counter.builder("artzooka.thumbnails.failed")
+                .description("Drawings whose variants could not be produced")
+                .register(meterRegistry);
+        Gauge.builder("artzooka.thumbnails.queue.depth", workers, e -> e.getQueue().size())
+                .description("Drawings waiting for a transcode worker")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the variants of a stored drawing. Returns at once; if the queue is full the drawing
+     * keeps being served at its original size.
+     */
+    public void submit(String key) {
+        if (DrawingFormat.hashOf(key) == null || failed.contains(key) || !pending.add(key)) return;
+        try {
+            workers.execute(() -> {
+                try {
+                    transcode(key);
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            rejected.increment();
+        }
+    }
+
+    /**
+     * Keys of the variants of {@code key} that exist. A drawing with variants missing is queued
+     * again, so a drop under load or a restart mid-queue heals on the next listing.
+     */
+    public Map<Variant, String> variantsOf(String key) {
+        Map<Variant, String> found = new EnumMap<>(Variant.class);
+        String hash = DrawingFormat.hashOf(key);
+        if (hash == null) return found;
+        for (Variant variant : Variant.values()) {
+            String variantKey = variantKey(key, hash, variant);
+            Path file = FileSystemDrawingStore.resolve(uploadsRoot, variantKey);
+            if (file != null && Files.isRegularFile(file)) found.put(variant, variantKey);
+        }
+        if (found.size() < Variant.values().length) submit(key);
+        return found;
+    }
+
+    /** Calls {@code listener} with the key of each drawing whose variants have just been written. */
+    public void onReady(Consumer<String> listener) {
+        readyListeners.add(listener);
+    }
+
+    /** Files the variants of {@code key} are (or will be) written to, relative to the uploads directory. */
+    public List<String> variantFilesOf(String key) {
+        String hash = DrawingFormat.hashOf(key);
+        if (hash == null) return List.of();
+        return Arrays.stream(Variant.values()).map(v -> variantKey(key, hash, v)).toList();
+    }
+
+    /** Drawings queued or being transcoded. */
+    public int inFlight() {
+        return pending.size();
+    }
+
+    int queueDepth() {
+        return workers.getQueue().size();
+    }
+
+    private String variantKey(String key, String hash, Variant variant) {
+        String file = drawingStore.fileOf(key);
+        int slash = file.lastIndexOf('/');
+        String dir = slash < 0 ? "" : file.substring(0, slash + 1);
+        return dir + hash + "." + variant.suffix() + ".png";
+    }
+
+    private void transcode(String key) {
+        long started = System.nanoTime();
+        try {
+            byte[] bytes = read(key);
+            // ImageIO reads PNG; WebP originals have no decoder here and keep being served as they are
+            BufferedImage original = bytes == null ? null : ImageIO.read(new ByteArrayInputStream(bytes));
+            if (original == null) {
+                failed(key);
+                return;
+            }
+            String hash = DrawingFormat.hashOf(key);
+            for (Variant variant : Variant.values()) {
+                Path target = FileSystemDrawingStore.resolve(uploadsRoot, variantKey(key, hash, variant));
+                if (target == null || Files.isRegularFile(target)) continue;
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.length);
+                if (!ImageIO.write(scale(original, variant.width()), "png", encoded)) throw new IOException("No PNG writer");
+                // smoothing can make a busy drawing compress worse; a variant is never larger than what it replaces
+                write(encoded.size() < bytes.length ? encoded.toByteArray() : bytes, target);
+            }
+            readyListeners.forEach(listener -> listener.accept(key));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[ARTZOOKA] Variants failed for " + key + ": " + e.getMessage());
+            failed(key);
+        } finally {
+            transcodeTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private byte[] read(String key) throws IOException {
+        Optional<DrawingContent> content = drawingStore.open(key);
+        if (content.isEmpty()) return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) content.get().length());
+        content.get().writeTo(Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Scales down by halving, then once to the target width, so each bilinear step samples every
+     * source pixel; a single step from 900 to 320 pixels would alias the strokes.
+     */
+    static BufferedImage scale(BufferedImage source, int targetWidth) {
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width <= targetWidth) return redraw(current, width, height, type);
+        while (width > targetWidth) {
+            int nextWidth = Math.max(width / 2, targetWidth);
+            int nextHeight = Math.max(1, (int) Math.round((double) source.getHeight() * nextWidth / source.getWidth()));
+            current = redraw(current, nextWidth, nextHeight, type);
+            width = nextWidth;
+            height = nextHeight;
+        }
+        return current;
+    }
+
+    private static BufferedImage redraw(BufferedImage source, int width, int height, int type) {
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static void write(byte[] bytes, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp." + UUID.randomUUID());
+        try {
+            Files.write(temp, bytes, StandardOpenOption.CREATE_NEW);
+            // readers only ever see a complete variant, or none
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void failed(String key) {
+        failures.increment();
+        if (failed.size() >= MAX_FAILED) failed.clear();
+        failed.add(key);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,100 @@
+package com.artzooka.artzooka.drawing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * One file per drawing under {@code uploads/{code}/{gameId}/}; the key is that file's path
+ * relative to the uploads root and is named {@code {playerId}_{contentHash}}, so the bytes behind a
+ * key never change. The body is written next to its final name and renamed into place, so a
+ * rejected or cut-off upload never becomes visible.
+ */
+@Component
+@ConditionalOnProperty(name = "artzooka.uploads.store", havingValue = "files", matchIfMissing = true)
+public class FileSystemDrawingStore implements DrawingStore {
+    private final Path uploadsRoot;
+    private final long maxBytes;
+
+    public FileSystemDrawingStore(@Value("${artzooka.uploads.dir:uploads}") String uploadsDir,
+                                  @Value("${artzooka.uploads.max-size:2MB}") DataSize maxSize) {
+        this.uploadsRoot = Path.of(uploadsDir).toAbsolutePath().normalize();
+        this.maxBytes = maxSize.toBytes();
+    }
+
+    @Override
+    public long getMaxBytes() { return maxBytes; }
+
+    @Override
+    public String store(String code, UUID gameId, UUID playerId, ReadableByteChannel body) throws IOException {
+        Path dir = uploadsRoot.resolve(Path.of(code, gameId.toString()));
+        Path tempFile = dir.resolve(playerId + ".tmp." + UUID.randomUUID());
+        // every player of a game after the first finds the directory there; checking is much cheaper than creating
+        if (!Files.isDirectory(dir)) Files.createDirectories(dir);
+        try {
+            String extension;
+            String hash;
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                extension = DrawingFormat.copyChecked(body, out, maxBytes);
+                hash = DrawingFormat.hash(out, 0, out.size());
+            }
+            // the same player sending the same bytes again lands on the same name, which is harmless
+            Path dest = dir.resolve(playerId + "_" + hash + extension);
+            Files.move(tempFile, dest, StandardCopyOption.ATOMIC_MOVE);
+            return uploadsRoot.relativize(dest).toString();
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public Optional<DrawingContent> open(String key) throws IOException {
+        return openFile(uploadsRoot, key);
+    }
+
+    @Override
+    public void delete(String key) {
+        deleteFile(uploadsRoot, key);
+    }
+
+    @Override
+    public String fileOf(String key) {
+        return key;
+    }
+
+    /** Serves a whole file under the uploads root; shared with stores that still read one-file keys. */
+    static Optional<DrawingContent> openFile(Path uploadsRoot, String key) throws IOException {
+        Path file = resolve(uploadsRoot, key);
+        if (file == null || !Files.isRegularFile(file)) return Optional.empty();
+        return Optional.of(DrawingContent.ofFile(file, 0, Files.size(file), DrawingFormat.contentType(key),
+                DrawingFormat.versionOf(key)));
+    }
+
+    static void deleteFile(Path uploadsRoot, String key) {
+        Path file = resolve(uploadsRoot, key);
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("[ARTZOOKA] Could not delete upload " + key + ": " + e.getMessage());
+        }
+    }
+
+    /** Resolves a key under the root, refusing anything that would escape it. */
+    static Path resolve(Path uploadsRoot, String key) {
+        Path file = uploadsRoot.resolve(key).normalize();
+        return file.startsWith(uploadsRoot) && !file.equals(uploadsRoot) ? file : null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.artzooka.artzooka.drawing;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The drawings of one game as the gallery shows them, with media URLs relative to the server root.
+ * Immutable: a submission change, or variants landing, builds a new manifest under a higher
+ * {@link #version()}, which is what the ETag of the listing is made of. The rows it was built from
+ * are kept with the version they were read under, so variants landing need no query.
+ */
+public final class GalleryManifest {
+    public record Entry(UUID playerId, String filePath, String thumbnailUrl, String mediumUrl) {
+        Entry withBase(String base) {
+            return new Entry(playerId, base + filePath, base + thumbnailUrl, base + mediumUrl);
+        }
+    }
+
+    private record Rendered(String base, List<Entry> drawings) { }
+
+    private final UUID gameId;
+    private final long version;
+    private final long read;
+    private final List<DrawingRepository.GalleryRow> rows;
+    private final List<Entry> drawings;
+    private volatile Rendered rendered;
+
+    GalleryManifest(UUID gameId, long version, long read, List<DrawingRepository.GalleryRow> rows, List<Entry> drawings) {
+        this.gameId = gameId;
+        this.version = version;
+        this.read = read;
+        this.rows = List.copyOf(rows);
+        this.drawings = List.copyOf(drawings);
+    }
+
+    public UUID gameId() { return gameId; }
+    public long version() { return version; }
+    public List<Entry> drawings() { return drawings; }
+
+    /** The version taken before {@link #rows()} were read. */
+    long read() { return read; }
+    List<DrawingRepository.GalleryRow> rows() { return rows; }
+
+    public String etag() {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * The entries with absolute URLs under {@code base}. Every client of a deployment asks with the
+     * same base, so the list for the last one is kept and a listing costs no string building.
+     */
+    public List<Entry> drawings(String base) {
+        Rendered current = rendered;
+        if (current != null && current.base().equals(base)) return current.drawings();
+        List<Entry> absolute = drawings.stream().map(e -> e.withBase(base)).toList();
+        rendered = new Rendered(base, absolute);
+        return absolute;
+    }
+}
@@ -0,0 +1,147 @@
+package com.artzooka.artzooka.drawing;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One {@link GalleryManifest} per room, for the game the room is playing. A manifest is built with
+ * a single query when a submission changes (and on a miss), so the listings every client makes
+ * after a DRAWING_UPLOADED are map lookups.
+ *
+ * <p>Versions come from one counter seeded with the startup time in microseconds, so they only grow,
+ * also across restarts and games. A build takes a version before it reads, and the cache keeps the
+ * manifest whose rows were read last: a listing that read before a submission committed can never
+ * replace the manifest built after it. Variants are looked up on disk before the manifest is
+ * installed, never under the map's lock for the room. Variants landing later re-link the cached rows
+ * without a query, so a submission costs exactly one read.
+ */
+@Component
+public class GalleryManifests {
+    static final int MAX_WAITING = 10_000;
+
+    private final DrawingRepository drawingRepository;
+    private final DrawingVariants drawingVariants;
+    private final Map<UUID, GalleryManifest> manifests = new ConcurrentHashMap<>();
+    /**
+     * Drawings listed without all of their variants, and the room whose manifest links the original,
+     * oldest first. Guarded by itself; when full the oldest goes, whose room then keeps the original
+     * until its next build.
+     */
+    private final Map<String, UUID> waitingForVariants = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UUID> eldest) {
+            return size() > MAX_WAITING;
+        }
+    };
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+
+    public GalleryManifests(DrawingRepository drawingRepository, DrawingVariants drawingVariants, MeterRegistry meterRegistry) {
+        this.drawingRepository = drawingRepository;
+        this.drawingVariants = drawingVariants;
+        drawingVariants.onReady(this::variantsReady);
+        FunctionCounter.builder("artzooka.gallery.lookups", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.gallery.lookups", builds, LongAdder::sum)
+                .tag("result", "build")
+                .register(meterRegistry);
+        Gauge.builder("artzooka.gallery.size", manifests, Map::size)
+                .register(meterRegistry);
+    }
+
+    public GalleryManifest get(UUID roomId, UUID gameId) {
+        GalleryManifest cached = manifests.get(roomId);
+        if (cached != null && cached.gameId().equals(gameId)) {
+            hits.increment();
+            return cached;
+        }
+        return rebuild(roomId, gameId);
+    }
+
+    /**
+     * Builds the manifest again after a submission change. Call once the change has committed.
+     */
+    public GalleryManifest rebuild(UUID roomId, UUID gameId) {
+        builds.increment();
+        long read = versions.incrementAndGet();
+        List<DrawingRepository.GalleryRow> rows = drawingRepository.findGalleryRows(gameId);
+        List<GalleryManifest.Entry> entries = link(roomId, rows);
+        return manifests.compute(roomId, (id, current) -> current != null && current.read() > read
+                ? current : new GalleryManifest(gameId, versions.incrementAndGet(), read, rows, entries));
+    }
+
+    public void evict(UUID roomId) {
+        manifests.remove(roomId);
+    }
+
+    /** Drops every manifest, for when stored keys change under them (a store migration). */
+    public void clear() {
+        manifests.clear();
+    }
+
+    /** Whether the manifest of some room links the original of {@code key} until its variants land. */
+    boolean isWaitingForVariants(String key) {
+        synchronized (waitingForVariants) {
+            return waitingForVariants.containsKey(key);
+        }
+    }
+
+    /**
+     * Links each row's variants where they exist. A drawing with variants missing is remembered for
+     * the room before looking, so variants that land in between are either seen here or re-linked.
+     */
+    private List<GalleryManifest.Entry> link(UUID roomId, List<DrawingRepository.GalleryRow> rows) {
+        List<GalleryManifest.Entry> entries = new ArrayList<>();
+        for (DrawingRepository.GalleryRow row : rows) {
+            String original = mediaPath(row.filePath());
+            synchronized (waitingForVariants) {
+                waitingForVariants.put(row.filePath(), roomId);
+            }
+            Map<DrawingVariants.Variant, String> variants = drawingVariants.variantsOf(row.filePath());
+            if (variants.size() == DrawingVariants.Variant.values().length) {
+                synchronized (waitingForVariants) {
+                    waitingForVariants.remove(row.filePath(), roomId);
+                }
+            }
+            // a variant not made yet (or dropped under load) falls back to the original
+            String medium = variants.containsKey(DrawingVariants.Variant.MEDIUM)
+                    ? mediaPath(variants.get(DrawingVariants.Variant.MEDIUM)) : original;
+            String thumbnail = variants.containsKey(DrawingVariants.Variant.THUMB)
+                    ? mediaPath(variants.get(DrawingVariants.Variant.THUMB)) : medium;
+            entries.add(new GalleryManifest.Entry(row.playerId(), original, thumbnail, medium));
+        }
+        return entries;
+    }
+
+    private void variantsReady(String key) {
+        UUID roomId;
+        synchronized (waitingForVariants) {
+            roomId = waitingForVariants.remove(key);
+        }
+        if (roomId == null) return;
+        // switch the cached listing over from the original to the smaller images; its rows are still current.
+        // Installed only over the manifest it was linked from: one built meanwhile is linked again.
+        for (GalleryManifest cached; (cached = manifests.get(roomId)) != null; ) {
+            List<GalleryManifest.Entry> entries = link(roomId, cached.rows());
+            GalleryManifest relinked = new GalleryManifest(cached.gameId(), versions.incrementAndGet(), cached.read(), cached.rows(), entries);
+            if (manifests.replace(roomId, cached, relinked)) return;
+        }
+    }
+
+    private static String mediaPath(String key) {
+        return "/media/" + (key.startsWith("uploads/") ? key.substring("uploads/".length()) : key);
+    }
+}
@@ -0,0 +1,174 @@
+package com.artzooka.artzooka.drawing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packs each game's drawings into one append-only segment, {@code uploads/{code}/{gameId}/drawings.seg},
+ * instead of a file per player. Every record is a small header (magic, player id, length) followed
+ * by the image, so a segment can be scanned and re-indexed on its own; the offset index the app
+ * reads from is the key itself, {@code {code}/{gameId}/drawings.seg/{offset}-{length}-{contentHash}.png},
+ * stored in {@code drawings.file_path}.
+ *
+ * <p>An upload is streamed to a temp file first (the size is only known at the end, and a slow
+ * client must not hold the segment), then appended under the segment's lock with a file-to-file
+ * transfer. Reads are served from a memory-mapped view of the segment; the mappings of recently
+ * read segments are kept, so a gallery of 8 images costs one mapping.
+ *
+ * <p>Space of an unsubmitted drawing stays in its segment until retention removes the game.
+ * One-file keys written by {@link FileSystemDrawingStore} are still read, so rows can be moved over
+ * by {@link DrawingStoreMigration} while the app runs.
+ */
+@Component
+@ConditionalOnProperty(name = "artzooka.uploads.store", havingValue = "segments")
+public class SegmentDrawingStore implements DrawingStore {
+    static final String SEGMENT_NAME = "drawings.seg";
+    private static final Pattern SEGMENT_KEY =
+            Pattern.compile("(.+/" + Pattern.quote(SEGMENT_NAME) + ")/(\\d+)-(\\d+)(?:-(" + DrawingFormat.HASH.pattern() + "))?(\\.png|\\.webp)");
+    private static final int RECORD_MAGIC = 0x415A4431; // "AZD1"
+    private static final int RECORD_HEADER = 4 + 16 + 8;
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAPPED_SEGMENTS = 256;
+
+    private final Path uploadsRoot;
+    private final long maxBytes;
+    private final Object[] appendLocks = new Object[LOCK_STRIPES];
+    private final Map<Path, MappedByteBuffer> mappings = new LinkedHashMap<>(MAPPED_SEGMENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, MappedByteBuffer> eldest) {
+            return size() > MAPPED_SEGMENTS;
+        }
+    };
+
+    public SegmentDrawingStore(@Value("${artzooka.uploads.dir:uploads}") String uploadsDir,
+                               @Value("${artzooka.uploads.max-size:2MB}") DataSize maxSize) {
+        this.uploadsRoot = Path.of(uploadsDir).toAbsolutePath().normalize();
+        this.maxBytes = maxSize.toBytes();
+        for (int i = 0; i < LOCK_STRIPES; i++) appendLocks[i] = new Object();
+    }
+
+    @Override
+    public long getMaxBytes() { return maxBytes; }
+
+    @Override
+    public String store(String code, UUID gameId, UUID playerId, ReadableByteChannel body) throws IOException {
+        Path dir = uploadsRoot.resolve(Path.of(code, gameId.toString()));
+        // every player of a game after the first finds the directory there; checking is much cheaper than creating
+        if (!Files.isDirectory(dir)) Files.createDirectories(dir);
+        Path tempFile = dir.resolve(playerId + ".tmp." + UUID.randomUUID());
+        try (FileChannel temp = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            String extension = DrawingFormat.copyChecked(body, temp, maxBytes);
+            return append(dir.resolve(SEGMENT_NAME), playerId, temp, temp.size(), extension);
+        }
+    }
+
+    /**
+     * Appends a drawing stored under a one-file key to its game's segment and returns the new key.
+     */
+    public String importFile(String key, UUID playerId) throws IOException {
+        Path file = FileSystemDrawingStore.resolve(uploadsRoot, key);
+        if (file == null || !Files.isRegularFile(file)) throw new FileNotFoundException(key);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            String extension = key.endsWith(".webp") ? ".webp" : ".png";
+            return append(file.resolveSibling(SEGMENT_NAME), playerId, in, in.size(), extension);
+        }
+    }
+
+    public boolean isSegmentKey(String key) {
+        return SEGMENT_KEY.matcher(key).matches();
+    }
+
+    @Override
+    public Optional<DrawingContent> open(String key) throws IOException {
+        Matcher m = SEGMENT_KEY.matcher(key);
+        if (!m.matches()) return FileSystemDrawingStore.openFile(uploadsRoot, key);
+        Path segment = FileSystemDrawingStore.resolve(uploadsRoot, m.group(1));
+        if (segment == null) return Optional.empty();
+        long offset = Long.parseLong(m.group(2));
+        long length = Long.parseLong(m.group(3));
+        MappedByteBuffer mapped = mapping(segment, offset + length);
+        if (mapped == null) return Optional.empty();
+        ByteBuffer slice = mapped.slice((int) offset, (int) length).asReadOnlyBuffer();
+        return Optional.of(DrawingContent.ofBuffer(slice, DrawingFormat.contentType(key), DrawingFormat.versionOf(key)));
+    }
+
+    @Override
+    public void delete(String key) {
+        // a record cannot be cut out of a segment; its space goes when the game does
+        if (!isSegmentKey(key)) FileSystemDrawingStore.deleteFile(uploadsRoot, key);
+    }
+
+    @Override
+    public String fileOf(String key) {
+        Matcher m = SEGMENT_KEY.matcher(key);
+        return m.matches() ? m.group(1) : key;
+    }
+
+    private String append(Path segment, UUID playerId, FileChannel source, long length, String extension) throws IOException {
+        String hash = DrawingFormat.hash(source, 0, length);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER)
+                .putInt(RECORD_MAGIC)
+                .putLong(playerId.getMostSignificantBits())
+                .putLong(playerId.getLeastSignificantBits())
+                .putLong(length)
+                .flip();
+        long offset;
+        synchronized (appendLocks[Math.floorMod(segment.hashCode(), LOCK_STRIPES)]) {
+            try (FileChannel out = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // a record torn by a crash is left behind; nothing points into it
+                long start = out.size();
+                out.position(start);
+                while (header.hasRemaining()) out.write(header);
+                offset = start + RECORD_HEADER;
+                long copied = 0;
+                while (copied < length) {
+                    long n = source.transferTo(copied, length - copied, out);
+                    if (n <= 0) throw new IOException("Short copy into " + segment);
+                    copied += n;
+                    out.position(offset + copied);
+                }
+            }
+        }
+        return uploadsRoot.relativize(segment) + "/" + offset + "-" + length + "-" + hash + extension;
+    }
+
+    /** A read-only mapping of the segment that covers at least {@code end} bytes. */
+    private MappedByteBuffer mapping(Path segment, long end) throws IOException {
+        synchronized (mappings) {
+            MappedByteBuffer mapped = mappings.get(segment);
+            if (mapped != null && mapped.capacity() >= end) return mapped;
+        }
+        if (!Files.isRegularFile(segment)) return null;
+        MappedByteBuffer mapped;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < end) return null;
+            mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        synchronized (mappings) {
+            // the segment only grows, so keep whichever mapping is larger
+            MappedByteBuffer current = mappings.get(segment);
+            if (current == null || current.capacity() < mapped.capacity()) mappings.put(segment, mapped);
+        }
+        return mapped;
+    }
+}
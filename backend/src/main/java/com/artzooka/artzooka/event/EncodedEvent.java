@@ -0,0 +1,82 @@
+package com.artzooka.artzooka.event;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * A room event serialized once, shared by every session it is delivered to. The JSON form is
+ * encoded up front; the CBOR form only when the first session that negotiated CBOR needs it, and
+ * then kept for the rest. Events kept in the {@link RoomEventLog} carry their number, in the
+ * bytes as {@code seq} and here; others have 0.
+ * <p>
+ * While events wait for a slow session, a newer event can stand in for an older one with the same
+ * {@link #coalesceKey()}: the latest vote count of a target, the latest gallery of a game, or the
+ * sum of two reaction batches. Reactions are also the only events that may be dropped outright.
+ */
+public final class EncodedEvent {
+    private final RoomEvent event;
+    private final long seq;
+    private final byte[] json;
+    private final ObjectWriter jsonWriter;
+    private final ObjectWriter cborWriter;
+    private volatile byte[] cbor;
+
+    EncodedEvent(RoomEvent event, long seq, byte[] json, ObjectWriter jsonWriter, ObjectWriter cborWriter) {
+        this.event = event;
+        this.seq = seq;
+        this.json = json;
+        this.jsonWriter = jsonWriter;
+        this.cborWriter = cborWriter;
+    }
+
+    public RoomEvent event() { return event; }
+
+    public long seq() { return seq; }
+
+    /** The JSON bytes; shared, callers must not modify them. */
+    public byte[] json() { return json; }
+
+    /** The CBOR bytes; shared, callers must not modify them. */
+    public byte[] cbor() {
+        byte[] encoded = cbor;
+        if (encoded == null) {
+            // a race encodes twice and keeps either copy; both are identical
+            try {
+                encoded = cborWriter.writeValueAsBytes(event);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+            cbor = encoded;
+        }
+        return encoded;
+    }
+
+    /** What this event supersedes when both are queued for one session, or null if it supersedes nothing. */
+    public String coalesceKey() {
+        if (event instanceof RoomEvent.VoteDelta e) return "VOTE_DELTA:" + e.gameId() + ":" + e.targetId();
+        if (event instanceof RoomEvent.DrawingUploaded e) return "DRAWING_UPLOADED:" + e.gameId();
+        if (event instanceof RoomEvent.ReactionBatch e) return "REACTION_BATCH:" + e.gameId();
+        return null;
+    }
+
+    /** Whether a session short of room may go without this event. */
+    public boolean droppable() {
+        return event instanceof RoomEvent.ReactionBatch;
+    }
+
+    /**
+     * The event to send in place of {@code older}, which has the same {@link #coalesceKey()} and
+     * has not gone out yet: this one, or for reactions one batch with both counts, numbered as this.
+     */
+    public EncodedEvent coalesce(EncodedEvent older) {
+        if (!(event instanceof RoomEvent.ReactionBatch batch) || !(older.event instanceof RoomEvent.ReactionBatch earlier)) {
+            return this;
+        }
+        RoomEvent.ReactionBatch merged = earlier.plus(batch);
+        try {
+            return new EncodedEvent(merged, seq, jsonWriter.writeValueAsBytes(merged), jsonWriter, cborWriter);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
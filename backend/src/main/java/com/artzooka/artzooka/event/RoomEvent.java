@@ -0,0 +1,120 @@
+package com.artzooka.artzooka.event;
+
+import com.artzooka.artzooka.drawing.GalleryManifest;
+import com.artzooka.artzooka.game.VoteTally;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonAppend;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Everything broadcast on {@code /topic/rooms/{code}}. The {@code type} property is written from
+ * each record's type name, followed by its components in declaration order, so the JSON matches
+ * what clients have always received. Events numbered by the {@link RoomEventLog} end with a
+ * {@code seq} property, written from the serializer's {@code seq} attribute.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(RoomEvent.PlayerJoined.class),
+        @JsonSubTypes.Type(RoomEvent.AvatarUpdated.class),
+        @JsonSubTypes.Type(RoomEvent.PlayerLeft.class),
+        @JsonSubTypes.Type(RoomEvent.SettingsUpdated.class),
+        @JsonSubTypes.Type(RoomEvent.RoomReset.class),
+        @JsonSubTypes.Type(RoomEvent.GameCountdown.class),
+        @JsonSubTypes.Type(RoomEvent.GameStarted.class),
+        @JsonSubTypes.Type(RoomEvent.PlayerLeftGame.class),
+        @JsonSubTypes.Type(RoomEvent.DrawingUploaded.class),
+        @JsonSubTypes.Type(RoomEvent.DiscussStarted.class),
+        @JsonSubTypes.Type(RoomEvent.VoteDelta.class),
+        @JsonSubTypes.Type(RoomEvent.ShowResults.class),
+        @JsonSubTypes.Type(RoomEvent.GameEnded.class),
+        @JsonSubTypes.Type(RoomEvent.ReactionBatch.class),
+        @JsonSubTypes.Type(RoomEvent.Resync.class)
+})
+@JsonAppend(attrs = @JsonAppend.Attr(RoomEvent.SEQ))
+public sealed interface RoomEvent {
+    String SEQ = "seq";
+
+    String roomCode();
+
+    /** A player as shown in the lobby; no session token or other secrets. */
+    record Member(UUID id, String name, @JsonProperty("isAdmin") boolean isAdmin, String avatar) { }
+
+    @JsonTypeName("PLAYER_JOINED")
+    record PlayerJoined(String roomCode, Member player) implements RoomEvent { }
+
+    @JsonTypeName("AVATAR_UPDATED")
+    record AvatarUpdated(String roomCode, Member player) implements RoomEvent { }
+
+    /** A player left the room or was kicked. */
+    @JsonTypeName("PLAYER_LEFT")
+    record PlayerLeft(String roomCode, UUID playerId) implements RoomEvent { }
+
+    @JsonTypeName("SETTINGS_UPDATED")
+    record SettingsUpdated(String roomCode, int drawSeconds, int voteSeconds, int maxPlayers) implements RoomEvent { }
+
+    @JsonTypeName("ROOM_RESET")
+    record RoomReset(String roomCode) implements RoomEvent { }
+
+    @JsonTypeName("GAME_COUNTDOWN")
+    record GameCountdown(String roomCode, long startAt, int seconds) implements RoomEvent { }
+
+    /** Sent to the whole room, so it carries the common prompt only. */
+    @JsonTypeName("GAME_STARTED")
+    record GameStarted(String roomCode,
+                       UUID gameId,
+                       String promptCommon,
+                       long serverTime,
+                       int drawSeconds,
+                       int voteSeconds,
+                       long voteStartTime,
+                       List<String> activeGameParticipants) implements RoomEvent { }
+
+    /** A player left the running game but stayed in the room. */
+    @JsonTypeName("PLAYER_LEFT_GAME")
+    record PlayerLeftGame(String roomCode, String playerId, String playerName) implements RoomEvent { }
+
+    @JsonTypeName("DRAWING_UPLOADED")
+    record DrawingUploaded(String roomCode,
+                           UUID gameId,
+                           UUID playerId,
+                           long version,
+                           List<GalleryManifest.Entry> drawings) implements RoomEvent { }
+
+    @JsonTypeName("DISCUSS_STARTED")
+    record DiscussStarted(String roomCode, long serverTime, int voteSeconds) implements RoomEvent { }
+
+    /** {@code tallySeq} numbers the game's votes; it is not the room's event number. */
+    @JsonTypeName("VOTE_DELTA")
+    record VoteDelta(String roomCode, UUID gameId, long tallySeq, UUID targetId, int count) implements RoomEvent { }
+
+    @JsonTypeName("SHOW_RESULTS")
+    record ShowResults(String roomCode, UUID gameId, VoteTally.Result result) implements RoomEvent { }
+
+    @JsonTypeName("GAME_ENDED")
+    record GameEnded(String roomCode, String reason) implements RoomEvent { }
+
+    /** Reactions of one flush window: counts by target id, then by emoji. */
+    @JsonTypeName("REACTION_BATCH")
+    record ReactionBatch(String roomCode, UUID gameId, Map<String, Map<String, Integer>> counts) implements RoomEvent {
+        /** Both batches' counts, added up per target and emoji. */
+        public ReactionBatch plus(ReactionBatch later) {
+            Map<String, Map<String, Integer>> sum = new LinkedHashMap<>();
+            for (ReactionBatch batch : List.of(this, later)) {
+                batch.counts.forEach((target, byEmoji) -> byEmoji.forEach((emoji, n) ->
+                        sum.computeIfAbsent(target, k -> new LinkedHashMap<>()).merge(emoji, n, Integer::sum)));
+            }
+            return new ReactionBatch(roomCode, gameId, sum);
+        }
+    }
+
+    /** Events for the room were lost; clients reload the room's state. */
+    @JsonTypeName("RESYNC")
+    record Resync(String roomCode) implements RoomEvent { }
+}
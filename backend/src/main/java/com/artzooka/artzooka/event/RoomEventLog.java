@@ -0,0 +1,188 @@
+package com.artzooka.artzooka.event;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The last events of each room, numbered in publish order, so a client that reconnects after a
+ * blip gets only what it missed. Each room keeps a ring of at most {@code capacity} events and
+ * {@code max-bytes} of JSON; a room with no events for {@code idle} is dropped. When the events
+ * after a client's position are no longer all kept, the client is sent a snapshot instead.
+ * Events reach the log only once their transaction commits (see {@link RoomEventPublisher}), so a
+ * room's numbers have no holes and a rolled-back event is never replayed.
+ * <p>
+ * A room's numbering starts from the clock, in microseconds, so numbers keep growing across a
+ * dropped log or a restart and a stale client position never lands inside a newer log. An event
+ * relayed from another node keeps the number that node gave it (see {@link RoomEventPublisher#relay}), so every node
+ * keeps the same numbers for a room and any of them can replay it.
+ */
+@Component
+public class RoomEventLog {
+    private final int capacity;
+    private final long maxBytes;
+    private final Cache<String, Log> logs;
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+
+    public RoomEventLog(MeterRegistry meterRegistry,
+                        @Value("${artzooka.events.log.capacity:256}") int capacity,
+                        @Value("${artzooka.events.log.max-bytes:256KB}") DataSize maxBytes,
+                        @Value("${artzooka.events.log.idle:30m}") Duration idle) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.maxBytes = maxBytes.toBytes();
+        this.logs = Caffeine.newBuilder()
+                .expireAfterAccess(idle)
+                .executor(Runnable::run)
+                .build();
+        Gauge.builder("artzooka.events.log.rooms", logs, Cache::estimatedSize)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.events.log.bytes", this, RoomEventLog::totalBytes)
+                .tag("stat", "total")
+                .register(meterRegistry);
+        Gauge.builder("artzooka.events.log.bytes", this, RoomEventLog::maxRoomBytes)
+                .tag("stat", "max-per-room")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.events.resyncs", replayed, LongAdder::sum)
+                .tag("source", "buffer")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.events.resyncs", snapshots, LongAdder::sum)
+                .tag("source", "snapshot")
+                .register(meterRegistry);
+        Gauge.builder("artzooka.events.resyncs.buffer.ratio", this, RoomEventLog::bufferRatio)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The events numbered after {@code after}, oldest first; null when some of them are no longer
+     * kept, or {@code after} is not from this room's current numbering, and a snapshot is needed.
+     */
+    public List<EncodedEvent> since(String code, long after) {
+        Log log = logs.getIfPresent(code);
+        List<EncodedEvent> missed = log == null ? null : log.since(after);
+        if (missed == null) snapshots.increment();
+        else replayed.increment();
+        return missed;
+    }
+
+    /** Number of the room's latest event; a snapshot taken now reflects every event up to it. */
+    public long lastSeq(String code) {
+        return of(code).lastSeq();
+    }
+
+    long totalBytes() {
+        long total = 0;
+        for (Log log : logs.asMap().values()) total += log.bytes();
+        return total;
+    }
+
+    long maxRoomBytes() {
+        long max = 0;
+        for (Log log : logs.asMap().values()) max = Math.max(max, log.bytes());
+        return max;
+    }
+
+    double bufferRatio() {
+        long total = replayed.sum() + snapshots.sum();
+        return total == 0 ? 0 : (double) replayed.sum() / total;
+    }
+
+    Log of(String code) {
+        return logs.get(code, k -> new Log(capacity, maxBytes, TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis())));
+    }
+
+    /** The room's log, started at {@code start} if this node kept nothing for it yet. */
+    Log of(String code, long start) {
+        return logs.get(code, k -> new Log(capacity, maxBytes, start));
+    }
+
+    /** One room's ring; numbers in it are contiguous. Guarded by itself. */
+    static final class Log {
+        private final EncodedEvent[] ring;
+        private final long maxBytes;
+        private long next;
+        /** Positions before this one are not replayed: the events after them were missed or differ between nodes. */
+        private long floor = Long.MIN_VALUE;
+        private int head;
+        private int size;
+        private long bytes;
+
+        Log(int capacity, long maxBytes, long start) {
+            this.ring = new EncodedEvent[capacity];
+            this.maxBytes = maxBytes;
+            this.next = start;
+        }
+
+        synchronized long nextSeq() { return next; }
+
+        synchronized long lastSeq() { return next - 1; }
+
+        synchronized long bytes() { return bytes; }
+
+        synchronized void append(EncodedEvent event) {
+            if (event.seq() != next) throw new IllegalArgumentException("expected seq " + next + " but got " + event.seq());
+            if (size == ring.length) evictOldest();
+            ring[(head + size) % ring.length] = event;
+            size++;
+            bytes += event.json().length;
+            next++;
+            // an event larger than the budget is still kept until the next one arrives
+            while (bytes > maxBytes && size > 1) evictOldest();
+        }
+
+        /**
+         * Keeps an event numbered by another node. One numbered past this log's next number means
+         * this node missed events, and the log goes on from it. One numbered before it means two
+         * nodes numbered the room at once: clients here may hold another event under that number,
+         * so the event is not kept, no position up to it is replayed any more, and false is
+         * returned for the room's clients here to reload. The number the other node gave wins
+         * either way; none is taken from this node's clock.
+         */
+        synchronized boolean adopt(EncodedEvent event) {
+            if (event.seq() < next) {
+                restartAt(event.seq() + 1);
+                return false;
+            }
+            if (event.seq() > next) restartAt(event.seq());
+            append(event);
+            return true;
+        }
+
+        synchronized List<EncodedEvent> since(long after) {
+            long first = next - size;
+            if (after < first - 1 || after < floor || after >= next) return null;
+            List<EncodedEvent> missed = new ArrayList<>((int) (next - 1 - after));
+            for (int i = (int) (after + 1 - first); i < size; i++) missed.add(ring[(head + i) % ring.length]);
+            return missed;
+        }
+
+        private void restartAt(long seq) {
+            Arrays.fill(ring, null);
+            head = 0;
+            size = 0;
+            bytes = 0;
+            next = seq;
+            floor = seq;
+        }
+
+        private void evictOldest() {
+            bytes -= ring[head].json().length;
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+        }
+    }
+}
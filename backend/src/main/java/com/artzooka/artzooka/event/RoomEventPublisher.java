@@ -0,0 +1,125 @@
+package com.artzooka.artzooka.event;
+
+import com.artzooka.artzooka.config.RoomBroker;
+import com.artzooka.artzooka.support.AfterCommit;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Publishes {@link RoomEvent}s to their room's topic. Each event is serialized once, here. With a
+ * sharded {@link RoomBroker} the {@link EncodedEvent} travels to it, and it hands the same bytes to
+ * every subscriber: JSON by default, CBOR to sessions that asked for it on CONNECT; otherwise the
+ * simple broker gets the JSON bytes. Published events are numbered and kept in the
+ * {@link RoomEventLog} for clients that reconnect; events relayed from other nodes are kept there
+ * too, under the numbers they were given where they were published.
+ * <p>
+ * An event published inside a transaction goes out only once it commits: a rolled-back event is
+ * never sent, never takes a number and is never replayed. Rooms publish from their mailbox lane, so
+ * a room's events still commit, and are numbered, in the order they were published.
+ */
+@Component
+public class RoomEventPublisher {
+    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomEventLog eventLog;
+    private final boolean sharded;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter jsonWriter;
+    private final ObjectWriter cborWriter;
+
+    public RoomEventPublisher(SimpMessagingTemplate messagingTemplate, ObjectMapper objectMapper, RoomEventLog eventLog,
+                              @Value("${artzooka.broker.sharded:false}") boolean sharded) {
+        this.messagingTemplate = messagingTemplate;
+        this.eventLog = eventLog;
+        this.sharded = sharded;
+        this.objectMapper = objectMapper;
+        this.jsonWriter = objectMapper.writerFor(RoomEvent.class);
+        ObjectMapper cborMapper = objectMapper.copyWith(new CBORFactory());
+        // CBOR would write UUIDs as byte strings; clients compare ids as the same text JSON carries
+        cborMapper.configOverride(UUID.class).setFormat(JsonFormat.Value.forShape(JsonFormat.Shape.STRING));
+        this.cborWriter = cborMapper.writerFor(RoomEvent.class);
+    }
+
+    public void publish(RoomEvent event) {
+        AfterCommit.run(() -> send(event));
+    }
+
+    private void send(RoomEvent event) {
+        RoomEventLog.Log log = eventLog.of(event.roomCode());
+        // numbered, kept and sent under one lock, so the topic sees a room's events in number order
+        synchronized (log) {
+            EncodedEvent encoded = encode(event, log.nextSeq());
+            log.append(encoded);
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setLeaveMutable(true);
+            Object payload = sharded ? encoded : encoded.json();
+            messagingTemplate.send(RoomBroker.PREFIX + event.roomCode(), MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        }
+    }
+
+    /**
+     * An event another node published, as the JSON it sent. A numbered one is kept in the room's
+     * log under the number it was given there, so the nodes share one numbering and any of them can
+     * replay it, and goes to {@code deliver} in order with the events published here; one that is
+     * not numbered, or not understood, goes to {@code deliver} as its JSON bytes. Returns false,
+     * having delivered nothing, when the number was behind this node's log: the room's clients here
+     * must reload.
+     */
+    public boolean relay(String room, String json, Consumer<Object> deliver) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        EncodedEvent encoded;
+        try {
+            JsonNode tree = objectMapper.readTree(bytes);
+            long seq = tree.path(RoomEvent.SEQ).asLong();
+            if (seq <= 0 || !(tree instanceof ObjectNode fields)) {
+                deliver.accept(bytes);
+                return true;
+            }
+            fields.remove(RoomEvent.SEQ);
+            RoomEvent event = objectMapper.treeToValue(fields, RoomEvent.class);
+            encoded = new EncodedEvent(event, seq, bytes,
+                    jsonWriter.withAttribute(RoomEvent.SEQ, seq), cborWriter.withAttribute(RoomEvent.SEQ, seq));
+        } catch (IOException | IllegalArgumentException e) {
+            deliver.accept(bytes);
+            return true;
+        }
+        RoomEventLog.Log log = eventLog.of(room, encoded.seq());
+        synchronized (log) {
+            if (!log.adopt(encoded)) return false;
+            deliver.accept(encoded);
+            return true;
+        }
+    }
+
+    /** Encodes an event that is not numbered or kept, such as a RESYNC for this node's clients only. */
+    public EncodedEvent encode(RoomEvent event) {
+        return encode(event, 0);
+    }
+
+    private EncodedEvent encode(RoomEvent event, long seq) {
+        ObjectWriter json = seq > 0 ? jsonWriter.withAttribute(RoomEvent.SEQ, seq) : jsonWriter;
+        ObjectWriter cbor = seq > 0 ? cborWriter.withAttribute(RoomEvent.SEQ, seq) : cborWriter;
+        try {
+            return new EncodedEvent(event, seq, json.writeValueAsBytes(event), json, cbor);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.artzooka.artzooka.game;
+
+import com.artzooka.artzooka.support.AfterCommit;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Who of a game's participants is still in, has submitted and has voted, as bitsets over a slot
+ * per participant, one {@link Completion} per room for the game it is playing. "Everyone has
+ * submitted" and "everyone has voted" are a few word operations instead of counting queries.
+ *
+ * <p>A new game is registered from its participant list; after a restart (or for a game this node
+ * has not seen) the bits are read back from the database with one query. Changes go through the
+ * room lane like the writes they mirror and are applied once those commit; the {@code ...With}
+ * checks let a request decide on its own uncommitted change.
+ */
+@Component
+public class CompletionTracker {
+    private static final String LOAD =
+            "SELECT p.player_id, p.active, " +
+            "EXISTS (SELECT 1 FROM drawings d WHERE d.game_id = p.game_id AND d.player_id = p.player_id) AS submitted, " +
+            "EXISTS (SELECT 1 FROM votes v WHERE v.game_id = p.game_id AND v.voter_id = p.player_id) AS voted " +
+            "FROM game_participants p WHERE p.game_id = ? ORDER BY p.joined_at, p.id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<UUID, Completion> games = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    public CompletionTracker(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        FunctionCounter.builder("artzooka.game.completion.lookups", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.game.completion.lookups", loads, LongAdder::sum)
+                .tag("result", "load")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers a newly started game with every participant in and nothing submitted, once it commits.
+     */
+    public Completion gameStarted(UUID roomId, UUID gameId, List<UUID> participants) {
+        Completion completion = new Completion(gameId, participants);
+        for (int slot = 0; slot < participants.size(); slot++) completion.set(completion.active, slot, true);
+        AfterCommit.run(() -> games.put(roomId, completion));
+        return completion;
+    }
+
+    /**
+     * The completion of the game the room is playing. Call before the request writes anything, so a
+     * load reads committed state only.
+     */
+    public Completion of(GameSnapshot game) {
+        Completion cached = games.get(game.roomId());
+        if (cached != null && cached.gameId().equals(game.id())) {
+            hits.increment();
+            return cached;
+        }
+        loads.increment();
+        List<UUID> players = new ArrayList<>();
+        List<boolean[]> flags = new ArrayList<>();
+        jdbcTemplate.query(LOAD, rs -> {
+            players.add(rs.getObject("player_id", UUID.class));
+            flags.add(new boolean[] {rs.getBoolean("active"), rs.getBoolean("submitted"), rs.getBoolean("voted")});
+        }, game.id());
+        Completion loaded = new Completion(game.id(), players);
+        for (int slot = 0; slot < players.size(); slot++) {
+            loaded.set(loaded.active, slot, flags.get(slot)[0]);
+            loaded.set(loaded.submitted, slot, flags.get(slot)[1]);
+            loaded.set(loaded.voted, slot, flags.get(slot)[2]);
+        }
+        // a load racing with another keeps the first, which the lane's changes are applied to
+        return games.merge(game.roomId(), loaded, (current, candidate) ->
+                current.gameId().equals(candidate.gameId()) ? current : candidate);
+    }
+
+    public void evict(UUID roomId) {
+        AfterCommit.run(() -> games.remove(roomId));
+    }
+
+    /**
+     * Bitsets of one game. Players who are not participants (joined the room mid-game) have no slot
+     * and do not count towards completion.
+     */
+    public static final class Completion {
+        private final UUID gameId;
+        private final Map<UUID, Integer> slots;
+        private final AtomicLongArray active;
+        private final AtomicLongArray submitted;
+        private final AtomicLongArray voted;
+
+        Completion(UUID gameId, List<UUID> participants) {
+            this.gameId = gameId;
+            Map<UUID, Integer> bySlot = new HashMap<>();
+            for (UUID player : participants) bySlot.putIfAbsent(player, bySlot.size());
+            this.slots = Map.copyOf(bySlot);
+            int words = Math.max(1, (bySlot.size() + 63) / 64);
+            this.active = new AtomicLongArray(words);
+            this.submitted = new AtomicLongArray(words);
+            this.voted = new AtomicLongArray(words);
+        }
+
+        public UUID gameId() { return gameId; }
+
+        public int activeCount() { return count(active); }
+        public int submittedCount() { return count(submitted); }
+        public int votedCount() { return count(voted); }
+
+        public void submitted(UUID playerId) { apply(submitted, playerId, true); }
+        public void unsubmitted(UUID playerId) { apply(submitted, playerId, false); }
+        public void voted(UUID playerId) { apply(voted, playerId, true); }
+        public void left(UUID playerId) { apply(active, playerId, false); }
+
+        /** Whether every active participant has submitted, counting {@code playerId}'s submission. */
+        public boolean allSubmittedWith(UUID playerId) {
+            return allDone(submitted, slotOf(playerId), -1);
+        }
+
+        /** Whether every active participant has voted, counting {@code playerId}'s vote. */
+        public boolean allVotedWith(UUID playerId) {
+            return allDone(voted, slotOf(playerId), -1);
+        }
+
+        /** Whether every participant still in after {@code playerId} leaves has submitted. */
+        public boolean allSubmittedWithout(UUID playerId) {
+            return allDone(submitted, -1, slotOf(playerId));
+        }
+
+        /** Whether every participant still in after {@code playerId} leaves has voted. */
+        public boolean allVotedWithout(UUID playerId) {
+            return allDone(voted, -1, slotOf(playerId));
+        }
+
+        /** Active participants once {@code playerId} has left. */
+        public int activeCountWithout(UUID playerId) {
+            int slot = slotOf(playerId);
+            return activeCount() - (slot >= 0 && isSet(active, slot) ? 1 : 0);
+        }
+
+        /** Every participant of the game, in slot order. */
+        public List<UUID> players() {
+            List<UUID> players = new ArrayList<>(slots.keySet());
+            players.sort(Comparator.comparingInt(slots::get));
+            return players;
+        }
+
+        /** Participants still in the game, in slot order. */
+        public List<UUID> activePlayers() {
+            List<UUID> players = new ArrayList<>();
+            slots.forEach((player, slot) -> { if (isSet(active, slot)) players.add(player); });
+            players.sort(Comparator.comparingInt(slots::get));
+            return players;
+        }
+
+        /** The participant's slot, or -1 for a player who is not in the game. */
+        public int slotOf(UUID playerId) {
+            Integer slot = slots.get(playerId);
+            return slot == null ? -1 : slot;
+        }
+
+        /**
+         * Whether {@code done} covers every active slot, with {@code plus} added to it and
+         * {@code minus} taken out of the active set. False when nobody is active.
+         */
+        private boolean allDone(AtomicLongArray done, int plus, int minus) {
+            boolean anyActive = false;
+            for (int word = 0; word < active.length(); word++) {
+                long in = active.get(word);
+                long finished = done.get(word);
+                if (minus >= 0 && minus >> 6 == word) in &= ~(1L << minus);
+                if (plus >= 0 && plus >> 6 == word) finished |= 1L << plus;
+                if ((in & ~finished) != 0) return false;
+                anyActive |= in != 0;
+            }
+            return anyActive;
+        }
+
+        private void apply(AtomicLongArray bits, UUID playerId, boolean value) {
+            int slot = slotOf(playerId);
+            if (slot < 0) return;
+            AfterCommit.run(() -> set(bits, slot, value));
+        }
+
+        private static void set(AtomicLongArray bits, int slot, boolean value) {
+            long mask = 1L << slot;
+            if (value) bits.getAndAccumulate(slot >> 6, mask, (w, m) -> w | m);
+            else bits.getAndAccumulate(slot >> 6, mask, (w, m) -> w & ~m);
+        }
+
+        private static boolean isSet(AtomicLongArray bits, int slot) {
+            return (bits.get(slot >> 6) & 1L << slot) != 0;
+        }
+
+        private static int count(AtomicLongArray bits) {
+            int n = 0;
+            for (int word = 0; word < bits.length(); word++) n += Long.bitCount(bits.get(word));
+            return n;
+        }
+    }
+}
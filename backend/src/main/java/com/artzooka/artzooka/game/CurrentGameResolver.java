@@ -0,0 +1,67 @@
+package com.artzooka.artzooka.game;
+
+import com.artzooka.artzooka.room.RoomSnapshot;
+import com.artzooka.artzooka.support.AfterCommit;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Resolves the game a room is currently playing through the {@code rooms.current_game_id} pointer
+ * carried by {@link RoomSnapshot}, caching one {@link GameSnapshot} per room. The cost is the same
+ * whether the room has played one game or hundreds: a hit is a map lookup, a miss a primary-key read.
+ */
+@Component
+public class CurrentGameResolver {
+    private final GameRepository gameRepository;
+    private final Map<UUID, GameSnapshot> games = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CurrentGameResolver(GameRepository gameRepository, MeterRegistry meterRegistry) {
+        this.gameRepository = gameRepository;
+        FunctionCounter.builder("artzooka.game.resolver.lookups", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.game.resolver.lookups", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    public Optional<GameSnapshot> resolve(RoomSnapshot room) {
+        UUID gameId = room.currentGameId();
+        if (gameId == null) return Optional.empty();
+        GameSnapshot cached = games.get(room.id());
+        if (cached != null && cached.id().equals(gameId)) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+        Optional<GameSnapshot> loaded = gameRepository.findById(gameId).map(GameSnapshot::of);
+        // a stale entry left by a racing load is replaced on the next lookup, since its id no longer matches
+        loaded.ifPresent(snapshot -> games.put(room.id(), snapshot));
+        return loaded;
+    }
+
+    /**
+     * Caches a newly started game once its transaction commits, so the first prompt fetches hit.
+     */
+    public void put(GameSnapshot snapshot) {
+        AfterCommit.run(() -> games.put(snapshot.roomId(), snapshot));
+    }
+
+    public void update(UUID roomId, UnaryOperator<GameSnapshot> change) {
+        AfterCommit.run(() -> games.computeIfPresent(roomId, (k, current) -> change.apply(current)));
+    }
+
+    public void evict(UUID roomId) {
+        AfterCommit.run(() -> games.remove(roomId));
+    }
+}
@@ -36,6 +36,18 @@ private Player imposter;
 @Column(name = "created_at", nullable = false)
 private OffsetDateTime createdAt = OffsetDateTime.now();
 
+    @Column(name = "starts_at")
+    private OffsetDateTime startsAt;
+
+    @Column(name = "draw_ends_at")
+    private OffsetDateTime drawEndsAt;
+
+    @Column(name = "vote_ends_at")
+    private OffsetDateTime voteEndsAt;
+
+    @Column(name = "expires_at")
+    private OffsetDateTime expiresAt;
+
 public UUID getId() { return id; }
 public Room getRoom() { return room; }
 public String getStatus() { return status; }
@@ -44,6 +56,10 @@ public String getPromptCommon() { return promptCommon; }
 public String getPromptImposter() { return promptImposter; }
 public Player getImposter() { return imposter; }
 public OffsetDateTime getCreatedAt() { return createdAt; }
+    public OffsetDateTime getStartsAt() { return startsAt; }
+    public OffsetDateTime getDrawEndsAt() { return drawEndsAt; }
+    public OffsetDateTime getVoteEndsAt() { return voteEndsAt; }
+    public OffsetDateTime getExpiresAt() { return expiresAt; }
 
 public void setRoom(Room room) { this.room = room; }
 public void setStatus(String status) { this.status = status; }
@@ -51,4 +67,8 @@ public void setRoundNumber(int roundNumber) { this.roundNumber = roundNumber; }
 public void setPromptCommon(String promptCommon) { this.promptCommon = promptCommon; }
 public void setPromptImposter(String promptImposter) { this.promptImposter = promptImposter; }
 public void setImposter(Player imposter) { this.imposter = imposter; }
+    public void setStartsAt(OffsetDateTime startsAt) { this.startsAt = startsAt; }
+    public void setDrawEndsAt(OffsetDateTime drawEndsAt) { this.drawEndsAt = drawEndsAt; }
+    public void setVoteEndsAt(OffsetDateTime voteEndsAt) { this.voteEndsAt = voteEndsAt; }
+    public void setExpiresAt(OffsetDateTime expiresAt) { this.expiresAt = expiresAt; }
 }
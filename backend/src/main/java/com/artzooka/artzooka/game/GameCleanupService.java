@@ -1,60 +1,142 @@
 package com.artzooka.artzooka.game;
 
-import com.artzooka.artzooka.room.Room;
+import com.artzooka.artzooka.room.RoomMailbox;
 import com.artzooka.artzooka.room.RoomService;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import com.artzooka.artzooka.support.AfterCommit;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
-import java.util.Map;
+import java.util.UUID;
 
+/**
+ * Backstop for expiry deadlines the phase timer did not deliver (for example while the app was down).
+ * Walks unfinished games past their deadline through the partial index {@code idx_games_open_expires}
+ * in keyset order, one batch per transaction: the batch's games are completed with one UPDATE, and
+ * after commit each room still playing one of them is ended on its own {@link RoomMailbox} lane through
+ * {@link GamePhaseService#endGame}, so the reset is ordered with the room's player actions and timers.
+ * Each sweep reads only expired open games, so its cost does not grow with the games table.
+ */
 @Service
 public class GameCleanupService {
-    private final GameRepository gameRepository;
+    private static final String FIRST_PAGE =
+            "SELECT id, expires_at FROM games WHERE status <> 'COMPLETED' AND expires_at < ? " +
+            "ORDER BY expires_at, id LIMIT ?";
+    private static final String NEXT_PAGE =
+            "SELECT id, expires_at FROM games WHERE status <> 'COMPLETED' AND expires_at < ? " +
+            "AND (expires_at, id) > (?, ?) ORDER BY expires_at, id LIMIT ?";
+    private static final String COMPLETE_GAMES =
+            "UPDATE games SET status = 'COMPLETED' WHERE id = ANY(?) AND status <> 'COMPLETED'";
+    private static final String PLAYING_ROOMS =
+            "SELECT code, current_game_id FROM rooms WHERE current_game_id = ANY(?) " +
+            "AND status IN ('DRAWING', 'VOTING', 'RESULTS')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
     private final RoomService roomService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomMailbox roomMailbox;
+    private final GamePhaseService gamePhaseService;
+    private final int batchSize;
+    private final Duration grace;
+    private final DistributionSummary rowsExamined;
+    private final DistributionSummary roomsReset;
+    private final Timer sweepDuration;
 
-    public GameCleanupService(GameRepository gameRepository, RoomService roomService, SimpMessagingTemplate messagingTemplate) {
-        this.gameRepository = gameRepository;
+    public GameCleanupService(JdbcTemplate jdbcTemplate,
+                              TransactionTemplate transactionTemplate,
+                              RoomService roomService,
+                              RoomMailbox roomMailbox,
+                              GamePhaseService gamePhaseService,
+                              MeterRegistry meterRegistry,
+                              @Value("${artzooka.sweeper.batch-size:500}") int batchSize,
+                              @Value("${artzooka.sweeper.grace:30s}") Duration grace) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
         this.roomService = roomService;
-        this.messagingTemplate = messagingTemplate;
+        this.roomMailbox = roomMailbox;
+        this.gamePhaseService = gamePhaseService;
+        this.batchSize = batchSize;
+        this.grace = grace;
+        this.rowsExamined = DistributionSummary.builder("artzooka.sweeper.rows.examined")
+                .description("Expired open games read per sweep")
+                .register(meterRegistry);
+        this.roomsReset = DistributionSummary.builder("artzooka.sweeper.rooms.reset")
+                .description("Rooms queued on their lane to end an expired game, per sweep")
+                .register(meterRegistry);
+        this.sweepDuration = Timer.builder("artzooka.sweeper.duration")
+                .register(meterRegistry);
     }
 
-    @Scheduled(fixedRate = 30000) // Run every 30 seconds
-    @Transactional
+    /** One page of the keyset walk. */
+    private record Expired(UUID id, OffsetDateTime expiresAt) { }
+
+    /** A room that was still playing one of the expired games when the batch read it. */
+    private record Playing(String code, UUID gameId) { }
+
+    private record BatchResult(int examined, int roomsReset, Expired last) { }
+
+    @Scheduled(fixedDelayString = "${artzooka.sweeper.interval-ms:30000}")
     public void cleanupExpiredGames() {
-        // Find games that have been running for too long (e.g., more than 10 minutes)
-        OffsetDateTime cutoff = OffsetDateTime.now().minusMinutes(10);
-        
-        List<Game> expiredGames = gameRepository.findByCreatedAtBeforeAndStatusNot(cutoff, "COMPLETED");
-        
-        for (Game game : expiredGames) {
-            Room room = game.getRoom();
-            if (room.getStatus().equals("DRAWING") || room.getStatus().equals("VOTING") || room.getStatus().equals("RESULTS")) {
-                System.out.println("[ARTZOOKA] Auto-ending expired game in room: " + room.getCode());
-                
-                // Reset room status back to LOBBY
-                room.setStatus("LOBBY");
-                roomService.save(room);
-                
-                // Mark game as completed
-                game.setStatus("COMPLETED");
-                gameRepository.save(game);
-                
-                // Broadcast that the game has ended
-                Map<String, Object> gameEndedEvent = Map.of(
-                        "type", "GAME_ENDED",
-                        "roomCode", room.getCode(),
-                        "reason", "Game timer expired"
-                );
-                messagingTemplate.convertAndSend("/topic/rooms/" + room.getCode(), gameEndedEvent);
-            }
+        // the phase timer ends games on time; only pick up what it has clearly missed
+        OffsetDateTime cutoff = OffsetDateTime.now().minus(grace);
+        long started = System.nanoTime();
+        int examined = 0;
+        int reset = 0;
+        Expired cursor = null;
+        while (true) {
+            Expired after = cursor;
+            BatchResult batch = transactionTemplate.execute(tx -> sweepBatch(cutoff, after));
+            examined += batch.examined();
+            reset += batch.roomsReset();
+            if (batch.examined() < batchSize) break;
+            cursor = batch.last();
+        }
+        sweepDuration.record(Duration.ofNanos(System.nanoTime() - started));
+        rowsExamined.record(examined);
+        roomsReset.record(reset);
+        if (examined > 0) {
+            System.out.println("[ARTZOOKA] Expiry sweep completed games=" + examined + " roomsReset=" + reset);
         }
     }
-}
 
+    private BatchResult sweepBatch(OffsetDateTime cutoff, Expired after) {
+        List<Expired> page = after == null
+                ? jdbcTemplate.query(FIRST_PAGE, (rs, i) -> toExpired(rs), cutoff, batchSize)
+                : jdbcTemplate.query(NEXT_PAGE, (rs, i) -> toExpired(rs), cutoff, after.expiresAt(), after.id(), batchSize);
+        if (page.isEmpty()) return new BatchResult(0, 0, after);
+
+        UUID[] ids = page.stream().map(Expired::id).toArray(UUID[]::new);
+        jdbcTemplate.update(COMPLETE_GAMES, ps -> setIds(ps, ids));
+        List<Playing> playing = jdbcTemplate.query(PLAYING_ROOMS, ps -> setIds(ps, ids),
+                (rs, i) -> new Playing(rs.getString("code"), rs.getObject("current_game_id", UUID.class)));
 
+        // room status is lane state: end each game on its room's lane, re-checked against what the room is playing now
+        AfterCommit.run(() -> playing.forEach(p -> roomMailbox.execute(p.code(), () -> endGame(p))));
+        return new BatchResult(page.size(), playing.size(), page.get(page.size() - 1));
+    }
+
+    private void endGame(Playing playing) {
+        transactionTemplate.executeWithoutResult(tx -> roomService.findSnapshot(playing.code())
+                .filter(room -> room.inGame() && playing.gameId().equals(room.currentGameId()))
+                .ifPresent(room -> gamePhaseService.endGame(room, playing.gameId(), "Game timer expired")));
+    }
 
+    private static Expired toExpired(ResultSet rs) throws SQLException {
+        return new Expired(rs.getObject("id", UUID.class), rs.getObject("expires_at", OffsetDateTime.class));
+    }
+
+    private static void setIds(PreparedStatement ps, UUID[] ids) throws SQLException {
+        ps.setArray(1, ps.getConnection().createArrayOf("uuid", ids));
+    }
+}
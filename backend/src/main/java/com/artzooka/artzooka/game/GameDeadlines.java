@@ -0,0 +1,14 @@
+package com.artzooka.artzooka.game;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Phase deadlines of one game and the room it is played in, as armed on {@link GamePhaseService}'s timer.
+ */
+public record GameDeadlines(UUID gameId, String roomCode, OffsetDateTime drawEndsAt, OffsetDateTime voteEndsAt, OffsetDateTime expiresAt) {
+
+    public static GameDeadlines of(String roomCode, GameSnapshot game) {
+        return new GameDeadlines(game.id(), roomCode, game.drawEndsAt(), game.voteEndsAt(), game.expiresAt());
+    }
+}
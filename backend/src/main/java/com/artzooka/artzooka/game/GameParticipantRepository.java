@@ -6,7 +6,6 @@ import java.util.UUID;
 
 public interface GameParticipantRepository extends JpaRepository<GameParticipant, UUID> {
     List<GameParticipant> findByGame_IdAndActiveTrue(UUID gameId);
-    long countByGame_IdAndActiveTrue(UUID gameId);
     GameParticipant findByGame_IdAndPlayer_Id(UUID gameId, UUID playerId);
 }
 
@@ -0,0 +1,271 @@
+package com.artzooka.artzooka.game;
+
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.room.RoomSnapshot;
+import com.artzooka.artzooka.support.AfterCommit;
+import com.artzooka.artzooka.support.HashedWheelTimer;
+import com.artzooka.artzooka.support.HashedWheelTimer.Timeout;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Owns the phase transitions of a game (DRAWING -> VOTING -> RESULTS, and back to LOBBY when a game
+ * ends) and drives them from the server clock. Each started game arms three deadlines on a hashed
+ * wheel timer: draw end, vote end and expiry. When one fires, the transition is queued on the room's
+ * {@link RoomMailbox} lane, so it is ordered with player actions and fires at most once whichever
+ * of the two gets there first. Deadlines live on the {@code games} row and are re-armed on startup.
+ * In a cluster a game is armed on the node that started it, and its vote end on the node that
+ * started the vote. A game whose room stays in a phase past its deadline, because the node holding
+ * its timers went down, is armed again by whichever node's {@link #takeOverOverdue} finds it first.
+ * More than one node may then hold timers for the same game; each transition is an UPDATE
+ * conditional on the status it moves from, so only the first to fire changes the room and publishes.
+ *
+ * <p>The transition methods must be called from inside the room's lane and transaction.
+ */
+@Service
+public class GamePhaseService {
+    private final RoomService roomService;
+    private final CurrentGameResolver currentGameResolver;
+    private final VoteTally voteTally;
+    private final GameRepository gameRepository;
+    private final RoomMailbox roomMailbox;
+    private final TransactionTemplate transactionTemplate;
+    private final RoomEventPublisher roomEventPublisher;
+    private final HashedWheelTimer timer;
+    private final Map<String, RoomTimers> armed = new ConcurrentHashMap<>();
+    private final Duration takeoverGrace;
+
+    public GamePhaseService(RoomService roomService,
+                            CurrentGameResolver currentGameResolver,
+                            VoteTally voteTally,
+                            GameRepository gameRepository,
+                            RoomMailbox roomMailbox,
+                            TransactionTemplate transactionTemplate,
+                            RoomEventPublisher roomEventPublisher,
+                            MeterRegistry meterRegistry,
+                            @Value("${artzooka.phases.tick:10ms}") Duration tick,
+                            @Value("${artzooka.phases.wheel-size:512}") int wheelSize,
+                            @Value("${artzooka.phases.takeover-grace:10s}") Duration takeoverGrace) {
+        this.roomService = roomService;
+        this.currentGameResolver = currentGameResolver;
+        this.voteTally = voteTally;
+        this.gameRepository = gameRepository;
+        this.roomMailbox = roomMailbox;
+        this.transactionTemplate = transactionTemplate;
+        this.roomEventPublisher = roomEventPublisher;
+        this.takeoverGrace = takeoverGrace;
+        this.timer = new HashedWheelTimer("phase-timer", tick.toNanos(), TimeUnit.NANOSECONDS, wheelSize);
+        Gauge.builder("artzooka.phase.timers.pending", timer, HashedWheelTimer::pendingCount)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.phase.games.armed", armed, Map::size)
+                .register(meterRegistry);
+    }
+
+    /** Timers armed for the game a room is currently playing. */
+    private record RoomTimers(UUID gameId, Timeout drawEnd, Timeout voteEnd, Timeout expiry) {
+        RoomTimers withVoteEnd(Timeout voteEnd) {
+            return new RoomTimers(gameId, drawEnd, voteEnd, expiry);
+        }
+
+        void cancelPhases() {
+            cancel(drawEnd);
+            cancel(voteEnd);
+        }
+
+        void cancelAll() {
+            cancelPhases();
+            cancel(expiry);
+        }
+
+        private static void cancel(Timeout timeout) {
+            if (timeout != null) timeout.cancel();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rearm() {
+        List<GameDeadlines> open = transactionTemplate.execute(tx -> gameRepository.findOpenDeadlines());
+        open.forEach(this::arm);
+        System.out.println("[ARTZOOKA] Re-armed phase timers for " + open.size() + " games");
+    }
+
+    /**
+     * Arms the games whose phase should have ended more than the grace ago, on this node. Their
+     * timers went down with another node (or were never armed here after a vote started elsewhere
+     * and that node went down); an overdue deadline fires as soon as it is armed.
+     */
+    @Scheduled(fixedDelayString = "${artzooka.phases.takeover-interval-ms:15000}")
+    public void takeOverOverdue() {
+        OffsetDateTime cutoff = OffsetDateTime.now().minus(takeoverGrace);
+        List<GameDeadlines> overdue = transactionTemplate.execute(tx -> gameRepository.findOverdueDeadlines(cutoff));
+        overdue.forEach(this::arm);
+        if (!overdue.isEmpty()) System.out.println("[ARTZOOKA] Took over phase timers for " + overdue.size() + " games");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.close();
+    }
+
+    /**
+     * Arms the deadlines of a newly started game once it commits. The game it replaces is marked
+     * completed, which also drops its timers.
+     */
+    public void gameStarted(RoomSnapshot room, GameSnapshot game) {
+        if (room.currentGameId() != null) gameRepository.markCompleted(room.currentGameId());
+        GameDeadlines deadlines = GameDeadlines.of(room.code(), game);
+        AfterCommit.run(() -> arm(deadlines));
+    }
+
+    /**
+     * Moves a drawing room to voting, either because every participant submitted or the draw
+     * deadline passed. The vote deadline is counted from now with the room's vote length.
+     */
+    public boolean startVoting(RoomSnapshot room, GameSnapshot game) {
+        if (!"DRAWING".equals(room.status()) || !roomService.transition(room, "VOTING")) return false;
+
+        long now = System.currentTimeMillis();
+        int voteSeconds = room.voteSeconds();
+        OffsetDateTime voteEndsAt = toTimestamp(now + voteSeconds * 1000L);
+        gameRepository.updateVoteEndsAt(game.id(), voteEndsAt);
+        currentGameResolver.update(room.id(), g -> g.withVoteEndsAt(voteEndsAt));
+        // the game may have been started (and armed) on another node; its vote end is armed here either way
+        AfterCommit.run(() -> armed.compute(room.code(), (code, timers) -> {
+            Timeout voteEnd = at(voteEndsAt, () -> fire(code, game.id(), this::onVoteEnd));
+            if (timers == null || !timers.gameId().equals(game.id())) {
+                if (timers != null) timers.cancelAll();
+                return new RoomTimers(game.id(), null, voteEnd, null);
+            }
+            RoomTimers.cancel(timers.drawEnd());
+            RoomTimers.cancel(timers.voteEnd());
+            return timers.withVoteEnd(voteEnd);
+        }));
+
+        roomEventPublisher.publish(new RoomEvent.DiscussStarted(room.code(), now, voteSeconds));
+        return true;
+    }
+
+    /**
+     * Shows the results, either because every participant voted, the host finished voting or the
+     * vote deadline passed. Only the first of these transitions.
+     */
+    public boolean showResults(RoomSnapshot room, GameSnapshot game) {
+        if (!room.inGame() || "RESULTS".equals(room.status()) || !roomService.transition(room, "RESULTS")) return false;
+        AfterCommit.run(() -> {
+            RoomTimers timers = armed.get(room.code());
+            if (timers != null && timers.gameId().equals(game.id())) timers.cancelPhases();
+        });
+
+        // after commit, so a last vote committed with this transition is counted before the result is frozen
+        AfterCommit.run(() -> roomEventPublisher.publish(
+                new RoomEvent.ShowResults(room.code(), game.id(), voteTally.of(game).freeze())));
+        return true;
+    }
+
+    /**
+     * Ends the game and returns the room to the lobby.
+     */
+    public void endGame(RoomSnapshot room, UUID gameId, String reason) {
+        if (!returnToLobby(room, gameId)) return;
+        roomEventPublisher.publish(new RoomEvent.GameEnded(room.code(), reason));
+    }
+
+    /**
+     * Returns the room to the lobby on the host's request, completing whatever game it was on.
+     */
+    public void resetRoom(RoomSnapshot room) {
+        if (!returnToLobby(room, room.currentGameId())) return;
+        roomEventPublisher.publish(new RoomEvent.RoomReset(room.code()));
+    }
+
+    private boolean returnToLobby(RoomSnapshot room, UUID gameId) {
+        if (!roomService.transition(room, "LOBBY")) return false;
+        if (gameId == null) return true;
+        gameRepository.markCompleted(gameId);
+        AfterCommit.run(() -> disarm(room.code(), gameId));
+        return true;
+    }
+
+    private void onDrawEnd(RoomSnapshot room, GameSnapshot game) {
+        startVoting(room, game);
+    }
+
+    private void onVoteEnd(RoomSnapshot room, GameSnapshot game) {
+        // a timeout that fired just before voting was re-armed later must not cut it short
+        if (game.voteEndsAt() != null && game.voteEndsAt().toInstant().isAfter(Instant.now())) return;
+        if ("VOTING".equals(room.status())) showResults(room, game);
+    }
+
+    private void onExpiry(RoomSnapshot room, GameSnapshot game) {
+        if (room.inGame()) {
+            System.out.println("[ARTZOOKA] Auto-ending expired game in room: " + room.code());
+            endGame(room, game.id(), "Game timer expired");
+        } else {
+            gameRepository.markCompleted(game.id());
+            AfterCommit.run(() -> disarm(room.code(), game.id()));
+        }
+    }
+
+    private void arm(GameDeadlines d) {
+        String code = d.roomCode();
+        UUID gameId = d.gameId();
+        RoomTimers timers = new RoomTimers(gameId,
+                at(d.drawEndsAt(), () -> fire(code, gameId, this::onDrawEnd)),
+                at(d.voteEndsAt(), () -> fire(code, gameId, this::onVoteEnd)),
+                at(d.expiresAt(), () -> fire(code, gameId, this::onExpiry)));
+        RoomTimers previous = armed.put(code, timers);
+        if (previous != null) previous.cancelAll();
+    }
+
+    private void disarm(String code, UUID gameId) {
+        armed.computeIfPresent(code, (k, timers) -> {
+            if (!timers.gameId().equals(gameId)) return timers;
+            timers.cancelAll();
+            return null;
+        });
+    }
+
+    private Timeout at(OffsetDateTime deadline, Runnable task) {
+        if (deadline == null) return null;
+        long delay = deadline.toInstant().toEpochMilli() - System.currentTimeMillis();
+        return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the timer thread: hands the transition to the room's lane, where it is re-checked
+     * against the room's current game before anything changes.
+     */
+    private void fire(String code, UUID gameId, BiConsumer<RoomSnapshot, GameSnapshot> transition) {
+        roomMailbox.execute(code, () -> transactionTemplate.executeWithoutResult(tx -> {
+            Optional<RoomSnapshot> roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty() || !gameId.equals(roomOpt.get().currentGameId())) return;
+            currentGameResolver.resolve(roomOpt.get()).ifPresent(game -> transition.accept(roomOpt.get(), game));
+        }));
+    }
+
+    private static OffsetDateTime toTimestamp(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atOffset(ZoneOffset.UTC);
+    }
+}
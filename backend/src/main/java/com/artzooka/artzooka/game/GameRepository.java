@@ -1,11 +1,37 @@
 package com.artzooka.artzooka.game;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
 public interface GameRepository extends JpaRepository<Game, UUID> {
-List<Game> findByRoomIdOrderByCreatedAtDesc(UUID roomId);
-List<Game> findByCreatedAtBeforeAndStatusNot(OffsetDateTime cutoff, String status);
+
+    @Modifying
+    @Query("update Game g set g.voteEndsAt = :voteEndsAt where g.id = :id")
+    int updateVoteEndsAt(@Param("id") UUID id, @Param("voteEndsAt") OffsetDateTime voteEndsAt);
+
+    @Modifying
+    @Query("update Game g set g.status = 'COMPLETED' where g.id = :id and g.status <> 'COMPLETED'")
+    int markCompleted(@Param("id") UUID id);
+
+    /**
+     * Deadlines of every room's current game that has not finished, for re-arming timers on startup.
+     */
+    @Query("select new com.artzooka.artzooka.game.GameDeadlines(g.id, r.code, g.drawEndsAt, g.voteEndsAt, g.expiresAt) " +
+            "from Room r join Game g on g.id = r.currentGameId where g.status <> 'COMPLETED'")
+    List<GameDeadlines> findOpenDeadlines();
+
+    /**
+     * Deadlines of current games whose room is still drawing or voting although that phase ended
+     * before {@code cutoff}: the timers that should have moved them on are not running anywhere.
+     */
+    @Query("select new com.artzooka.artzooka.game.GameDeadlines(g.id, r.code, g.drawEndsAt, g.voteEndsAt, g.expiresAt) " +
+            "from Room r join Game g on g.id = r.currentGameId where g.status <> 'COMPLETED' " +
+            "and ((r.status = 'DRAWING' and g.drawEndsAt < :cutoff) or (r.status = 'VOTING' and g.voteEndsAt < :cutoff))")
+    List<GameDeadlines> findOverdueDeadlines(@Param("cutoff") OffsetDateTime cutoff);
 }
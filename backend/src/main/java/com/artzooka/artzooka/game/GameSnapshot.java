@@ -0,0 +1,44 @@
+package com.artzooka.artzooka.game;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Immutable view of the game a room is currently playing, as cached by {@link CurrentGameResolver}.
+ */
+public record GameSnapshot(UUID id,
+                           UUID roomId,
+                           UUID imposterId,
+                           String promptCommon,
+                           String promptImposter,
+                           OffsetDateTime startsAt,
+                           OffsetDateTime drawEndsAt,
+                           OffsetDateTime voteEndsAt,
+                           OffsetDateTime expiresAt) {
+
+    public static GameSnapshot of(Game game) {
+        // getId() on the lazy room/imposter proxies does not initialize them
+        return new GameSnapshot(
+                game.getId(),
+                game.getRoom().getId(),
+                game.getImposter().getId(),
+                game.getPromptCommon(),
+                game.getPromptImposter(),
+                game.getStartsAt(),
+                game.getDrawEndsAt(),
+                game.getVoteEndsAt(),
+                game.getExpiresAt());
+    }
+
+    public boolean isImposter(UUID playerId) {
+        return imposterId.equals(playerId);
+    }
+
+    public String promptFor(UUID playerId) {
+        return isImposter(playerId) ? promptImposter : promptCommon;
+    }
+
+    public GameSnapshot withVoteEndsAt(OffsetDateTime voteEndsAt) {
+        return new GameSnapshot(id, roomId, imposterId, promptCommon, promptImposter, startsAt, drawEndsAt, voteEndsAt, expiresAt);
+    }
+}
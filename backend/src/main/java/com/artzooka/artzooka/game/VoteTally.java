@@ -0,0 +1,164 @@
+package com.artzooka.artzooka.game;
+
+import com.artzooka.artzooka.support.AfterCommit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Vote counts of the game each room is playing, one counter per participant slot of
+ * {@link CompletionTracker}. A vote adds one to its target's counter and to the game's sequence
+ * number, which is what VOTE_DELTA events carry so clients can tell they missed one. When voting
+ * closes the {@link Result} is computed once and frozen; later reads are served from it.
+ *
+ * <p>Like the completion bits, counts are registered empty when a game starts, reloaded with one
+ * grouped query on a miss, and changed through the room lane after the vote commits.
+ */
+@Component
+public class VoteTally {
+    private static final String LOAD =
+            "SELECT target_id, count(*) AS votes FROM votes WHERE game_id = ? GROUP BY target_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CompletionTracker completionTracker;
+    private final Map<UUID, Tally> tallies = new ConcurrentHashMap<>();
+
+    public VoteTally(JdbcTemplate jdbcTemplate, CompletionTracker completionTracker) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.completionTracker = completionTracker;
+    }
+
+    /** The outcome of a game's vote. */
+    public record Result(UUID gameId,
+                         UUID imposterId,
+                         UUID votedOutId,
+                         String winner,
+                         Map<UUID, Long> tally,
+                         long tallySeq,
+                         boolean tied,
+                         boolean frozen) { }
+
+    /** One vote as broadcast: the target's new count and the game's sequence number after it. */
+    public record Delta(long seq, UUID targetId, int count) { }
+
+    /**
+     * Registers the empty tally of a newly started game once it commits.
+     */
+    public void gameStarted(GameSnapshot game, CompletionTracker.Completion completion) {
+        Tally tally = new Tally(game, completion);
+        AfterCommit.run(() -> tallies.put(game.roomId(), tally));
+    }
+
+    /**
+     * The tally of the game the room is playing. Call before the request writes anything, so a load
+     * reads committed votes only.
+     */
+    public Tally of(GameSnapshot game) {
+        Tally cached = tallies.get(game.roomId());
+        if (cached != null && cached.gameId().equals(game.id())) return cached;
+        Tally loaded = new Tally(game, completionTracker.of(game));
+        jdbcTemplate.query(LOAD, rs -> {
+            int slot = loaded.slots.slotOf(rs.getObject("target_id", UUID.class));
+            int votes = rs.getInt("votes");
+            if (slot >= 0) loaded.counts.addAndGet(slot, votes);
+            // votes for players outside the game are not counted, but they were cast
+            loaded.seq.addAndGet(votes);
+        }, game.id());
+        return tallies.merge(game.roomId(), loaded, (current, candidate) ->
+                current.gameId().equals(candidate.gameId()) ? current : candidate);
+    }
+
+    public void evict(UUID roomId) {
+        AfterCommit.run(() -> tallies.remove(roomId));
+    }
+
+    public static final class Tally {
+        private final UUID gameId;
+        private final UUID imposterId;
+        private final CompletionTracker.Completion slots;
+        private final List<UUID> players;
+        private final AtomicIntegerArray counts;
+        private final AtomicLong seq = new AtomicLong();
+        private volatile Result frozen;
+
+        Tally(GameSnapshot game, CompletionTracker.Completion slots) {
+            this.gameId = game.id();
+            this.imposterId = game.imposterId();
+            this.slots = slots;
+            this.players = slots.players();
+            this.counts = new AtomicIntegerArray(Math.max(1, players.size()));
+        }
+
+        public UUID gameId() { return gameId; }
+        public long seq() { return seq.get(); }
+        public boolean isFrozen() { return frozen != null; }
+
+        /** Whether {@code playerId} is a participant of the game and so can be voted for. */
+        public boolean canReceive(UUID playerId) {
+            return slots.slotOf(playerId) >= 0;
+        }
+
+        /** Counts a committed vote. Called on the room lane, so the count and sequence move together. */
+        public Delta add(UUID targetId) {
+            int slot = slots.slotOf(targetId);
+            int count = counts.incrementAndGet(slot);
+            return new Delta(seq.incrementAndGet(), targetId, count);
+        }
+
+        /** Votes per participant who got any, in slot order. */
+        public Map<UUID, Long> counts() {
+            Map<UUID, Long> tally = new LinkedHashMap<>();
+            for (int slot = 0; slot < players.size(); slot++) {
+                int count = counts.get(slot);
+                if (count > 0) tally.put(players.get(slot), (long) count);
+            }
+            return tally;
+        }
+
+        /** The frozen result, or the standing one while voting is open. */
+        public Result result() {
+            Result result = frozen;
+            return result != null ? result : compute(false);
+        }
+
+        /**
+         * Fixes the result when voting closes. Later votes are refused, and the first frozen result
+         * is the one every reader gets.
+         */
+        public synchronized Result freeze() {
+            if (frozen == null) frozen = compute(true);
+            return frozen;
+        }
+
+        /**
+         * Most votes is voted out. A tie goes to the participant with the lowest slot (who joined the
+         * game first), so every node and every reload picks the same player.
+         */
+        private Result compute(boolean freeze) {
+            long total = seq.get();
+            int best = -1;
+            int bestCount = 0;
+            boolean tied = false;
+            for (int slot = 0; slot < players.size(); slot++) {
+                int count = counts.get(slot);
+                if (count > bestCount) {
+                    best = slot;
+                    bestCount = count;
+                    tied = false;
+                } else if (count == bestCount && count > 0) {
+                    tied = true;
+                }
+            }
+            UUID votedOut = best < 0 ? null : players.get(best);
+            String winner = votedOut != null && votedOut.equals(imposterId) ? "ARTISTS" : "IMPOSTER";
+            return new Result(gameId, imposterId, votedOut, winner, counts(), total, tied, freeze);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.artzooka.artzooka.player;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a {@link PlayerPrincipal} controller parameter from the {@code token} request parameter.
+ * Missing tokens yield 400, unknown or revoked tokens yield 401. In {@code @MessageMapping} handlers
+ * the player is the one whose token the STOMP session connected with.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CurrentPlayer {
+}
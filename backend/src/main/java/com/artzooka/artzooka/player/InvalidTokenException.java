@@ -0,0 +1,7 @@
+package com.artzooka.artzooka.player;
+
+public class InvalidTokenException extends RuntimeException {
+    public InvalidTokenException() {
+        super("Invalid token");
+    }
+}
@@ -1,49 +1,53 @@
 package com.artzooka.artzooka.player;
 
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.artzooka.artzooka.room.RoomService;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
 
+/**
+ * Under the room's path, so a balancer that keeps each room on one node sends it to the node
+ * whose registry holds the room.
+ */
 @RestController
-@RequestMapping("/api/player")
+@RequestMapping("/api/rooms/{code}/avatar")
 @CrossOrigin(origins = "*")
 public class PlayerController {
     private final PlayerRepository playerRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomService roomService;
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomMailbox roomMailbox;
+    private final TransactionTemplate transactionTemplate;
 
-    public PlayerController(PlayerRepository playerRepository, SimpMessagingTemplate messagingTemplate) {
+    public PlayerController(PlayerRepository playerRepository, RoomService roomService, RoomEventPublisher roomEventPublisher, RoomMailbox roomMailbox, TransactionTemplate transactionTemplate) {
         this.playerRepository = playerRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.roomService = roomService;
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomMailbox = roomMailbox;
+        this.transactionTemplate = transactionTemplate;
     }
 
-    @PostMapping("/avatar")
-    @Transactional
-    public ResponseEntity<?> updateAvatar(@RequestParam("token") String token, @RequestBody Map<String, Object> body) {
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        String avatar = String.valueOf(body.getOrDefault("avatar", ""));
-        player.setAvatar(avatar);
-        playerRepository.save(player);
-
-        // broadcast to room
-        if (player.getRoom() != null) {
-            Map<String, Object> evt = Map.of(
-                    "type", "AVATAR_UPDATED",
-                    "roomCode", player.getRoom().getCode(),
-                    "player", Map.of(
-                            "id", player.getId(),
-                            "name", player.getName(),
-                            "isAdmin", player.isAdmin(),
-                            "avatar", player.getAvatar()
-                    )
-            );
-            messagingTemplate.convertAndSend("/topic/rooms/" + player.getRoom().getCode(), evt);
-        }
-
-        return ResponseEntity.ok(Map.of("ok", true));
+    @PostMapping
+    public ResponseEntity<?> updateAvatar(@PathVariable String code, @CurrentPlayer PlayerPrincipal player, @RequestBody Map<String, Object> body) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            if (!player.roomId().equals(roomOpt.get().id())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+
+            String avatar = String.valueOf(body.getOrDefault("avatar", ""));
+            playerRepository.updateAvatar(player.playerId(), avatar);
+            roomService.memberAvatarChanged(code, player.playerId(), avatar);
+
+            // broadcast to room
+            roomEventPublisher.publish(new RoomEvent.AvatarUpdated(code,
+                    new RoomEvent.Member(player.playerId(), player.name(), player.admin(), avatar)));
+
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 }
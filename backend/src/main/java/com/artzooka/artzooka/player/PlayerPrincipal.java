@@ -0,0 +1,10 @@
+package com.artzooka.artzooka.player;
+
+import java.util.UUID;
+
+/**
+ * Authenticated caller resolved from a session token. Carries only what request handling needs,
+ * so controllers no longer load the {@link Player} entity (and its room) to authorize a call.
+ */
+public record PlayerPrincipal(UUID playerId, UUID roomId, String roomCode, String name, boolean admin, boolean active) {
+}
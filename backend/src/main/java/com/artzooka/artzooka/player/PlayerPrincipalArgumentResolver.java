@@ -0,0 +1,32 @@
+package com.artzooka.artzooka.player;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.MissingServletRequestParameterException;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+@Component
+public class PlayerPrincipalArgumentResolver implements HandlerMethodArgumentResolver {
+    private final SessionTokenCache sessionTokenCache;
+
+    public PlayerPrincipalArgumentResolver(SessionTokenCache sessionTokenCache) {
+        this.sessionTokenCache = sessionTokenCache;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentPlayer.class)
+                && PlayerPrincipal.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
+        String token = webRequest.getParameter("token");
+        if (token == null) throw new MissingServletRequestParameterException("token", "String");
+        return sessionTokenCache.resolve(token).orElseThrow(InvalidTokenException::new);
+    }
+}
@@ -1,6 +1,10 @@
 package com.artzooka.artzooka.player;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -11,4 +15,21 @@ long countByRoom_Id(UUID roomId);
 Optional<Player> findBySessionToken(String sessionToken);
 List<Player> findByRoom_IdAndActiveTrue(UUID roomId);
 long countByRoom_IdAndActiveTrue(UUID roomId);
+List<Player> findByRoom_IdAndActiveTrueOrderByCreatedAtAsc(UUID roomId);
+
+    @Query("select new com.artzooka.artzooka.player.PlayerPrincipal(p.id, r.id, r.code, p.name, p.admin, p.active) " +
+            "from Player p join p.room r where p.sessionToken = :token")
+    Optional<PlayerPrincipal> findPrincipalBySessionToken(@Param("token") String token);
+
+    @Modifying
+    @Query("update Player p set p.active = false where p.id = :id")
+    int deactivate(@Param("id") UUID id);
+
+    @Modifying
+    @Query("update Player p set p.admin = true where p.id = :id")
+    int promoteToAdmin(@Param("id") UUID id);
+
+    @Modifying
+    @Query("update Player p set p.avatar = :avatar where p.id = :id")
+    int updateAvatar(@Param("id") UUID id, @Param("avatar") String avatar);
 }
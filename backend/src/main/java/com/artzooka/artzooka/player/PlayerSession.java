@@ -0,0 +1,14 @@
+package com.artzooka.artzooka.player;
+
+import java.security.Principal;
+
+/**
+ * User of a STOMP session that presented a session token on CONNECT. The name is the player id,
+ * so {@code /user/queue/...} destinations reach that player's sessions only.
+ */
+public record PlayerSession(PlayerPrincipal player, String token) implements Principal {
+    @Override
+    public String getName() {
+        return player.playerId().toString();
+    }
+}
@@ -0,0 +1,35 @@
+package com.artzooka.artzooka.player;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolver;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Binds {@link CurrentPlayer} parameters of {@code @MessageMapping} handlers from the session user.
+ * The token was checked on CONNECT; it is looked up again per message in {@link SessionTokenCache}
+ * (a map hit) so a leave or kick revokes an open session too.
+ */
+@Component
+public class PlayerSessionArgumentResolver implements HandlerMethodArgumentResolver {
+    private final SessionTokenCache sessionTokenCache;
+
+    public PlayerSessionArgumentResolver(SessionTokenCache sessionTokenCache) {
+        this.sessionTokenCache = sessionTokenCache;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentPlayer.class)
+                && PlayerPrincipal.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, Message<?> message) {
+        if (!(SimpMessageHeaderAccessor.getUser(message.getHeaders()) instanceof PlayerSession session)) {
+            throw new InvalidTokenException();
+        }
+        return sessionTokenCache.resolve(session.token()).orElseThrow(InvalidTokenException::new);
+    }
+}
@@ -0,0 +1,41 @@
+package com.artzooka.artzooka.player;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Authenticates a STOMP session once, from the {@code token} header of its CONNECT frame, and
+ * binds the player as the session user. Sessions without a token, or with one that is stale or
+ * revoked, connect unauthenticated and may still subscribe to room topics; only SENDs to
+ * application destinations need a player. Refusing the CONNECT instead would also cut the room
+ * topic, and the client would keep reconnecting with the same token.
+ */
+@Component
+public class PlayerSessionInterceptor implements ChannelInterceptor {
+    private final SessionTokenCache sessionTokenCache;
+
+    public PlayerSessionInterceptor(SessionTokenCache sessionTokenCache) {
+        this.sessionTokenCache = sessionTokenCache;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null) return message;
+        if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            String token = accessor.getFirstNativeHeader("token");
+            if (token != null) {
+                sessionTokenCache.resolve(token).ifPresent(player -> accessor.setUser(new PlayerSession(player, token)));
+            }
+        } else if (StompCommand.SEND.equals(accessor.getCommand()) && !(accessor.getUser() instanceof PlayerSession)) {
+            throw new MessageDeliveryException(message, "Connect with a session token to send");
+        }
+        return message;
+    }
+}
@@ -0,0 +1,167 @@
+package com.artzooka.artzooka.player;
+
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.room.MembershipService;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.artzooka.artzooka.room.RoomMember;
+import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.room.RoomSnapshot;
+import com.artzooka.artzooka.support.HashedWheelTimer;
+import com.artzooka.artzooka.support.HashedWheelTimer.Timeout;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Presence of players, from the lifecycle of their authenticated STOMP sessions. A player with no
+ * open session for {@code game-grace} leaves the running game, so the others stop waiting on their
+ * drawing or vote; after {@code room-grace} they leave the room too. A session that opens within
+ * the grace period cancels both.
+ * <p>
+ * Silent sockets need no work here: the broker checks STOMP heartbeats and closes a session whose
+ * client stopped sending them, which ends in the same disconnect event. Connect and disconnect are
+ * a map update and a timer schedule or cancel each, independent of how many sockets are open.
+ */
+@Component
+public class PresenceTracker {
+    private final RoomService roomService;
+    private final MembershipService membershipService;
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomMailbox roomMailbox;
+    private final TransactionTemplate transactionTemplate;
+    private final HashedWheelTimer timer;
+    private final long gameGraceNanos;
+    private final long roomGraceNanos;
+    private final Map<String, PlayerSession> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, Presence> players = new ConcurrentHashMap<>();
+    private final LongAdder leftGame = new LongAdder();
+    private final LongAdder leftRoom = new LongAdder();
+
+    public PresenceTracker(RoomService roomService,
+                           MembershipService membershipService,
+                           RoomEventPublisher roomEventPublisher,
+                           RoomMailbox roomMailbox,
+                           TransactionTemplate transactionTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${artzooka.presence.game-grace:30s}") Duration gameGrace,
+                           @Value("${artzooka.presence.room-grace:5m}") Duration roomGrace) {
+        this.roomService = roomService;
+        this.membershipService = membershipService;
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomMailbox = roomMailbox;
+        this.transactionTemplate = transactionTemplate;
+        this.gameGraceNanos = gameGrace.toNanos();
+        this.roomGraceNanos = roomGrace.toNanos();
+        this.timer = new HashedWheelTimer("presence-timer", 100, TimeUnit.MILLISECONDS, 512);
+        Gauge.builder("artzooka.presence.sessions", sessions, Map::size)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.presence.players", players, Map::size)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.presence.absent.pending", timer, HashedWheelTimer::pendingCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.presence.absent", leftGame, LongAdder::sum)
+                .tag("left", "game")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.presence.absent", leftRoom, LongAdder::sum)
+                .tag("left", "room")
+                .register(meterRegistry);
+    }
+
+    /** One player's open sessions and, while there are none, their grace timeouts. Guarded by itself. */
+    private static final class Presence {
+        final PlayerPrincipal player;
+        int sessions;
+        /** Bumped whenever a session opens, so a timeout armed before it does nothing. */
+        long epoch;
+        Timeout leaveGame;
+        Timeout leaveRoom;
+
+        Presence(PlayerPrincipal player) {
+            this.player = player;
+        }
+
+        void cancelTimeouts() {
+            if (leaveGame != null) leaveGame.cancel();
+            if (leaveRoom != null) leaveRoom.cancel();
+            leaveGame = null;
+            leaveRoom = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.close();
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        if (!(event.getUser() instanceof PlayerSession session)) return;
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (sessionId == null || sessions.putIfAbsent(sessionId, session) != null) return;
+        Presence presence = players.computeIfAbsent(session.player().playerId(), id -> new Presence(session.player()));
+        synchronized (presence) {
+            presence.sessions++;
+            presence.epoch++;
+            presence.cancelTimeouts();
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        // the event can be published more than once per session; only the first finds it
+        PlayerSession session = sessions.remove(event.getSessionId());
+        if (session == null) return;
+        Presence presence = players.get(session.player().playerId());
+        if (presence == null) return;
+        synchronized (presence) {
+            if (--presence.sessions > 0) return;
+            long epoch = presence.epoch;
+            presence.leaveGame = timer.schedule(() -> absent(presence, epoch, false), gameGraceNanos, TimeUnit.NANOSECONDS);
+            presence.leaveRoom = timer.schedule(() -> absent(presence, epoch, true), roomGraceNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** Still away after the grace period: leave the game, or the room, on the room's lane. */
+    private void absent(Presence presence, long epoch, boolean room) {
+        PlayerPrincipal player = presence.player;
+        roomMailbox.execute(player.roomCode(), () -> {
+            synchronized (presence) {
+                if (presence.sessions > 0 || presence.epoch != epoch) return;
+            }
+            transactionTemplate.executeWithoutResult(tx -> {
+                RoomSnapshot snapshot = roomService.findSnapshot(player.roomCode()).orElse(null);
+                RoomMember member = snapshot == null ? null : snapshot.member(player.playerId());
+                if (member == null) {
+                    players.remove(player.playerId(), presence);
+                    return;
+                }
+                if (room) {
+                    membershipService.leaveRoom(snapshot, player.playerId(), member.admin());
+                    players.remove(player.playerId(), presence);
+                    leftRoom.increment();
+                    System.out.println("[ARTZOOKA] Player gone, left room=" + player.roomCode() + " name=" + player.name());
+                } else if (membershipService.leaveGame(snapshot, player.playerId())) {
+                    roomEventPublisher.publish(new RoomEvent.PlayerLeftGame(player.roomCode(), player.playerId().toString(), member.name()));
+                    leftGame.increment();
+                    System.out.println("[ARTZOOKA] Player gone, left game room=" + player.roomCode() + " name=" + player.name());
+                }
+            });
+        });
+    }
+}
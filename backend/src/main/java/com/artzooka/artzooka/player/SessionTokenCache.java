@@ -0,0 +1,98 @@
+package com.artzooka.artzooka.player;
+
+import com.artzooka.artzooka.support.AfterCommit;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded token -> principal cache in front of {@link PlayerRepository#findPrincipalBySessionToken}.
+ * Entries expire after a TTL and are evicted by size; leave, kick and host changes invalidate
+ * explicitly so a revoked token stops working as soon as the change commits. A load that was
+ * reading while its player was invalidated may have seen the row from before that commit, so it
+ * reads again instead of caching what it got.
+ */
+@Component
+public class SessionTokenCache {
+    private final PlayerRepository playerRepository;
+    private final Cache<String, PlayerPrincipal> principals;
+    private final Map<UUID, String> tokensByPlayer = new ConcurrentHashMap<>();
+    /** Ticks once per invalidation; only compared between a load and its own player's last invalidation. */
+    private final AtomicLong clock = new AtomicLong();
+    /** Clock reading of each player's last invalidation, kept about as long as a principal would be. */
+    private final Cache<UUID, Long> invalidatedAt;
+
+    public SessionTokenCache(PlayerRepository playerRepository,
+                             MeterRegistry meterRegistry,
+                             @Value("${artzooka.sessions.cache.max-size:50000}") long maxSize,
+                             @Value("${artzooka.sessions.cache.ttl:10m}") Duration ttl) {
+        this.playerRepository = playerRepository;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .executor(Runnable::run)
+                .removalListener((String token, PlayerPrincipal principal, RemovalCause cause) -> {
+                    if (principal != null) tokensByPlayer.remove(principal.playerId(), token);
+                })
+                .recordStats()
+                .build();
+        this.invalidatedAt = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, principals, "session-tokens");
+        Gauge.builder("artzooka.sessions.cache.hit.ratio", principals, c -> c.stats().hitRate())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Principal for an active player holding {@code token}; empty for unknown tokens and for
+     * players that have left or were kicked.
+     */
+    public Optional<PlayerPrincipal> resolve(String token) {
+        if (token == null || token.isEmpty()) return Optional.empty();
+        PlayerPrincipal principal = principals.get(token, this::load);
+        if (principal == null || !principal.active()) return Optional.empty();
+        return Optional.of(principal);
+    }
+
+    public void invalidateToken(String token) {
+        AfterCommit.run(() -> principals.invalidate(token));
+    }
+
+    public void invalidatePlayer(UUID playerId) {
+        AfterCommit.run(() -> {
+            // stamped before the lookup: a load that registers its token after this sees the stamp
+            invalidatedAt.put(playerId, clock.incrementAndGet());
+            String token = tokensByPlayer.get(playerId);
+            if (token != null) principals.invalidate(token);
+        });
+    }
+
+    /**
+     * Runs inside the cache's compute for {@code token}, so an invalidation that found the token
+     * waits for it and then drops what it returned.
+     */
+    private PlayerPrincipal load(String token) {
+        while (true) {
+            long started = clock.get();
+            PlayerPrincipal principal = playerRepository.findPrincipalBySessionToken(token).orElse(null);
+            if (principal == null) return null;
+            tokensByPlayer.put(principal.playerId(), token);
+            Long invalidated = invalidatedAt.getIfPresent(principal.playerId());
+            if (invalidated == null || invalidated <= started) return principal;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.artzooka.artzooka.prompt;
+
+import com.artzooka.artzooka.game.GameSnapshot;
+import com.artzooka.artzooka.support.AfterCommit;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Sends each player of a new game their own prompt on {@value #DESTINATION}, so the draw phase
+ * starts without every client asking for it at once. The room topic only ever carries the common
+ * prompt; {@code GET /api/rooms/{code}/prompt} stays for clients that were not connected.
+ */
+@Component
+public class PromptPublisher {
+    public static final String DESTINATION = "/queue/prompt";
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    public PromptPublisher(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    /** One player's prompt for one game. */
+    public record PrivatePrompt(String roomCode, UUID gameId, String prompt) { }
+
+    /** Sends once the game's transaction commits, so a game that was rolled back reveals nothing. */
+    public void gameStarted(String roomCode, GameSnapshot game, Collection<UUID> players) {
+        List<UUID> recipients = List.copyOf(players);
+        AfterCommit.run(() -> {
+            for (UUID player : recipients) {
+                // user destinations resolve by principal name, which is the player id
+                messagingTemplate.convertAndSendToUser(player.toString(), DESTINATION,
+                        new PrivatePrompt(roomCode, game.id(), game.promptFor(player)));
+            }
+        });
+    }
+}
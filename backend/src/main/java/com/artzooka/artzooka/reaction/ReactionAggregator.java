@@ -0,0 +1,200 @@
+package com.artzooka.artzooka.reaction;
+
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.artzooka.artzooka.support.HashedWheelTimer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces emoji reactions into one {@code REACTION_BATCH} frame per room and flush interval,
+ * carrying a count per target and emoji, instead of one frame per tap to every subscriber.
+ * A room's first tap in a window arms a flush on a wheel timer; the flush runs on the room's
+ * mailbox lane, so batches stay in order with the room's other events. Counting a tap is a scan
+ * of a few array slots under the batch lock and allocates nothing.
+ * <p>
+ * Each player has a token bucket of {@code burst} taps refilled at {@code per-second}, kept as a
+ * single theoretical-arrival timestamp. Taps over the limit are refused and never reach a batch.
+ */
+@Component
+public class ReactionAggregator {
+    /** Distinct targets and emojis one batch counts; further kinds in the same window are dropped. */
+    static final int MAX_TARGETS = 16;
+    static final int MAX_EMOJIS = 16;
+
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomMailbox roomMailbox;
+    private final HashedWheelTimer timer;
+    private final long flushNanos;
+    private final long refillNanos;
+    private final long burstNanos;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private final Cache<UUID, AtomicLong> buckets;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+
+    public ReactionAggregator(RoomEventPublisher roomEventPublisher,
+                              RoomMailbox roomMailbox,
+                              MeterRegistry meterRegistry,
+                              @Value("${artzooka.reactions.flush-interval:100ms}") Duration flushInterval,
+                              @Value("${artzooka.reactions.burst:10}") int burst,
+                              @Value("${artzooka.reactions.per-second:5}") double perSecond) {
+        if (burst <= 0) throw new IllegalArgumentException("burst must be positive");
+        if (perSecond <= 0) throw new IllegalArgumentException("per-second must be positive");
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomMailbox = roomMailbox;
+        this.flushNanos = flushInterval.toNanos();
+        this.refillNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.burstNanos = refillNanos * burst;
+        // a bucket idle for longer than it takes to refill is full again, so it can be dropped
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofNanos(Math.max(burstNanos, TimeUnit.SECONDS.toNanos(1))))
+                .executor(Runnable::run)
+                .build();
+        this.timer = new HashedWheelTimer("reaction-flush", Math.max(1, flushNanos / 10), TimeUnit.NANOSECONDS, 64);
+        FunctionCounter.builder("artzooka.reactions", accepted, LongAdder::sum)
+                .tag("result", "accepted")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.reactions", limited, LongAdder::sum)
+                .tag("result", "limited")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.reactions", dropped, LongAdder::sum)
+                .tag("result", "dropped")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.reactions.frames", frames, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.reactions.batches.open", batches, Map::size)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.close();
+    }
+
+    /**
+     * Counts a validated reaction into the room's open batch. Returns false if the reactor is over
+     * their rate limit.
+     */
+    public boolean add(String roomCode, UUID gameId, UUID reactorId, UUID targetId, String emoji) {
+        if (!tryAcquire(reactorId)) {
+            limited.increment();
+            return false;
+        }
+        while (true) {
+            Batch batch = batches.computeIfAbsent(roomCode, Batch::new);
+            synchronized (batch) {
+                // flushed between the lookup and the lock: start the next window
+                if (batch.closed) continue;
+                if (batch.taps++ == 0) {
+                    timer.schedule(() -> roomMailbox.execute(roomCode, () -> flush(batch)), flushNanos, TimeUnit.NANOSECONDS);
+                }
+                batch.gameId = gameId;
+                if (batch.count(targetId, emoji)) accepted.increment();
+                else dropped.increment();
+            }
+            return true;
+        }
+    }
+
+    public long frameCount() { return frames.sum(); }
+
+    /**
+     * GCRA form of a token bucket: the bucket is empty up to the stored time, and a tap is allowed
+     * while that time is less than a full burst ahead of now.
+     */
+    private boolean tryAcquire(UUID playerId) {
+        AtomicLong tat = buckets.get(playerId, id -> new AtomicLong());
+        long now = System.nanoTime() - startNanos;
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + refillNanos;
+            if (next - now > burstNanos) return false;
+            if (tat.compareAndSet(current, next)) return true;
+        }
+    }
+
+    private void flush(Batch batch) {
+        RoomEvent.ReactionBatch frame;
+        synchronized (batch) {
+            batch.closed = true;
+            batches.remove(batch.roomCode, batch);
+            frame = batch.toFrame();
+        }
+        roomEventPublisher.publish(frame);
+        frames.increment();
+    }
+
+    /** Taps of one room within one flush window, counted by target slot and emoji slot. Guarded by itself. */
+    private static final class Batch {
+        final String roomCode;
+        final UUID[] targets = new UUID[MAX_TARGETS];
+        final String[] emojis = new String[MAX_EMOJIS];
+        final int[] counts = new int[MAX_TARGETS * MAX_EMOJIS];
+        int targetCount;
+        int emojiCount;
+        int taps;
+        UUID gameId;
+        boolean closed;
+
+        Batch(String roomCode) {
+            this.roomCode = roomCode;
+        }
+
+        boolean count(UUID targetId, String emoji) {
+            int t = slot(targets, targetCount, targetId);
+            if (t < 0) {
+                if (targetCount == MAX_TARGETS) return false;
+                t = targetCount;
+            }
+            int e = slot(emojis, emojiCount, emoji);
+            if (e < 0) {
+                if (emojiCount == MAX_EMOJIS) return false;
+                e = emojiCount;
+            }
+            if (t == targetCount) targets[targetCount++] = targetId;
+            if (e == emojiCount) emojis[emojiCount++] = emoji;
+            counts[t * MAX_EMOJIS + e]++;
+            return true;
+        }
+
+        RoomEvent.ReactionBatch toFrame() {
+            Map<String, Map<String, Integer>> byTarget = new LinkedHashMap<>();
+            for (int t = 0; t < targetCount; t++) {
+                Map<String, Integer> byEmoji = new LinkedHashMap<>();
+                for (int e = 0; e < emojiCount; e++) {
+                    int n = counts[t * MAX_EMOJIS + e];
+                    if (n > 0) byEmoji.put(emojis[e], n);
+                }
+                byTarget.put(targets[t].toString(), byEmoji);
+            }
+            return new RoomEvent.ReactionBatch(roomCode, gameId, byTarget);
+        }
+
+        private static <T> int slot(T[] keys, int size, T key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i].equals(key)) return i;
+            }
+            return -1;
+        }
+    }
+}
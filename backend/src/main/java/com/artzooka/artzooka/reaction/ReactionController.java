@@ -1,16 +1,19 @@
 package com.artzooka.artzooka.reaction;
 
-import com.artzooka.artzooka.game.Game;
-import com.artzooka.artzooka.game.GameRepository;
-import com.artzooka.artzooka.player.Player;
-import com.artzooka.artzooka.player.PlayerRepository;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.GameSnapshot;
+import com.artzooka.artzooka.player.CurrentPlayer;
+import com.artzooka.artzooka.player.PlayerPrincipal;
 import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.support.Outcome;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -18,52 +21,64 @@ import java.util.UUID;
 @RequestMapping("/api/rooms/{code}/reactions")
 @CrossOrigin(origins = "*")
 public class ReactionController {
+    /** Longest emoji sequence accepted, in UTF-16 units; enough for flags and skin-tone variants. */
+    private static final int MAX_EMOJI_LENGTH = 16;
+
     private final RoomService roomService;
-    private final PlayerRepository playerRepository;
-    private final GameRepository gameRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final CurrentGameResolver currentGameResolver;
+    private final ReactionAggregator reactionAggregator;
 
-    public ReactionController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, SimpMessagingTemplate messagingTemplate) {
+    public ReactionController(RoomService roomService, CurrentGameResolver currentGameResolver, ReactionAggregator reactionAggregator) {
         this.roomService = roomService;
-        this.playerRepository = playerRepository;
-        this.gameRepository = gameRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.currentGameResolver = currentGameResolver;
+        this.reactionAggregator = reactionAggregator;
     }
 
+    /** A reaction sent over the room's STOMP session, to {@code /app/rooms/{code}/reactions}. */
+    public record ReactionMessage(UUID targetId, String emoji) { }
+
     @PostMapping
-    @Transactional
     public ResponseEntity<?> react(@PathVariable String code,
-                                   @RequestParam("token") String token,
+                                   @CurrentPlayer PlayerPrincipal reactor,
                                    @RequestParam("targetId") UUID targetId,
                                    @RequestParam("emoji") String emoji) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player reactor = playerOpt.get();
-        if (!reactor.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+        return accept(code, reactor, targetId, emoji).toResponse();
+    }
+
+    @MessageMapping("/rooms/{code}/reactions")
+    @SendToUser(destinations = "/queue/acks", broadcast = false)
+    public Map<String, Object> react(@DestinationVariable String code,
+                                     @CurrentPlayer PlayerPrincipal reactor,
+                                     @Payload ReactionMessage reaction,
+                                     @Header(name = "request-id", required = false) String requestId) {
+        if (reaction.targetId() == null || reaction.emoji() == null) {
+            return Outcome.error(400, "targetId and emoji are required").toAck("REACTION", requestId);
+        }
+        Outcome outcome = accept(code, reactor, reaction.targetId(), reaction.emoji());
+        // taps are fire-and-forget: only failures, or messages that asked with a request-id, get an ack
+        if (outcome.isOk() && requestId == null) return null;
+        return outcome.toAck("REACTION", requestId);
+    }
+
+    private Outcome accept(String code, PlayerPrincipal reactor, UUID targetId, String emoji) {
+        // validated against the room registry and the cached game; no transaction, no SQL on a hit
+        var roomOpt = roomService.findSnapshot(code);
+        if (roomOpt.isEmpty()) return Outcome.notFound();
+        if (!reactor.roomId().equals(roomOpt.get().id())) return Outcome.error(403, "Token not for this room");
 
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty()) return Outcome.error(400, "Game not started");
+        GameSnapshot game = gameOpt.get();
 
         // ensure target belongs to room
-        var targetOpt = playerRepository.findById(targetId);
-        if (targetOpt.isEmpty() || !targetOpt.get().getRoom().getId().equals(roomOpt.get().getId())) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Invalid target"));
+        if (!roomOpt.get().hasMember(targetId)) {
+            return Outcome.error(400, "Invalid target");
         }
+        if (emoji.isEmpty() || emoji.length() > MAX_EMOJI_LENGTH) return Outcome.error(400, "Invalid emoji");
 
-        // broadcast lightweight reaction event
-        Map<String, Object> evt = Map.of(
-                "type", "REACTION",
-                "roomCode", code,
-                "gameId", game.getId(),
-                "targetId", targetId,
-                "emoji", emoji
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        return ResponseEntity.ok(Map.of("ok", true));
+        if (!reactionAggregator.add(code, game.id(), reactor.playerId(), targetId, emoji)) {
+            return Outcome.error(429, "Too many reactions");
+        }
+        return Outcome.ok();
     }
 }
-
-
@@ -0,0 +1,32 @@
+package com.artzooka.artzooka.retention;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/retention}: rows and upload bytes reclaimed by the last retention run and since startup.
+ */
+@Component
+@Endpoint(id = "retention")
+public class RetentionEndpoint {
+    private final RetentionService retentionService;
+
+    public RetentionEndpoint(RetentionService retentionService) {
+        this.retentionService = retentionService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> report() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("enabled", retentionService.isEnabled());
+        body.put("roomIdleAfter", retentionService.getRoomIdleAfter().toString());
+        body.put("uploadGrace", retentionService.getUploadGrace().toString());
+        body.put("lastRun", retentionService.getLastRun());
+        body.put("totals", retentionService.getTotals());
+        return body;
+    }
+}
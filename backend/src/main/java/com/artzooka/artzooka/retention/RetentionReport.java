@@ -0,0 +1,38 @@
+package com.artzooka.artzooka.retention;
+
+import java.time.OffsetDateTime;
+
+/**
+ * What one retention run (or all runs since startup) removed.
+ */
+public record RetentionReport(OffsetDateTime startedAt,
+                              long durationMs,
+                              long rooms,
+                              long players,
+                              long games,
+                              long drawings,
+                              long votes,
+                              long participants,
+                              long files,
+                              long bytesReclaimed) {
+
+    static RetentionReport empty(OffsetDateTime startedAt) {
+        return new RetentionReport(startedAt, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    public long rows() {
+        return rooms + players + games + drawings + votes + participants;
+    }
+
+    RetentionReport plus(RetentionReport other) {
+        return new RetentionReport(startedAt, durationMs + other.durationMs,
+                rooms + other.rooms, players + other.players, games + other.games,
+                drawings + other.drawings, votes + other.votes, participants + other.participants,
+                files + other.files, bytesReclaimed + other.bytesReclaimed);
+    }
+
+    RetentionReport withDuration(long durationMs) {
+        return new RetentionReport(startedAt, durationMs, rooms, players, games, drawings, votes,
+                participants, files, bytesReclaimed);
+    }
+}
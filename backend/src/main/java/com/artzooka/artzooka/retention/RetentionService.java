@@ -0,0 +1,341 @@
+package com.artzooka.artzooka.retention;
+
+import com.artzooka.artzooka.drawing.DrawingStore;
+import com.artzooka.artzooka.drawing.DrawingVariants;
+import com.artzooka.artzooka.drawing.GalleryManifests;
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.VoteTally;
+import com.artzooka.artzooka.player.SessionTokenCache;
+import com.artzooka.artzooka.room.RoomInvalidated;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.support.AfterCommit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Hard-deletes rooms that have sat idle in the lobby past {@code artzooka.retention.room-idle-after},
+ * together with their players, games, drawings and votes, and garbage-collects the {@code uploads}
+ * tree. Rooms go in keyset batches over {@code idx_rooms_idle}, one short transaction per batch;
+ * rows are locked with SKIP LOCKED so a room being joined right now is left for the next run.
+ *
+ * <p>The upload sweep is a mark-and-sweep against the database, one room directory batch at a time:
+ * directories of rooms or games that no longer exist, files no drawing row points to (unsubmitted
+ * drawings, failed uploads) and stale temp files are deleted once they are older than the upload
+ * grace period, so an upload whose row is not committed yet is never touched.
+ *
+ * <p>Runs on the scheduler thread only; nothing here is on a request path.
+ */
+@Service
+public class RetentionService {
+    private static final String FIRST_ROOMS =
+            "SELECT id, code, last_active_at FROM rooms WHERE status = 'LOBBY' AND last_active_at < ? " +
+            "ORDER BY last_active_at, id LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String NEXT_ROOMS =
+            "SELECT id, code, last_active_at FROM rooms WHERE status = 'LOBBY' AND last_active_at < ? " +
+            "AND (last_active_at, id) > (?, ?) ORDER BY last_active_at, id LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String ROOM_PLAYERS = "SELECT id FROM players WHERE room_id = ANY(?)";
+    private static final String ROOM_GAMES = "SELECT id FROM games WHERE room_id = ANY(?)";
+    private static final String DELETE_VOTES = "DELETE FROM votes WHERE game_id IN (" + ROOM_GAMES + ")";
+    private static final String DELETE_DRAWINGS = "DELETE FROM drawings WHERE game_id IN (" + ROOM_GAMES + ")";
+    private static final String DELETE_PARTICIPANTS = "DELETE FROM game_participants WHERE game_id IN (" + ROOM_GAMES + ")";
+    // games go before players: games.imposter_player_id does not cascade
+    private static final String DELETE_GAMES = "DELETE FROM games WHERE room_id = ANY(?)";
+    private static final String DELETE_PLAYERS = "DELETE FROM players WHERE room_id = ANY(?)";
+    private static final String DELETE_ROOMS = "DELETE FROM rooms WHERE id = ANY(?)";
+
+    private static final String EXISTING_ROOMS = "SELECT code FROM rooms WHERE code = ANY(?)";
+    private static final String EXISTING_GAMES = "SELECT id FROM games WHERE id = ANY(?)";
+    private static final String REFERENCED_FILES = "SELECT file_path FROM drawings WHERE game_id = ANY(?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RoomService roomService;
+    private final RoomMailbox roomMailbox;
+    private final CurrentGameResolver currentGameResolver;
+    private final CompletionTracker completionTracker;
+    private final VoteTally voteTally;
+    private final SessionTokenCache sessionTokenCache;
+    private final DrawingStore drawingStore;
+    private final DrawingVariants drawingVariants;
+    private final GalleryManifests galleryManifests;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final Duration roomIdleAfter;
+    private final Duration uploadGrace;
+    private final int batchSize;
+    private final Path uploadsRoot;
+    private final ReentrantLock running = new ReentrantLock();
+    private volatile RetentionReport lastRun;
+    private volatile RetentionReport totals;
+
+    public RetentionService(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            RoomService roomService,
+                            RoomMailbox roomMailbox,
+                            CurrentGameResolver currentGameResolver,
+                            CompletionTracker completionTracker,
+                            VoteTally voteTally,
+                            SessionTokenCache sessionTokenCache,
+                            DrawingStore drawingStore,
+                            DrawingVariants drawingVariants,
+                            GalleryManifests galleryManifests,
+                            ApplicationEventPublisher eventPublisher,
+                            @Value("${artzooka.retention.enabled:true}") boolean enabled,
+                            @Value("${artzooka.retention.room-idle-after:24h}") Duration roomIdleAfter,
+                            @Value("${artzooka.retention.upload-grace:1h}") Duration uploadGrace,
+                            @Value("${artzooka.retention.batch-size:100}") int batchSize,
+                            @Value("${artzooka.uploads.dir:uploads}") String uploadsDir) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.roomService = roomService;
+        this.roomMailbox = roomMailbox;
+        this.currentGameResolver = currentGameResolver;
+        this.completionTracker = completionTracker;
+        this.voteTally = voteTally;
+        this.sessionTokenCache = sessionTokenCache;
+        this.drawingStore = drawingStore;
+        this.drawingVariants = drawingVariants;
+        this.galleryManifests = galleryManifests;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.roomIdleAfter = roomIdleAfter;
+        this.uploadGrace = uploadGrace;
+        this.batchSize = batchSize;
+        this.uploadsRoot = Path.of(uploadsDir);
+        this.totals = RetentionReport.empty(OffsetDateTime.now());
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public Duration getRoomIdleAfter() { return roomIdleAfter; }
+    public Duration getUploadGrace() { return uploadGrace; }
+    public RetentionReport getLastRun() { return lastRun; }
+    public RetentionReport getTotals() { return totals; }
+
+    /** One page of the keyset walk over idle rooms. */
+    private record IdleRoom(UUID id, String code, OffsetDateTime lastActiveAt) { }
+
+    private record BatchResult(int selected, IdleRoom last, List<String> codes, RetentionReport removed) { }
+
+    @Scheduled(initialDelayString = "${artzooka.retention.initial-delay-ms:60000}",
+               fixedDelayString = "${artzooka.retention.interval-ms:600000}")
+    public void scheduledRun() {
+        if (enabled) run();
+    }
+
+    /**
+     * Runs one retention pass. Returns null if a pass is already running.
+     */
+    public RetentionReport run() {
+        if (!running.tryLock()) return null;
+        try {
+            OffsetDateTime startedAt = OffsetDateTime.now();
+            long started = System.nanoTime();
+            RetentionReport report = purgeIdleRooms(startedAt.minus(roomIdleAfter), RetentionReport.empty(startedAt));
+            report = sweepUploads(Instant.now().minus(uploadGrace), report);
+            report = report.withDuration(Duration.ofNanos(System.nanoTime() - started).toMillis());
+            lastRun = report;
+            totals = totals.plus(report);
+            if (report.rows() > 0 || report.files() > 0) {
+                System.out.println("[ARTZOOKA] Retention removed rooms=" + report.rooms() + " rows=" + report.rows()
+                        + " files=" + report.files() + " bytes=" + report.bytesReclaimed());
+            }
+            return report;
+        } finally {
+            running.unlock();
+        }
+    }
+
+    private RetentionReport purgeIdleRooms(OffsetDateTime cutoff, RetentionReport report) {
+        IdleRoom cursor = null;
+        while (true) {
+            IdleRoom after = cursor;
+            BatchResult batch = transactionTemplate.execute(tx -> deleteBatch(cutoff, after));
+            report = report.plus(batch.removed());
+            // the rows are gone; their upload directories go with them, outside the transaction
+            for (String code : batch.codes()) {
+                report = report.plus(deleteTree(uploadsRoot.resolve(code)));
+            }
+            if (batch.selected() < batchSize) return report;
+            cursor = batch.last();
+        }
+    }
+
+    private BatchResult deleteBatch(OffsetDateTime cutoff, IdleRoom after) {
+        List<IdleRoom> page = after == null
+                ? jdbcTemplate.query(FIRST_ROOMS, (rs, i) -> toIdleRoom(rs), cutoff, batchSize)
+                : jdbcTemplate.query(NEXT_ROOMS, (rs, i) -> toIdleRoom(rs), cutoff, after.lastActiveAt(), after.id(), batchSize);
+        if (page.isEmpty()) return new BatchResult(0, after, List.of(), RetentionReport.empty(null));
+
+        UUID[] ids = page.stream().map(IdleRoom::id).toArray(UUID[]::new);
+        List<UUID> playerIds = jdbcTemplate.query(ROOM_PLAYERS, ps -> setArray(ps, "uuid", ids), (rs, i) -> rs.getObject("id", UUID.class));
+        long votes = jdbcTemplate.update(DELETE_VOTES, ps -> setArray(ps, "uuid", ids));
+        long drawings = jdbcTemplate.update(DELETE_DRAWINGS, ps -> setArray(ps, "uuid", ids));
+        long participants = jdbcTemplate.update(DELETE_PARTICIPANTS, ps -> setArray(ps, "uuid", ids));
+        long games = jdbcTemplate.update(DELETE_GAMES, ps -> setArray(ps, "uuid", ids));
+        long players = jdbcTemplate.update(DELETE_PLAYERS, ps -> setArray(ps, "uuid", ids));
+        long rooms = jdbcTemplate.update(DELETE_ROOMS, ps -> setArray(ps, "uuid", ids));
+        // out of the registry before the delete is visible, so a join cannot find the room there
+        page.forEach(room -> roomService.roomDeleting(room.code()));
+
+        // caches follow the rows only once they are gone, each room's on its own lane so no task sees half of it
+        AfterCommit.run(() -> {
+            for (IdleRoom room : page) {
+                roomMailbox.execute(room.code(), () -> evict(room));
+                roomMailbox.retire(room.code());
+                // other nodes may have cached the room too
+                eventPublisher.publishEvent(new RoomInvalidated(room.code(), room.id()));
+            }
+            playerIds.forEach(sessionTokenCache::invalidatePlayer);
+        });
+
+        List<String> codes = page.stream().map(IdleRoom::code).toList();
+        RetentionReport removed = new RetentionReport(null, 0, rooms, players, games, drawings, votes, participants, 0, 0);
+        return new BatchResult(page.size(), page.get(page.size() - 1), codes, removed);
+    }
+
+    private void evict(IdleRoom room) {
+        roomService.roomDeleted(room.code());
+        currentGameResolver.evict(room.id());
+        completionTracker.evict(room.id());
+        voteTally.evict(room.id());
+        galleryManifests.evict(room.id());
+    }
+
+    private RetentionReport sweepUploads(Instant olderThan, RetentionReport report) {
+        if (!Files.isDirectory(uploadsRoot)) return report;
+        List<Path> roomDirs;
+        try (Stream<Path> entries = Files.list(uploadsRoot)) {
+            roomDirs = entries.filter(Files::isDirectory).toList();
+        } catch (IOException e) {
+            System.out.println("[ARTZOOKA] Retention could not list uploads: " + e.getMessage());
+            return report;
+        }
+        for (int from = 0; from < roomDirs.size(); from += batchSize) {
+            report = report.plus(sweepRoomDirs(roomDirs.subList(from, Math.min(from + batchSize, roomDirs.size())), olderThan));
+        }
+        return report;
+    }
+
+    private RetentionReport sweepRoomDirs(List<Path> roomDirs, Instant olderThan) {
+        RetentionReport removed = RetentionReport.empty(null);
+        String[] codes = roomDirs.stream().map(dir -> dir.getFileName().toString()).toArray(String[]::new);
+        Set<String> liveRooms = new HashSet<>(jdbcTemplate.query(EXISTING_ROOMS,
+                ps -> setArray(ps, "varchar", codes), (rs, i) -> rs.getString("code")));
+
+        List<Path> gameDirs = new ArrayList<>();
+        for (Path roomDir : roomDirs) {
+            if (!liveRooms.contains(roomDir.getFileName().toString())) {
+                if (olderThan(roomDir, olderThan)) removed = removed.plus(deleteTree(roomDir));
+                continue;
+            }
+            try (Stream<Path> entries = Files.list(roomDir)) {
+                entries.forEach(gameDirs::add);
+            } catch (IOException e) {
+                System.out.println("[ARTZOOKA] Retention could not list " + roomDir + ": " + e.getMessage());
+            }
+        }
+        if (gameDirs.isEmpty()) return removed;
+
+        UUID[] gameIds = gameDirs.stream().map(RetentionService::gameIdOf).filter(Objects::nonNull).toArray(UUID[]::new);
+        Set<UUID> liveGames = new HashSet<>(jdbcTemplate.query(EXISTING_GAMES,
+                ps -> setArray(ps, "uuid", gameIds), (rs, i) -> rs.getObject("id", UUID.class)));
+        Set<String> referenced = new HashSet<>();
+        for (String key : jdbcTemplate.query(REFERENCED_FILES,
+                ps -> setArray(ps, "uuid", gameIds), (rs, i) -> rs.getString("file_path"))) {
+            // a drawing keeps its file (or segment) and the smaller copies made from it
+            referenced.add(drawingStore.fileOf(key));
+            referenced.addAll(drawingVariants.variantFilesOf(key));
+        }
+
+        for (Path gameDir : gameDirs) {
+            UUID gameId = gameIdOf(gameDir);
+            if (gameId == null || !liveGames.contains(gameId)) {
+                if (olderThan(gameDir, olderThan)) removed = removed.plus(deleteTree(gameDir));
+                continue;
+            }
+            try (Stream<Path> files = Files.list(gameDir)) {
+                for (Path file : files.toList()) {
+                    String relative = uploadsRoot.relativize(file).toString();
+                    if (!referenced.contains(relative) && olderThan(file, olderThan)) {
+                        removed = removed.plus(deleteTree(file));
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("[ARTZOOKA] Retention could not list " + gameDir + ": " + e.getMessage());
+            }
+        }
+        return removed;
+    }
+
+    /** Deletes a file or directory tree, reporting what it freed. */
+    private static RetentionReport deleteTree(Path root) {
+        if (!Files.exists(root)) return RetentionReport.empty(null);
+        long files = 0;
+        long bytes = 0;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                Files.deleteIfExists(path);
+                if (attributes.isRegularFile()) {
+                    files++;
+                    bytes += attributes.size();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("[ARTZOOKA] Retention could not delete " + root + ": " + e.getMessage());
+        }
+        return new RetentionReport(null, 0, 0, 0, 0, 0, 0, 0, files, bytes);
+    }
+
+    private static boolean olderThan(Path path, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static UUID gameIdOf(Path gameDir) {
+        try {
+            return UUID.fromString(gameDir.getFileName().toString());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static IdleRoom toIdleRoom(ResultSet rs) throws SQLException {
+        return new IdleRoom(rs.getObject("id", UUID.class), rs.getString("code"),
+                rs.getObject("last_active_at", OffsetDateTime.class));
+    }
+
+    private static void setArray(PreparedStatement ps, String type, Object[] values) throws SQLException {
+        ps.setArray(1, ps.getConnection().createArrayOf(type, values));
+    }
+}
@@ -0,0 +1,97 @@
+package com.artzooka.artzooka.room;
+
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.GameParticipant;
+import com.artzooka.artzooka.game.GameParticipantRepository;
+import com.artzooka.artzooka.game.GamePhaseService;
+import com.artzooka.artzooka.game.GameSnapshot;
+import com.artzooka.artzooka.player.PlayerRepository;
+import com.artzooka.artzooka.player.SessionTokenCache;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Players leaving a room, or only its running game: because they asked to, were kicked, or were
+ * gone for longer than the presence grace period. Leaving the game may complete the phase everyone
+ * else was waiting on.
+ *
+ * <p>Must be called from inside the room's lane and transaction.
+ */
+@Service
+public class MembershipService {
+    private final RoomService roomService;
+    private final PlayerRepository playerRepository;
+    private final SessionTokenCache sessionTokenCache;
+    private final CurrentGameResolver currentGameResolver;
+    private final CompletionTracker completionTracker;
+    private final GameParticipantRepository gameParticipantRepository;
+    private final GamePhaseService gamePhaseService;
+    private final RoomEventPublisher roomEventPublisher;
+
+    public MembershipService(RoomService roomService, PlayerRepository playerRepository, SessionTokenCache sessionTokenCache, CurrentGameResolver currentGameResolver, CompletionTracker completionTracker, GameParticipantRepository gameParticipantRepository, GamePhaseService gamePhaseService, RoomEventPublisher roomEventPublisher) {
+        this.roomService = roomService;
+        this.playerRepository = playerRepository;
+        this.sessionTokenCache = sessionTokenCache;
+        this.currentGameResolver = currentGameResolver;
+        this.completionTracker = completionTracker;
+        this.gameParticipantRepository = gameParticipantRepository;
+        this.gamePhaseService = gamePhaseService;
+        this.roomEventPublisher = roomEventPublisher;
+    }
+
+    /** Deactivates the player, hands the host role on if they held it, and tells the room. */
+    public void leaveRoom(RoomSnapshot room, UUID playerId, boolean wasAdmin) {
+        // soft deletion instead of hard deletion
+        playerRepository.deactivate(playerId);
+        sessionTokenCache.invalidatePlayer(playerId);
+
+        UUID newAdminId = wasAdmin ? promoteSuccessor(room, playerId) : null;
+        roomService.memberLeft(room.code(), playerId, newAdminId);
+        roomEventPublisher.publish(new RoomEvent.PlayerLeft(room.code(), playerId));
+    }
+
+    /**
+     * Takes the player out of the running game while they stay in the room, then ends the game or
+     * moves it to the next phase if they were the last one everyone was waiting for. Returns false
+     * if they were not an active participant of a running game.
+     */
+    public boolean leaveGame(RoomSnapshot room, UUID playerId) {
+        Optional<GameSnapshot> gameOpt = currentGameResolver.resolve(room);
+        if (gameOpt.isEmpty()) return false;
+        GameSnapshot currentGame = gameOpt.get();
+        CompletionTracker.Completion completion = completionTracker.of(currentGame);
+
+        GameParticipant participant = gameParticipantRepository.findByGame_IdAndPlayer_Id(currentGame.id(), playerId);
+        if (participant == null || !participant.isActive()) return false;
+        participant.setActive(false);
+        participant.setLeftAt(OffsetDateTime.now());
+        gameParticipantRepository.save(participant);
+        completion.left(playerId);
+
+        String status = room.status();
+        if (completion.activeCountWithout(playerId) == 0) {
+            System.out.println("[ARTZOOKA] All players left active game, ending game automatically");
+            gamePhaseService.endGame(room, currentGame.id(), "All players left");
+        } else if ("DRAWING".equals(status) && completion.allSubmittedWithout(playerId)) {
+            // the one everyone was waiting for left
+            gamePhaseService.startVoting(room, currentGame);
+        } else if ("VOTING".equals(status) && completion.allVotedWithout(playerId)) {
+            gamePhaseService.showResults(room, currentGame);
+        }
+        return true;
+    }
+
+    private UUID promoteSuccessor(RoomSnapshot room, UUID leavingId) {
+        RoomMember successor = room.successorOf(leavingId);
+        if (successor == null) return null;
+        playerRepository.promoteToAdmin(successor.id());
+        sessionTokenCache.invalidatePlayer(successor.id());
+        return successor.id();
+    }
+}
@@ -29,6 +29,12 @@ private OffsetDateTime createdAt = OffsetDateTime.now();
     @Column(name = "max_players", nullable = false)
     private int maxPlayers = 8;
 
+    @Column(name = "current_game_id")
+    private UUID currentGameId;
+
+    @Column(name = "last_active_at", nullable = false)
+    private OffsetDateTime lastActiveAt = OffsetDateTime.now();
+
 public UUID getId() { return id; }
 public String getCode() { return code; }
 public String getStatus() { return status; }
@@ -36,10 +42,13 @@ public OffsetDateTime getCreatedAt() { return createdAt; }
 public int getDrawSeconds() { return drawSeconds; }
 public int getVoteSeconds() { return voteSeconds; }
 public int getMaxPlayers() { return maxPlayers; }
+    public UUID getCurrentGameId() { return currentGameId; }
+    public OffsetDateTime getLastActiveAt() { return lastActiveAt; }
 
 public void setCode(String code) { this.code = code; }
 public void setStatus(String status) { this.status = status; }
 public void setDrawSeconds(int drawSeconds) { this.drawSeconds = drawSeconds; }
 public void setVoteSeconds(int voteSeconds) { this.voteSeconds = voteSeconds; }
 public void setMaxPlayers(int maxPlayers) { this.maxPlayers = maxPlayers; }
+    public void setCurrentGameId(UUID currentGameId) { this.currentGameId = currentGameId; }
 }
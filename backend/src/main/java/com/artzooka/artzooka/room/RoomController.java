@@ -1,19 +1,39 @@
 package com.artzooka.artzooka.room;
 
+import com.artzooka.artzooka.drawing.GalleryManifest;
+import com.artzooka.artzooka.drawing.GalleryManifests;
+import com.artzooka.artzooka.event.EncodedEvent;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventLog;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.player.CurrentPlayer;
 import com.artzooka.artzooka.player.Player;
+import com.artzooka.artzooka.player.PlayerPrincipal;
 import com.artzooka.artzooka.player.PlayerRepository;
 import com.artzooka.artzooka.prompt.PromptPair;
 import com.artzooka.artzooka.prompt.PromptPairRepository;
+import com.artzooka.artzooka.prompt.PromptPublisher;
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.GamePhaseService;
 import com.artzooka.artzooka.game.Game;
 import com.artzooka.artzooka.game.GameRepository;
+import com.artzooka.artzooka.game.GameSnapshot;
 import com.artzooka.artzooka.game.GameParticipant;
 import com.artzooka.artzooka.game.GameParticipantRepository;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import com.artzooka.artzooka.game.VoteTally;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.*;
 import java.util.LinkedHashMap;
 
@@ -24,18 +44,40 @@ public class RoomController {
     private final RoomService roomService;
     private final PlayerRepository playerRepository;
     private final GameRepository gameRepository;
+    private final CurrentGameResolver currentGameResolver;
+    private final GamePhaseService gamePhaseService;
     private final GameParticipantRepository gameParticipantRepository;
+    private final CompletionTracker completionTracker;
+    private final VoteTally voteTally;
     private final PromptPairRepository promptPairRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final PromptPublisher promptPublisher;
+    private final MembershipService membershipService;
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomEventLog roomEventLog;
+    private final RoomMailbox roomMailbox;
+    private final TransactionTemplate transactionTemplate;
+    private final GalleryManifests galleryManifests;
+    private final Duration maxGameDuration;
 private static final SecureRandom RANDOM = new SecureRandom();
 
-    public RoomController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, GameParticipantRepository gameParticipantRepository, PromptPairRepository promptPairRepository, SimpMessagingTemplate messagingTemplate) {
+    public RoomController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, CurrentGameResolver currentGameResolver, GamePhaseService gamePhaseService, GameParticipantRepository gameParticipantRepository, CompletionTracker completionTracker, VoteTally voteTally, PromptPairRepository promptPairRepository, PromptPublisher promptPublisher, MembershipService membershipService, RoomEventPublisher roomEventPublisher, RoomEventLog roomEventLog, RoomMailbox roomMailbox, TransactionTemplate transactionTemplate, GalleryManifests galleryManifests, @Value("${artzooka.games.max-duration:10m}") Duration maxGameDuration) {
         this.roomService = roomService;
         this.playerRepository = playerRepository;
         this.gameRepository = gameRepository;
+        this.currentGameResolver = currentGameResolver;
+        this.gamePhaseService = gamePhaseService;
         this.gameParticipantRepository = gameParticipantRepository;
+        this.completionTracker = completionTracker;
+        this.voteTally = voteTally;
         this.promptPairRepository = promptPairRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.promptPublisher = promptPublisher;
+        this.membershipService = membershipService;
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomEventLog = roomEventLog;
+        this.roomMailbox = roomMailbox;
+        this.transactionTemplate = transactionTemplate;
+        this.galleryManifests = galleryManifests;
+        this.maxGameDuration = maxGameDuration;
     }
 
 @PostMapping
@@ -46,386 +88,344 @@ return ResponseEntity.ok(Map.of("id", room.getId(), "code", room.getCode(), "sta
 }
 
 @PostMapping("/{code}/join")
-@Transactional
 public ResponseEntity<?> joinRoom(@PathVariable String code, @RequestBody Map<String, Object> body) {
-Optional<Room> roomOpt = roomService.findByCode(code);
-if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-Room room = roomOpt.get();
-
-        // enforce capacity: max 8 active players
-        long current = playerRepository.countByRoom_IdAndActiveTrue(room.getId());
-        if (current >= 8) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Room is full (max 8 players)"));
-        }
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+    Optional<RoomSnapshot> roomOpt = roomService.findSnapshot(code);
+    if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+    RoomSnapshot room = roomOpt.get();
+            // the snapshot can outlive a retention delete; the row decides
+            if (!roomService.keepAlive(room)) return ResponseEntity.notFound().build();
+
+            // enforce capacity: max 8 active players
+            long current = room.activeCount();
+            if (current >= 8) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Room is full (max 8 players)"));
+            }
 
-Player player = new Player();
-player.setRoom(room);
-        player.setName(String.valueOf(body.getOrDefault("name", "Player" + RANDOM.nextInt(1000))));
-        boolean isFirst = current == 0;
-player.setAdmin(isFirst);
-        // assign session token on join
-        player.setSessionToken(java.util.UUID.randomUUID().toString());
-playerRepository.save(player);
-
-        // broadcast lobby update (no sensitive info)
-        Map<String, Object> playerDto = new java.util.LinkedHashMap<>();
-        playerDto.put("id", player.getId());
-        playerDto.put("name", player.getName());
-        playerDto.put("isAdmin", player.isAdmin());
-        playerDto.put("avatar", player.getAvatar());
-
-        Map<String, Object> lobbyEvent = new java.util.LinkedHashMap<>();
-        lobbyEvent.put("type", "PLAYER_JOINED");
-        lobbyEvent.put("roomCode", room.getCode());
-        lobbyEvent.put("player", playerDto);
-        messagingTemplate.convertAndSend("/topic/rooms/" + room.getCode(), lobbyEvent);
-
-        System.out.println("[ARTZOOKA] Player joined room=" + room.getCode() + " name=" + player.getName());
-        return ResponseEntity.ok(Map.of(
-                "playerId", player.getId(),
-                "isAdmin", player.isAdmin(),
-                "sessionToken", player.getSessionToken()
-        ));
-}
+    Player player = new Player();
+    player.setRoom(roomService.reference(room.id()));
+            player.setName(String.valueOf(body.getOrDefault("name", "Player" + RANDOM.nextInt(1000))));
+            boolean isFirst = current == 0;
+    player.setAdmin(isFirst);
+            // assign session token on join
+            player.setSessionToken(java.util.UUID.randomUUID().toString());
+    playerRepository.save(player);
+            roomService.memberJoined(room.code(), player);
+
+            // broadcast lobby update (no sensitive info)
+            roomEventPublisher.publish(new RoomEvent.PlayerJoined(room.code(),
+                    new RoomEvent.Member(player.getId(), player.getName(), player.isAdmin(), player.getAvatar())));
+
+            System.out.println("[ARTZOOKA] Player joined room=" + room.code() + " name=" + player.getName());
+            return ResponseEntity.ok(Map.of(
+                    "playerId", player.getId(),
+                    "isAdmin", player.isAdmin(),
+                    "sessionToken", player.getSessionToken()
+            ));
+        }));
+    }
 
 @PostMapping("/{code}/start")
-@Transactional
     public ResponseEntity<?> startGame(@PathVariable String code) {
-Optional<Room> roomOpt = roomService.findByCode(code);
-if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-Room room = roomOpt.get();
-        List<Player> players = playerRepository.findByRoom_IdAndActiveTrue(room.getId());
-if (players.size() < 3) return ResponseEntity.badRequest().body(Map.of("error", "Need at least 3 players"));
-        // pre-start countdown (synced)
-        long now = System.currentTimeMillis();
-        int countdownSeconds = 3;
-        long startAt = now + 800; // small buffer so everyone sees the first number
-        Map<String, Object> pre = Map.of(
-                "type", "GAME_COUNTDOWN",
-                "roomCode", room.getCode(),
-                "startAt", startAt,
-                "seconds", countdownSeconds
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + room.getCode(), pre);
-
-List<PromptPair> pairs = promptPairRepository.findAll();
-if (pairs.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "No prompts available"));
-PromptPair pair = pairs.get(RANDOM.nextInt(pairs.size()));
-
-Player imposter = players.get(RANDOM.nextInt(players.size()));
-Game game = new Game();
-game.setRoom(room);
-game.setImposter(imposter);
-game.setPromptCommon(pair.getCommonPrompt());
-game.setPromptImposter(pair.getImposterPrompt());
-gameRepository.save(game);
-
-        // Create game participants for all active players
-        for (Player player : players) {
-            GameParticipant participant = new GameParticipant();
-            participant.setGame(game);
-            participant.setPlayer(player);
-            gameParticipantRepository.save(participant);
-        }
-
-        // Update room status to DRAWING
-        room.setStatus("DRAWING");
-        roomService.save(room);
-
-        // broadcast game start to lobby without revealing imposter
-        long serverTime = startAt + countdownSeconds * 1000L;
-        int drawSeconds = room.getDrawSeconds();
-        int voteSeconds = room.getVoteSeconds();
-        long voteStartTime = serverTime + drawSeconds * 1000L;
-        Map<String, Object> startEvent = new java.util.LinkedHashMap<>();
-        startEvent.put("type", "GAME_STARTED");
-        startEvent.put("roomCode", room.getCode());
-        startEvent.put("gameId", game.getId());
-        startEvent.put("promptCommon", pair.getCommonPrompt());
-        startEvent.put("serverTime", serverTime);
-        startEvent.put("drawSeconds", drawSeconds);
-        startEvent.put("voteSeconds", voteSeconds);
-        startEvent.put("voteStartTime", voteStartTime);
-        
-        // Add active participants list
-        List<String> activeParticipantIds = players.stream()
-                .map(p -> p.getId().toString())
-                .toList();
-        startEvent.put("activeGameParticipants", activeParticipantIds);
-        
-        messagingTemplate.convertAndSend("/topic/rooms/" + room.getCode(), startEvent);
-
-        // do not expose imposterId or imposter prompt in this response
-        return ResponseEntity.ok(Map.of(
-                "gameId", game.getId(),
-                "roomId", room.getId(),
-                "promptCommon", pair.getCommonPrompt()
-        ));
-}
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+    Optional<RoomSnapshot> roomOpt = roomService.findSnapshot(code);
+    if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+    RoomSnapshot room = roomOpt.get();
+            List<RoomMember> players = room.members();
+    if (players.size() < 3) return ResponseEntity.badRequest().body(Map.of("error", "Need at least 3 players"));
+            // pre-start countdown (synced)
+            long now = System.currentTimeMillis();
+            int countdownSeconds = 3;
+            long startAt = now + 800; // small buffer so everyone sees the first number
+
+    List<PromptPair> pairs = promptPairRepository.findAll();
+    if (pairs.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "No prompts available"));
+    PromptPair pair = pairs.get(RANDOM.nextInt(pairs.size()));
+
+            long serverTime = startAt + countdownSeconds * 1000L;
+            int drawSeconds = room.drawSeconds();
+            int voteSeconds = room.voteSeconds();
+            long voteStartTime = serverTime + drawSeconds * 1000L;
+
+    RoomMember imposter = players.get(RANDOM.nextInt(players.size()));
+    Game game = new Game();
+    game.setRoom(roomService.reference(room.id()));
+    game.setImposter(playerRepository.getReferenceById(imposter.id()));
+    game.setPromptCommon(pair.getCommonPrompt());
+    game.setPromptImposter(pair.getImposterPrompt());
+            game.setStartsAt(toTimestamp(serverTime));
+            game.setDrawEndsAt(toTimestamp(voteStartTime));
+            game.setVoteEndsAt(toTimestamp(voteStartTime + voteSeconds * 1000L));
+        game.setExpiresAt(toTimestamp(now + maxGameDuration.toMillis()));
+    gameRepository.save(game);
+
+            // Create game participants for all active players
+            for (RoomMember player : players) {
+                GameParticipant participant = new GameParticipant();
+                participant.setGame(game);
+                participant.setPlayer(playerRepository.getReferenceById(player.id()));
+                gameParticipantRepository.save(participant);
+            }
+            CompletionTracker.Completion completion =
+                    completionTracker.gameStarted(room.id(), game.getId(), players.stream().map(RoomMember::id).toList());
+
+            // Update room status to DRAWING
+            roomService.updateStatus(room, "DRAWING");
+            roomService.gameStarted(room, game.getId());
+            GameSnapshot started = GameSnapshot.of(game);
+        currentGameResolver.put(started);
+            voteTally.gameStarted(started, completion);
+        gamePhaseService.gameStarted(room, started);
+
+            // each player's own prompt goes out with the countdown, so nobody has to ask for it
+            roomEventPublisher.publish(new RoomEvent.GameCountdown(room.code(), startAt, countdownSeconds));
+            promptPublisher.gameStarted(room.code(), started, players.stream().map(RoomMember::id).toList());
+
+            // broadcast game start to lobby without revealing imposter
+            List<String> activeParticipantIds = players.stream()
+                    .map(p -> p.id().toString())
+                    .toList();
+            roomEventPublisher.publish(new RoomEvent.GameStarted(room.code(), game.getId(), pair.getCommonPrompt(),
+                    serverTime, drawSeconds, voteSeconds, voteStartTime, activeParticipantIds));
+
+            // do not expose imposterId or imposter prompt in this response
+            return ResponseEntity.ok(Map.of(
+                    "gameId", game.getId(),
+                    "roomId", room.id(),
+                    "promptCommon", pair.getCommonPrompt()
+            ));
+        }));
+    }
 
     @GetMapping("/{code}")
     @Transactional(readOnly = true)
     public ResponseEntity<?> getRoomState(@PathVariable String code) {
-        Optional<Room> roomOpt = roomService.findByCode(code);
+        Optional<RoomSnapshot> roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        Room room = roomOpt.get();
-        List<Player> players = playerRepository.findByRoom_IdAndActiveTrue(room.getId());
+        return ResponseEntity.ok(roomState(roomOpt.get()));
+    }
+
+    /**
+     * What a reconnecting client missed since the last event number it saw: the events themselves
+     * while the room's log still has them all, otherwise the room's state, its running game and vote
+     * tally together with the number of the last event they reflect.
+     */
+    @GetMapping("/{code}/events")
+    public ResponseEntity<?> missedEvents(@PathVariable String code, @RequestParam long since) {
+        String mediaBase = ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+        // on the room's lane, so no event of this room is published while the snapshot is taken
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            Optional<RoomSnapshot> roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            List<EncodedEvent> missed = roomEventLog.since(code, since);
+            if (missed != null) {
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(eventsJson(missed));
+            }
+            RoomSnapshot room = roomOpt.get();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("seq", roomEventLog.lastSeq(code));
+            snapshot.put("room", roomState(room));
+            snapshot.put("game", room.inGame()
+                    ? currentGameResolver.resolve(room).map(game -> gameState(room, game, mediaBase)).orElse(null)
+                    : null);
+            snapshot.put("tally", currentGameResolver.resolve(room).map(game -> {
+                VoteTally.Tally tally = voteTally.of(game);
+                // as the result endpoint does: a node that did not close the vote freezes it from the stored votes
+                return !tally.isFrozen() && "RESULTS".equals(room.status()) ? tally.freeze() : tally.result();
+            }).orElse(null));
+            return ResponseEntity.ok(snapshot);
+        }));
+    }
+
+    /**
+     * What GAME_STARTED, DISCUSS_STARTED and DRAWING_UPLOADED told the room about its running game,
+     * in their field names, for a client that missed them.
+     */
+    private Map<String, Object> gameState(RoomSnapshot room, GameSnapshot game, String mediaBase) {
+        long startsAt = game.startsAt().toInstant().toEpochMilli();
+        long drawEndsAt = game.drawEndsAt().toInstant().toEpochMilli();
+        long voteEndsAt = game.voteEndsAt().toInstant().toEpochMilli();
+        // voting that started early was given the room's vote length from that moment
+        long voteStartTime = "DRAWING".equals(room.status()) ? drawEndsAt : voteEndsAt - room.voteSeconds() * 1000L;
+        GalleryManifest gallery = galleryManifests.get(room.id(), game.id());
+
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("gameId", game.id());
+        state.put("promptCommon", game.promptCommon());
+        state.put("serverTime", startsAt);
+        state.put("drawSeconds", (int) ((drawEndsAt - startsAt) / 1000));
+        state.put("voteSeconds", room.voteSeconds());
+        state.put("voteStartTime", voteStartTime);
+        state.put("phaseEndsAt", switch (room.status()) {
+            case "DRAWING" -> drawEndsAt;
+            case "VOTING" -> voteEndsAt;
+            default -> null;
+        });
+        state.put("gallery", Map.of("gameId", game.id(), "version", gallery.version(), "drawings", gallery.drawings(mediaBase)));
+        return state;
+    }
+
+    private Map<String, Object> roomState(RoomSnapshot room) {
         List<Map<String, Object>> playerDtos = new ArrayList<>();
-        for (Player p : players) {
+        for (RoomMember p : room.members()) {
             java.util.Map<String, Object> dto = new java.util.LinkedHashMap<>();
-            dto.put("id", p.getId());
-            dto.put("name", p.getName());
-            dto.put("isAdmin", p.isAdmin());
-            dto.put("avatar", p.getAvatar());
+            dto.put("id", p.id());
+            dto.put("name", p.name());
+            dto.put("isAdmin", p.admin());
+            dto.put("avatar", p.avatar());
             playerDtos.add(dto);
         }
         // Get active game participants if there's an active game
         List<String> activeGameParticipants = new ArrayList<>();
-        if (room.getStatus().equals("DRAWING") || room.getStatus().equals("VOTING") || room.getStatus().equals("RESULTS")) {
-            List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(room.getId());
-            if (!games.isEmpty()) {
-                Game currentGame = games.get(0);
-                activeGameParticipants = gameParticipantRepository.findByGame_IdAndActiveTrue(currentGame.getId())
-                        .stream()
-                        .map(participant -> participant.getPlayer().getId().toString())
-                        .toList();
-            }
+        if (room.inGame() && room.currentGameId() != null) {
+            activeGameParticipants = currentGameResolver.resolve(room)
+                    .map(game -> completionTracker.of(game).activePlayers().stream().map(UUID::toString).toList())
+                    .orElse(List.of());
         }
         
         Map<String, Object> response = new LinkedHashMap<>();
-        response.put("id", room.getId());
-        response.put("code", room.getCode());
-        response.put("status", room.getStatus());
+        response.put("id", room.id());
+        response.put("code", room.code());
+        response.put("status", room.status());
         response.put("players", playerDtos);
-        response.put("drawSeconds", room.getDrawSeconds());
-        response.put("voteSeconds", room.getVoteSeconds());
-        response.put("maxPlayers", room.getMaxPlayers());
+        response.put("drawSeconds", room.drawSeconds());
+        response.put("voteSeconds", room.voteSeconds());
+        response.put("maxPlayers", room.maxPlayers());
         response.put("activeGameParticipants", activeGameParticipants);
-        
-        return ResponseEntity.ok(response);
+        return response;
+    }
+
+    /** {@code {"events":[...]}} from the events' stored JSON, without encoding them again. */
+    private static byte[] eventsJson(List<EncodedEvent> events) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("{\"events\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) out.write(',');
+            out.writeBytes(events.get(i).json());
+        }
+        out.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
     }
 
     @PostMapping("/{code}/settings")
-    @Transactional
-    public ResponseEntity<?> updateSettings(@PathVariable String code, @RequestParam("token") String token, @RequestBody Map<String, Object> body) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        Room room = roomOpt.get();
-        var adminOpt = playerRepository.findBySessionToken(token);
-        if (adminOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        var admin = adminOpt.get();
-        if (!admin.isAdmin() || !admin.getRoom().getId().equals(room.getId())) return ResponseEntity.status(403).body(Map.of("error","Only host can edit"));
-
-        Integer draw = (Integer) body.getOrDefault("drawSeconds", room.getDrawSeconds());
-        Integer vote = (Integer) body.getOrDefault("voteSeconds", room.getVoteSeconds());
-        // max players is fixed at 8
-        Integer maxP = 8;
-        // clamp values
-        draw = Math.max(15, Math.min(300, draw));
-        vote = Math.max(15, Math.min(180, vote));
-        maxP = Math.max(2, Math.min(16, maxP));
-        room.setDrawSeconds(draw);
-        room.setVoteSeconds(vote);
-        room.setMaxPlayers(8);
-
-        // push to lobby subscribers
-        Map<String, Object> evt = Map.of(
-                "type", "SETTINGS_UPDATED",
-                "roomCode", code,
-                "drawSeconds", draw,
-                "voteSeconds", vote,
-                "maxPlayers", 8
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        return ResponseEntity.ok(Map.of("ok", true));
+    public ResponseEntity<?> updateSettings(@PathVariable String code, @CurrentPlayer PlayerPrincipal admin, @RequestBody Map<String, Object> body) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            RoomSnapshot room = roomOpt.get();
+            if (!admin.admin() || !admin.roomId().equals(room.id())) return ResponseEntity.status(403).body(Map.of("error","Only host can edit"));
+
+            Integer draw = (Integer) body.getOrDefault("drawSeconds", room.drawSeconds());
+            Integer vote = (Integer) body.getOrDefault("voteSeconds", room.voteSeconds());
+            // max players is fixed at 8
+            Integer maxP = 8;
+            // clamp values
+            draw = Math.max(15, Math.min(300, draw));
+            vote = Math.max(15, Math.min(180, vote));
+            maxP = Math.max(2, Math.min(16, maxP));
+            roomService.updateSettings(room, draw, vote, 8);
+
+            // push to lobby subscribers
+            roomEventPublisher.publish(new RoomEvent.SettingsUpdated(code, draw, vote, 8));
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 
     @PostMapping("/{code}/leave")
-    @Transactional
-    public ResponseEntity<?> leaveRoom(@PathVariable String code, @RequestParam("token") String token) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        if (!player.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
-
-        boolean wasAdmin = player.isAdmin();
-        // Use soft deletion instead of hard deletion
-        player.setActive(false);
-        playerRepository.save(player);
-
-        // reassign admin if needed
-        if (wasAdmin) {
-            var remaining = playerRepository.findByRoom_IdAndActiveTrue(roomOpt.get().getId());
-            if (!remaining.isEmpty()) {
-                remaining.get(0).setAdmin(true);
-                playerRepository.save(remaining.get(0));
-            }
-        }
-
-        Map<String, Object> evt = Map.of(
-                "type", "PLAYER_LEFT",
-                "roomCode", code,
-                "playerId", player.getId()
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        System.out.println("[ARTZOOKA] Player left room=" + code + " name=" + player.getName());
-        return ResponseEntity.ok(Map.of("ok", true));
+    public ResponseEntity<?> leaveRoom(@PathVariable String code, @CurrentPlayer PlayerPrincipal player) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            if (!player.roomId().equals(roomOpt.get().id())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+
+            membershipService.leaveRoom(roomOpt.get(), player.playerId(), player.admin());
+            System.out.println("[ARTZOOKA] Player left room=" + code + " name=" + player.name());
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 
     @DeleteMapping("/{code}/players/{playerId}")
-    @Transactional
-    public ResponseEntity<?> kickPlayer(@PathVariable String code, @PathVariable UUID playerId, @RequestParam("token") String token) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var adminOpt = playerRepository.findBySessionToken(token);
-        if (adminOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player admin = adminOpt.get();
-        if (!admin.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
-        if (!admin.isAdmin()) return ResponseEntity.status(403).body(Map.of("error", "Only host can kick"));
-
-        var targetOpt = playerRepository.findById(playerId);
-        if (targetOpt.isEmpty()) return ResponseEntity.notFound().build();
-        Player target = targetOpt.get();
-        if (!target.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(400).body(Map.of("error", "Player not in this room"));
-
-        boolean wasAdmin = target.isAdmin();
-        // Use soft deletion instead of hard deletion
-        target.setActive(false);
-        playerRepository.save(target);
-
-        if (wasAdmin) {
-            var remaining = playerRepository.findByRoom_IdAndActiveTrue(roomOpt.get().getId());
-            if (!remaining.isEmpty()) {
-                remaining.get(0).setAdmin(true);
-                playerRepository.save(remaining.get(0));
+    public ResponseEntity<?> kickPlayer(@PathVariable String code, @PathVariable UUID playerId, @CurrentPlayer PlayerPrincipal admin) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            if (!admin.roomId().equals(roomOpt.get().id())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+            if (!admin.admin()) return ResponseEntity.status(403).body(Map.of("error", "Only host can kick"));
+
+            RoomMember target = roomOpt.get().member(playerId);
+            if (target == null) {
+                if (!playerRepository.existsById(playerId)) return ResponseEntity.notFound().build();
+                return ResponseEntity.status(400).body(Map.of("error", "Player not in this room"));
             }
-        }
 
-        Map<String, Object> evt = Map.of(
-                "type", "PLAYER_LEFT",
-                "roomCode", code,
-                "playerId", target.getId()
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        System.out.println("[ARTZOOKA] Player kicked room=" + code + " name=" + target.getName());
-        return ResponseEntity.ok(Map.of("ok", true));
+            membershipService.leaveRoom(roomOpt.get(), target.id(), target.admin());
+            System.out.println("[ARTZOOKA] Player kicked room=" + code + " name=" + target.name());
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 
+    /** Fallback for {@link PromptPublisher}: served from the room registry and game cache, without a query once warm. */
     @GetMapping("/{code}/prompt")
     @Transactional(readOnly = true)
-    public ResponseEntity<?> getPlayerPrompt(@PathVariable String code, @RequestParam("token") String token) {
-        Optional<Room> roomOpt = roomService.findByCode(code);
+    public ResponseEntity<?> getPlayerPrompt(@PathVariable String code, @CurrentPlayer PlayerPrincipal player) {
+        Optional<RoomSnapshot> roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        Room room = roomOpt.get();
+        RoomSnapshot room = roomOpt.get();
 
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        if (!player.getRoom().getId().equals(room.getId())) {
+        if (!player.roomId().equals(room.id())) {
             return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
         }
 
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(room.getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
+        Optional<GameSnapshot> gameOpt = currentGameResolver.resolve(room);
+        if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+        GameSnapshot game = gameOpt.get();
 
-        String prompt = player.getId().equals(game.getImposter().getId()) ? game.getPromptImposter() : game.getPromptCommon();
         return ResponseEntity.ok(Map.of(
-                "gameId", game.getId(),
-                "prompt", prompt
+                "gameId", game.id(),
+                "prompt", game.promptFor(player.playerId())
         ));
     }
 
     @PostMapping("/{code}/reset")
-    @Transactional
-    public ResponseEntity<?> resetRoom(@PathVariable String code, @RequestParam("token") String token) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var adminOpt = playerRepository.findBySessionToken(token);
-        if (adminOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        var admin = adminOpt.get();
-        if (!admin.isAdmin() || !admin.getRoom().getId().equals(roomOpt.get().getId())) {
-            return ResponseEntity.status(403).body(Map.of("error", "Only host can reset room"));
-        }
+    public ResponseEntity<?> resetRoom(@PathVariable String code, @CurrentPlayer PlayerPrincipal admin) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            if (!admin.admin() || !admin.roomId().equals(roomOpt.get().id())) {
+                return ResponseEntity.status(403).body(Map.of("error", "Only host can reset room"));
+            }
 
-        // Reset room status back to LOBBY
-        var room = roomOpt.get();
-        room.setStatus("LOBBY");
-        roomService.save(room);
-
-        // Broadcast room reset event
-        Map<String, Object> evt = Map.of(
-                "type", "ROOM_RESET",
-                "roomCode", code
-        );
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        System.out.println("[ARTZOOKA] Room reset to lobby: " + code);
-        return ResponseEntity.ok(Map.of("ok", true));
+            // Back to LOBBY; the current game is completed and its timers dropped
+            gamePhaseService.resetRoom(roomOpt.get());
+            System.out.println("[ARTZOOKA] Room reset to lobby: " + code);
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 
     @PostMapping("/{code}/leave-game")
-    @Transactional
-    public ResponseEntity<?> leaveGame(@PathVariable String code, @RequestParam("token") String token) {
-        System.out.println("[ARTZOOKA] /leave-game endpoint called - code=" + code + ", token=" + token);
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player player = playerOpt.get();
-        if (!player.getRoom().getId().equals(roomOpt.get().getId())) {
-            return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
-        }
-
-        // Player leaves the active game but stays in the room
-        // This means they won't participate in the current game but can join the next one
-        
-        // Find the current active game for this room
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (!games.isEmpty()) {
-            Game currentGame = games.get(0);
-            
-            // Mark the player as inactive in the current game
-            GameParticipant participant = gameParticipantRepository.findByGame_IdAndPlayer_Id(currentGame.getId(), player.getId());
-            if (participant != null && participant.isActive()) {
-                participant.setActive(false);
-                participant.setLeftAt(java.time.OffsetDateTime.now());
-                gameParticipantRepository.save(participant);
-                
-                // Check if all participants have left the game
-                long activeParticipants = gameParticipantRepository.countByGame_IdAndActiveTrue(currentGame.getId());
-                if (activeParticipants == 0) {
-                    // All players have left the active game, end it
-                    System.out.println("[ARTZOOKA] All players left active game, ending game automatically");
-                    
-                    // Reset room status back to LOBBY
-                    var room = roomOpt.get();
-                    room.setStatus("LOBBY");
-                    roomService.save(room);
-                    
-                    // Broadcast that the game has ended
-                    Map<String, Object> gameEndedEvent = Map.of(
-                            "type", "GAME_ENDED",
-                            "roomCode", code,
-                            "reason", "All players left"
-                    );
-                    messagingTemplate.convertAndSend("/topic/rooms/" + code, gameEndedEvent);
-                }
+    public ResponseEntity<?> leaveGame(@PathVariable String code, @CurrentPlayer PlayerPrincipal player) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            System.out.println("[ARTZOOKA] /leave-game endpoint called - code=" + code + ", player=" + player.playerId());
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            if (!player.roomId().equals(roomOpt.get().id())) {
+                return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
             }
-        }
-        
-        // Broadcast that player left the active game (not the room)
-        Map<String, Object> evt = Map.of(
-                "type", "PLAYER_LEFT_GAME",
-                "roomCode", code,
-                "playerId", player.getId().toString(),
-                "playerName", player.getName()
-        );
-        System.out.println("[ARTZOOKA] Sending PLAYER_LEFT_GAME WebSocket event: playerId=" + player.getId().toString() + ", playerName=" + player.getName());
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        System.out.println("[ARTZOOKA] PLAYER_LEFT_GAME WebSocket event sent successfully");
-        System.out.println("[ARTZOOKA] Player left active game (but stayed in room): " + player.getName());
-        return ResponseEntity.ok(Map.of("ok", true));
+
+            // Player leaves the active game but stays in the room
+            // This means they won't participate in the current game but can join the next one
+            membershipService.leaveGame(roomOpt.get(), player.playerId());
+
+            // Broadcast that player left the active game (not the room)
+            System.out.println("[ARTZOOKA] Sending PLAYER_LEFT_GAME WebSocket event: playerId=" + player.playerId().toString() + ", playerName=" + player.name());
+            roomEventPublisher.publish(new RoomEvent.PlayerLeftGame(code, player.playerId().toString(), player.name()));
+            System.out.println("[ARTZOOKA] PLAYER_LEFT_GAME WebSocket event sent successfully");
+            System.out.println("[ARTZOOKA] Player left active game (but stayed in room): " + player.name());
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
+    }
+
+    private static java.time.OffsetDateTime toTimestamp(long epochMillis) {
+        return java.time.Instant.ofEpochMilli(epochMillis).atOffset(java.time.ZoneOffset.UTC);
     }
 }
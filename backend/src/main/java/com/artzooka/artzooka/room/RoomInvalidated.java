@@ -0,0 +1,10 @@
+package com.artzooka.artzooka.room;
+
+import java.util.UUID;
+
+/**
+ * Published when a room changed without an event telling its clients, such as a delete by
+ * retention, so every node drops what it cached about it. Other nodes hear of it through the
+ * cluster relay.
+ */
+public record RoomInvalidated(String code, UUID roomId) { }
@@ -0,0 +1,187 @@
+package com.artzooka.artzooka.room;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-writer execution per room. Every task submitted for a room code runs on the shared pool
+ * one at a time and in submission order, while different rooms run in parallel. Mutations that
+ * check-then-act on room state (capacity, phase transitions) are therefore race-free without
+ * table locks or serializable transactions, as long as the whole transaction runs inside the task.
+ * A task that calls back into its own room runs inline instead of queueing behind itself.
+ */
+@Component
+public class RoomMailbox {
+    /** Tasks a lane runs before yielding its pool thread to other rooms. */
+    private static final int BATCH = 32;
+    private static final ThreadLocal<String> CURRENT_ROOM = new ThreadLocal<>();
+
+    private final ExecutorService pool;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public RoomMailbox(@Value("${artzooka.mailbox.threads:16}") int threads, MeterRegistry meterRegistry) {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "room-mailbox-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.pool = Executors.newFixedThreadPool(threads, factory);
+        Gauge.builder("artzooka.room.mailbox.lanes", lanes, Map::size)
+                .register(meterRegistry);
+        Gauge.builder("artzooka.room.mailbox.pending", pending, AtomicInteger::get)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the task on the room's lane and waits for its result. Unchecked exceptions are rethrown
+     * as-is; checked ones are wrapped in a {@link CompletionException}.
+     */
+    public <T> T call(String code, Callable<T> task) {
+        if (code.equals(CURRENT_ROOM.get())) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }
+        try {
+            return submit(code, task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Runs the task on the room's lane without blocking the caller, for callers (like STOMP inbound
+     * threads) that should not be parked while other rooms wait. Runs inline when already on the lane.
+     */
+    public <T> CompletableFuture<T> submit(String code, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable run = () -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        };
+        if (code.equals(CURRENT_ROOM.get())) run.run();
+        else enqueue(code, run);
+        return result;
+    }
+
+    /**
+     * Queues the task on the room's lane without waiting. Failures are logged and do not stop the lane.
+     */
+    public void execute(String code, Runnable task) {
+        enqueue(code, task);
+    }
+
+    /**
+     * Drops the lane of a room that no longer exists. A lane that is running or has tasks queued is
+     * dropped once it runs dry, so there is never a second lane for the code running alongside it.
+     */
+    public void retire(String code) {
+        Lane lane = lanes.get(code);
+        if (lane == null) return;
+        lane.retireRequested = true;
+        lanes.computeIfPresent(code, (k, current) -> current.retireIfIdle() ? null : current);
+    }
+
+    public int laneCount() { return lanes.size(); }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void enqueue(String code, Runnable task) {
+        // a lane retired between the lookup and the offer refuses it; the next lookup makes a new one
+        while (!lanes.computeIfAbsent(code, Lane::new).offer(task)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final String code;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** Set by {@link #retire}; the lane leaves the map the next time it is found idle. */
+        volatile boolean retireRequested;
+        /** Guarded by this; once set, the lane takes no more tasks. */
+        private boolean retired;
+
+        Lane(String code) {
+            this.code = code;
+        }
+
+        synchronized boolean offer(Runnable task) {
+            if (retired) return false;
+            pending.incrementAndGet();
+            tasks.add(task);
+            schedule();
+            return true;
+        }
+
+        synchronized boolean retireIfIdle() {
+            if (retired) return true;
+            if (!tasks.isEmpty() || scheduled.get()) return false;
+            retired = true;
+            return true;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            CURRENT_ROOM.set(code);
+            try {
+                Runnable task;
+                for (int i = 0; i < BATCH && (task = tasks.poll()) != null; i++) {
+                    pending.decrementAndGet();
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        System.out.println("[ARTZOOKA] Room task failed room=" + code + " error=" + t);
+                    }
+                }
+            } finally {
+                CURRENT_ROOM.remove();
+                scheduled.set(false);
+                // a submit that raced with the reset above would otherwise sit unscheduled
+                if (!tasks.isEmpty()) schedule();
+                else if (retireRequested) lanes.computeIfPresent(code, (k, current) -> current == this && retireIfIdle() ? null : current);
+            }
+        }
+    }
+}
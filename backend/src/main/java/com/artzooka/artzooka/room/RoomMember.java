@@ -0,0 +1,22 @@
+package com.artzooka.artzooka.room;
+
+import com.artzooka.artzooka.player.Player;
+
+import java.util.UUID;
+
+/**
+ * Immutable view of an active player as held by {@link RoomRegistry}.
+ */
+public record RoomMember(UUID id, String name, boolean admin, String avatar) {
+    public static RoomMember of(Player player) {
+        return new RoomMember(player.getId(), player.getName(), player.isAdmin(), player.getAvatar());
+    }
+
+    public RoomMember withAdmin(boolean admin) {
+        return new RoomMember(id, name, admin, avatar);
+    }
+
+    public RoomMember withAvatar(String avatar) {
+        return new RoomMember(id, name, admin, avatar);
+    }
+}
@@ -0,0 +1,135 @@
+package com.artzooka.artzooka.room;
+
+import com.artzooka.artzooka.player.PlayerRepository;
+import com.artzooka.artzooka.support.AfterCommit;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory snapshot of every room that has been touched since startup, keyed by room code.
+ * Postgres remains the system of record: the registry is filled from the database on a miss
+ * and kept current by write-through updates that are applied once the writing transaction commits.
+ * A hit costs no SQL at all. A room is read again once {@code expire-after-write} has passed since it
+ * was last loaded or written here, so a write by another node that this node was not told about is
+ * not served for longer than that.
+ */
+@Component
+public class RoomRegistry {
+    private final RoomRepository roomRepository;
+    private final PlayerRepository playerRepository;
+    private final Map<String, RoomSnapshot> rooms;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    /**
+     * A ticket per code whose miss is being read from the database. A write-through to that code
+     * takes the ticket away, and a load without its ticket is not cached; other rooms' writes do not
+     * touch it.
+     */
+    private final Map<String, Object> loading = new ConcurrentHashMap<>();
+
+    public RoomRegistry(RoomRepository roomRepository, PlayerRepository playerRepository, MeterRegistry meterRegistry,
+                        @Value("${artzooka.rooms.registry.expire-after-write:10m}") Duration expireAfterWrite) {
+        this.roomRepository = roomRepository;
+        this.playerRepository = playerRepository;
+        this.rooms = Caffeine.newBuilder()
+                .expireAfterWrite(expireAfterWrite)
+                .executor(Runnable::run)
+                .<String, RoomSnapshot>build()
+                .asMap();
+        FunctionCounter.builder("artzooka.room.registry.lookups", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("artzooka.room.registry.lookups", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("artzooka.room.registry.size", rooms, Map::size)
+                .register(meterRegistry);
+    }
+
+    public Optional<RoomSnapshot> find(String code) {
+        RoomSnapshot snapshot = rooms.get(code);
+        if (snapshot != null) {
+            hits.increment();
+            return Optional.of(snapshot);
+        }
+        misses.increment();
+        // loaded outside the map, so a slow load holds up no other room; a write-through to this
+        // room that lands while it runs could be missing from what was read, so then it is not cached
+        Object ticket = new Object();
+        loading.put(code, ticket);
+        RoomSnapshot loaded = load(code);
+        if (loaded == null) {
+            loading.remove(code, ticket);
+            return Optional.empty();
+        }
+        RoomSnapshot resident = rooms.compute(code, (k, current) -> {
+            boolean unchanged = loading.remove(k, ticket);
+            return current != null ? current : unchanged ? loaded : null;
+        });
+        return Optional.of(resident != null ? resident : loaded);
+    }
+
+    /** The room as cached here, without reading it on a miss. */
+    public Optional<RoomSnapshot> peek(String code) {
+        return Optional.ofNullable(rooms.get(code));
+    }
+
+    /**
+     * Registers a newly created room once its transaction commits.
+     */
+    public void put(RoomSnapshot snapshot) {
+        AfterCommit.run(() -> rooms.put(snapshot.code(), snapshot));
+    }
+
+    /**
+     * Applies a write-through change once the current transaction commits. Rooms that are not
+     * resident are left alone; the next lookup loads the committed state.
+     */
+    public void update(String code, UnaryOperator<RoomSnapshot> change) {
+        AfterCommit.run(() -> rooms.compute(code, (k, current) -> {
+            loading.remove(k);
+            return current == null ? null : change.apply(current);
+        }));
+    }
+
+    public void evict(String code) {
+        AfterCommit.run(() -> drop(code));
+    }
+
+    /**
+     * Removes the room right away instead of once the transaction commits, for a delete that must
+     * not be served from here once it is visible. A load in progress is not cached either.
+     */
+    public void drop(String code) {
+        rooms.compute(code, (k, current) -> {
+            loading.remove(k);
+            return null;
+        });
+    }
+
+    public long hitCount() { return hits.sum(); }
+    public long missCount() { return misses.sum(); }
+
+    private RoomSnapshot load(String code) {
+        Optional<Room> roomOpt = roomRepository.findByCode(code);
+        if (roomOpt.isEmpty()) return null;
+        Room room = roomOpt.get();
+        List<RoomMember> members = playerRepository.findByRoom_IdAndActiveTrueOrderByCreatedAtAsc(room.getId())
+                .stream()
+                .map(RoomMember::of)
+                .toList();
+        return RoomSnapshot.of(room, members, room.getCurrentGameId());
+    }
+}
@@ -1,6 +1,9 @@
 package com.artzooka.artzooka.room;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
 import java.util.UUID;
@@ -8,4 +11,26 @@ import java.util.UUID;
 public interface RoomRepository extends JpaRepository<Room, UUID> {
 Optional<Room> findByCode(String code);
 boolean existsByCode(String code);
+
+    @Modifying
+    @Query("update Room r set r.status = :status, r.lastActiveAt = CURRENT_TIMESTAMP where r.id = :id")
+    int updateStatus(@Param("id") UUID id, @Param("status") String status);
+
+    /** Changes the status only if it is still {@code from}; 0 when another node moved the room first. */
+    @Modifying
+    @Query("update Room r set r.status = :status, r.lastActiveAt = CURRENT_TIMESTAMP where r.id = :id and r.status = :from")
+    int updateStatusFrom(@Param("id") UUID id, @Param("from") String from, @Param("status") String status);
+
+    @Modifying
+    @Query("update Room r set r.drawSeconds = :drawSeconds, r.voteSeconds = :voteSeconds, r.maxPlayers = :maxPlayers, r.lastActiveAt = CURRENT_TIMESTAMP where r.id = :id")
+    int updateSettings(@Param("id") UUID id, @Param("drawSeconds") int drawSeconds, @Param("voteSeconds") int voteSeconds, @Param("maxPlayers") int maxPlayers);
+
+    @Modifying
+    @Query("update Room r set r.lastActiveAt = CURRENT_TIMESTAMP where r.id = :id")
+    int touch(@Param("id") UUID id);
+
+    // flush first so the pending games insert lands before the foreign key is pointed at it
+    @Modifying(flushAutomatically = true)
+    @Query("update Room r set r.currentGameId = :gameId where r.id = :id")
+    int updateCurrentGame(@Param("id") UUID id, @Param("gameId") UUID gameId);
 }
@@ -1,27 +1,34 @@
 package com.artzooka.artzooka.room;
 
+import com.artzooka.artzooka.player.Player;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.security.SecureRandom;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.UUID;
 
 @Service
 public class RoomService {
 private final RoomRepository roomRepository;
+    private final RoomRegistry roomRegistry;
 private static final String CODE_ALPHABET = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
 private static final SecureRandom RANDOM = new SecureRandom();
 
-public RoomService(RoomRepository roomRepository) {
+public RoomService(RoomRepository roomRepository, RoomRegistry roomRegistry) {
 this.roomRepository = roomRepository;
+        this.roomRegistry = roomRegistry;
 }
 
 @Transactional
 public Room createRoom() {
 Room room = new Room();
 room.setCode(generateUniqueCode(6));
-return roomRepository.save(room);
+        Room saved = roomRepository.save(room);
+        roomRegistry.put(RoomSnapshot.of(saved, List.of(), null));
+        return saved;
 }
 
     @Transactional(readOnly = true)
@@ -29,9 +36,96 @@ return roomRepository.save(room);
         return roomRepository.findByCode(code);
     }
 
+    /**
+     * Live room state from {@link RoomRegistry}; only a registry miss touches the database.
+     */
+    public Optional<RoomSnapshot> findSnapshot(String code) {
+        return roomRegistry.find(code);
+    }
+
+    /**
+     * Proxy usable as a foreign key when saving players and games, without loading the row.
+     */
+    public Room reference(UUID roomId) {
+        return roomRepository.getReferenceById(roomId);
+    }
+
+    @Transactional
+    public void updateStatus(RoomSnapshot room, String status) {
+        roomRepository.updateStatus(room.id(), status);
+        roomRegistry.update(room.code(), s -> s.withStatus(status));
+    }
+
+    /**
+     * Moves the room from the status in {@code room} to {@code status}, unless the row has moved on
+     * since the snapshot was taken (in a cluster, more than one node may hold the same game's
+     * timers). Then nothing changes, the stale snapshot is dropped and false is returned.
+     */
+    @Transactional
+    public boolean transition(RoomSnapshot room, String status) {
+        if (roomRepository.updateStatusFrom(room.id(), room.status(), status) == 0) {
+            roomRegistry.evict(room.code());
+            return false;
+        }
+        roomRegistry.update(room.code(), s -> s.withStatus(status));
+        return true;
+    }
+
+    @Transactional
+    public void updateSettings(RoomSnapshot room, int drawSeconds, int voteSeconds, int maxPlayers) {
+        roomRepository.updateSettings(room.id(), drawSeconds, voteSeconds, maxPlayers);
+        roomRegistry.update(room.code(), s -> s.withSettings(drawSeconds, voteSeconds, maxPlayers));
+    }
+
     @Transactional
-    public Room save(Room room) {
-        return roomRepository.save(room);
+    public void gameStarted(RoomSnapshot room, UUID gameId) {
+        roomRepository.updateCurrentGame(room.id(), gameId);
+        roomRegistry.update(room.code(), s -> s.withCurrentGame(gameId));
+    }
+
+    /**
+     * Marks the room active ahead of a join. The update also locks the row until the transaction
+     * ends, so retention skips the room from then on; if retention locked it first, this waits for
+     * the delete, finds no row and returns false, and the stale snapshot is dropped.
+     */
+    @Transactional
+    public boolean keepAlive(RoomSnapshot room) {
+        if (roomRepository.touch(room.id()) == 0) {
+            roomRegistry.evict(room.code());
+            return false;
+        }
+        return true;
+    }
+
+    public void memberJoined(String code, Player player) {
+        RoomMember member = RoomMember.of(player);
+        roomRegistry.update(code, s -> s.withMember(member));
+    }
+
+    public void memberAvatarChanged(String code, UUID playerId, String avatar) {
+        roomRegistry.update(code, s -> {
+            RoomMember member = s.member(playerId);
+            return member == null ? s : s.withMember(member.withAvatar(avatar));
+        });
+    }
+
+    public void memberLeft(String code, UUID playerId, UUID newAdminId) {
+        roomRegistry.update(code, s -> s.withoutMember(playerId, newAdminId));
+    }
+
+    /**
+     * Drops a room that retention is deleting from the registry right before the delete commits, so
+     * no lookup is answered with a room that is gone; {@link #roomDeleted} follows once it has.
+     */
+    public void roomDeleting(String code) {
+        roomRegistry.drop(code);
+    }
+
+    /**
+     * Drops a room that was deleted in bulk (by retention) from the registry once the delete commits.
+     */
+    public void roomDeleted(String code) {
+        roomRegistry.evict(code);
     }
 
 private String generateUniqueCode(int length) {
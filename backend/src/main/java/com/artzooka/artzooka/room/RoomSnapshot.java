@@ -0,0 +1,94 @@
+package com.artzooka.artzooka.room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Immutable copy of a room's live state: status, settings, active roster (in join order)
+ * and the game currently being played. Every change produces a new snapshot so readers
+ * never observe a half-applied update.
+ */
+public record RoomSnapshot(UUID id,
+                           String code,
+                           String status,
+                           int drawSeconds,
+                           int voteSeconds,
+                           int maxPlayers,
+                           List<RoomMember> members,
+                           UUID currentGameId) {
+
+    public RoomSnapshot {
+        members = List.copyOf(members);
+    }
+
+    public static RoomSnapshot of(Room room, List<RoomMember> members, UUID currentGameId) {
+        return new RoomSnapshot(room.getId(), room.getCode(), room.getStatus(), room.getDrawSeconds(),
+                room.getVoteSeconds(), room.getMaxPlayers(), members, currentGameId);
+    }
+
+    public boolean inGame() {
+        return status.equals("DRAWING") || status.equals("VOTING") || status.equals("RESULTS");
+    }
+
+    public int activeCount() {
+        return members.size();
+    }
+
+    public RoomMember member(UUID playerId) {
+        for (RoomMember m : members) {
+            if (m.id().equals(playerId)) return m;
+        }
+        return null;
+    }
+
+    public boolean hasMember(UUID playerId) {
+        return member(playerId) != null;
+    }
+
+    public RoomSnapshot withStatus(String status) {
+        return new RoomSnapshot(id, code, status, drawSeconds, voteSeconds, maxPlayers, members, currentGameId);
+    }
+
+    public RoomSnapshot withSettings(int drawSeconds, int voteSeconds, int maxPlayers) {
+        return new RoomSnapshot(id, code, status, drawSeconds, voteSeconds, maxPlayers, members, currentGameId);
+    }
+
+    public RoomSnapshot withCurrentGame(UUID gameId) {
+        return new RoomSnapshot(id, code, status, drawSeconds, voteSeconds, maxPlayers, members, gameId);
+    }
+
+    public RoomSnapshot withMember(RoomMember member) {
+        List<RoomMember> next = new ArrayList<>(members.size() + 1);
+        boolean replaced = false;
+        for (RoomMember m : members) {
+            if (m.id().equals(member.id())) {
+                next.add(member);
+                replaced = true;
+            } else {
+                next.add(m);
+            }
+        }
+        if (!replaced) next.add(member);
+        return new RoomSnapshot(id, code, status, drawSeconds, voteSeconds, maxPlayers, next, currentGameId);
+    }
+
+    public RoomSnapshot withoutMember(UUID playerId, UUID newAdminId) {
+        List<RoomMember> next = new ArrayList<>(members.size());
+        for (RoomMember m : members) {
+            if (m.id().equals(playerId)) continue;
+            next.add(newAdminId != null && m.id().equals(newAdminId) ? m.withAdmin(true) : m);
+        }
+        return new RoomSnapshot(id, code, status, drawSeconds, voteSeconds, maxPlayers, next, currentGameId);
+    }
+
+    /**
+     * Member who inherits the host role when {@code leavingId} leaves: the longest-standing remaining player.
+     */
+    public RoomMember successorOf(UUID leavingId) {
+        for (RoomMember m : members) {
+            if (!m.id().equals(leavingId)) return m;
+        }
+        return null;
+    }
+}
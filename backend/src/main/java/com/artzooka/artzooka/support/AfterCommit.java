@@ -0,0 +1,35 @@
+package com.artzooka.artzooka.support;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers in-memory side effects until the surrounding transaction has committed,
+ * so caches and broadcasts never expose state that was rolled back.
+ * Outside a transaction, or from an action that is itself running after commit, the action runs
+ * immediately.
+ */
+public final class AfterCommit {
+    // the transaction is still bound while its afterCommit callbacks run, but takes no new ones
+    private static final ThreadLocal<Boolean> COMMITTED = ThreadLocal.withInitial(() -> false);
+
+    private AfterCommit() { }
+
+    public static void run(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive() && !COMMITTED.get()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    COMMITTED.set(true);
+                    try {
+                        action.run();
+                    } finally {
+                        COMMITTED.remove();
+                    }
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
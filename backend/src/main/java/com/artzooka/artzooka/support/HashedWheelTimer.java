@@ -0,0 +1,188 @@
+package com.artzooka.artzooka.support;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel: deadlines are hashed into {@code wheelSize} buckets by tick and a single
+ * worker thread advances one bucket per tick, running whatever has come due. Scheduling and
+ * cancelling are O(1) for the caller (a lock-free enqueue); the worker moves new timeouts into
+ * their bucket and unlinks cancelled ones from a doubly linked list, so tens of thousands of
+ * pending deadlines cost one list node each and nothing per tick unless their bucket comes up.
+ * Accuracy is one tick. Tasks run on the worker thread and must hand real work off elsewhere.
+ */
+public final class HashedWheelTimer implements AutoCloseable {
+
+    public interface Timeout {
+        /** Returns false if the task already ran or was cancelled before. */
+        boolean cancel();
+        boolean isCancelled();
+    }
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    /** Upper bound on new timeouts moved into the wheel per tick, so a burst cannot stall expiry. */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Entry> additions = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancellations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("tickDuration must be positive");
+        if (wheelSize <= 0) throw new IllegalArgumentException("wheelSize must be positive");
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.worker = new Thread(this::work, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Runs the task once the delay has elapsed; a zero or negative delay runs it on the next tick.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) throw new IllegalStateException("Timer stopped");
+        Entry entry = new Entry(task, System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        additions.add(entry);
+        return entry;
+    }
+
+    public int pendingCount() { return pending.get(); }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void work() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep;
+            while (running && (sleep = deadline - (System.nanoTime() - startNanos)) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            if (!running) return;
+            unlinkCancelled();
+            transferAdditions();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void unlinkCancelled() {
+        Entry entry;
+        while ((entry = cancellations.poll()) != null) {
+            if (entry.bucket != null) entry.bucket.remove(entry);
+        }
+    }
+
+    private void transferAdditions() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry entry = additions.poll();
+            if (entry == null) return;
+            if (entry.state.get() != INIT) continue;
+            long due = entry.deadline / tickNanos;
+            // overdue entries go in the current bucket so they fire on this tick
+            long target = Math.max(due, tick);
+            entry.remainingRounds = (target - tick) / wheel.length;
+            wheel[(int) (target & mask)].add(entry);
+        }
+    }
+
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        long remainingRounds;
+        Bucket bucket;
+        Entry next;
+        Entry prev;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) return false;
+            pending.decrementAndGet();
+            cancellations.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED)) return;
+            pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                System.out.println("[ARTZOOKA] Timer task failed: " + t);
+            }
+        }
+    }
+
+    /** Doubly linked list of entries; only touched by the worker thread. */
+    private static final class Bucket {
+        Entry head;
+        Entry tail;
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            if (head == null) {
+                head = tail = entry;
+            } else {
+                tail.next = entry;
+                entry.prev = tail;
+                tail = entry;
+            }
+        }
+
+        void expire() {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.remainingRounds <= 0) {
+                    remove(entry);
+                    entry.expire();
+                } else if (entry.isCancelled()) {
+                    remove(entry);
+                } else {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+        }
+
+        void remove(Entry entry) {
+            if (entry.bucket != this) return;
+            if (entry.prev != null) entry.prev.next = entry.next; else head = entry.next;
+            if (entry.next != null) entry.next.prev = entry.prev; else tail = entry.prev;
+            entry.prev = entry.next = null;
+            entry.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.artzooka.artzooka.support;
+
+import org.springframework.http.ResponseEntity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a player action that can arrive over HTTP or over STOMP: an HTTP status with an error
+ * message, rendered as a response for the REST endpoint or as an acknowledgement on the player's
+ * {@code /user/queue/acks}.
+ */
+public record Outcome(int status, String error) {
+    private static final Outcome OK = new Outcome(200, null);
+
+    public static Outcome ok() { return OK; }
+    public static Outcome notFound() { return new Outcome(404, null); }
+    public static Outcome error(int status, String error) { return new Outcome(status, error); }
+
+    public boolean isOk() { return status == 200; }
+
+    public ResponseEntity<?> toResponse() {
+        if (isOk()) return ResponseEntity.ok(Map.of("ok", true));
+        if (error == null) return ResponseEntity.status(status).build();
+        return ResponseEntity.status(status).body(Map.of("error", error));
+    }
+
+    /** The acknowledgement for a message sent with {@code request-id} {@code requestId}. */
+    public Map<String, Object> toAck(String action, String requestId) {
+        Map<String, Object> ack = new LinkedHashMap<>();
+        ack.put("type", "ACK");
+        ack.put("action", action);
+        ack.put("requestId", requestId);
+        ack.put("ok", isOk());
+        if (!isOk()) {
+            ack.put("status", status);
+            ack.put("error", error != null ? error : "Not found");
+        }
+        return ack;
+    }
+}
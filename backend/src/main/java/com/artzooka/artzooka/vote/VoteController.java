@@ -1,17 +1,31 @@
 package com.artzooka.artzooka.vote;
 
-import com.artzooka.artzooka.game.Game;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.GamePhaseService;
 import com.artzooka.artzooka.game.GameRepository;
-import com.artzooka.artzooka.game.GameParticipantRepository;
-import com.artzooka.artzooka.player.Player;
+import com.artzooka.artzooka.game.GameSnapshot;
+import com.artzooka.artzooka.game.VoteTally;
+import com.artzooka.artzooka.player.CurrentPlayer;
+import com.artzooka.artzooka.player.PlayerPrincipal;
 import com.artzooka.artzooka.player.PlayerRepository;
+import com.artzooka.artzooka.room.RoomMailbox;
 import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.support.AfterCommit;
+import com.artzooka.artzooka.support.Outcome;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.annotation.SendToUser;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/rooms/{code}/votes")
@@ -20,136 +34,126 @@ public class VoteController {
     private final RoomService roomService;
     private final PlayerRepository playerRepository;
     private final GameRepository gameRepository;
-    private final GameParticipantRepository gameParticipantRepository;
+    private final CurrentGameResolver currentGameResolver;
+    private final GamePhaseService gamePhaseService;
+    private final CompletionTracker completionTracker;
+    private final VoteTally voteTally;
     private final VoteRepository voteRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomEventPublisher roomEventPublisher;
+    private final RoomMailbox roomMailbox;
+    private final TransactionTemplate transactionTemplate;
 
-    public VoteController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, GameParticipantRepository gameParticipantRepository, VoteRepository voteRepository, SimpMessagingTemplate messagingTemplate) {
+    public VoteController(RoomService roomService, PlayerRepository playerRepository, GameRepository gameRepository, CurrentGameResolver currentGameResolver, GamePhaseService gamePhaseService, CompletionTracker completionTracker, VoteTally voteTally, VoteRepository voteRepository, RoomEventPublisher roomEventPublisher, RoomMailbox roomMailbox, TransactionTemplate transactionTemplate) {
         this.roomService = roomService;
         this.playerRepository = playerRepository;
         this.gameRepository = gameRepository;
-        this.gameParticipantRepository = gameParticipantRepository;
+        this.currentGameResolver = currentGameResolver;
+        this.gamePhaseService = gamePhaseService;
+        this.completionTracker = completionTracker;
+        this.voteTally = voteTally;
         this.voteRepository = voteRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.roomEventPublisher = roomEventPublisher;
+        this.roomMailbox = roomMailbox;
+        this.transactionTemplate = transactionTemplate;
     }
 
+    /** A vote sent over the room's STOMP session, to {@code /app/rooms/{code}/votes}. */
+    public record VoteMessage(UUID targetId) { }
+
     @PostMapping
-    @Transactional
-    public ResponseEntity<?> castVote(@PathVariable String code, @RequestParam("token") String token, @RequestParam("targetId") UUID targetId) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        var playerOpt = playerRepository.findBySessionToken(token);
-        if (playerOpt.isEmpty()) return ResponseEntity.status(401).body(Map.of("error", "Invalid token"));
-        Player voter = playerOpt.get();
-        if (!voter.getRoom().getId().equals(roomOpt.get().getId())) return ResponseEntity.status(403).body(Map.of("error", "Token not for this room"));
+    public ResponseEntity<?> castVote(@PathVariable String code, @CurrentPlayer PlayerPrincipal voter, @RequestParam("targetId") UUID targetId) {
+        return cast(code, voter, targetId).toResponse();
+    }
+
+    @MessageMapping("/rooms/{code}/votes")
+    @SendToUser(destinations = "/queue/acks", broadcast = false)
+    public CompletableFuture<Map<String, Object>> castVote(@DestinationVariable String code,
+                                                           @CurrentPlayer PlayerPrincipal voter,
+                                                           @Payload VoteMessage vote,
+                                                           @Header(name = "request-id", required = false) String requestId) {
+        if (vote.targetId() == null) return CompletableFuture.completedFuture(Outcome.error(400, "Invalid target").toAck("VOTE", requestId));
+        // queued on the room lane; the inbound thread moves on and the ack is sent when the vote is done
+        return roomMailbox.submit(code, () -> cast(code, voter, vote.targetId()))
+                .thenApply(outcome -> outcome.toAck("VOTE", requestId));
+    }
+
+    private Outcome cast(String code, PlayerPrincipal voter, UUID targetId) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return Outcome.notFound();
+            if (!voter.roomId().equals(roomOpt.get().id())) return Outcome.error(403, "Token not for this room");
 
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
-        if (voteRepository.existsByGame_IdAndVoter_Id(game.getId(), voter.getId())) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Already voted"));
-        }
-        Player target = playerRepository.findById(targetId).orElse(null);
-        if (target == null) return ResponseEntity.badRequest().body(Map.of("error", "Invalid target"));
+            var gameOpt = currentGameResolver.resolve(roomOpt.get());
+            if (gameOpt.isEmpty()) return Outcome.error(400, "Game not started");
+            GameSnapshot game = gameOpt.get();
+            CompletionTracker.Completion completion = completionTracker.of(game);
+            VoteTally.Tally tally = voteTally.of(game);
+            if (voteRepository.existsByGame_IdAndVoter_Id(game.id(), voter.playerId())) {
+                return Outcome.error(400, "Already voted");
+            }
+            // the status is what counts: the tally is only frozen on the node that closed the vote, and not before it opened
+            if (tally.isFrozen() || !"VOTING".equals(roomOpt.get().status())) return Outcome.error(409, "Voting is closed");
+            if (!tally.canReceive(targetId)) return Outcome.error(400, "Invalid target");
 
-        Vote v = new Vote();
-        v.setGame(game);
-        v.setVoter(voter);
-        v.setTarget(target);
-        voteRepository.save(v);
-        System.out.println("[ARTZOOKA] Vote cast voter=" + voter.getName() + " -> target=" + target.getName());
-        // broadcast updated tally to everyone in room
-        Map<String, Long> counts = new java.util.HashMap<>();
-        for (Vote each : voteRepository.findByGame_Id(game.getId())) {
-            counts.merge(each.getTarget().getId().toString(), 1L, Long::sum);
-        }
-        Map<String, Object> evt = new java.util.LinkedHashMap<>();
-        evt.put("type", "VOTE_UPDATE");
-        evt.put("roomCode", roomOpt.get().getCode());
-        evt.put("gameId", game.getId());
-        evt.put("tally", counts);
-        // topic is /topic/rooms/{code}
-        messagingTemplate.convertAndSend("/topic/rooms/" + roomOpt.get().getCode(), evt);
+            Vote v = new Vote();
+            v.setGame(gameRepository.getReferenceById(game.id()));
+            v.setVoter(playerRepository.getReferenceById(voter.playerId()));
+            v.setTarget(playerRepository.getReferenceById(targetId));
+            voteRepository.save(v);
+            completion.voted(voter.playerId());
+            // count it once committed and broadcast just the target's new count
+            String roomCode = roomOpt.get().code();
+            AfterCommit.run(() -> {
+                VoteTally.Delta delta = tally.add(targetId);
+                roomEventPublisher.publish(new RoomEvent.VoteDelta(roomCode, game.id(), delta.seq(), delta.targetId(), delta.count()));
+            });
 
-        // If all active game participants have voted, auto-finish and broadcast SHOW_RESULTS
-        int votesCast = voteRepository.findByGame_Id(game.getId()).size();
-        int totalActiveParticipants = (int) gameParticipantRepository.countByGame_IdAndActiveTrue(game.getId());
-        if (totalActiveParticipants > 0 && votesCast >= totalActiveParticipants) {
-            // Update room status to RESULTS
-            var room = roomOpt.get();
-            room.setStatus("RESULTS");
-            roomService.save(room);
-            
-            Map<String, Object> show = new java.util.LinkedHashMap<>();
-            show.put("type", "SHOW_RESULTS");
-            show.put("roomCode", roomOpt.get().getCode());
-            show.put("gameId", game.getId());
-            messagingTemplate.convertAndSend("/topic/rooms/" + roomOpt.get().getCode(), show);
-        }
-        return ResponseEntity.ok(Map.of("ok", true));
+            // If all active game participants have voted, auto-finish and broadcast SHOW_RESULTS
+            if (completion.allVotedWith(voter.playerId())) {
+                gamePhaseService.showResults(roomOpt.get(), game);
+            }
+            return Outcome.ok();
+        }));
     }
 
+    /** The standing counts with the sequence number of the last vote in them, for a client that missed a delta. */
     @GetMapping("/tally")
-    @Transactional(readOnly = true)
     public ResponseEntity<?> tally(@PathVariable String code) {
-        var roomOpt = roomService.findByCode(code);
+        var roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
-        Map<UUID, Long> counts = new HashMap<>();
-        for (Vote v : voteRepository.findByGame_Id(game.getId())) {
-            counts.merge(v.getTarget().getId(), 1L, Long::sum);
-        }
-        return ResponseEntity.ok(counts);
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+        VoteTally.Result standing = voteTally.of(gameOpt.get()).result();
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("gameId", standing.gameId());
+        resp.put("tallySeq", standing.tallySeq());
+        resp.put("tally", standing.tally());
+        return ResponseEntity.ok(resp);
     }
 
     @GetMapping("/result")
-    @Transactional(readOnly = true)
     public ResponseEntity<?> result(@PathVariable String code) {
-        var roomOpt = roomService.findByCode(code);
+        var roomOpt = roomService.findSnapshot(code);
         if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
-        Map<UUID, Long> counts = new HashMap<>();
-        for (Vote v : voteRepository.findByGame_Id(game.getId())) {
-            counts.merge(v.getTarget().getId(), 1L, Long::sum);
-        }
-        UUID votedOut = null;
-        long max = -1;
-        for (var e : counts.entrySet()) {
-            if (e.getValue() > max) { max = e.getValue(); votedOut = e.getKey(); }
-        }
-        UUID imposterId = game.getImposter().getId();
-        String winner = (votedOut != null && votedOut.equals(imposterId)) ? "ARTISTS" : "IMPOSTER";
-        Map<String, Object> resp = new LinkedHashMap<>();
-        resp.put("imposterId", imposterId);
-        resp.put("votedOutId", votedOut);
-        resp.put("winner", winner);
-        resp.put("tally", counts);
-        return ResponseEntity.ok(resp);
+        var gameOpt = currentGameResolver.resolve(roomOpt.get());
+        if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+        VoteTally.Tally tally = voteTally.of(gameOpt.get());
+        // a node that did not close the vote (or restarted since) freezes the result from the stored votes
+        if (!tally.isFrozen() && "RESULTS".equals(roomOpt.get().status())) return ResponseEntity.ok(tally.freeze());
+        return ResponseEntity.ok(tally.result());
     }
 
     @PostMapping("/finish")
-    @Transactional
     public ResponseEntity<?> finish(@PathVariable String code) {
-        var roomOpt = roomService.findByCode(code);
-        if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
-        List<Game> games = gameRepository.findByRoomIdOrderByCreatedAtDesc(roomOpt.get().getId());
-        if (games.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
-        Game game = games.get(0);
-        
-        // Update room status to RESULTS
-        var room = roomOpt.get();
-        room.setStatus("RESULTS");
-        roomService.save(room);
-        
-        Map<String, Object> evt = new LinkedHashMap<>();
-        evt.put("type", "SHOW_RESULTS");
-        evt.put("roomCode", code);
-        evt.put("gameId", game.getId());
-        messagingTemplate.convertAndSend("/topic/rooms/" + code, evt);
-        return ResponseEntity.ok(Map.of("ok", true));
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> {
+            var roomOpt = roomService.findSnapshot(code);
+            if (roomOpt.isEmpty()) return ResponseEntity.notFound().build();
+            var gameOpt = currentGameResolver.resolve(roomOpt.get());
+            if (gameOpt.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Game not started"));
+
+            // idempotent: the vote deadline or the last vote may already have shown the results
+            gamePhaseService.showResults(roomOpt.get(), gameOpt.get());
+            return ResponseEntity.ok(Map.of("ok", true));
+        }));
     }
 }
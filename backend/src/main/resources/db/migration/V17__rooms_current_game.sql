@@ -0,0 +1,14 @@
+-- Point each room at the game it is currently playing so lookups no longer scan game history
+ALTER TABLE rooms ADD COLUMN IF NOT EXISTS current_game_id UUID REFERENCES games(id) ON DELETE SET NULL;
+
+UPDATE rooms r
+SET current_game_id = (
+    SELECT g.id FROM games g WHERE g.room_id = r.id ORDER BY g.created_at DESC LIMIT 1
+)
+WHERE r.current_game_id IS NULL;
+
+-- Phase deadlines of a game (draw phase starts after the pre-start countdown)
+ALTER TABLE games
+  ADD COLUMN IF NOT EXISTS starts_at TIMESTAMPTZ,
+  ADD COLUMN IF NOT EXISTS draw_ends_at TIMESTAMPTZ,
+  ADD COLUMN IF NOT EXISTS vote_ends_at TIMESTAMPTZ;
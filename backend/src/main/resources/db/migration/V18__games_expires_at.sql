@@ -0,0 +1,4 @@
+-- Hard deadline after which an unfinished game is ended on the server
+ALTER TABLE games ADD COLUMN IF NOT EXISTS expires_at TIMESTAMPTZ;
+
+UPDATE games SET expires_at = created_at + INTERVAL '10 minutes' WHERE expires_at IS NULL;
@@ -0,0 +1,6 @@
+-- Unfinished games by deadline: the expiry sweeper walks this in keyset order, so its cost
+-- tracks the number of open games rather than the size of the games table
+CREATE INDEX IF NOT EXISTS idx_games_open_expires ON games(expires_at, id) WHERE status <> 'COMPLETED';
+
+-- Lets the sweeper reset rooms by the game they point at (and keeps ON DELETE SET NULL cheap)
+CREATE INDEX IF NOT EXISTS idx_rooms_current_game ON rooms(current_game_id);
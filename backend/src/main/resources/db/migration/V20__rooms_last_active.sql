@@ -0,0 +1,21 @@
+-- Last time anything happened in a room, so idle rooms can be found by index and removed
+ALTER TABLE rooms ADD COLUMN IF NOT EXISTS last_active_at TIMESTAMPTZ;
+
+UPDATE rooms r
+SET last_active_at = GREATEST(
+    r.created_at,
+    COALESCE((SELECT MAX(g.created_at) FROM games g WHERE g.room_id = r.id), r.created_at),
+    COALESCE((SELECT MAX(p.created_at) FROM players p WHERE p.room_id = r.id), r.created_at)
+)
+WHERE r.last_active_at IS NULL;
+
+ALTER TABLE rooms ALTER COLUMN last_active_at SET DEFAULT now();
+ALTER TABLE rooms ALTER COLUMN last_active_at SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_rooms_idle ON rooms(last_active_at, id) WHERE status = 'LOBBY';
+
+-- player deletes check these foreign keys; without an index each deleted player scans the table
+CREATE INDEX IF NOT EXISTS idx_votes_voter ON votes(voter_id);
+CREATE INDEX IF NOT EXISTS idx_votes_target ON votes(target_id);
+CREATE INDEX IF NOT EXISTS idx_drawings_player ON drawings(player_id);
+CREATE INDEX IF NOT EXISTS idx_games_imposter ON games(imposter_player_id);
@@ -0,0 +1,12 @@
+-- Room event batches relayed between backend nodes. NOTIFY carries them live; the rows let a node
+-- that missed a notification catch up, and are pruned after a few minutes. Losing them on a crash
+-- only forces a resync, so the table is not WAL-logged.
+CREATE UNLOGGED TABLE IF NOT EXISTS cluster_events (
+    node TEXT NOT NULL,
+    seq BIGINT NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    payload TEXT NOT NULL,
+    PRIMARY KEY (node, seq)
+);
+
+CREATE INDEX IF NOT EXISTS idx_cluster_events_created ON cluster_events(created_at);
@@ -5,15 +5,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.InstanceOfAssertFactories.MAP;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @Testcontainers
@@ -38,6 +42,9 @@ public class RoomFlowIT {
     @Autowired
     TestRestTemplate rest;
 
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
     @Test
     void create_join_start_hides_imposter() {
         Map<?,?> room = rest.postForObject(url("/api/rooms"), null, Map.class);
@@ -48,13 +55,39 @@ public class RoomFlowIT {
         Map<?,?> p1 = rest.postForObject(url("/api/rooms/"+code+"/join"), Map.of("name","A"), Map.class);
         Map<?,?> p2 = rest.postForObject(url("/api/rooms/"+code+"/join"), Map.of("name","B"), Map.class);
         Map<?,?> p3 = rest.postForObject(url("/api/rooms/"+code+"/join"), Map.of("name","C"), Map.class);
-        assertThat(p1).containsKey("playerId").containsKey("isAdmin");
-        assertThat(p2).containsKey("playerId").containsKey("isAdmin");
-        assertThat(p3).containsKey("playerId").containsKey("isAdmin");
+        assertThat(p1).asInstanceOf(MAP).containsKey("playerId").containsKey("isAdmin");
+        assertThat(p2).asInstanceOf(MAP).containsKey("playerId").containsKey("isAdmin");
+        assertThat(p3).asInstanceOf(MAP).containsKey("playerId").containsKey("isAdmin");
 
         Map<?,?> start = rest.postForObject(url("/api/rooms/"+code+"/start"), null, Map.class);
-        assertThat(start).containsKey("gameId").containsKey("roomId").containsKey("promptCommon");
-        assertThat(start).doesNotContainKey("imposterId").doesNotContainKey("promptImposter");
+        assertThat(start).asInstanceOf(MAP).containsKey("gameId").containsKey("roomId").containsKey("promptCommon");
+        assertThat(start).asInstanceOf(MAP).doesNotContainKey("imposterId").doesNotContainKey("promptImposter");
+
+        // a position the log does not have gets a snapshot, which carries the running game
+        Map<?,?> resync = rest.getForObject(url("/api/rooms/"+code+"/events?since="+Long.MAX_VALUE), Map.class);
+        assertThat(resync).asInstanceOf(MAP).containsKey("seq").doesNotContainKey("events");
+        assertThat(resync.get("room")).asInstanceOf(MAP).containsEntry("status", "DRAWING");
+        assertThat(resync.get("game")).asInstanceOf(MAP)
+                .containsEntry("gameId", start.get("gameId"))
+                .containsEntry("promptCommon", start.get("promptCommon"))
+                .containsKeys("serverTime", "drawSeconds", "voteSeconds", "voteStartTime", "phaseEndsAt")
+                .extractingByKey("gallery").asInstanceOf(MAP)
+                .containsEntry("gameId", start.get("gameId"))
+                .containsEntry("drawings", List.of());
+    }
+
+    @Test
+    void join_of_a_room_deleted_behind_the_registry_is_404() {
+        Map<?,?> room = rest.postForObject(url("/api/rooms"), null, Map.class);
+        String code = (String) room.get("code");
+        assertThat(rest.getForEntity(url("/api/rooms/"+code), Map.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // as a retention delete that committed before its eviction ran: the registry still has the room
+        jdbcTemplate.update("DELETE FROM rooms WHERE code = ?", code);
+        var join = rest.postForEntity(url("/api/rooms/"+code+"/join"), Map.of("name","A"), Map.class);
+
+        assertThat(join.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(rest.getForEntity(url("/api/rooms/"+code), Map.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
     private String url(String path) { return "http://localhost:"+port+path; }
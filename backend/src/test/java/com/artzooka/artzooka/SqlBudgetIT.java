@@ -0,0 +1,477 @@
+package com.artzooka.artzooka;
+
+import com.artzooka.artzooka.drawing.DrawingVariants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.imageio.ImageIO;
+import javax.sql.DataSource;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SQL budget of a whole game, per REST endpoint and STOMP handler. Every statement the application
+ * runs goes through {@link SqlRecorder}, a proxy around the DataSource; the flow makes one call at
+ * a time and waits for the statement count to settle, so what ran in between belongs to that call.
+ * An operation called more than once is held to its most expensive call.
+ * <p>
+ * The budget is {@value #BUDGET}: statements and rows fetched per operation. A run that needs more
+ * of either fails, and so does an operation the file has no budget for;
+ * {@code ./gradlew test -PrecordSqlBudget} rewrites the file from the run after an intended change.
+ * Each run also writes the measurements and the generic plans of the hottest statements to
+ * {@value #REPORTS}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        // keep scheduled sweeps from running in the middle of a measured call
+        "artzooka.sweeper.interval-ms=3600000",
+        "artzooka.retention.initial-delay-ms=3600000"
+})
+@Import(SqlBudgetIT.Recording.class)
+@Testcontainers
+public class SqlBudgetIT {
+    static final String BUDGET = "src/test/resources/sql-budget.txt";
+    static final String REPORTS = "build/reports/sql-budget";
+    private static final long SETTLE_MS = 150;
+    private static final int HOTTEST = 5;
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @TestConfiguration
+    static class Recording {
+        @Bean
+        static SqlRecorder sqlRecorder() {
+            return new SqlRecorder();
+        }
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    SqlRecorder sql;
+
+    @Autowired
+    DrawingVariants variants;
+
+    private final Map<String, Cost> measured = new TreeMap<>();
+
+    /** Statements run and rows fetched. */
+    record Cost(long statements, long rows) {
+        Cost minus(Cost other) { return new Cost(statements - other.statements, rows - other.rows); }
+
+        static Cost max(Cost a, Cost b) { return new Cost(Math.max(a.statements, b.statements), Math.max(a.rows, b.rows)); }
+    }
+
+    @Test
+    void aWholeGameStaysWithinItsSqlBudget() throws Exception {
+        // migrations and startup queries are not part of any operation
+        settled();
+        sql.clearStats();
+        Map<String, Object> room = measure("POST /api/rooms", () -> rest.postForObject(url("/api/rooms"), null, Map.class));
+        String code = (String) room.get("code");
+        List<Map<String, Object>> players = new ArrayList<>();
+        for (String name : List.of("A", "B", "C")) {
+            players.add(measure("POST /api/rooms/{code}/join",
+                    () -> rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class)));
+        }
+        Map<String, Object> admin = players.get(0);
+        measure("GET /api/rooms/{code}", () -> rest.getForObject(url("/api/rooms/" + code), Map.class));
+        measure("POST /api/rooms/{code}/settings", () -> rest.postForEntity(url("/api/rooms/" + code + "/settings?token=" + token(admin)),
+                Map.of("drawSeconds", 120, "voteSeconds", 60, "maxPlayers", 8), Map.class));
+
+        List<StompSession> sockets = new ArrayList<>();
+        List<BlockingQueue<Map<?, ?>>> acks = new ArrayList<>();
+        for (Map<String, Object> player : players) {
+            BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+            sockets.add(connect(token(player), received));
+            acks.add(received);
+        }
+
+        Map<String, Object> start = measure("POST /api/rooms/{code}/start", () -> rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class));
+        assertThat(start).containsKey("gameId");
+        for (Map<String, Object> player : players) {
+            measure("GET /api/rooms/{code}/prompt", () -> rest.getForObject(url("/api/rooms/" + code + "/prompt?token=" + token(player)), Map.class));
+        }
+        for (int i = 0; i < players.size(); i++) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.IMAGE_PNG);
+            HttpEntity<byte[]> drawing = new HttpEntity<>(png(i), headers);
+            String uploader = token(players.get(i));
+            var upload = measure("PUT /api/rooms/{code}/drawings",
+                    () -> rest.exchange(url("/api/rooms/" + code + "/drawings?token=" + uploader), HttpMethod.PUT, drawing, Map.class));
+            assertThat(upload.getStatusCode().is2xxSuccessful()).isTrue();
+        }
+        measure("GET /api/rooms/{code}/drawings", () -> rest.getForEntity(url("/api/rooms/" + code + "/drawings"), String.class));
+        measure("GET /api/rooms/{code}/drawings/status",
+                () -> rest.getForEntity(url("/api/rooms/" + code + "/drawings/status?token=" + token(admin)), Map.class));
+
+        Object other = players.get(1).get("playerId");
+        measure("STOMP /app/rooms/{code}/reactions", () -> {
+            send(sockets.get(0), "/app/rooms/" + code + "/reactions", Map.of("targetId", other, "emoji", "🔥"));
+            return awaitAck(acks.get(0));
+        });
+        for (int i = 0; i < players.size(); i++) {
+            Object target = players.get((i + 1) % players.size()).get("playerId");
+            StompSession socket = sockets.get(i);
+            BlockingQueue<Map<?, ?>> ack = acks.get(i);
+            Map<?, ?> voted = measure("STOMP /app/rooms/{code}/votes", () -> {
+                send(socket, "/app/rooms/" + code + "/votes", Map.of("targetId", target));
+                return awaitAck(ack);
+            });
+            assertThat(voted.get("ok")).isEqualTo(true);
+        }
+        measure("GET /api/rooms/{code}/votes/tally", () -> rest.getForObject(url("/api/rooms/" + code + "/votes/tally"), Map.class));
+        measure("GET /api/rooms/{code}/votes/result", () -> rest.getForObject(url("/api/rooms/" + code + "/votes/result"), Map.class));
+        measure("GET /api/rooms/{code}/events", () -> rest.getForObject(url("/api/rooms/" + code + "/events?since=0"), Map.class));
+        measure("POST /api/rooms/{code}/reset", () -> rest.postForEntity(url("/api/rooms/" + code + "/reset?token=" + token(admin)), null, Map.class));
+        measure("POST /api/rooms/{code}/leave",
+                () -> rest.postForEntity(url("/api/rooms/" + code + "/leave?token=" + token(players.get(2))), null, Map.class));
+        sockets.forEach(StompSession::disconnect);
+
+        report();
+        assertThat(overBudget()).as("operations over their SQL budget in " + BUDGET).isEmpty();
+    }
+
+    private interface Call<T> {
+        T run() throws Exception;
+    }
+
+    private <T> T measure(String operation, Call<T> call) throws Exception {
+        Cost before = settled();
+        T result = call.run();
+        measured.merge(operation, settled().minus(before), Cost::max);
+        return result;
+    }
+
+    /**
+     * Totals once nothing has run for {@link #SETTLE_MS} and no transcode is running, so work the
+     * call left behind is counted too. Variants landing re-link the gallery without a query, so an
+     * upload costs the same whether its transcode finished before or after its rebuild.
+     */
+    private Cost settled() throws InterruptedException {
+        Cost last = sql.totals();
+        while (true) {
+            Thread.sleep(SETTLE_MS);
+            Cost now = sql.totals();
+            if (now.equals(last) && variants.inFlight() == 0) return now;
+            last = now;
+        }
+    }
+
+    private List<String> overBudget() throws IOException {
+        Path file = Path.of(BUDGET);
+        Map<String, Cost> budget = new TreeMap<>();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file)) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] fields = line.trim().split("\\s+", 3);
+                budget.put(fields[2], new Cost(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+            }
+        }
+        if (Boolean.getBoolean("artzooka.sql-budget.record")) {
+            writeBudget(file, measured);
+            System.out.println("[sql-budget] recorded " + measured.keySet() + " in " + file.toAbsolutePath());
+            return List.of();
+        }
+        List<String> over = new ArrayList<>();
+        measured.forEach((operation, cost) -> {
+            Cost allowed = budget.get(operation);
+            if (allowed == null) {
+                over.add(operation + ": " + cost.statements() + " statements, " + cost.rows() + " rows; no budget, "
+                        + "record one with -PrecordSqlBudget");
+            } else if (cost.statements() > allowed.statements() || cost.rows() > allowed.rows()) {
+                over.add(operation + ": " + cost.statements() + " statements, " + cost.rows() + " rows; budget "
+                        + allowed.statements() + " statements, " + allowed.rows() + " rows");
+            }
+        });
+        return over;
+    }
+
+    private static void writeBudget(Path file, Map<String, Cost> budget) throws IOException {
+        List<String> lines = new ArrayList<>(List.of(
+                "# Most SQL statements and rows fetched per operation in SqlBudgetIT's game flow.",
+                "# Rewrite with ./gradlew test -PrecordSqlBudget after an intended change.",
+                "# statements rows operation"));
+        budget.forEach((operation, cost) -> lines.add(String.format("%-4d %-4d %s", cost.statements(), cost.rows(), operation)));
+        Files.createDirectories(file.getParent());
+        Files.write(file, lines);
+    }
+
+    /** The measurements, and the generic plans of the selects that took the most time altogether. */
+    private void report() throws IOException, SQLException {
+        List<String> lines = new ArrayList<>();
+        measured.forEach((operation, cost) -> lines.add(String.format("%-4d %-4d %s", cost.statements(), cost.rows(), operation)));
+        lines.add("");
+        List<SqlRecorder.Stat> hottest = sql.stats().stream()
+                .filter(stat -> stat.sql().regionMatches(true, 0, "select", 0, 6))
+                .sorted(Comparator.comparingLong(SqlRecorder.Stat::nanos).reversed())
+                .limit(HOTTEST)
+                .toList();
+        // the extended protocol would take $1 for a bind parameter; EXPLAIN needs it sent as text
+        String url = postgres.getJdbcUrl() + (postgres.getJdbcUrl().contains("?") ? "&" : "?") + "preferQueryMode=simple";
+        try (Connection explain = DriverManager.getConnection(url, postgres.getUsername(), postgres.getPassword());
+             Statement statement = explain.createStatement()) {
+            for (SqlRecorder.Stat stat : hottest) {
+                lines.add(String.format("-- %d executions, %d rows, %.2f ms", stat.executions(), stat.rows(), stat.nanos() / 1e6));
+                lines.add(stat.sql());
+                // postgres 16 plans a statement with its parameters unknown, without running it
+                try (ResultSet plan = statement.executeQuery("EXPLAIN (GENERIC_PLAN) " + numbered(stat.sql()))) {
+                    while (plan.next()) lines.add(plan.getString(1));
+                }
+                lines.add("");
+            }
+        }
+        Path dir = Path.of(REPORTS);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("report.txt"), lines);
+        lines.forEach(line -> System.out.println("[sql-budget] " + line));
+    }
+
+    /** JDBC's {@code ?} placeholders as postgres' {@code $1}, {@code $2}..., leaving string literals alone. */
+    static String numbered(String sql) {
+        StringBuilder out = new StringBuilder(sql.length() + 8);
+        boolean quoted = false;
+        int n = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '\'') quoted = !quoted;
+            if (c == '?' && !quoted) out.append('$').append(++n);
+            else out.append(c);
+        }
+        return out.toString();
+    }
+
+    private StompSession connect(String token, BlockingQueue<Map<?, ?>> acks) throws Exception {
+        WebSocketStompClient stomp = new WebSocketStompClient(new StandardWebSocketClient());
+        stomp.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connect = new StompHeaders();
+        connect.add("token", token);
+        StompSession session = stomp.connectAsync("ws://localhost:" + port + "/ws-native", new WebSocketHttpHeaders(), connect,
+                new StompSessionHandlerAdapter() { }).get(10, TimeUnit.SECONDS);
+        session.subscribe("/user/queue/acks", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                acks.add((Map<?, ?>) payload);
+            }
+        });
+        // let the SUBSCRIBE frame reach the broker
+        Thread.sleep(200);
+        return session;
+    }
+
+    private static void send(StompSession session, String destination, Object payload) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        headers.add("request-id", destination + "-" + System.nanoTime());
+        session.send(headers, payload);
+    }
+
+    private static Map<?, ?> awaitAck(BlockingQueue<Map<?, ?>> acks) throws InterruptedException {
+        Map<?, ?> ack = acks.poll(10, TimeUnit.SECONDS);
+        assertThat(ack).as("ack").isNotNull();
+        return ack;
+    }
+
+    private static String token(Map<String, Object> player) {
+        return (String) player.get("sessionToken");
+    }
+
+    private static byte[] png(int seed) throws IOException {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x102030 * (seed + 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+
+    /**
+     * Wraps the DataSource so every statement is counted, with the rows read from its result sets;
+     * a batch counts as one statement. Executions, rows and time are also kept per statement text.
+     */
+    static class SqlRecorder implements BeanPostProcessor {
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final Map<String, Counts> counts = new ConcurrentHashMap<>();
+
+        /** What one statement text has cost so far. */
+        record Stat(String sql, long executions, long rows, long nanos) { }
+
+        private static final class Counts {
+            final LongAdder executions = new LongAdder();
+            final LongAdder rows = new LongAdder();
+            final LongAdder nanos = new LongAdder();
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource dataSource) || bean instanceof DelegatingDataSource) return bean;
+            return new DelegatingDataSource(dataSource) {
+                @Override
+                public Connection getConnection() throws SQLException {
+                    return connection(super.getConnection());
+                }
+
+                @Override
+                public Connection getConnection(String username, String password) throws SQLException {
+                    return connection(super.getConnection(username, password));
+                }
+            };
+        }
+
+        Cost totals() {
+            return new Cost(statements.sum(), rows.sum());
+        }
+
+        /** Forgets the per-statement stats, keeping the running totals. */
+        void clearStats() {
+            counts.clear();
+        }
+
+        List<Stat> stats() {
+            List<Stat> stats = new ArrayList<>();
+            counts.forEach((sql, c) -> stats.add(new Stat(sql, c.executions.sum(), c.rows.sum(), c.nanos.sum())));
+            return stats;
+        }
+
+        private Connection connection(Connection target) {
+            return proxy(Connection.class, (proxy, method, args) -> {
+                Object result = invoke(target, method, args);
+                if (result instanceof Statement statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+                    String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                    return statement(statement, method.getReturnType(), sql);
+                }
+                return result;
+            });
+        }
+
+        private Object statement(Statement target, Class<?> type, String prepared) {
+            String[] last = { prepared };
+            return proxy(type, (proxy, method, args) -> {
+                if (method.getName().startsWith("execute")) {
+                    if (args != null && args.length > 0 && args[0] instanceof String text) last[0] = text;
+                    long started = System.nanoTime();
+                    Object result = invoke(target, method, args);
+                    Counts c = executed(last[0], System.nanoTime() - started);
+                    return result instanceof ResultSet resultSet ? resultSet(resultSet, c) : result;
+                }
+                Object result = invoke(target, method, args);
+                if (result instanceof ResultSet resultSet && "getResultSet".equals(method.getName())) {
+                    return resultSet(resultSet, counts.computeIfAbsent(normalized(last[0]), k -> new Counts()));
+                }
+                return result;
+            });
+        }
+
+        private ResultSet resultSet(ResultSet target, Counts c) {
+            return proxy(ResultSet.class, (proxy, method, args) -> {
+                Object result = invoke(target, method, args);
+                if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                    rows.increment();
+                    c.rows.increment();
+                }
+                return result;
+            });
+        }
+
+        private Counts executed(String sql, long nanos) {
+            statements.increment();
+            Counts c = counts.computeIfAbsent(normalized(sql), k -> new Counts());
+            c.executions.increment();
+            c.nanos.add(nanos);
+            return c;
+        }
+
+        private static String normalized(String sql) {
+            return sql == null ? "?" : sql.replaceAll("\\s+", " ").trim();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return (T) Proxy.newProxyInstance(SqlRecorder.class.getClassLoader(), new Class<?>[] { type }, handler);
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
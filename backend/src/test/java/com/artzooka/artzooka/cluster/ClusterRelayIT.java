@@ -0,0 +1,335 @@
+package com.artzooka.artzooka.cluster;
+
+import com.artzooka.artzooka.ArtzookaApplication;
+import com.artzooka.artzooka.retention.RetentionService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Three backend nodes on one Postgres. A whole game is played through the REST API of node A, with
+ * one vote cast through each node, while sockets subscribed on nodes A, B and C must each see the
+ * room's events in the same order and under the same numbers, which every node replays alike.
+ * Every node then reads the closed vote alike, whichever votes it counted itself. A batch that can
+ * no longer be read back from the table makes the rooms here reload. A room written through node B
+ * is read back fresh through node A, where it was cached, and a room deleted by retention on node A
+ * is gone from node B. A game
+ * started on a fourth node that then goes down must still move on when its deadline passes.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"artzooka.cluster.enabled=true",
+                // take over a dead node's games quickly, so the test need not wait out the defaults
+                "artzooka.phases.takeover-interval-ms=200", "artzooka.phases.takeover-grace=1s",
+                // the scheduled pass stays out of the way; the test runs it itself
+                "artzooka.retention.enabled=false"})
+@Testcontainers
+public class ClusterRelayIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    static final List<ConfigurableApplicationContext> otherNodes = new ArrayList<>();
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @BeforeAll
+    static void startOtherNodes() {
+        for (int i = 0; i < 2; i++) otherNodes.add(startNode());
+    }
+
+    private static ConfigurableApplicationContext startNode() {
+        // arguments, not default properties, so they win over application.yml
+        return new SpringApplicationBuilder(ArtzookaApplication.class).run(
+                "--server.port=0",
+                "--artzooka.cluster.enabled=true",
+                "--spring.datasource.url=" + postgres.getJdbcUrl(),
+                "--spring.datasource.username=" + postgres.getUsername(),
+                "--spring.datasource.password=" + postgres.getPassword(),
+                "--artzooka.uploads.dir=" + uploads);
+    }
+
+    @AfterAll
+    static void stopOtherNodes() {
+        otherNodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    RetentionService retentionService;
+
+    @Test
+    void everyNodeSeesAWholeGameInOrderUnderOneNumbering() throws Exception {
+        Map<String, Object> room = rest.postForObject(url("/api/rooms"), null, Map.class);
+        String code = (String) room.get("code");
+
+        List<String> nodes = new ArrayList<>(List.of(url("")));
+        for (ConfigurableApplicationContext node : otherNodes) {
+            nodes.add("http://localhost:" + node.getEnvironment().getProperty("local.server.port"));
+        }
+        List<List<Frame>> seen = new ArrayList<>();
+        for (String node : nodes) seen.add(subscribe(node, code));
+        // let the SUBSCRIBE frames reach the brokers
+        Thread.sleep(500);
+
+        List<Map<String, Object>> players = new ArrayList<>();
+        for (String name : List.of("A", "B", "C")) {
+            players.add(rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class));
+        }
+        Map<String, Object> start = rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class);
+        assertThat(start).containsKey("gameId");
+
+        for (int i = 0; i < players.size(); i++) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.IMAGE_PNG);
+            var upload = rest.exchange(url("/api/rooms/" + code + "/drawings?token=" + players.get(i).get("sessionToken")),
+                    HttpMethod.PUT, new HttpEntity<>(png(i), headers), Map.class);
+            assertThat(upload.getStatusCode().is2xxSuccessful()).isTrue();
+        }
+        awaitEveryNode(seen, "DISCUSS_STARTED", 1);
+        // each vote through another node, which numbers its VOTE_DELTA after what it was relayed;
+        // the last one closes the vote there
+        for (int i = 0; i < players.size(); i++) {
+            Object target = players.get((i + 1) % players.size()).get("playerId");
+            var vote = rest.postForEntity(nodes.get(i) + "/api/rooms/" + code + "/votes?token=" + players.get(i).get("sessionToken")
+                    + "&targetId=" + target, null, Map.class);
+            assertThat(vote.getStatusCode().is2xxSuccessful()).isTrue();
+            awaitEveryNode(seen, "VOTE_DELTA", i + 1);
+        }
+        awaitEveryNode(seen, "SHOW_RESULTS", 1);
+
+        List<Frame> local = upTo(seen.get(0), "SHOW_RESULTS");
+        assertThat(local).extracting(Frame::type)
+                .contains("PLAYER_JOINED", "GAME_STARTED", "DRAWING_UPLOADED", "DISCUSS_STARTED", "VOTE_DELTA", "SHOW_RESULTS")
+                .doesNotContain("RESYNC");
+        for (int i = 1; i < local.size(); i++) {
+            assertThat(local.get(i).seq()).as("frame %d", i).isEqualTo(local.get(i - 1).seq() + 1);
+        }
+        for (List<Frame> remote : seen.subList(1, seen.size())) {
+            assertThat(upTo(remote, "SHOW_RESULTS")).isEqualTo(local);
+        }
+
+        // nodes that counted earlier votes, or none, read the closed vote as the node that closed it
+        for (String node : nodes) {
+            Map<String, Object> result = rest.getForObject(node + "/api/rooms/" + code + "/votes/result", Map.class);
+            assertThat(result).as("result on %s", node).containsEntry("tallySeq", 3).containsEntry("frozen", true);
+        }
+
+        // any node can replay the room, under the numbers the clients saw
+        long before = local.get(0).seq() - 1;
+        for (String node : nodes) {
+            Map<String, Object> missed = rest.getForObject(node + "/api/rooms/" + code + "/events?since=" + before, Map.class);
+            assertThat(missed).as("events on %s", node).containsKey("events");
+            List<Frame> replayed = ((List<?>) missed.get("events")).stream().map(e -> Frame.of((Map<?, ?>) e)).toList();
+            assertThat(upTo(replayed, "SHOW_RESULTS")).as("events on %s", node).isEqualTo(local);
+        }
+    }
+
+    private static void awaitEveryNode(List<List<Frame>> seen, String type, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (seen.stream().anyMatch(frames -> count(frames, type) < count) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        for (List<Frame> frames : seen) assertThat(count(frames, type)).as("%s frames", type).isGreaterThanOrEqualTo(count);
+    }
+
+    private static long count(List<Frame> frames, String type) {
+        return frames.stream().filter(f -> f.type().equals(type)).count();
+    }
+
+    /** The balancer keeps a room on one node; a write that reaches another anyway must not leave A stale. */
+    @Test
+    void aRoomWrittenThroughAnotherNodeIsReadFreshWhereItIsCached() throws Exception {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        Map<String, Object> player = rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", "A"), Map.class);
+        assertThat(avatars(code)).hasSize(1).doesNotContain("fox");
+
+        String nodeB = "http://localhost:" + otherNodes.get(0).getEnvironment().getProperty("local.server.port");
+        var changed = rest.postForEntity(nodeB + "/api/rooms/" + code + "/avatar?token=" + player.get("sessionToken"),
+                Map.of("avatar", "fox"), Map.class);
+        assertThat(changed.getStatusCode().is2xxSuccessful()).isTrue();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<Object> avatars = avatars(code);
+        while (!avatars.equals(List.of("fox")) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            avatars = avatars(code);
+        }
+        assertThat(avatars).containsExactly("fox");
+    }
+
+    @Test
+    void aRoomDeletedByRetentionOnOneNodeIsGoneFromTheOthers() throws Exception {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", "A"), Map.class);
+        String nodeB = "http://localhost:" + otherNodes.get(0).getEnvironment().getProperty("local.server.port");
+        // cached on node B
+        assertThat(rest.getForEntity(nodeB + "/api/rooms/" + code, Map.class).getStatusCode().value()).isEqualTo(200);
+
+        jdbcTemplate.update("UPDATE rooms SET last_active_at = now() - interval '2 days' WHERE code = ?", code);
+        retentionService.run();
+        assertThat(roomCount(code)).isZero();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int status = rest.getForEntity(nodeB + "/api/rooms/" + code, Map.class).getStatusCode().value();
+        while (status != 404 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            status = rest.getForEntity(nodeB + "/api/rooms/" + code, Map.class).getStatusCode().value();
+        }
+        assertThat(status).isEqualTo(404);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> avatars(String code) {
+        Map<String, Object> room = rest.getForObject(url("/api/rooms/" + code), Map.class);
+        return ((List<Map<String, Object>>) room.get("players")).stream().map(p -> p.get("avatar")).toList();
+    }
+
+    @Test
+    void aGameWhoseNodeWentDownIsTakenOverByAnother() throws Exception {
+        ConfigurableApplicationContext doomed = startNode();
+        String doomedUrl = "http://localhost:" + doomed.getEnvironment().getProperty("local.server.port");
+        String code = (String) rest.postForObject(doomedUrl + "/api/rooms", null, Map.class).get("code");
+        for (String name : List.of("A", "B", "C")) {
+            rest.postForObject(doomedUrl + "/api/rooms/" + code + "/join", Map.of("name", name), Map.class);
+        }
+        Map<String, Object> start = rest.postForObject(doomedUrl + "/api/rooms/" + code + "/start", null, Map.class);
+        UUID gameId = UUID.fromString((String) start.get("gameId"));
+        doomed.close();
+
+        // the draw deadline passes while no node holds the game's timers
+        jdbcTemplate.update("UPDATE games SET draw_ends_at = now() - interval '1 minute' WHERE id = ?", gameId);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        String status = roomStatus(code);
+        while (!"VOTING".equals(status) && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            status = roomStatus(code);
+        }
+        assertThat(status).isEqualTo("VOTING");
+    }
+
+    /** A batch announced after its row, and every one before it, were pruned. */
+    @Test
+    void aBatchThatCannotBeReadBackAnyMoreResyncsTheRoomsHere() throws Exception {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        List<Frame> seen = subscribe(url(""), code);
+        Thread.sleep(500);
+
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, ClusterRelay.CHANNEL,
+                "{\"node\":\"" + UUID.randomUUID() + "\",\"seq\":5,\"events\":null}");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count(seen, "RESYNC") == 0 && System.nanoTime() < deadline) Thread.sleep(50);
+        assertThat(count(seen, "RESYNC")).isEqualTo(1);
+    }
+
+    private int roomCount(String code) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM rooms WHERE code = ?", Integer.class, code);
+    }
+
+    private String roomStatus(String code) {
+        return jdbcTemplate.queryForObject("SELECT status FROM rooms WHERE code = ?", String.class, code);
+    }
+
+    /** One event as a client saw it: its type and its number, 0 if it has none. */
+    private record Frame(String type, long seq) {
+        static Frame of(Map<?, ?> event) {
+            return new Frame(String.valueOf(event.get("type")), event.get("seq") instanceof Number seq ? seq.longValue() : 0);
+        }
+    }
+
+    private List<Frame> subscribe(String node, String code) throws Exception {
+        WebSocketStompClient stomp = new WebSocketStompClient(new StandardWebSocketClient());
+        stomp.setMessageConverter(new MappingJackson2MessageConverter());
+        StompSession session = stomp.connectAsync(node.replace("http://", "ws://") + "/ws/websocket", new StompSessionHandlerAdapter() { })
+                .get(10, TimeUnit.SECONDS);
+        List<Frame> frames = new CopyOnWriteArrayList<>();
+        session.subscribe("/topic/rooms/" + code, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                frames.add(Frame.of((Map<?, ?>) payload));
+            }
+        });
+        return frames;
+    }
+
+    private static List<Frame> upTo(List<Frame> frames, String last) {
+        int at = frames.stream().map(Frame::type).toList().indexOf(last);
+        return at < 0 ? List.copyOf(frames) : List.copyOf(frames.subList(0, at + 1));
+    }
+
+    private static byte[] png(int seed) throws IOException {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x102030 * (seed + 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
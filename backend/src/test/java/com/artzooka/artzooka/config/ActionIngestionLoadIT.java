@@ -0,0 +1,427 @@
+package com.artzooka.artzooka.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Votes and reactions over REST against the same over STOMP {@code /app} destinations, with 8
+ * players in each of 2,000 rooms. Every player holds a STOMP session subscribed to its room topic
+ * and its {@code /user/queue/acks} for the whole run, as the client does, and every request is
+ * answered: by the HTTP response, or by the ack for its {@code request-id}. Each path is driven
+ * closed-loop with the same number of requests in flight. Reported per path: throughput and the
+ * send-to-answer latency.
+ * <p>
+ * Order: a reaction from every player on each path to warm up, one measured reaction each on
+ * REST then STOMP, a vote each over REST, then every room is reset and started again and each
+ * player votes over STOMP. A player votes once per game, hence the second game. Every player
+ * submits a drawing as each game starts, so the room is voting when the votes come.
+ * <p>
+ * The clients run in a second JVM ({@link Clients}), as in {@link RoomFanOutLoadIT}, so neither
+ * process needs more than about 16,000 file descriptors. Takes several minutes: enabled with
+ * {@code ./gradlew test -PloadTest --tests '*ActionIngestionLoadIT'}. The measured lines are also
+ * written to {@value #REPORT}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.max-connections=18000",
+        "server.tomcat.accept-count=1000",
+        "artzooka.sweeper.interval-ms=3600000",
+        "artzooka.retention.initial-delay-ms=3600000"
+})
+@Testcontainers
+@EnabledIfSystemProperty(named = "artzooka.load", matches = "true")
+public class ActionIngestionLoadIT {
+    static final String REPORT = "build/reports/action-ingestion/results.txt";
+    private static final int ROOMS = 2_000;
+    private static final int PER_ROOM = 8;
+    private static final int PLAYERS = ROOMS * PER_ROOM;
+    private static final int IN_FLIGHT = 64;
+    private static final int SETUP_THREADS = 32;
+    private static final String EMOJI = "👍";
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    private Process clients;
+
+    @AfterEach
+    void tearDown() {
+        if (clients != null) clients.destroyForcibly();
+    }
+
+    @Test
+    void votesAndReactionsOverRestAndOverStomp() throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        clients = new ProcessBuilder(java, "-Xmx1500m", "-cp", System.getProperty("java.class.path"), Clients.class.getName(),
+                "http://localhost:" + port, "ws://localhost:" + port + "/ws/websocket")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(clients.getInputStream(), StandardCharsets.UTF_8));
+
+        long failed = -1;
+        int passes = 0;
+        List<String> measured = new ArrayList<>();
+        String line;
+        while ((line = out.readLine()) != null) {
+            System.out.println(line);
+            if (line.startsWith("[ingest] ")) measured.add(line);
+            if (line.startsWith("[ingest] ") && line.contains(" answered in ")) passes++;
+            if (line.startsWith("failed ")) failed = Long.parseLong(line.substring("failed ".length()));
+        }
+        assertThat(clients.waitFor(30, TimeUnit.SECONDS)).isTrue();
+        Path report = Path.of(REPORT);
+        Files.createDirectories(report.getParent());
+        Files.write(report, measured);
+        assertThat(passes).isEqualTo(4);
+        assertThat(failed).isZero();
+    }
+
+    /**
+     * The client side, run as its own process: sets up the rooms over HTTP, connects every player's
+     * session, then runs the passes and prints what it measured.
+     */
+    public static final class Clients {
+        private static final ObjectMapper JSON = new ObjectMapper();
+        private static final AtomicLong failed = new AtomicLong();
+        private static final byte[] DRAWING = png();
+
+        private final String base;
+        private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        private final ExecutorService setup = Executors.newFixedThreadPool(SETUP_THREADS);
+        private final List<Room> rooms = new ArrayList<>();
+        private final Player[] players = new Player[PLAYERS];
+
+        private Clients(String base) {
+            this.base = base;
+        }
+
+        public static void main(String[] args) throws Exception {
+            Clients run = new Clients(args[0]);
+            run.createRooms();
+            run.connect(URI.create(args[1]));
+            run.forEachRoom(run::start);
+
+            run.pass(null, i -> run.reactOverRest(run.players[i]));
+            run.pass(null, i -> run.reactOverStomp(run.players[i]));
+            run.pass("reactions over REST", i -> run.reactOverRest(run.players[i]));
+            run.pass("reactions over STOMP", i -> run.reactOverStomp(run.players[i]));
+            run.pass("votes over REST", i -> run.voteOverRest(run.players[i]));
+            run.forEachRoom(room -> {
+                run.post("/api/rooms/" + room.code + "/reset?token=" + room.players.get(0).token);
+                run.start(room);
+            });
+            run.pass("votes over STOMP", i -> run.voteOverStomp(run.players[i]));
+
+            System.out.println("failed " + failed.get());
+            System.exit(0);
+        }
+
+        private void createRooms() throws Exception {
+            long started = System.nanoTime();
+            for (int r = 0; r < ROOMS; r++) rooms.add(new Room());
+            forEachRoom(room -> {
+                room.code = post("/api/rooms").get("code").asText();
+                for (int p = 0; p < PER_ROOM; p++) {
+                    JsonNode joined = post("/api/rooms/" + room.code + "/join", Map.of("name", "P" + p));
+                    room.players.add(new Player(room, joined.get("sessionToken").asText(), joined.get("playerId").asText()));
+                }
+                // the longest game the settings allow, so no room's vote closes during the run
+                post("/api/rooms/" + room.code + "/settings?token=" + room.players.get(0).token,
+                        Map.of("drawSeconds", 300, "voteSeconds", 180));
+            });
+            for (int r = 0; r < ROOMS; r++) {
+                Room room = rooms.get(r);
+                for (int p = 0; p < PER_ROOM; p++) {
+                    Player player = room.players.get(p);
+                    // everyone votes for and reacts to the next player along
+                    player.targetId = room.players.get((p + 1) % PER_ROOM).id;
+                    players[r * PER_ROOM + p] = player;
+                }
+            }
+            System.out.printf("[ingest] %d rooms of %d players set up in %.1f s%n", ROOMS, PER_ROOM, (System.nanoTime() - started) / 1e9);
+        }
+
+        private void connect(URI uri) throws Exception {
+            CountDownLatch subscribed = new CountDownLatch(PLAYERS);
+            Semaphore connecting = new Semaphore(IN_FLIGHT);
+            long started = System.nanoTime();
+            for (Player player : players) {
+                connecting.acquire();
+                player.onSubscribed = () -> {
+                    subscribed.countDown();
+                    connecting.release();
+                };
+                player.socket = http.newWebSocketBuilder().buildAsync(uri, player).get(30, TimeUnit.SECONDS);
+            }
+            if (!subscribed.await(120, TimeUnit.SECONDS)) throw new IllegalStateException("players did not connect");
+            // no RECEIPT for a SUBSCRIBE: give the last ones time to land
+            Thread.sleep(2000);
+            System.out.printf("[ingest] %d sessions connected and subscribed in %.1f s%n", PLAYERS, (System.nanoTime() - started) / 1e9);
+        }
+
+        /** Starts a game and has every player submit, so the room is voting: votes are refused before. */
+        private void start(Room room) throws Exception {
+            post("/api/rooms/" + room.code + "/start");
+            for (Player player : room.players) {
+                send(HttpRequest.newBuilder(URI.create(base + "/api/rooms/" + room.code + "/drawings?token=" + player.token))
+                        .header("Content-Type", "image/png")
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(DRAWING)));
+            }
+        }
+
+        /** Runs one request per player, {@link #IN_FLIGHT} at a time, and reports it unless {@code label} is null. */
+        private void pass(String label, IntFunction<CompletableFuture<Boolean>> request) throws InterruptedException {
+            long[] latencies = new long[PLAYERS];
+            AtomicInteger refused = new AtomicInteger();
+            Semaphore inFlight = new Semaphore(IN_FLIGHT);
+            CountDownLatch answered = new CountDownLatch(PLAYERS);
+            long started = System.nanoTime();
+            for (int i = 0; i < PLAYERS; i++) {
+                inFlight.acquire();
+                int n = i;
+                long sent = System.nanoTime();
+                request.apply(i).orTimeout(30, TimeUnit.SECONDS).whenComplete((ok, error) -> {
+                    latencies[n] = System.nanoTime() - sent;
+                    if (error != null || !ok) refused.incrementAndGet();
+                    inFlight.release();
+                    answered.countDown();
+                });
+            }
+            if (!answered.await(5, TimeUnit.MINUTES)) throw new IllegalStateException(label + " did not finish");
+            double seconds = (System.nanoTime() - started) / 1e9;
+            failed.addAndGet(refused.get());
+            if (label == null) return;
+            Arrays.sort(latencies);
+            System.out.printf("[ingest] %s: %d answered in %.2f s, %.0f/s, p50 %.1f ms, p99 %.1f ms, max %.1f ms, %d failed%n",
+                    label, PLAYERS, seconds, PLAYERS / seconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0), refused.get());
+        }
+
+        private CompletableFuture<Boolean> reactOverRest(Player player) {
+            return postAsync("/api/rooms/" + player.room.code + "/reactions?token=" + player.token + "&targetId=" + player.targetId
+                    + "&emoji=" + URLEncoder.encode(EMOJI, StandardCharsets.UTF_8));
+        }
+
+        private CompletableFuture<Boolean> voteOverRest(Player player) {
+            return postAsync("/api/rooms/" + player.room.code + "/votes?token=" + player.token + "&targetId=" + player.targetId);
+        }
+
+        private CompletableFuture<Boolean> reactOverStomp(Player player) {
+            return player.send("reactions", "{\"targetId\":\"" + player.targetId + "\",\"emoji\":\"" + EMOJI + "\"}");
+        }
+
+        private CompletableFuture<Boolean> voteOverStomp(Player player) {
+            return player.send("votes", "{\"targetId\":\"" + player.targetId + "\"}");
+        }
+
+        private CompletableFuture<Boolean> postAsync(String path) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + path)).POST(HttpRequest.BodyPublishers.noBody()).build();
+            return http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> response.statusCode() == 200);
+        }
+
+        private JsonNode post(String path) throws Exception {
+            return send(HttpRequest.newBuilder(URI.create(base + path)).POST(HttpRequest.BodyPublishers.noBody()));
+        }
+
+        private JsonNode post(String path, Map<String, Object> body) throws Exception {
+            return send(HttpRequest.newBuilder(URI.create(base + path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(JSON.writeValueAsBytes(body))));
+        }
+
+        private JsonNode send(HttpRequest.Builder request) throws Exception {
+            HttpResponse<byte[]> response = http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(response.uri().getPath() + " answered " + response.statusCode());
+            }
+            return JSON.readTree(response.body());
+        }
+
+        private interface RoomTask {
+            void run(Room room) throws Exception;
+        }
+
+        private void forEachRoom(RoomTask task) throws Exception {
+            List<Future<?>> done = new ArrayList<>();
+            for (Room room : rooms) {
+                done.add(setup.submit(() -> {
+                    task.run(room);
+                    return null;
+                }));
+            }
+            for (Future<?> future : done) future.get();
+        }
+
+        private static byte[] png() {
+            BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, 0x102030);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(image, "png", out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+        }
+    }
+
+    private static final class Room {
+        String code;
+        final List<Player> players = new ArrayList<>();
+    }
+
+    /** One player's STOMP session, speaking frames by hand; acks complete the sends waiting for them. */
+    private static final class Player implements WebSocket.Listener {
+        final Room room;
+        final String token;
+        final String id;
+        String targetId;
+        WebSocket socket;
+        Runnable onSubscribed;
+        private final StringBuilder partial = new StringBuilder();
+        private final Map<String, CompletableFuture<Boolean>> waiting = new ConcurrentHashMap<>();
+        // a WebSocket takes one send at a time; CONNECTED can arrive before the CONNECT send completes
+        private CompletableFuture<WebSocket> lastSend;
+        private int requests;
+
+        Player(Room room, String token, String id) {
+            this.room = room;
+            this.token = token;
+            this.id = id;
+        }
+
+        synchronized CompletableFuture<Boolean> send(String action, String body) {
+            String requestId = String.valueOf(++requests);
+            CompletableFuture<Boolean> ack = new CompletableFuture<>();
+            waiting.put(requestId, ack);
+            String frame = "SEND\ndestination:/app/rooms/" + room.code + "/" + action + "\ncontent-type:application/json\n"
+                    + "request-id:" + requestId + "\n\n" + body + "\0";
+            lastSend = lastSend.thenCompose(ws -> ws.sendText(frame, true));
+            lastSend.whenComplete((ws, error) -> {
+                if (error != null) ack.completeExceptionally(error);
+            });
+            return ack;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            synchronized (this) {
+                lastSend = webSocket.sendText("CONNECT\naccept-version:1.2\nhost:localhost\nheart-beat:0,0\ntoken:" + token + "\n\n\0", true);
+            }
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                String frame = partial.toString();
+                partial.setLength(0);
+                onFrame(frame);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        private void onFrame(String frame) {
+            if (frame.startsWith("MESSAGE")) {
+                String body = frame.substring(frame.indexOf("\n\n") + 2);
+                if (!body.startsWith("{\"type\":\"ACK\"")) return;
+                String requestId = field(body, "\"requestId\":\"");
+                CompletableFuture<Boolean> ack = requestId == null ? null : waiting.remove(requestId);
+                if (ack != null) ack.complete(body.contains("\"ok\":true"));
+            } else if (frame.startsWith("CONNECTED")) {
+                synchronized (this) {
+                    lastSend = lastSend
+                            .thenCompose(ws -> ws.sendText("SUBSCRIBE\nid:0\ndestination:/user/queue/acks\n\n\0", true))
+                            .thenCompose(ws -> ws.sendText("SUBSCRIBE\nid:1\ndestination:" + RoomBroker.PREFIX + room.code + "\n\n\0", true));
+                    lastSend.whenComplete((ws, error) -> {
+                        if (error != null) System.err.println("[ingest] player of " + room.code + " could not subscribe: " + error);
+                        onSubscribed.run();
+                    });
+                }
+            } else {
+                System.err.println("[ingest] player of " + room.code + " got " + frame.lines().findFirst().orElse(""));
+            }
+        }
+
+        private static String field(String body, String name) {
+            int from = body.indexOf(name);
+            if (from < 0) return null;
+            from += name.length();
+            return body.substring(from, body.indexOf('"', from));
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            System.err.println("[ingest] player of " + room.code + " failed: " + error);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.artzooka.artzooka.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Each session's queue is found by its exact destination among many sessions' queues, unsubscribing
+ * or disconnecting takes it out, and a pattern subscription still matches.
+ */
+class QueueSubscriptionRegistryTest {
+    private final QueueSubscriptionRegistry registry = new QueueSubscriptionRegistry();
+
+    @Test
+    void findsOnlyTheSessionsOwnQueue() {
+        for (int i = 0; i < 1000; i++) {
+            registry.registerSubscription(subscribe("s" + i, "0", "/queue/acks-users" + i));
+            registry.registerSubscription(subscribe("s" + i, "1", "/queue/prompt-users" + i));
+        }
+
+        var found = registry.findSubscriptions(send("/queue/acks-users42"));
+
+        assertThat(found.keySet()).containsExactly("s42");
+        assertThat(found.get("s42")).containsExactly("0");
+    }
+
+    @Test
+    void unsubscribingOrDisconnectingTakesTheQueueOut() {
+        registry.registerSubscription(subscribe("s1", "0", "/queue/acks-users1"));
+        registry.registerSubscription(subscribe("s1", "1", "/queue/prompt-users1"));
+        registry.registerSubscription(subscribe("s2", "0", "/queue/acks-users2"));
+
+        registry.unregisterSubscription(unsubscribe("s1", "0"));
+        assertThat(registry.findSubscriptions(send("/queue/acks-users1"))).isEmpty();
+        assertThat(registry.findSubscriptions(send("/queue/prompt-users1"))).containsKey("s1");
+
+        registry.unregisterAllSubscriptions("s1");
+        assertThat(registry.findSubscriptions(send("/queue/prompt-users1"))).isEmpty();
+        assertThat(registry.findSubscriptions(send("/queue/acks-users2")).get("s2")).isEqualTo(List.of("0"));
+    }
+
+    @Test
+    void aPatternSubscriptionStillMatches() {
+        registry.registerSubscription(subscribe("s1", "0", "/queue/acks-users1"));
+        registry.registerSubscription(subscribe("watcher", "7", "/queue/acks-*"));
+
+        var found = registry.findSubscriptions(send("/queue/acks-users1"));
+
+        assertThat(found.keySet()).containsExactlyInAnyOrder("s1", "watcher");
+        registry.unregisterAllSubscriptions("watcher");
+        assertThat(registry.findSubscriptions(send("/queue/acks-users1")).keySet()).containsExactly("s1");
+    }
+
+    private static Message<?> subscribe(String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<?> unsubscribe(String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<?> send(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,287 @@
+package com.artzooka.artzooka.config;
+
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventLog;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load test for {@link RoomBroker}: 10,000 subscribed sessions in rooms of 8, with broadcasts
+ * published from many threads at once, delivered to a handler standing in for the WebSocket
+ * handler. Every session must see its room's events in publish order; the p99 delay from
+ * publish to delivery is reported. A session whose socket stops taking frames gets superseded
+ * events coalesced and reactions shed, while everything else still reaches it. A write that
+ * stalls leaves the writer pool a spare, so other sessions do not wait on that socket.
+ */
+class RoomBrokerTest {
+    private static final int SESSIONS = 10_000;
+    private static final int PER_ROOM = 8;
+    private static final int EVENTS_PER_ROOM = 20;
+
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final ExecutorService publishers = Executors.newFixedThreadPool(16);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RoomEventPublisher events = new RoomEventPublisher(new SimpMessagingTemplate((message, timeout) -> true), objectMapper,
+            new RoomEventLog(new SimpleMeterRegistry(), 256, DataSize.ofKilobytes(256), Duration.ofMinutes(30)), true);
+    private RoomBroker broker;
+
+    @AfterEach
+    void tearDown() {
+        publishers.shutdownNow();
+        if (broker != null) broker.stop();
+    }
+
+    /** Payload of a test broadcast. */
+    private record Event(int seq, long publishedAt) { }
+
+    @Test
+    @Timeout(60)
+    void everySessionSeesItsRoomInPublishOrder() throws Exception {
+        int rooms = SESSIONS / PER_ROOM;
+        Map<String, AtomicInteger> lastSeen = new ConcurrentHashMap<>();
+        long[] delays = new long[SESSIONS * EVENTS_PER_ROOM];
+        AtomicInteger delivered = new AtomicInteger();
+        AtomicInteger recorded = new AtomicInteger();
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        MessageHandler sockets = message -> {
+            Event event = (Event) message.getPayload();
+            long delay = System.nanoTime() - event.publishedAt();
+            String session = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+            if (lastSeen.get(session).getAndSet(event.seq()) != event.seq() - 1) outOfOrder.set(true);
+            delays[delivered.getAndIncrement()] = delay;
+            recorded.incrementAndGet();
+        };
+        start(sockets, 8);
+
+        for (int s = 0; s < SESSIONS; s++) {
+            String session = "s" + s;
+            lastSeen.put(session, new AtomicInteger(-1));
+            broker.preSend(frame(SimpMessageType.SUBSCRIBE, session, "sub-0", "/topic/rooms/R" + (s / PER_ROOM)), null);
+        }
+        assertThat(broker.subscriberCount("R0")).isEqualTo(PER_ROOM);
+
+        // each publisher owns a slice of rooms and publishes their events in order, interleaved
+        List<Future<?>> published = new ArrayList<>();
+        int slices = 16;
+        for (int p = 0; p < slices; p++) {
+            int slice = p;
+            published.add(publishers.submit(() -> {
+                for (int seq = 0; seq < EVENTS_PER_ROOM; seq++) {
+                    for (int r = slice; r < rooms; r += slices) {
+                        brokerChannel.send(broadcast("/topic/rooms/R" + r, new Event(seq, System.nanoTime())));
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : published) f.get();
+        while (recorded.get() < delays.length) Thread.sleep(5);
+
+        Arrays.sort(delays);
+        System.out.printf("[room-broker] %d sessions, %d deliveries: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                SESSIONS, delays.length, delays[delays.length / 2] / 1e6,
+                delays[(int) (delays.length * 0.99)] / 1e6, delays[delays.length - 1] / 1e6);
+        assertThat(outOfOrder).as("a session saw its room's events out of order").isFalse();
+        assertThat(lastSeen.values()).allMatch(seen -> seen.get() == EVENTS_PER_ROOM - 1);
+    }
+
+    @Test
+    @Timeout(10)
+    void unsubscribedAndDisconnectedSessionsStopReceiving() throws Exception {
+        List<String> received = new ArrayList<>();
+        start(message -> {
+            synchronized (received) {
+                received.add(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+            }
+        }, 2);
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "a", "sub-0", "/topic/rooms/ROOM"), null);
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "b", "sub-0", "/topic/rooms/ROOM"), null);
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "c", "sub-0", "/topic/rooms/ROOM"), null);
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "c", "sub-1", "/queue/acks"), null);
+        broker.preSend(frame(SimpMessageType.UNSUBSCRIBE, "a", "sub-0", null), null);
+        broker.preSend(frame(SimpMessageType.DISCONNECT, "b", null, null), null);
+
+        brokerChannel.send(broadcast("/topic/rooms/ROOM", new Event(0, System.nanoTime())));
+        brokerChannel.send(broadcast("/queue/acks-userc", new Event(1, System.nanoTime())));
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        assertThat(received).containsExactly("c");
+        assertThat(broker.subscriberCount("ROOM")).isEqualTo(1);
+    }
+
+    @Test
+    @Timeout(10)
+    void aStalledSessionGetsTheLatestOfSupersededEventsInOrder() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Map<?, ?>> received = new CopyOnWriteArrayList<>();
+        start(message -> {
+            writing.countDown();
+            await(release);
+            received.add(json(message));
+        }, 2, DataSize.ofKilobytes(64));
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "a", "sub-0", "/topic/rooms/ROOM"), null);
+        UUID game = UUID.randomUUID();
+        UUID x = UUID.randomUUID();
+        UUID y = UUID.randomUUID();
+
+        publish(new RoomEvent.RoomReset("ROOM"));
+        writing.await();
+        for (int count = 1; count <= 5; count++) publish(new RoomEvent.VoteDelta("ROOM", game, count, x, count));
+        for (int i = 0; i < 3; i++) publish(new RoomEvent.ReactionBatch("ROOM", game, Map.of(y.toString(), Map.of("🔥", 1))));
+        publish(new RoomEvent.VoteDelta("ROOM", game, 6, y, 1));
+        publish(new RoomEvent.GameEnded("ROOM", "done"));
+        while (broker.queuedCount("a") < 4) Thread.sleep(5);
+        release.countDown();
+        while (received.size() < 5) Thread.sleep(5);
+        Thread.sleep(100);
+
+        assertThat(received).extracting(m -> (String) m.get("type"))
+                .containsExactly("ROOM_RESET", "VOTE_DELTA", "REACTION_BATCH", "VOTE_DELTA", "GAME_ENDED");
+        assertThat(received.get(1).get("count")).isEqualTo(5);
+        assertThat(received.get(2).get("counts")).isEqualTo(Map.of(y.toString(), Map.of("🔥", 3)));
+        assertThat(received.get(3).get("targetId")).isEqualTo(y.toString());
+    }
+
+    @Test
+    @Timeout(10)
+    void aSessionOverBudgetShedsReactionsOnly() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Map<?, ?>> received = new CopyOnWriteArrayList<>();
+        start(message -> {
+            writing.countDown();
+            await(release);
+            received.add(json(message));
+        }, 2, DataSize.ofBytes(1));
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "a", "sub-0", "/topic/rooms/ROOM"), null);
+        UUID game = UUID.randomUUID();
+
+        publish(new RoomEvent.RoomReset("ROOM"));
+        writing.await();
+        publish(new RoomEvent.ReactionBatch("ROOM", game, Map.of(UUID.randomUUID().toString(), Map.of("👀", 2))));
+        publish(new RoomEvent.GameEnded("ROOM", "done"));
+        publish(new RoomEvent.RoomReset("ROOM"));
+        while (broker.queuedCount("a") < 2) Thread.sleep(5);
+        release.countDown();
+        while (received.size() < 3) Thread.sleep(5);
+        Thread.sleep(100);
+
+        assertThat(received).extracting(m -> (String) m.get("type")).containsExactly("ROOM_RESET", "GAME_ENDED", "ROOM_RESET");
+    }
+
+    @Test
+    @Timeout(10)
+    void aStalledWriteDoesNotHoldUpOtherSessions() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch others = new CountDownLatch(2);
+        broker = new RoomBroker(brokerChannel, message -> {
+            String session = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+            if (session.equals("stuck")) {
+                writing.countDown();
+                await(release);
+            }
+            received.add(session);
+            if (!session.equals("stuck")) others.countDown();
+        }, new SimpleMeterRegistry(), 2, 1, DataSize.ofKilobytes(64), Duration.ofSeconds(10), Duration.ofMillis(100), 4, true);
+        broker.start();
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "stuck", "sub-0", "/topic/rooms/SLOW"), null);
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "a", "sub-0", "/topic/rooms/FAST"), null);
+        broker.preSend(frame(SimpMessageType.SUBSCRIBE, "b", "sub-0", "/topic/rooms/FAST"), null);
+
+        // the only writer takes the stuck socket's frame first
+        brokerChannel.send(broadcast("/topic/rooms/SLOW", new Event(0, System.nanoTime())));
+        writing.await();
+        long sent = System.nanoTime();
+        brokerChannel.send(broadcast("/topic/rooms/FAST", new Event(0, sent)));
+
+        assertThat(others.await(2, TimeUnit.SECONDS)).as("sessions behind a stalled write got their frame").isTrue();
+        System.out.printf("[room-broker] delivered behind a stalled write in %.1f ms%n", (System.nanoTime() - sent) / 1e6);
+        assertThat(received).containsExactlyInAnyOrder("a", "b");
+        assertThat(broker.spareCount()).isEqualTo(1);
+
+        release.countDown();
+        while (received.size() < 3) Thread.sleep(5);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (broker.spareCount() > 0 && System.nanoTime() < deadline) Thread.sleep(5);
+        assertThat(broker.spareCount()).as("the spare goes once the write returns").isZero();
+    }
+
+    private void start(MessageHandler sockets, int lanes) {
+        start(sockets, lanes, DataSize.ofKilobytes(64));
+    }
+
+    private void start(MessageHandler sockets, int lanes, DataSize budget) {
+        broker = new RoomBroker(brokerChannel, sockets, new SimpleMeterRegistry(), lanes, 4, budget, Duration.ofSeconds(10),
+                Duration.ofMillis(500), 256, true);
+        broker.start();
+    }
+
+    private void publish(RoomEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/topic/rooms/" + event.roomCode());
+        brokerChannel.send(MessageBuilder.createMessage(events.encode(event), accessor.getMessageHeaders()));
+    }
+
+    private Map<?, ?> json(Message<?> message) {
+        try {
+            return objectMapper.readValue((byte[]) message.getPayload(), Map.class);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Message<?> frame(SimpMessageType type, String session, String subscription, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(session);
+        if (subscription != null) accessor.setSubscriptionId(subscription);
+        if (destination != null) accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<?> broadcast(String destination, Event event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(event, accessor.getMessageHeaders());
+    }
+}
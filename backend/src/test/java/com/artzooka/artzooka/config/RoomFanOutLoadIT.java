@@ -0,0 +1,293 @@
+package com.artzooka.artzooka.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Fan-out over real sockets: 10,000 STOMP clients on raw WebSockets, in rooms of 8, then every room
+ * gets 20 broadcasts, one every {@value #PERIOD_MS} ms, published open-loop from 16 threads with the
+ * rooms spread evenly over each period: 1,250 broadcasts, 10,000 frames, a second. That is a load
+ * both brokers keep up with, so the delays are delivery and not queueing; a burst of everything at
+ * once only measures how long the backlog takes to drain. How late the publishers fell behind their
+ * schedule is reported, so a run whose generator did not keep up can be told apart. Reported:
+ * connect time, delivery throughput and the publish-to-receipt delay per frame. Each frame carries
+ * its room's sequence number, so frames a client got out of order are counted too. Only
+ * {@code /ws/websocket} and the broker channel are used, so the same test runs against either broker.
+ * <p>
+ * The clients run in a second JVM ({@link Clients}), so neither process needs more than about
+ * 10,000 file descriptors; both read {@code System.nanoTime()}, the machine's monotonic clock, so
+ * the delays compare. Takes a few minutes: enabled with
+ * {@code ./gradlew test -PloadTest --tests '*RoomFanOutLoadIT'} for the simple broker, and with
+ * {@code -PshardedBroker} added for {@link RoomBroker}. The measured lines are also written to
+ * {@code build/reports/room-fan-out/<broker>.txt}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.max-connections=12000",
+        "server.tomcat.accept-count=1000",
+        "artzooka.sweeper.interval-ms=3600000",
+        "artzooka.retention.initial-delay-ms=3600000"
+})
+@Testcontainers
+@EnabledIfSystemProperty(named = "artzooka.load", matches = "true")
+public class RoomFanOutLoadIT {
+    private static final String TOPIC = "/topic/rooms/";
+    private static final int SESSIONS = 10_000;
+    private static final int PER_ROOM = 8;
+    private static final int ROOMS = SESSIONS / PER_ROOM;
+    private static final int EVENTS_PER_ROOM = 20;
+    private static final int CONNECTING = 64;
+    private static final long PERIOD_MS = 1000;
+    private static final int PUBLISHERS = 16;
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    RoomBroker roomBroker;
+
+    private final ExecutorService publishers = Executors.newFixedThreadPool(PUBLISHERS);
+    private Process clients;
+
+    @AfterEach
+    void tearDown() {
+        publishers.shutdownNow();
+        if (clients != null) clients.destroyForcibly();
+    }
+
+    @Test
+    void tenThousandSocketsGetEveryBroadcast() throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        clients = new ProcessBuilder(java, "-Xmx1g", "-cp", System.getProperty("java.class.path"), Clients.class.getName(),
+                "ws://localhost:" + port + "/ws/websocket")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(clients.getInputStream(), StandardCharsets.UTF_8));
+
+        String broker = roomBroker.isSharded() ? "sharded" : "simple";
+        List<String> measured = new ArrayList<>();
+        String line = out.readLine();
+        assertThat(line).as("clients subscribed").startsWith("[fan-out]");
+        System.out.println(line);
+        measured.add(line);
+        // the simple broker sends no RECEIPT for a SUBSCRIBE: give the last ones time to land
+        Thread.sleep(2000);
+
+        List<Future<Long>> published = new ArrayList<>();
+        long period = TimeUnit.MILLISECONDS.toNanos(PERIOD_MS);
+        long publishStarted = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        for (int t = 0; t < PUBLISHERS; t++) {
+            int first = t;
+            published.add(publishers.submit(() -> {
+                long late = 0;
+                for (int seq = 1; seq <= EVENTS_PER_ROOM; seq++) {
+                    for (int room = first; room < ROOMS; room += PUBLISHERS) {
+                        long due = publishStarted + (seq - 1) * period + room * period / ROOMS;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) LockSupport.parkNanos(wait);
+                        else late = Math.max(late, -wait);
+                        String body = "{\"type\":\"LOAD\",\"seq\":" + seq + ",\"sentAt\":" + System.nanoTime() + "}";
+                        // as text: a byte[] payload would go out as a binary frame
+                        messagingTemplate.convertAndSend(TOPIC + "LOAD" + room, body);
+                    }
+                }
+                return late;
+            }));
+        }
+        long late = 0;
+        for (Future<Long> future : published) late = Math.max(late, future.get());
+        String schedule = String.format("[fan-out] broker %s: %d broadcasts at %d/s, publishers at most %.1f ms behind schedule",
+                broker, ROOMS * EVENTS_PER_ROOM, ROOMS * 1000 / PERIOD_MS, late / 1e6);
+        System.out.println(schedule);
+        measured.add(schedule);
+
+        long delivered = -1;
+        while ((line = out.readLine()) != null) {
+            System.out.println(line);
+            if (line.startsWith("[fan-out] ")) measured.add(line);
+            if (line.startsWith("delivered ")) delivered = Long.parseLong(line.substring("delivered ".length()));
+        }
+        assertThat(clients.waitFor(30, TimeUnit.SECONDS)).isTrue();
+        Path report = Path.of("build/reports/room-fan-out", broker + ".txt");
+        Files.createDirectories(report.getParent());
+        Files.write(report, measured);
+        assertThat(delivered).isEqualTo((long) SESSIONS * EVENTS_PER_ROOM);
+    }
+
+    /**
+     * The client side, run as its own process: connects and subscribes every session, says so on
+     * stdout, then waits for all frames (or three minutes) and prints what it measured.
+     */
+    public static final class Clients {
+        public static void main(String[] args) throws Exception {
+            URI uri = URI.create(args[0]);
+            HttpClient http = HttpClient.newHttpClient();
+            LongAdder delivered = new LongAdder();
+            List<Client> clients = new ArrayList<>();
+            CountDownLatch subscribed = new CountDownLatch(SESSIONS);
+            Semaphore inFlight = new Semaphore(CONNECTING);
+            long connectStarted = System.nanoTime();
+            for (int i = 0; i < SESSIONS; i++) {
+                inFlight.acquire();
+                Client client = new Client("LOAD" + (i / PER_ROOM), delivered, () -> {
+                    subscribed.countDown();
+                    inFlight.release();
+                });
+                http.newWebSocketBuilder().buildAsync(uri, client).get(30, TimeUnit.SECONDS);
+                clients.add(client);
+            }
+            if (!subscribed.await(120, TimeUnit.SECONDS)) throw new IllegalStateException("clients did not connect");
+            long connectNanos = System.nanoTime() - connectStarted;
+            System.out.printf("[fan-out] %d sessions connected and subscribed in %.1f s (%.2f ms each)%n",
+                    SESSIONS, connectNanos / 1e9, connectNanos / 1e6 / SESSIONS);
+
+            long expected = (long) SESSIONS * EVENTS_PER_ROOM;
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(3);
+            while (delivered.sum() < expected && System.nanoTime() < deadline) Thread.sleep(20);
+
+            long firstSent = clients.stream().mapToLong(client -> client.firstSentAt).filter(t -> t != 0).min().orElse(0);
+            long lastReceived = clients.stream().mapToLong(client -> client.lastReceivedAt).max().orElse(0);
+            long[] delays = clients.stream()
+                    .flatMapToLong(client -> Arrays.stream(client.delays, 0, Math.min(client.received, EVENTS_PER_ROOM)))
+                    .sorted().toArray();
+            long outOfOrder = clients.stream().mapToLong(client -> client.outOfOrder).sum();
+            double seconds = (lastReceived - firstSent) / 1e9;
+            System.out.printf("[fan-out] %d of %d frames in %.2f s, %.0f frames/s, %d out of order%n",
+                    delivered.sum(), expected, seconds, delivered.sum() / seconds, outOfOrder);
+            System.out.printf("[fan-out] delay p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    percentile(delays, 0.50), percentile(delays, 0.99), percentile(delays, 1.0));
+            System.out.println("delivered " + delivered.sum());
+            System.exit(0);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) return 0;
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+        }
+    }
+
+    /** A STOMP client speaking frames by hand: CONNECT, SUBSCRIBE, then MESSAGEs. */
+    private static final class Client implements WebSocket.Listener {
+        private final String room;
+        private final LongAdder delivered;
+        private final Runnable onSubscribed;
+        private final StringBuilder partial = new StringBuilder();
+        // a WebSocket takes one send at a time; CONNECTED can arrive before the CONNECT send completes
+        private CompletableFuture<WebSocket> lastSend;
+        final long[] delays = new long[EVENTS_PER_ROOM];
+        volatile int received;
+        volatile long firstSentAt;
+        volatile long lastReceivedAt;
+        volatile long outOfOrder;
+        private long lastSeq;
+
+        Client(String room, LongAdder delivered, Runnable onSubscribed) {
+            this.room = room;
+            this.delivered = delivered;
+            this.onSubscribed = onSubscribed;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            lastSend = webSocket.sendText("CONNECT\naccept-version:1.2\nhost:localhost\nheart-beat:0,0\n\n\0", true);
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                String frame = partial.toString();
+                partial.setLength(0);
+                onFrame(webSocket, frame);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        private void onFrame(WebSocket webSocket, String frame) {
+            if (frame.startsWith("MESSAGE")) {
+                long now = System.nanoTime();
+                String body = frame.substring(frame.indexOf("\n\n") + 2);
+                long seq = field(body, "\"seq\":");
+                long sentAt = field(body, "\"sentAt\":");
+                if (seq < lastSeq) outOfOrder++;
+                lastSeq = Math.max(lastSeq, seq);
+                if (received < delays.length) delays[received] = now - sentAt;
+                if (firstSentAt == 0 || sentAt < firstSentAt) firstSentAt = sentAt;
+                received++;
+                lastReceivedAt = now;
+                delivered.increment();
+            } else if (frame.startsWith("CONNECTED")) {
+                lastSend = lastSend.thenCompose(ws -> ws.sendText("SUBSCRIBE\nid:0\ndestination:" + TOPIC + room + "\n\n\0", true));
+                lastSend.whenComplete((ws, error) -> {
+                    if (error != null) System.err.println("[fan-out] client of " + room + " could not subscribe: " + error);
+                    onSubscribed.run();
+                });
+            } else {
+                System.err.println("[fan-out] client of " + room + " got " + frame.lines().findFirst().orElse(""));
+            }
+        }
+
+        private static long field(String body, String name) {
+            int from = body.indexOf(name) + name.length();
+            int to = from;
+            while (to < body.length() && Character.isDigit(body.charAt(to))) to++;
+            return Long.parseLong(body.substring(from, to));
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            System.err.println("[fan-out] client of " + room + " failed: " + error);
+        }
+    }
+}
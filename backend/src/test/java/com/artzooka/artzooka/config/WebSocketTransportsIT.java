@@ -0,0 +1,240 @@
+package com.artzooka.artzooka.config;
+
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.RestTemplateXhrTransport;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the raw WebSocket endpoint with SockJS over its WebSocket transport and over
+ * XHR streaming, its HTTP fallback. Each connects 50 clients through a byte-counting TCP proxy
+ * to one room, then 50 events are published to it. Reported per client: time to STOMP CONNECTED,
+ * HTTP requests and TCP connections the setup took, bytes on the wire for the setup and for the
+ * events, and process CPU. Clients and server share the JVM, so the CPU covers both ends.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Testcontainers
+public class WebSocketTransportsIT {
+    private static final int CLIENTS = 50;
+    private static final int EVENTS = 50;
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    RoomEventPublisher roomEventPublisher;
+
+    private final List<StompSession> sessions = new ArrayList<>();
+    private CountingProxy proxy;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sessions.forEach(StompSession::disconnect);
+        if (proxy != null) proxy.close();
+    }
+
+    @Test
+    void nativeEndpointNegotiatesPermessageDeflate() throws Exception {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+        WebSocketSession session = new StandardWebSocketClient()
+                .execute(new AbstractWebSocketHandler() { }, headers, URI.create("ws://localhost:" + port + WebSocketConfig.NATIVE_ENDPOINT))
+                .get(10, TimeUnit.SECONDS);
+        try {
+            assertThat(session.getExtensions()).extracting(WebSocketExtension::getName).contains("permessage-deflate");
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    void nativeAgainstSockJs() throws Exception {
+        WebSocketHttpHeaders deflate = new WebSocketHttpHeaders();
+        deflate.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+        measure("native+deflate", new StandardWebSocketClient(), WebSocketConfig.NATIVE_ENDPOINT, "ws", deflate);
+        measure("sockjs-websocket", new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))),
+                WebSocketConfig.SOCKJS_ENDPOINT, "http", new WebSocketHttpHeaders());
+        measure("sockjs-xhr-streaming", new SockJsClient(List.of(new RestTemplateXhrTransport())),
+                WebSocketConfig.SOCKJS_ENDPOINT, "http", new WebSocketHttpHeaders());
+    }
+
+    private void measure(String name, WebSocketClient client, String endpoint, String scheme, WebSocketHttpHeaders headers) throws Exception {
+        sessions.forEach(StompSession::disconnect);
+        sessions.clear();
+        if (proxy != null) proxy.close();
+        proxy = new CountingProxy(port);
+        String room = "CMP" + name.hashCode();
+        String url = scheme + "://localhost:" + proxy.port() + endpoint;
+        WebSocketStompClient stomp = new WebSocketStompClient(client);
+        AtomicInteger received = new AtomicInteger();
+
+        var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        long setupNanos = 0;
+        for (int i = 0; i < CLIENTS; i++) {
+            long started = System.nanoTime();
+            StompSession session = stomp.connectAsync(url, headers, new StompHeaders(), new StompSessionHandlerAdapter() { })
+                    .get(10, TimeUnit.SECONDS);
+            setupNanos += System.nanoTime() - started;
+            session.subscribe(RoomBroker.PREFIX + room, new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return byte[].class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    received.incrementAndGet();
+                }
+            });
+            sessions.add(session);
+        }
+        // let the SUBSCRIBE frames reach the broker
+        Thread.sleep(500);
+        long setupBytes = proxy.total();
+        long setupRequests = proxy.requests();
+        long setupConnections = proxy.connections();
+
+        UUID game = UUID.randomUUID();
+        for (int i = 0; i < EVENTS; i++) {
+            // one target each: deltas for the same target may be coalesced by a slow client's outbox
+            roomEventPublisher.publish(new RoomEvent.VoteDelta(room, game, i + 1, UUID.randomUUID(), 1));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (received.get() < CLIENTS * EVENTS && System.nanoTime() < deadline) Thread.sleep(10);
+        long cpuNanos = os.getProcessCpuTime() - cpuBefore;
+        long eventBytes = proxy.total() - setupBytes;
+
+        System.out.printf("[transports] %-22s setup %6.2f ms, %.2f requests, %.2f connections, %6d B, %d events %7d B, cpu %6.2f ms per client%n",
+                name, setupNanos / 1e6 / CLIENTS, (double) setupRequests / CLIENTS, (double) setupConnections / CLIENTS,
+                setupBytes / CLIENTS, EVENTS, eventBytes / CLIENTS, cpuNanos / 1e6 / CLIENTS);
+        assertThat(received.get()).isEqualTo(CLIENTS * EVENTS);
+    }
+
+    /**
+     * Forwards local connections to the server and counts the bytes in both directions, the
+     * connections, and the HTTP requests (reads from a client that start with a request line).
+     */
+    private static final class CountingProxy implements AutoCloseable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder connections = new LongAdder();
+        private final List<Socket> sockets = new ArrayList<>();
+
+        CountingProxy(int target) throws IOException {
+            Thread accept = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket client = server.accept();
+                        Socket upstream = new Socket("localhost", target);
+                        synchronized (sockets) {
+                            sockets.add(client);
+                            sockets.add(upstream);
+                        }
+                        connections.increment();
+                        pump(client, upstream, true);
+                        pump(upstream, client, false);
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }, "counting-proxy");
+            accept.setDaemon(true);
+            accept.start();
+        }
+
+        int port() { return server.getLocalPort(); }
+
+        long total() { return bytes.sum(); }
+
+        long requests() { return requests.sum(); }
+
+        long connections() { return connections.sum(); }
+
+        private void pump(Socket from, Socket to, boolean fromClient) {
+            Thread t = new Thread(() -> {
+                byte[] buffer = new byte[8192];
+                try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        bytes.add(n);
+                        if (fromClient && startsWithRequestLine(buffer, n)) requests.increment();
+                        out.write(buffer, 0, n);
+                        out.flush();
+                    }
+                } catch (IOException ignored) {
+                    // either side closed
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private static boolean startsWithRequestLine(byte[] buffer, int n) {
+            String start = new String(buffer, 0, Math.min(n, 5), StandardCharsets.US_ASCII);
+            return start.startsWith("GET ") || start.startsWith("POST ");
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets) socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.artzooka.artzooka.drawing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Caching and range behaviour of {@code /media/}, plus what it saves over a game: every player
+ * opens the gallery on the Discussion page, re-renders it as votes come in, and opens it again on
+ * Results.
+ */
+class DrawingMediaControllerTest {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    @TempDir
+    Path root;
+
+    private DrawingStore store;
+    private DrawingMediaController controller;
+
+    @BeforeEach
+    void setUp() {
+        store = new SegmentDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        controller = new DrawingMediaController(store);
+    }
+
+    @Test
+    void servesHashedKeysAsImmutableWithStrongEtag() throws Exception {
+        byte[] image = png(20_000, 1);
+        String key = store(image);
+
+        MockHttpServletResponse response = get(key, Map.of());
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(image);
+        assertThat(response.getContentType()).isEqualTo("image/png");
+        assertThat(response.getHeader("Cache-Control")).isEqualTo("max-age=31536000, public, immutable");
+        assertThat(response.getHeader("ETag")).matches("\"[0-9a-f]{32}\"");
+        assertThat(key).contains(response.getHeader("ETag").replace("\"", ""));
+        assertThat(response.getHeader("Accept-Ranges")).isEqualTo("bytes");
+    }
+
+    @Test
+    void answersMatchingIfNoneMatchWith304() throws Exception {
+        String key = store(png(20_000, 2));
+        String etag = get(key, Map.of()).getHeader("ETag");
+
+        MockHttpServletResponse response = get(key, Map.of("If-None-Match", etag));
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(response.getHeader("ETag")).isEqualTo(etag);
+        assertThat(response.getHeader("Cache-Control")).contains("immutable");
+        assertThat(get(key, Map.of("If-None-Match", "\"0000\"")).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void servesSingleByteRanges() throws Exception {
+        byte[] image = png(20_000, 3);
+        String key = store(image);
+
+        MockHttpServletResponse head = get(key, Map.of("Range", "bytes=0-99"));
+        assertThat(head.getStatus()).isEqualTo(206);
+        assertThat(head.getHeader("Content-Range")).isEqualTo("bytes 0-99/20000");
+        assertThat(head.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(image, 0, 100));
+
+        MockHttpServletResponse tail = get(key, Map.of("Range", "bytes=-500"));
+        assertThat(tail.getStatus()).isEqualTo(206);
+        assertThat(tail.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(image, 19_500, 20_000));
+
+        MockHttpServletResponse open = get(key, Map.of("Range", "bytes=19990-"));
+        assertThat(open.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(image, 19_990, 20_000));
+
+        MockHttpServletResponse unsatisfiable = get(key, Map.of("Range", "bytes=30000-"));
+        assertThat(unsatisfiable.getStatus()).isEqualTo(416);
+        assertThat(unsatisfiable.getHeader("Content-Range")).isEqualTo("bytes */20000");
+
+        MockHttpServletResponse otherVersion = get(key, Map.of("Range", "bytes=0-99", "If-Range", "\"other\""));
+        assertThat(otherVersion.getStatus()).isEqualTo(200);
+        assertThat(otherVersion.getContentAsByteArray()).hasSize(20_000);
+
+        MockHttpServletResponse multiple = get(key, Map.of("Range", "bytes=0-9,100-109"));
+        assertThat(multiple.getStatus()).isEqualTo(200);
+        assertThat(multiple.getContentAsByteArray()).hasSize(20_000);
+    }
+
+    @Test
+    void unknownOrEscapingKeysAre404() throws Exception {
+        assertThat(get("ROOM01/" + UUID.randomUUID() + "/drawings.seg/28-10.png", Map.of()).getStatus()).isEqualTo(404);
+        assertThat(get("../../etc/passwd", Map.of()).getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void bytesServedPerCompletedGame() throws Exception {
+        int players = 8;
+        int galleryViews = 4; // Discussion, two re-renders while votes arrive, Results
+        List<String> keys = new ArrayList<>();
+        long imageBytes = 0;
+        for (int p = 0; p < players; p++) {
+            byte[] image = png(60 * 1024, 10 + p);
+            imageBytes += image.length;
+            keys.add(store(image));
+        }
+
+        // before: no validators or freshness, so every view downloads every drawing again
+        long before = 0;
+        for (int p = 0; p < players; p++) {
+            for (int v = 0; v < galleryViews; v++) {
+                for (String key : keys) before += get(key, Map.of()).getContentLength();
+            }
+        }
+
+        // after: each browser keeps immutable responses and does not ask again; one reload revalidates
+        long after = 0;
+        int requests = 0;
+        int notModified = 0;
+        for (int p = 0; p < players; p++) {
+            Map<String, String> browserCache = new HashMap<>();
+            for (int v = 0; v < galleryViews; v++) {
+                for (String key : keys) {
+                    if (browserCache.containsKey(key)) continue;
+                    MockHttpServletResponse response = get(key, Map.of());
+                    requests++;
+                    after += response.getContentAsByteArray().length;
+                    browserCache.put(key, response.getHeader("ETag"));
+                }
+            }
+            for (String key : keys) {
+                MockHttpServletResponse response = get(key, Map.of("If-None-Match", browserCache.get(key)));
+                requests++;
+                if (response.getStatus() == 304) notModified++;
+                after += response.getContentAsByteArray().length;
+            }
+        }
+        System.out.printf("[ARTZOOKA] bytes served per game (%d players, %d gallery views, %d bytes of drawings): "
+                        + "before=%d after=%d (%d requests, %d answered 304); behind the nginx cache the backend serves %d%n",
+                players, galleryViews, imageBytes, before, after, requests, notModified, imageBytes);
+
+        assertThat(before).isEqualTo(imageBytes * players * galleryViews);
+        assertThat(after).isEqualTo(imageBytes * players);
+        assertThat(notModified).isEqualTo(players * players);
+    }
+
+    private String store(byte[] image) throws Exception {
+        return store.store("ROOM01", UUID.nameUUIDFromBytes("game".getBytes()), UUID.randomUUID(),
+                Channels.newChannel(new ByteArrayInputStream(image)));
+    }
+
+    private MockHttpServletResponse get(String key, Map<String, String> headers) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/" + key);
+        headers.forEach(request::addHeader);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.serve(request, response);
+        return response;
+    }
+
+    private static byte[] png(int size, int seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        System.arraycopy(PNG_SIGNATURE, 0, bytes, 0, PNG_SIGNATURE.length);
+        return bytes;
+    }
+}
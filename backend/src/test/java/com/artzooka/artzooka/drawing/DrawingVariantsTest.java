@@ -0,0 +1,170 @@
+package com.artzooka.artzooka.drawing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link DrawingVariants} against a {@link FileSystemDrawingStore} in a temp directory, with
+ * canvas-sized drawings like the ones the client uploads.
+ */
+class DrawingVariantsTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void writesScaledVariantsNextToTheOriginal() throws Exception {
+        FileSystemDrawingStore store = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        DrawingVariants variants = new DrawingVariants(store, meters, root.toString(), 2, 16);
+        byte[] png = drawing(1);
+        String key = store.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(png));
+
+        variants.submit(key);
+        Map<DrawingVariants.Variant, String> made = awaitVariants(variants, key);
+
+        for (DrawingVariants.Variant variant : DrawingVariants.Variant.values()) {
+            String variantKey = made.get(variant);
+            String hash = DrawingFormat.hashOf(key);
+            assertThat(variantKey).isEqualTo(key.substring(0, key.lastIndexOf('/') + 1) + hash + "." + variant.suffix() + ".png");
+            BufferedImage image = ImageIO.read(root.resolve(variantKey).toFile());
+            assertThat(image.getWidth()).isEqualTo(variant.width());
+            assertThat(image.getHeight()).isEqualTo(Math.round(560f * variant.width() / 900));
+            assertThat(Files.size(root.resolve(variantKey))).isLessThan(png.length);
+            System.out.println("[ARTZOOKA] " + variant.suffix() + " " + Files.size(root.resolve(variantKey)) + " of " + png.length + " bytes");
+            // served as immutable like the original, under its own version
+            DrawingContent content = store.open(variantKey).orElseThrow();
+            assertThat(content.hash()).isEqualTo(hash + "-" + variant.suffix());
+        }
+        assertThat(variants.variantFilesOf(key)).containsExactlyInAnyOrderElementsOf(made.values());
+        assertThat(meters.get("artzooka.thumbnails.transcode").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void dropsWorkWhenTheQueueIsFullWithoutBlocking() throws Exception {
+        FileSystemDrawingStore store = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        DrawingVariants variants = new DrawingVariants(store, meters, root.toString(), 1, 2);
+        UUID gameId = UUID.randomUUID();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i++) keys.add(store.store("ROOM01", gameId, UUID.randomUUID(), body(drawing(i))));
+
+        long started = System.nanoTime();
+        keys.forEach(variants::submit);
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        // one worker and two slots cannot take 40 drawings; the rest are dropped, not waited for
+        assertThat(submitMillis).isLessThan(200);
+        assertThat(meters.get("artzooka.thumbnails.rejected").counter().count()).isGreaterThan(0);
+        assertThat(variants.queueDepth()).isLessThanOrEqualTo(2);
+        // listings queue what was dropped again, so every drawing gets its variants in the end
+        for (String key : keys) awaitVariants(variants, key);
+    }
+
+    @Test
+    void leavesUndecodableDrawingsAtTheirOriginal() throws Exception {
+        FileSystemDrawingStore store = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        DrawingVariants variants = new DrawingVariants(store, meters, root.toString(), 1, 16);
+        byte[] webp = new byte[500];
+        System.arraycopy("RIFF".getBytes(), 0, webp, 0, 4);
+        System.arraycopy("WEBPVP8 ".getBytes(), 0, webp, 8, 8);
+        String key = store.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(webp));
+
+        variants.submit(key);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (meters.get("artzooka.thumbnails.failed").counter().count() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(meters.get("artzooka.thumbnails.failed").counter().count()).isEqualTo(1);
+        assertThat(variants.variantsOf(key)).isEmpty();
+        // not queued again by the listing
+        Thread.sleep(100);
+        assertThat(meters.get("artzooka.thumbnails.transcode").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void keepsTheOriginalBytesWhenScalingDoesNotShrinkThem() throws Exception {
+        FileSystemDrawingStore store = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        DrawingVariants variants = new DrawingVariants(store, new SimpleMeterRegistry(), root.toString(), 1, 16);
+        // already thumbnail-sized: a variant would be the same image, re-encoded
+        BufferedImage small = new BufferedImage(200, 120, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(small, "png", out);
+        String key = store.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(out.toByteArray()));
+
+        variants.submit(key);
+        Map<DrawingVariants.Variant, String> made = awaitVariants(variants, key);
+
+        for (String variantKey : made.values()) {
+            assertThat(Files.size(root.resolve(variantKey))).isLessThanOrEqualTo(out.size());
+        }
+    }
+
+    @Test
+    void scalesDownWithoutChangingTheAspect() {
+        BufferedImage source = new BufferedImage(900, 560, BufferedImage.TYPE_INT_RGB);
+
+        assertThat(DrawingVariants.scale(source, 320).getWidth()).isEqualTo(320);
+        assertThat(DrawingVariants.scale(source, 320).getHeight()).isEqualTo(199);
+        // never scaled up
+        assertThat(DrawingVariants.scale(source, 1200).getWidth()).isEqualTo(900);
+    }
+
+    private static Map<DrawingVariants.Variant, String> awaitVariants(DrawingVariants variants, String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            Map<DrawingVariants.Variant, String> made = variants.variantsOf(key);
+            if (made.size() == DrawingVariants.Variant.values().length) return made;
+            assertThat(System.currentTimeMillis()).as("variants of " + key).isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    /** A canvas-sized PNG with a few dozen strokes on the dark background, about what a player sends. */
+    private static byte[] drawing(int seed) throws Exception {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(900, 560, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0x222222));
+        g.fillRect(0, 0, 900, 560);
+        // the browser canvas anti-aliases its strokes
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setStroke(new BasicStroke(4, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(random.nextInt(0xffffff)));
+            g.drawLine(random.nextInt(900), random.nextInt(560), random.nextInt(900), random.nextInt(560));
+        }
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static ReadableByteChannel body(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+}
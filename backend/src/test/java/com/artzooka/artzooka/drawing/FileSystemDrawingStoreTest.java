@@ -0,0 +1,162 @@
+package com.artzooka.artzooka.drawing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link FileSystemDrawingStore} against a temp directory, including the submission burst the request path
+ * sees at the end of a draw phase: 8 players in each of 1,000 rooms uploading at once. The burst prints
+ * its latency percentiles and the heap allocated per upload.
+ */
+class FileSystemDrawingStoreTest {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    @TempDir
+    Path root;
+
+    @Test
+    void storesPngUnderRoomAndGame() throws Exception {
+        FileSystemDrawingStore uploads = new FileSystemDrawingStore(root.toString(), DataSize.ofKilobytes(64));
+        byte[] png = png(10_000);
+        UUID gameId = UUID.randomUUID();
+        UUID playerId = UUID.randomUUID();
+
+        String relative = uploads.store("ROOM01", gameId, playerId, body(png));
+
+        assertThat(relative).startsWith("ROOM01/" + gameId + "/" + playerId + "_").endsWith(".png");
+        assertThat(Files.readAllBytes(root.resolve(relative))).isEqualTo(png);
+        assertThat(filesUnder(root)).containsExactly(root.resolve(relative));
+    }
+
+    @Test
+    void storesWebp() throws Exception {
+        FileSystemDrawingStore uploads = new FileSystemDrawingStore(root.toString(), DataSize.ofKilobytes(64));
+        byte[] webp = new byte[500];
+        System.arraycopy("RIFF".getBytes(), 0, webp, 0, 4);
+        System.arraycopy("WEBPVP8 ".getBytes(), 0, webp, 8, 8);
+
+        String relative = uploads.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(webp));
+
+        assertThat(relative).endsWith(".webp");
+        assertThat(Files.size(root.resolve(relative))).isEqualTo(500);
+    }
+
+    @Test
+    void rejectsOtherFormatsWithoutLeavingFiles() throws Exception {
+        FileSystemDrawingStore uploads = new FileSystemDrawingStore(root.toString(), DataSize.ofKilobytes(64));
+        byte[] gif = "GIF89a-not-a-drawing".getBytes();
+
+        assertThatThrownBy(() -> uploads.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(gif)))
+                .isInstanceOf(DrawingRejectedException.class)
+                .extracting(e -> ((DrawingRejectedException) e).getStatus()).isEqualTo(415);
+        assertThatThrownBy(() -> uploads.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(new byte[3])))
+                .isInstanceOf(DrawingRejectedException.class);
+        assertThat(filesUnder(root)).isEmpty();
+    }
+
+    @Test
+    void rejectsOversizedBodyWithoutReadingAllOfIt() throws Exception {
+        FileSystemDrawingStore uploads = new FileSystemDrawingStore(root.toString(), DataSize.ofKilobytes(64));
+        byte[] huge = png(10 * 1024 * 1024);
+        ByteArrayInputStream in = new ByteArrayInputStream(huge);
+
+        assertThatThrownBy(() -> uploads.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), Channels.newChannel(in)))
+                .isInstanceOf(DrawingRejectedException.class)
+                .extracting(e -> ((DrawingRejectedException) e).getStatus()).isEqualTo(413);
+        assertThat(in.available()).isGreaterThan(huge.length - 256 * 1024);
+        assertThat(filesUnder(root)).isEmpty();
+    }
+
+    @Test
+    void acceptsBodyOfExactlyTheLimit() throws Exception {
+        FileSystemDrawingStore uploads = new FileSystemDrawingStore(root.toString(), DataSize.ofKilobytes(64));
+        String relative = uploads.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(), body(png(64 * 1024)));
+        assertThat(Files.size(root.resolve(relative))).isEqualTo(64 * 1024);
+    }
+
+    @Test
+    @Timeout(120)
+    void submissionBurstAcrossThousandRooms() throws Exception {
+        int rooms = 1_000;
+        int playersPerRoom = 8;
+        FileSystemDrawingStore uploads = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        byte[] png = png(60 * 1024);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        ExecutorService clients = Executors.newFixedThreadPool(64);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int r = 0; r < rooms; r++) {
+                String code = String.format("R%05d", r);
+                UUID gameId = UUID.randomUUID();
+                for (int p = 0; p < playersPerRoom; p++) {
+                    results.add(clients.submit(() -> {
+                        ReadableByteChannel body = body(png);
+                        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                        long started = System.nanoTime();
+                        uploads.store(code, gameId, UUID.randomUUID(), body);
+                        long nanos = System.nanoTime() - started;
+                        return new long[] {nanos, threads.getCurrentThreadAllocatedBytes() - allocatedBefore};
+                    }));
+                }
+            }
+            long[] latencies = new long[results.size()];
+            long allocated = 0;
+            for (int i = 0; i < results.size(); i++) {
+                long[] sample = results.get(i).get();
+                latencies[i] = sample[0];
+                allocated += sample[1];
+            }
+            Arrays.sort(latencies);
+            long perUpload = allocated / latencies.length;
+            System.out.printf("[ARTZOOKA] %d uploads of %d bytes: p50=%.2fms p99=%.2fms max=%.2fms heap/upload=%d bytes%n",
+                    latencies.length, png.length,
+                    latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 99 / 100] / 1e6,
+                    latencies[latencies.length - 1] / 1e6, perUpload);
+
+            assertThat(filesUnder(root)).hasSize(rooms * playersPerRoom);
+            // the body is never buffered on the heap: allocation stays a small fraction of the payload
+            assertThat(perUpload).isLessThan(png.length / 2);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static byte[] png(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        System.arraycopy(PNG_SIGNATURE, 0, bytes, 0, PNG_SIGNATURE.length);
+        return bytes;
+    }
+
+    private static ReadableByteChannel body(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+
+    private static List<Path> filesUnder(Path dir) throws Exception {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile).toList();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.artzooka.artzooka.drawing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link GalleryManifests} over a mocked repository: what a round of listings costs, which
+ * manifest wins when builds race with a submission, that variants landing cost no query, and
+ * that drawings waiting for variants are let go oldest first.
+ */
+class GalleryManifestsTest {
+    @TempDir
+    Path root;
+
+    private final UUID roomId = UUID.randomUUID();
+    private final UUID gameId = UUID.randomUUID();
+    private DrawingRepository repository;
+    private FileSystemDrawingStore store;
+    private GalleryManifests manifests;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(DrawingRepository.class);
+        store = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        DrawingVariants variants = new DrawingVariants(store, new SimpleMeterRegistry(), root.toString(), 1, 16);
+        manifests = new GalleryManifests(repository, variants, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void buildsOncePerChangeForARoundOfListings() {
+        when(repository.findGalleryRows(gameId)).thenReturn(rows(8));
+
+        // 8 clients listing after each of 8 submissions
+        GalleryManifest first = manifests.get(roomId, gameId);
+        for (int i = 0; i < 64; i++) assertThat(manifests.get(roomId, gameId)).isSameAs(first);
+
+        verify(repository, times(1)).findGalleryRows(gameId);
+        assertThat(first.drawings()).hasSize(8);
+        assertThat(first.drawings("http://host").get(0).filePath()).startsWith("http://host/media/ROOM01/");
+        assertThat(first.drawings("http://host")).isSameAs(first.drawings("http://host"));
+    }
+
+    @Test
+    void rebuildRaisesTheVersion() {
+        when(repository.findGalleryRows(gameId)).thenReturn(rows(1)).thenReturn(rows(2));
+
+        GalleryManifest before = manifests.get(roomId, gameId);
+        GalleryManifest after = manifests.rebuild(roomId, gameId);
+
+        assertThat(after.version()).isGreaterThan(before.version());
+        assertThat(after.etag()).isNotEqualTo(before.etag());
+        assertThat(manifests.get(roomId, gameId)).isSameAs(after);
+        assertThat(after.drawings()).hasSize(2);
+    }
+
+    @Test
+    void aListingThatReadBeforeACommitDoesNotReplaceTheNewerManifest() {
+        AtomicBoolean first = new AtomicBoolean(true);
+        when(repository.findGalleryRows(gameId)).thenAnswer(inv -> {
+            if (first.getAndSet(false)) {
+                // a submission commits and rebuilds while this listing is still reading
+                manifests.rebuild(roomId, gameId);
+                return rows(1);
+            }
+            return rows(2);
+        });
+
+        manifests.get(roomId, gameId);
+
+        assertThat(manifests.get(roomId, gameId).drawings()).hasSize(2);
+    }
+
+    @Test
+    void variantsLandingReLinkTheCachedRowsWithoutAQuery() throws Exception {
+        String key = store.store("ROOM01", gameId, UUID.randomUUID(), Channels.newChannel(new ByteArrayInputStream(png())));
+        when(repository.findGalleryRows(gameId)).thenReturn(List.of(new DrawingRepository.GalleryRow(UUID.randomUUID(), key)));
+
+        // the listing queues the transcode, so it links the original
+        GalleryManifest before = manifests.get(roomId, gameId);
+        assertThat(before.drawings().get(0).thumbnailUrl()).isEqualTo(before.drawings().get(0).filePath());
+
+        GalleryManifest after = before;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (after == before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            after = manifests.get(roomId, gameId);
+        }
+
+        assertThat(after.version()).isGreaterThan(before.version());
+        assertThat(after.drawings().get(0).thumbnailUrl()).endsWith(".thumb.png");
+        assertThat(after.drawings().get(0).mediumUrl()).endsWith(".medium.png");
+        verify(repository, times(1)).findGalleryRows(gameId);
+    }
+
+    @Test
+    void theOldestDrawingsWaitingForVariantsMakeRoomForNewOnes() {
+        UUID otherRoom = UUID.randomUUID();
+        UUID otherGame = UUID.randomUUID();
+        List<DrawingRepository.GalleryRow> many = rows(GalleryManifests.MAX_WAITING);
+        List<DrawingRepository.GalleryRow> one = List.of(new DrawingRepository.GalleryRow(UUID.randomUUID(), "ROOM02/" + otherGame + "/0.png"));
+        when(repository.findGalleryRows(gameId)).thenReturn(many);
+        when(repository.findGalleryRows(otherGame)).thenReturn(one);
+
+        manifests.get(roomId, gameId);
+        manifests.get(otherRoom, otherGame);
+
+        assertThat(manifests.isWaitingForVariants(many.get(0).filePath())).isFalse();
+        assertThat(manifests.isWaitingForVariants(many.get(1).filePath())).isTrue();
+        assertThat(manifests.isWaitingForVariants(many.get(many.size() - 1).filePath())).isTrue();
+        assertThat(manifests.isWaitingForVariants(one.get(0).filePath())).isTrue();
+    }
+
+    @Test
+    void buildsAgainForTheNextGame() {
+        UUID nextGame = UUID.randomUUID();
+        when(repository.findGalleryRows(gameId)).thenReturn(rows(8));
+        when(repository.findGalleryRows(nextGame)).thenReturn(List.of());
+
+        manifests.get(roomId, gameId);
+        GalleryManifest next = manifests.get(roomId, nextGame);
+
+        assertThat(next.gameId()).isEqualTo(nextGame);
+        assertThat(next.drawings()).isEmpty();
+    }
+
+    private static byte[] png() throws IOException {
+        BufferedImage image = new BufferedImage(900, 560, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(450, 280, 0x102030);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private List<DrawingRepository.GalleryRow> rows(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new DrawingRepository.GalleryRow(UUID.randomUUID(), "ROOM01/" + gameId + "/" + i + ".png"))
+                .toList();
+    }
+}
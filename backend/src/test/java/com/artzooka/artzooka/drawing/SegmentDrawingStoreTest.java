@@ -0,0 +1,123 @@
+package com.artzooka.artzooka.drawing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentDrawingStoreTest {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    @TempDir
+    Path root;
+
+    @Test
+    void concurrentUploadsOfOneGameShareASegment() throws Exception {
+        SegmentDrawingStore store = new SegmentDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        UUID gameId = UUID.randomUUID();
+        List<byte[]> images = new ArrayList<>();
+        for (int i = 0; i < 8; i++) images.add(png(5_000 + i * 1_000, i));
+
+        ExecutorService players = Executors.newFixedThreadPool(8);
+        List<Future<String>> keys = new ArrayList<>();
+        try {
+            for (byte[] image : images) {
+                keys.add(players.submit(() -> store.store("ROOM01", gameId, UUID.randomUUID(),
+                        Channels.newChannel(new ByteArrayInputStream(image)))));
+            }
+            for (int i = 0; i < images.size(); i++) {
+                String key = keys.get(i).get();
+                assertThat(store.isSegmentKey(key)).isTrue();
+                assertThat(store.fileOf(key)).isEqualTo("ROOM01/" + gameId + "/drawings.seg");
+                assertThat(read(store, key)).isEqualTo(images.get(i));
+            }
+        } finally {
+            players.shutdownNow();
+        }
+        // one segment, no temp files left behind
+        assertThat(filesUnder(root)).containsExactly(root.resolve("ROOM01/" + gameId + "/drawings.seg"));
+    }
+
+    @Test
+    void readsKeysAppendedAfterTheSegmentWasMapped() throws Exception {
+        SegmentDrawingStore store = new SegmentDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        UUID gameId = UUID.randomUUID();
+        byte[] first = png(3_000, 1);
+        byte[] second = png(4_000, 2);
+        String firstKey = store.store("ROOM01", gameId, UUID.randomUUID(), Channels.newChannel(new ByteArrayInputStream(first)));
+        assertThat(read(store, firstKey)).isEqualTo(first);
+        String secondKey = store.store("ROOM01", gameId, UUID.randomUUID(), Channels.newChannel(new ByteArrayInputStream(second)));
+        assertThat(read(store, secondKey)).isEqualTo(second);
+    }
+
+    @Test
+    void rejectedUploadLeavesNothingBehind() {
+        SegmentDrawingStore store = new SegmentDrawingStore(root.toString(), DataSize.ofKilobytes(8));
+        assertThatThrownBy(() -> store.store("ROOM01", UUID.randomUUID(), UUID.randomUUID(),
+                Channels.newChannel(new ByteArrayInputStream(png(20_000, 3)))))
+                .isInstanceOf(DrawingRejectedException.class);
+        assertThat(filesUnder(root)).isEmpty();
+    }
+
+    @Test
+    void importsOneFileKeysAndStillReadsThemBefore() throws Exception {
+        FileSystemDrawingStore files = new FileSystemDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        SegmentDrawingStore segments = new SegmentDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        byte[] image = png(6_000, 4);
+        UUID playerId = UUID.randomUUID();
+        String oldKey = files.store("ROOM01", UUID.randomUUID(), playerId, Channels.newChannel(new ByteArrayInputStream(image)));
+
+        assertThat(read(segments, oldKey)).isEqualTo(image);
+        String newKey = segments.importFile(oldKey, playerId);
+        assertThat(segments.isSegmentKey(newKey)).isTrue();
+        assertThat(read(segments, newKey)).isEqualTo(image);
+    }
+
+    @Test
+    void refusesKeysOutsideTheRoot() throws Exception {
+        SegmentDrawingStore store = new SegmentDrawingStore(root.toString(), DataSize.ofMegabytes(2));
+        assertThat(store.open("../../etc/passwd")).isEmpty();
+        assertThat(store.open("../x/drawings.seg/0-10.png")).isEmpty();
+    }
+
+    private static byte[] read(DrawingStore store, String key) throws Exception {
+        DrawingContent content = store.open(key).orElseThrow();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        content.writeTo(Channels.newChannel(out));
+        assertThat(out.size()).isEqualTo(content.length());
+        return out.toByteArray();
+    }
+
+    private static byte[] png(int size, int seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        System.arraycopy(PNG_SIGNATURE, 0, bytes, 0, PNG_SIGNATURE.length);
+        return bytes;
+    }
+
+    private static List<Path> filesUnder(Path dir) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.artzooka.artzooka.game;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The bit arithmetic of {@link CompletionTracker.Completion}, outside a transaction, where changes
+ * apply at once.
+ */
+class CompletionTrackerTest {
+    private final UUID roomId = UUID.randomUUID();
+    private final UUID gameId = UUID.randomUUID();
+    private final CompletionTracker tracker = new CompletionTracker(null, new SimpleMeterRegistry());
+
+    @Test
+    void everyoneSubmittedOnceTheLastParticipantDoes() {
+        List<UUID> players = players(8);
+        tracker.gameStarted(roomId, gameId, players);
+        CompletionTracker.Completion completion = tracker.of(game());
+
+        for (int i = 0; i < 7; i++) {
+            assertThat(completion.allSubmittedWith(players.get(i))).isFalse();
+            completion.submitted(players.get(i));
+        }
+        assertThat(completion.submittedCount()).isEqualTo(7);
+        assertThat(completion.allSubmittedWith(players.get(7))).isTrue();
+        // someone outside the game does not complete it
+        assertThat(completion.allSubmittedWith(UUID.randomUUID())).isFalse();
+
+        completion.unsubmitted(players.get(0));
+        completion.submitted(players.get(7));
+        assertThat(completion.allSubmittedWith(players.get(3))).isFalse();
+        assertThat(completion.allSubmittedWith(players.get(0))).isTrue();
+    }
+
+    @Test
+    void aLeavingParticipantIsNoLongerWaitedFor() {
+        List<UUID> players = players(3);
+        tracker.gameStarted(roomId, gameId, players);
+        CompletionTracker.Completion completion = tracker.of(game());
+        completion.voted(players.get(0));
+        completion.voted(players.get(1));
+
+        assertThat(completion.allVotedWithout(players.get(2))).isTrue();
+        assertThat(completion.allVotedWithout(players.get(1))).isFalse();
+
+        completion.left(players.get(2));
+        assertThat(completion.activePlayers()).containsExactly(players.get(0), players.get(1));
+        assertThat(completion.allVotedWith(players.get(0))).isTrue();
+        completion.left(players.get(0));
+        assertThat(completion.activeCountWithout(players.get(1))).isZero();
+        completion.left(players.get(1));
+        // nobody left to wait for is not "everyone voted"
+        assertThat(completion.allVotedWith(players.get(1))).isFalse();
+    }
+
+    @Test
+    void spansSeveralWords() {
+        List<UUID> players = players(130);
+        tracker.gameStarted(roomId, gameId, players);
+        CompletionTracker.Completion completion = tracker.of(game());
+
+        players.subList(0, 129).forEach(completion::submitted);
+
+        assertThat(completion.submittedCount()).isEqualTo(129);
+        assertThat(completion.allSubmittedWith(players.get(128))).isFalse();
+        assertThat(completion.allSubmittedWith(players.get(129))).isTrue();
+        assertThat(completion.allSubmittedWithout(players.get(129))).isTrue();
+        assertThat(completion.allSubmittedWithout(players.get(64))).isFalse();
+    }
+
+    private GameSnapshot game() {
+        OffsetDateTime now = OffsetDateTime.now();
+        return new GameSnapshot(gameId, roomId, UUID.randomUUID(), "cat", "dog", now, now, now, now);
+    }
+
+    private static List<UUID> players(int count) {
+        return IntStream.range(0, count).mapToObj(i -> UUID.randomUUID()).toList();
+    }
+}
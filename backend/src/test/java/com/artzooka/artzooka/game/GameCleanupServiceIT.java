@@ -0,0 +1,149 @@
+package com.artzooka.artzooka.game;
+
+import com.artzooka.artzooka.event.EncodedEvent;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The expiry sweep with a batch of 3 over 7 expired games, four of which share one deadline so the
+ * keyset walk has to order them by id. Every expired game is completed and its room ended exactly
+ * once, also when the sweep runs again; a game not yet expired, and an expired one that was already
+ * completed, are left as they were.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"artzooka.sweeper.batch-size=3", "artzooka.sweeper.grace=1s",
+                // the scheduled sweep stays out of the way; the test runs it itself
+                "artzooka.sweeper.interval-ms=3600000"})
+@Testcontainers
+public class GameCleanupServiceIT {
+    private static final int EXPIRED = 7;
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    GameCleanupService gameCleanupService;
+
+    @Autowired
+    RoomEventLog roomEventLog;
+
+    @Test
+    void expiredGamesAreCompletedAndTheirRoomsEndedOnceAcrossBatches() throws Exception {
+        List<String> expired = new ArrayList<>();
+        Map<String, Long> before = new HashMap<>();
+        OffsetDateTime shared = OffsetDateTime.now().minusMinutes(10).truncatedTo(ChronoUnit.SECONDS);
+        for (int i = 0; i < EXPIRED; i++) {
+            String code = startedGame();
+            expired.add(code);
+            // four share a deadline, the rest are a minute apart
+            OffsetDateTime expiresAt = i < 4 ? shared : shared.minusMinutes(i);
+            jdbcTemplate.update("UPDATE games SET expires_at = ? WHERE id = ?", expiresAt, gameId(code));
+            before.put(code, roomEventLog.lastSeq(code));
+        }
+        String running = startedGame();
+        String alreadyCompleted = startedGame();
+        UUID completedGame = gameId(alreadyCompleted);
+        jdbcTemplate.update("UPDATE games SET expires_at = ?, status = 'COMPLETED' WHERE id = ?", shared, completedGame);
+        long runningBefore = roomEventLog.lastSeq(running);
+        long completedBefore = roomEventLog.lastSeq(alreadyCompleted);
+
+        gameCleanupService.cleanupExpiredGames();
+        awaitLobby(expired);
+        gameCleanupService.cleanupExpiredGames();
+        Thread.sleep(300);
+
+        for (String code : expired) {
+            assertThat(jdbcTemplate.queryForObject("SELECT status FROM games WHERE id = ?", String.class, gameId(code)))
+                    .as("game of %s", code).isEqualTo("COMPLETED");
+            assertThat(roomStatus(code)).isEqualTo("LOBBY");
+            assertThat(published(code, before.get(code), RoomEvent.GameEnded.class)).as("room %s", code).isEqualTo(1);
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT status FROM games WHERE id = ?", String.class, gameId(running)))
+                .isNotEqualTo("COMPLETED");
+        assertThat(roomStatus(running)).isEqualTo("DRAWING");
+        assertThat(published(running, runningBefore, RoomEvent.GameEnded.class)).isZero();
+        // completed without its room being ended: the sweep only looks at open games
+        assertThat(roomStatus(alreadyCompleted)).isEqualTo("DRAWING");
+        assertThat(published(alreadyCompleted, completedBefore, RoomEvent.GameEnded.class)).isZero();
+    }
+
+    private long published(String code, long after, Class<? extends RoomEvent> type) {
+        List<EncodedEvent> events = roomEventLog.since(code, after);
+        assertThat(events).as("events since %d", after).isNotNull();
+        return events.stream().filter(e -> type.isInstance(e.event())).count();
+    }
+
+    private void awaitLobby(List<String> codes) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (codes.stream().anyMatch(code -> !"LOBBY".equals(roomStatus(code))) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private String startedGame() {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        for (String name : List.of("A", "B", "C")) {
+            rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class);
+        }
+        assertThat(rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class)).containsKey("gameId");
+        return code;
+    }
+
+    private UUID gameId(String code) {
+        return jdbcTemplate.queryForObject("SELECT current_game_id FROM rooms WHERE code = ?", UUID.class, code);
+    }
+
+    private String roomStatus(String code) {
+        return jdbcTemplate.queryForObject("SELECT status FROM rooms WHERE code = ?", String.class, code);
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
@@ -0,0 +1,219 @@
+package com.artzooka.artzooka.game;
+
+import com.artzooka.artzooka.event.EncodedEvent;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventLog;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.artzooka.artzooka.room.RoomRegistry;
+import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.room.RoomSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Deadlines of a real game moving it on: the draw end starts voting, the vote end shows the results
+ * and the expiry ends the game. Deadlines are moved into the past in the database and the timers
+ * re-armed from it with the caches dropped, as on a restart. A transition fired twice with the same
+ * stale snapshot, as by two nodes holding the same game, changes the room and publishes only once.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"artzooka.phases.takeover-grace=1s",
+                // the scheduled sweep stays out of the way; tests call it themselves
+                "artzooka.phases.takeover-interval-ms=3600000"})
+@Testcontainers
+public class GamePhaseServiceIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    GamePhaseService gamePhaseService;
+
+    @Autowired
+    RoomService roomService;
+
+    @Autowired
+    RoomRegistry roomRegistry;
+
+    @Autowired
+    CurrentGameResolver currentGameResolver;
+
+    @Autowired
+    RoomMailbox roomMailbox;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    RoomEventLog roomEventLog;
+
+    @Test
+    void aDrawDeadlinePassedWhileDownStartsVotingOnRestart() throws Exception {
+        String code = startedGame();
+        long before = roomEventLog.lastSeq(code);
+
+        jdbcTemplate.update("UPDATE games SET draw_ends_at = now() - interval '1 second' WHERE id = ?", gameId(code));
+        restart(code);
+
+        awaitStatus(code, "VOTING");
+        assertThat(published(code, before, RoomEvent.DiscussStarted.class)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT vote_ends_at > now() FROM games WHERE id = ?", Boolean.class, gameId(code)))
+                .as("the vote is counted from when it started").isTrue();
+    }
+
+    @Test
+    void aVoteDeadlineShowsTheResults() throws Exception {
+        String code = startedGame();
+        jdbcTemplate.update("UPDATE games SET draw_ends_at = now() - interval '1 second' WHERE id = ?", gameId(code));
+        restart(code);
+        awaitStatus(code, "VOTING");
+        long before = roomEventLog.lastSeq(code);
+
+        jdbcTemplate.update("UPDATE games SET vote_ends_at = now() - interval '1 second' WHERE id = ?", gameId(code));
+        restart(code);
+
+        awaitStatus(code, "RESULTS");
+        assertThat(published(code, before, RoomEvent.ShowResults.class)).isEqualTo(1);
+    }
+
+    @Test
+    void anExpiredGameEndsAndIsCompleted() throws Exception {
+        String code = startedGame();
+        UUID gameId = gameId(code);
+        long before = roomEventLog.lastSeq(code);
+
+        jdbcTemplate.update("UPDATE games SET expires_at = now() - interval '1 second' WHERE id = ?", gameId);
+        restart(code);
+
+        awaitStatus(code, "LOBBY");
+        assertThat(published(code, before, RoomEvent.GameEnded.class)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT status FROM games WHERE id = ?", String.class, gameId)).isEqualTo("COMPLETED");
+    }
+
+    @Test
+    void aTransitionFiredTwiceFromTheSameSnapshotHappensOnce() throws Exception {
+        String code = startedGame();
+        long before = roomEventLog.lastSeq(code);
+        RoomSnapshot drawing = roomService.findSnapshot(code).orElseThrow();
+        GameSnapshot game = currentGameResolver.resolve(drawing).orElseThrow();
+
+        assertThat(onLane(code, () -> gamePhaseService.startVoting(drawing, game))).isTrue();
+        assertThat(onLane(code, () -> gamePhaseService.startVoting(drawing, game))).as("stale DRAWING snapshot").isFalse();
+        // the draw deadline firing afterwards finds the room voting already
+        jdbcTemplate.update("UPDATE games SET draw_ends_at = now() - interval '1 second' WHERE id = ?", game.id());
+        restart(code);
+        Thread.sleep(500);
+
+        RoomSnapshot voting = roomService.findSnapshot(code).orElseThrow();
+        assertThat(voting.status()).isEqualTo("VOTING");
+        assertThat(onLane(code, () -> gamePhaseService.showResults(voting, game))).isTrue();
+        assertThat(onLane(code, () -> gamePhaseService.showResults(voting, game))).as("stale VOTING snapshot").isFalse();
+        Thread.sleep(300);
+
+        assertThat(published(code, before, RoomEvent.DiscussStarted.class)).isEqualTo(1);
+        assertThat(published(code, before, RoomEvent.ShowResults.class)).isEqualTo(1);
+        assertThat(roomStatus(code)).isEqualTo("RESULTS");
+    }
+
+    @Test
+    void anOverdueGameIsTakenOverWithoutItsTimers() throws Exception {
+        String code = startedGame();
+        long before = roomEventLog.lastSeq(code);
+
+        // as if the node holding the timers went down: nothing here will fire for this game
+        jdbcTemplate.update("UPDATE games SET draw_ends_at = now() - interval '1 minute' WHERE id = ?", gameId(code));
+        gamePhaseService.takeOverOverdue();
+
+        awaitStatus(code, "VOTING");
+        assertThat(published(code, before, RoomEvent.DiscussStarted.class)).isEqualTo(1);
+    }
+
+    /** Drops what this node remembers about the room and arms every open game from the database. */
+    private void restart(String code) {
+        RoomSnapshot room = roomService.findSnapshot(code).orElseThrow();
+        currentGameResolver.evict(room.id());
+        roomRegistry.drop(code);
+        gamePhaseService.rearm();
+    }
+
+    private <T> T onLane(String code, Supplier<T> transition) {
+        return roomMailbox.call(code, () -> transactionTemplate.execute(tx -> transition.get()));
+    }
+
+    private long published(String code, long after, Class<? extends RoomEvent> type) {
+        List<EncodedEvent> events = roomEventLog.since(code, after);
+        assertThat(events).as("events since %d", after).isNotNull();
+        return events.stream().filter(e -> type.isInstance(e.event())).count();
+    }
+
+    private String startedGame() {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        for (String name : List.of("A", "B", "C")) {
+            rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class);
+        }
+        assertThat(rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class)).containsKey("gameId");
+        return code;
+    }
+
+    private UUID gameId(String code) {
+        return jdbcTemplate.queryForObject("SELECT current_game_id FROM rooms WHERE code = ?", UUID.class, code);
+    }
+
+    private String roomStatus(String code) {
+        return jdbcTemplate.queryForObject("SELECT status FROM rooms WHERE code = ?", String.class, code);
+    }
+
+    private void awaitStatus(String code, String status) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!status.equals(roomStatus(code)) && System.nanoTime() < deadline) Thread.sleep(50);
+        assertThat(roomStatus(code)).isEqualTo(status);
+        // the event goes out once the transition commits
+        Thread.sleep(200);
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
@@ -0,0 +1,97 @@
+package com.artzooka.artzooka.game;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counting and freezing in {@link VoteTally.Tally}, outside a transaction, where votes count at once.
+ */
+class VoteTallyTest {
+    private final UUID roomId = UUID.randomUUID();
+    private final UUID gameId = UUID.randomUUID();
+    private final CompletionTracker tracker = new CompletionTracker(null, new SimpleMeterRegistry());
+    private final VoteTally voteTally = new VoteTally(null, tracker);
+
+    @Test
+    void everyVoteIsADeltaWithTheNextSequenceNumber() {
+        List<UUID> players = players(4);
+        VoteTally.Tally tally = start(players, players.get(3));
+
+        assertThat(tally.add(players.get(1))).isEqualTo(new VoteTally.Delta(1, players.get(1), 1));
+        assertThat(tally.add(players.get(2))).isEqualTo(new VoteTally.Delta(2, players.get(2), 1));
+        assertThat(tally.add(players.get(1))).isEqualTo(new VoteTally.Delta(3, players.get(1), 2));
+
+        assertThat(tally.seq()).isEqualTo(3);
+        assertThat(tally.counts()).containsExactly(
+                Map.entry(players.get(1), 2L), Map.entry(players.get(2), 1L));
+        assertThat(tally.canReceive(players.get(0))).isTrue();
+        assertThat(tally.canReceive(UUID.randomUUID())).isFalse();
+    }
+
+    @Test
+    void aTieGoesToTheEarliestParticipant() {
+        List<UUID> players = players(4);
+        VoteTally.Tally tally = start(players, players.get(2));
+        tally.add(players.get(3));
+        tally.add(players.get(2));
+
+        VoteTally.Result result = tally.result();
+        assertThat(result.tied()).isTrue();
+        assertThat(result.votedOutId()).isEqualTo(players.get(2));
+        assertThat(result.winner()).isEqualTo("ARTISTS");
+
+        tally.add(players.get(3));
+        result = tally.result();
+        assertThat(result.tied()).isFalse();
+        assertThat(result.votedOutId()).isEqualTo(players.get(3));
+        assertThat(result.winner()).isEqualTo("IMPOSTER");
+    }
+
+    @Test
+    void theFrozenResultIsServedAsIs() {
+        List<UUID> players = players(3);
+        VoteTally.Tally tally = start(players, players.get(0));
+        tally.add(players.get(0));
+
+        VoteTally.Result frozen = tally.freeze();
+        assertThat(frozen.frozen()).isTrue();
+        assertThat(frozen.votedOutId()).isEqualTo(players.get(0));
+        assertThat(tally.isFrozen()).isTrue();
+
+        // a vote counted after closing (one that raced the deadline) does not change the result
+        tally.add(players.get(1));
+        tally.add(players.get(1));
+        assertThat(tally.freeze()).isSameAs(frozen);
+        assertThat(tally.result()).isSameAs(frozen);
+    }
+
+    @Test
+    void nobodyVotedOutWithoutVotes() {
+        VoteTally.Tally tally = start(players(3), UUID.randomUUID());
+
+        VoteTally.Result result = tally.freeze();
+        assertThat(result.votedOutId()).isNull();
+        assertThat(result.tied()).isFalse();
+        assertThat(result.winner()).isEqualTo("IMPOSTER");
+        assertThat(result.tally()).isEmpty();
+    }
+
+    private VoteTally.Tally start(List<UUID> players, UUID imposterId) {
+        OffsetDateTime now = OffsetDateTime.now();
+        GameSnapshot game = new GameSnapshot(gameId, roomId, imposterId, "cat", "dog", now, now, now, now);
+        voteTally.gameStarted(game, tracker.gameStarted(roomId, gameId, players));
+        return voteTally.of(game);
+    }
+
+    private static List<UUID> players(int count) {
+        return IntStream.range(0, count).mapToObj(i -> UUID.randomUUID()).toList();
+    }
+}
@@ -0,0 +1,67 @@
+package com.artzooka.artzooka.player;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** A stale token connects unauthenticated: room topics keep working, sends are refused. */
+class PlayerSessionInterceptorTest {
+    private final SessionTokenCache tokens = mock(SessionTokenCache.class);
+    private final PlayerSessionInterceptor interceptor = new PlayerSessionInterceptor(tokens);
+
+    @Test
+    void aValidTokenBindsThePlayer() {
+        PlayerPrincipal player = new PlayerPrincipal(UUID.randomUUID(), UUID.randomUUID(), "ABCD", "Ann", false, true);
+        when(tokens.resolve("good")).thenReturn(Optional.of(player));
+
+        StompHeaderAccessor connect = frame(StompCommand.CONNECT, null);
+        connect.setNativeHeader("token", "good");
+        interceptor.preSend(message(connect), null);
+
+        assertThat(connect.getUser()).isEqualTo(new PlayerSession(player, "good"));
+    }
+
+    @Test
+    void aRevokedTokenConnectsWithoutAPlayer() {
+        when(tokens.resolve("revoked")).thenReturn(Optional.empty());
+
+        StompHeaderAccessor connect = frame(StompCommand.CONNECT, null);
+        connect.setNativeHeader("token", "revoked");
+        Message<?> accepted = interceptor.preSend(message(connect), null);
+
+        assertThat(accepted).isNotNull();
+        assertThat(connect.getUser()).isNull();
+    }
+
+    @Test
+    void withoutAPlayerRoomTopicsMaySubscribeButNothingMaySend() {
+        Message<?> subscribe = message(frame(StompCommand.SUBSCRIBE, "/topic/rooms/ABCD"));
+        assertThat(interceptor.preSend(subscribe, null)).isSameAs(subscribe);
+
+        Message<?> send = message(frame(StompCommand.SEND, "/app/rooms/ABCD/votes"));
+        assertThatThrownBy(() -> interceptor.preSend(send, null)).isInstanceOf(MessageDeliveryException.class);
+    }
+
+    private static StompHeaderAccessor frame(StompCommand command, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId("s1");
+        if (destination != null) accessor.setDestination(destination);
+        accessor.setLeaveMutable(true);
+        return accessor;
+    }
+
+    private static Message<?> message(StompHeaderAccessor accessor) {
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,137 @@
+package com.artzooka.artzooka.player;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Presence driven by real STOMP sessions, with the graces shortened to 1s (game) and 2s (room): a
+ * player who reconnects within the grace stays in both, one who stays away leaves the game and then
+ * the room.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"artzooka.presence.game-grace=1s", "artzooka.presence.room-grace=2s"})
+@Testcontainers
+public class PresenceTrackerIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void aReconnectWithinTheGraceKeepsThePlayerInTheGameAndTheRoom() throws Exception {
+        List<Map<String, Object>> players = startedGame();
+        Map<String, Object> player = players.get(0);
+
+        StompSession first = connect(player);
+        first.disconnect();
+        Thread.sleep(300);
+        StompSession second = connect(player);
+
+        // past both graces, counted from the disconnect
+        Thread.sleep(3000);
+        assertThat(inGame(player)).isTrue();
+        assertThat(inRoom(player)).isTrue();
+        second.disconnect();
+    }
+
+    @Test
+    void aPlayerWhoStaysAwayLeavesTheGameThenTheRoom() throws Exception {
+        Map<String, Object> player = startedGame().get(0);
+
+        connect(player).disconnect();
+
+        assertThat(eventually(() -> !inGame(player))).isTrue();
+        assertThat(inRoom(player)).isTrue();
+        assertThat(eventually(() -> !inRoom(player))).isTrue();
+    }
+
+    /** A room of three players with a game started; each map is a join response plus the game id. */
+    private List<Map<String, Object>> startedGame() {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        List<Map<String, Object>> players = new ArrayList<>();
+        for (String name : List.of("A", "B", "C")) {
+            players.add(rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class));
+        }
+        Map<String, Object> start = rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class);
+        players.forEach(p -> p.put("gameId", start.get("gameId")));
+        return players;
+    }
+
+    private StompSession connect(Map<String, Object> player) throws Exception {
+        WebSocketStompClient stomp = new WebSocketStompClient(new StandardWebSocketClient());
+        StompHeaders headers = new StompHeaders();
+        headers.add("token", (String) player.get("sessionToken"));
+        return stomp.connectAsync("ws://localhost:" + port + "/ws/websocket", new WebSocketHttpHeaders(), headers,
+                new StompSessionHandlerAdapter() { }).get(10, TimeUnit.SECONDS);
+    }
+
+    private boolean inGame(Map<String, Object> player) {
+        return jdbcTemplate.queryForObject("SELECT active FROM game_participants WHERE game_id = ? AND player_id = ?",
+                Boolean.class, UUID.fromString((String) player.get("gameId")), UUID.fromString((String) player.get("playerId")));
+    }
+
+    private boolean inRoom(Map<String, Object> player) {
+        return jdbcTemplate.queryForObject("SELECT active FROM players WHERE id = ?",
+                Boolean.class, UUID.fromString((String) player.get("playerId")));
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
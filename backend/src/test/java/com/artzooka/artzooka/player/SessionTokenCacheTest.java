@@ -0,0 +1,75 @@
+package com.artzooka.artzooka.player;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * A player invalidated while their token is being loaded must not stay cached from the read that
+ * started before the invalidating commit.
+ */
+class SessionTokenCacheTest {
+    private final PlayerRepository players = mock(PlayerRepository.class);
+    private final SessionTokenCache cache = new SessionTokenCache(players, new SimpleMeterRegistry(), 100, Duration.ofMinutes(10));
+    private final UUID playerId = UUID.randomUUID();
+    private final PlayerPrincipal active = new PlayerPrincipal(playerId, UUID.randomUUID(), "ABCD", "Ann", false, true);
+    private final PlayerPrincipal left = new PlayerPrincipal(playerId, active.roomId(), "ABCD", "Ann", false, false);
+
+    @Test
+    void cachesAPrincipalUntilItsPlayerIsInvalidated() {
+        when(players.findPrincipalBySessionToken("t")).thenReturn(Optional.of(active), Optional.of(left));
+
+        assertThat(cache.resolve("t")).contains(active);
+        assertThat(cache.resolve("t")).contains(active);
+        cache.invalidatePlayer(playerId);
+
+        assertThat(cache.resolve("t")).isEmpty();
+        verify(players, times(2)).findPrincipalBySessionToken("t");
+    }
+
+    @Test
+    void aLoadThatRanAcrossAnInvalidationReadsAgain() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        when(players.findPrincipalBySessionToken("t"))
+                .thenAnswer(call -> {
+                    // read before the leave committed, returned after its invalidation looked for the token
+                    reading.countDown();
+                    committed.await(5, TimeUnit.SECONDS);
+                    return Optional.of(active);
+                })
+                .thenReturn(Optional.of(left));
+
+        CompletableFuture<Optional<PlayerPrincipal>> resolving = CompletableFuture.supplyAsync(() -> cache.resolve("t"));
+        assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+        cache.invalidatePlayer(playerId);
+        committed.countDown();
+
+        assertThat(resolving.get(5, TimeUnit.SECONDS)).isEmpty();
+        assertThat(cache.resolve("t")).isEmpty();
+        verify(players, times(2)).findPrincipalBySessionToken("t");
+    }
+
+    @Test
+    void anotherPlayersInvalidationDoesNotCostAReread() {
+        when(players.findPrincipalBySessionToken("t")).thenReturn(Optional.of(active));
+
+        cache.invalidatePlayer(UUID.randomUUID());
+        assertThat(cache.resolve("t")).contains(active);
+        assertThat(cache.resolve("t")).contains(active);
+
+        verify(players, times(1)).findPrincipalBySessionToken("t");
+    }
+}
@@ -0,0 +1,137 @@
+package com.artzooka.artzooka.prompt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Each player of a new game gets their own prompt on {@code /user/queue/prompt}, and the countdown on
+ * the room topic, without asking; nobody else's prompt reaches them, and a socket without a player gets none.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Testcontainers
+public class PromptPublisherIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    /** What one socket received: the bodies sent to its prompt queue and the types of its room events. */
+    private record Received(List<Map<?, ?>> prompts, List<String> events) { }
+
+    @Test
+    void eachPlayerGetsOnlyTheirOwnPromptWithTheCountdown() throws Exception {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        List<Map<String, Object>> players = new ArrayList<>();
+        for (String name : List.of("A", "B", "C")) {
+            players.add(rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class));
+        }
+        List<Received> received = new ArrayList<>();
+        for (Map<String, Object> player : players) received.add(subscribe(code, (String) player.get("sessionToken")));
+        Received anonymous = subscribe(code, null);
+        // let the SUBSCRIBE frames reach the broker
+        Thread.sleep(500);
+
+        Map<String, Object> start = rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.stream().anyMatch(r -> r.prompts().isEmpty() || !r.events().contains("GAME_COUNTDOWN"))
+                && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        // anything sent to the wrong socket would have arrived with the rest
+        Thread.sleep(300);
+
+        int common = 0;
+        for (int i = 0; i < players.size(); i++) {
+            Map<?, ?> own = rest.getForObject(url("/api/rooms/" + code + "/prompt?token=" + players.get(i).get("sessionToken")), Map.class);
+            assertThat(received.get(i).events()).contains("GAME_COUNTDOWN");
+            assertThat(received.get(i).prompts()).hasSize(1);
+            Map<?, ?> pushed = received.get(i).prompts().get(0);
+            assertThat(pushed.get("roomCode")).isEqualTo(code);
+            assertThat(pushed.get("gameId")).isEqualTo(start.get("gameId"));
+            assertThat(pushed.get("prompt")).isEqualTo(own.get("prompt"));
+            if (start.get("promptCommon").equals(pushed.get("prompt"))) common++;
+        }
+        // the imposter's prompt went to the imposter alone
+        assertThat(common).isEqualTo(players.size() - 1);
+        assertThat(anonymous.events()).contains("GAME_COUNTDOWN");
+        assertThat(anonymous.prompts()).isEmpty();
+    }
+
+    private Received subscribe(String code, String token) throws Exception {
+        WebSocketStompClient stomp = new WebSocketStompClient(new StandardWebSocketClient());
+        stomp.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connect = new StompHeaders();
+        if (token != null) connect.add("token", token);
+        StompSession session = stomp.connectAsync("ws://localhost:" + port + "/ws/websocket", new WebSocketHttpHeaders(), connect,
+                new StompSessionHandlerAdapter() { }).get(10, TimeUnit.SECONDS);
+        Received received = new Received(new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>());
+        session.subscribe("/user" + PromptPublisher.DESTINATION, handler(received.prompts()::add));
+        session.subscribe("/topic/rooms/" + code, handler(body -> received.events().add(String.valueOf(body.get("type")))));
+        return received;
+    }
+
+    private static StompFrameHandler handler(Consumer<Map<?, ?>> onBody) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                onBody.accept((Map<?, ?>) payload);
+            }
+        };
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
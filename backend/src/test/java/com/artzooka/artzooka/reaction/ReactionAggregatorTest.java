@@ -0,0 +1,166 @@
+package com.artzooka.artzooka.reaction;
+
+import com.artzooka.artzooka.event.EncodedEvent;
+import com.artzooka.artzooka.event.RoomEvent;
+import com.artzooka.artzooka.event.RoomEventLog;
+import com.artzooka.artzooka.event.RoomEventPublisher;
+import com.artzooka.artzooka.room.RoomMailbox;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rate limiting and coalescing in {@link ReactionAggregator}, with frames captured from the
+ * messaging template behind the publisher instead of a broker. The benchmark taps 10,000
+ * reactions into 100 rooms of 8 players, first the way they were sent before batching (one
+ * REACTION map converted and sent per tap) and then through the aggregator, and reports the
+ * frames each sent, their rate and the process CPU it took.
+ */
+class ReactionAggregatorTest {
+    private static final int ROOMS = 100;
+    private static final int PLAYERS = 8;
+    private static final int REACTIONS = 10_000;
+    private static final String[] EMOJIS = {"😂", "🔥", "👀", "🤔"};
+
+    private final ConcurrentLinkedQueue<Message<?>> sent = new ConcurrentLinkedQueue<>();
+    private final SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> sent.add(message));
+    private final RoomEventPublisher publisher = new RoomEventPublisher(template, new ObjectMapper(),
+            new RoomEventLog(new SimpleMeterRegistry(), 256, DataSize.ofKilobytes(256), Duration.ofMinutes(30)), true);
+    private final RoomMailbox mailbox = new RoomMailbox(4, new SimpleMeterRegistry());
+    private final List<ReactionAggregator> aggregators = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        aggregators.forEach(ReactionAggregator::shutdown);
+        mailbox.shutdown();
+    }
+
+    @Test
+    @Timeout(10)
+    void aPlayerIsLimitedToTheBurstUntilTheBucketRefills() throws Exception {
+        ReactionAggregator aggregator = aggregator(Duration.ofMillis(20), 5, 20);
+        UUID game = UUID.randomUUID();
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (aggregator.add("ROOM", game, player, other, "🔥")) allowed++;
+        }
+        assertThat(allowed).isEqualTo(5);
+        assertThat(aggregator.add("ROOM", game, other, player, "🔥")).as("buckets are per player").isTrue();
+
+        Thread.sleep(120);
+        assertThat(aggregator.add("ROOM", game, player, other, "🔥")).isTrue();
+    }
+
+    @Test
+    @Timeout(10)
+    void tapsWithinAWindowGoOutAsOneBatchWithCountsPerTargetAndEmoji() throws Exception {
+        ReactionAggregator aggregator = aggregator(Duration.ofMillis(100), 100, 100);
+        UUID game = UUID.randomUUID();
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+
+        for (int i = 0; i < 3; i++) aggregator.add("ROOM", game, a, b, "😂");
+        aggregator.add("ROOM", game, b, a, "🔥");
+        aggregator.add("ROOM", game, a, b, "🔥");
+        awaitFrames(aggregator, 1);
+
+        assertThat(sent).hasSize(1);
+        RoomEvent.ReactionBatch frame = batch(sent.peek());
+        assertThat(frame.roomCode()).isEqualTo("ROOM");
+        assertThat(frame.gameId()).isEqualTo(game);
+        assertThat(frame.counts()).isEqualTo(Map.of(
+                b.toString(), Map.of("😂", 3, "🔥", 1),
+                a.toString(), Map.of("🔥", 1)));
+    }
+
+    @Test
+    @Timeout(30)
+    void framesAndCpuPerTenThousandReactions() throws Exception {
+        ReactionAggregator aggregator = aggregator(Duration.ofMillis(100), REACTIONS, 1_000_000);
+        UUID game = UUID.randomUUID();
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < ROOMS * PLAYERS; i++) players.add(UUID.randomUUID());
+
+        var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        List<Message<?>> unbatched = new ArrayList<>();
+        SimpMessagingTemplate perTap = new SimpMessagingTemplate((message, timeout) -> unbatched.add(message));
+        perTap.setMessageConverter(new MappingJackson2MessageConverter());
+        long cpuBefore = os.getProcessCpuTime();
+        long started = System.nanoTime();
+        for (int i = 0; i < REACTIONS; i++) {
+            int room = i % ROOMS;
+            UUID target = players.get(room * PLAYERS + (i / ROOMS + 1) % PLAYERS);
+            perTap.convertAndSend("/topic/rooms/R" + room, Map.of("type", "REACTION", "roomCode", "R" + room,
+                    "gameId", game, "targetId", target, "emoji", EMOJIS[i % EMOJIS.length]));
+        }
+        report("per tap", unbatched.size(), System.nanoTime() - started, os.getProcessCpuTime() - cpuBefore);
+
+        int accepted = 0;
+        cpuBefore = os.getProcessCpuTime();
+        started = System.nanoTime();
+        for (int i = 0; i < REACTIONS; i++) {
+            int room = i % ROOMS;
+            UUID reactor = players.get(room * PLAYERS + (i / ROOMS) % PLAYERS);
+            UUID target = players.get(room * PLAYERS + (i / ROOMS + 1) % PLAYERS);
+            if (aggregator.add("R" + room, game, reactor, target, EMOJIS[i % EMOJIS.length])) accepted++;
+        }
+        long tapping = System.nanoTime() - started;
+        long windows = TimeUnit.NANOSECONDS.toMillis(tapping) / 100 + 1;
+        awaitFrames(aggregator, ROOMS);
+        long cpuNanos = os.getProcessCpuTime() - cpuBefore;
+
+        long counted = 0;
+        for (Message<?> message : sent) {
+            for (Map<String, Integer> byEmoji : batch(message).counts().values()) {
+                for (int n : byEmoji.values()) counted += n;
+            }
+        }
+        // the batched rate is over the windows the taps spanned, since frames go out as those windows close
+        report("batched", sent.size(), Math.max(tapping, TimeUnit.MILLISECONDS.toNanos(windows * 100)), cpuNanos);
+
+        assertThat(accepted).isEqualTo(REACTIONS);
+        assertThat(counted).isEqualTo(REACTIONS);
+        assertThat((long) sent.size()).isLessThanOrEqualTo(ROOMS * (windows + 1));
+    }
+
+    private static void report(String path, int frames, long elapsedNanos, long cpuNanos) {
+        System.out.printf("[reactions] %s: %d taps -> %d frames (%d deliveries at %d subscribers), %.0f frames/s, cpu %.1f ms%n",
+                path, REACTIONS, frames, frames * PLAYERS, PLAYERS, frames / (elapsedNanos / 1e9), cpuNanos / 1e6);
+    }
+
+    private ReactionAggregator aggregator(Duration flushInterval, int burst, double perSecond) {
+        ReactionAggregator aggregator = new ReactionAggregator(publisher, mailbox, new SimpleMeterRegistry(), flushInterval, burst, perSecond);
+        aggregators.add(aggregator);
+        return aggregator;
+    }
+
+    private static RoomEvent.ReactionBatch batch(Message<?> message) {
+        return (RoomEvent.ReactionBatch) ((EncodedEvent) message.getPayload()).event();
+    }
+
+    private static void awaitFrames(ReactionAggregator aggregator, int atLeast) throws InterruptedException {
+        while (aggregator.frameCount() < atLeast) Thread.sleep(10);
+        // let windows still open settle, so no batch is half-counted
+        Thread.sleep(250);
+    }
+}
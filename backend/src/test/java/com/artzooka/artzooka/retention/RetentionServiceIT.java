@@ -0,0 +1,255 @@
+package com.artzooka.artzooka.retention;
+
+import com.artzooka.artzooka.drawing.DrawingVariants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.imageio.ImageIO;
+import javax.sql.DataSource;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * One retention pass over seeded rooms and uploads, with a batch of 2. Two rooms that played a
+ * whole game and one that never started, all idle in the lobby, go with every row and file they
+ * had, games before the players they reference. An idle room locked by another transaction is
+ * skipped and goes on the next pass; a room idle but still in a game, and one recently active, stay.
+ * In the uploads, a drawing's file and its variants stay however old they are, orphans and the
+ * directories of rooms or games that no longer exist go once past the grace, and younger ones stay.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"artzooka.retention.enabled=false", "artzooka.retention.batch-size=2",
+                "artzooka.retention.room-idle-after=1h", "artzooka.retention.upload-grace=1h"})
+@Testcontainers
+public class RetentionServiceIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    RetentionService retentionService;
+
+    @Autowired
+    DrawingVariants drawingVariants;
+
+    @Test
+    void removesIdleRoomsAndUnreferencedUploadsAndReportsThem() throws Exception {
+        List<String> idle = new ArrayList<>(List.of(playedGame(), playedGame(), lobby()));
+        String locked = lobby();
+        String active = lobby();
+        String drawing = startedGame();
+        for (String code : idle) idleFor(code);
+        idleFor(locked);
+        // idle by the clock, but still in a game
+        idleFor(drawing);
+
+        // a drawing of the running game, and its variants, older than the grace
+        List<Map<String, Object>> drawingPlayers = players(drawing);
+        assertThat(upload(drawing, (String) drawingPlayers.get(0).get("session_token"), 9)).isEqualTo(200);
+        awaitVariants();
+        String key = jdbcTemplate.queryForObject(
+                "SELECT d.file_path FROM drawings d JOIN rooms r ON r.current_game_id = d.game_id WHERE r.code = ?", String.class, drawing);
+        List<Path> kept = new ArrayList<>(List.of(uploads.resolve(key)));
+        for (String variant : drawingVariants.variantFilesOf(key)) {
+            Path file = uploads.resolve(variant);
+            if (!Files.exists(file)) Files.write(file, png(9));
+            kept.add(file);
+        }
+        for (Path file : kept) age(file);
+        Path gameDir = uploads.resolve(key).getParent();
+        kept.add(file(gameDir.resolve(UUID.randomUUID() + "_fresh.png"), false));
+        kept.add(file(uploads.resolve("GONE2").resolve(UUID.randomUUID().toString()).resolve("a.png"), false));
+
+        List<Path> removed = new ArrayList<>();
+        removed.add(file(gameDir.resolve(UUID.randomUUID() + "_old.png"), true));
+        removed.add(file(uploads.resolve(drawing).resolve(UUID.randomUUID().toString()).resolve("a.png"), true));
+        removed.add(file(uploads.resolve("GONE1").resolve(UUID.randomUUID().toString()).resolve("a.png"), true));
+        for (String code : idle) {
+            if (!Files.exists(uploads.resolve(code))) continue;
+            try (Stream<Path> files = Files.walk(uploads.resolve(code))) {
+                files.filter(Files::isRegularFile).forEach(removed::add);
+            }
+        }
+        long removedBytes = 0;
+        for (Path file : removed) removedBytes += Files.size(file);
+
+        RetentionReport report;
+        try (Connection holder = dataSource.getConnection()) {
+            holder.setAutoCommit(false);
+            try (PreparedStatement lock = holder.prepareStatement("SELECT id FROM rooms WHERE code = ? FOR UPDATE")) {
+                lock.setString(1, locked);
+                lock.executeQuery();
+            }
+            report = retentionService.run();
+            holder.rollback();
+        }
+
+        // 2 played rooms of 3 players, 1 game, 3 drawings, 3 votes; 1 lobby of 1 player
+        assertThat(report.rooms()).isEqualTo(3);
+        assertThat(report.players()).isEqualTo(7);
+        assertThat(report.games()).isEqualTo(2);
+        assertThat(report.drawings()).isEqualTo(6);
+        assertThat(report.votes()).isEqualTo(6);
+        assertThat(report.participants()).isEqualTo(6);
+        assertThat(report.rows()).isEqualTo(30);
+        assertThat(report.files()).isEqualTo(removed.size());
+        assertThat(report.bytesReclaimed()).isEqualTo(removedBytes);
+
+        for (String code : idle) {
+            assertThat(roomCount(code)).as("room %s", code).isZero();
+            assertThat(uploads.resolve(code)).doesNotExist();
+        }
+        assertThat(roomCount(locked)).as("locked while the pass ran").isEqualTo(1);
+        assertThat(roomCount(active)).isEqualTo(1);
+        assertThat(roomCount(drawing)).isEqualTo(1);
+        assertThat(removed).allMatch(Files::notExists);
+        assertThat(kept).allMatch(Files::exists);
+        assertThat(uploads.resolve("GONE1")).doesNotExist();
+
+        RetentionReport next = retentionService.run();
+        assertThat(next.rooms()).isEqualTo(1);
+        assertThat(next.players()).isEqualTo(1);
+        assertThat(roomCount(locked)).isZero();
+        assertThat(retentionService.getTotals().rooms()).isEqualTo(4);
+    }
+
+    private String lobby() {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", "A"), Map.class);
+        return code;
+    }
+
+    private String startedGame() {
+        String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+        for (String name : List.of("A", "B", "C")) {
+            rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class);
+        }
+        assertThat(rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class)).containsKey("gameId");
+        return code;
+    }
+
+    /** A room that played a whole game, with every drawing and vote in, and went back to the lobby. */
+    private String playedGame() throws Exception {
+        String code = startedGame();
+        List<Map<String, Object>> players = players(code);
+        for (int i = 0; i < players.size(); i++) {
+            assertThat(upload(code, (String) players.get(i).get("session_token"), i)).isEqualTo(200);
+        }
+        for (int i = 0; i < players.size(); i++) {
+            Object target = players.get((i + 1) % players.size()).get("id");
+            var vote = rest.postForEntity(url("/api/rooms/" + code + "/votes?token=" + players.get(i).get("session_token")
+                    + "&targetId=" + target), null, Map.class);
+            assertThat(vote.getStatusCode().is2xxSuccessful()).isTrue();
+        }
+        String host = (String) players.stream().filter(p -> Boolean.TRUE.equals(p.get("is_admin"))).findFirst().orElseThrow().get("session_token");
+        assertThat(rest.postForEntity(url("/api/rooms/" + code + "/reset?token=" + host), null, Map.class)
+                .getStatusCode().is2xxSuccessful()).isTrue();
+        return code;
+    }
+
+    private List<Map<String, Object>> players(String code) {
+        return jdbcTemplate.queryForList("SELECT p.id, p.session_token, p.is_admin FROM players p JOIN rooms r ON r.id = p.room_id " +
+                "WHERE r.code = ? ORDER BY p.created_at, p.id", code);
+    }
+
+    private int upload(String code, String token, int seed) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.IMAGE_PNG);
+        return rest.exchange(url("/api/rooms/" + code + "/drawings?token=" + token),
+                HttpMethod.PUT, new HttpEntity<>(png(seed), headers), Map.class).getStatusCode().value();
+    }
+
+    private void idleFor(String code) {
+        jdbcTemplate.update("UPDATE rooms SET last_active_at = now() - interval '2 hours' WHERE code = ?", code);
+    }
+
+    private int roomCount(String code) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM rooms WHERE code = ?", Integer.class, code);
+    }
+
+    /** Lets the variants of every committed drawing be written before files are counted. */
+    private void awaitVariants() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (drawingVariants.inFlight() > 0 && System.nanoTime() < deadline) Thread.sleep(20);
+    }
+
+    private static Path file(Path path, boolean old) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, png(path.hashCode()));
+        if (old) {
+            for (Path p = path; !p.equals(uploads); p = p.getParent()) age(p);
+        }
+        return path;
+    }
+
+    private static void age(Path path) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS)));
+    }
+
+    private static byte[] png(int seed) throws IOException {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x102030 * (seed + 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
@@ -0,0 +1,259 @@
+package com.artzooka.artzooka.room;
+
+import com.artzooka.artzooka.game.CompletionTracker;
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.game.GameSnapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link RoomMailbox} behind the real controllers, in 1,000 rooms at once. Twelve players race to
+ * join each room, of which exactly eight may get in. Once the game is started, six of them submit,
+ * one submits, unsubmits and submits again, and one leaves the game instead. Each room must move to
+ * voting exactly once, and the {@link CompletionTracker} must agree with the database on who is
+ * still playing and who has submitted.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Testcontainers
+public class RoomMailboxIT {
+    private static final int ROOMS = 1_000;
+    private static final int CAPACITY = 8;
+    private static final int JOIN_ATTEMPTS = 12;
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    RoomService roomService;
+
+    @Autowired
+    CurrentGameResolver currentGameResolver;
+
+    @Autowired
+    CompletionTracker completionTracker;
+
+    private final ExecutorService clients = Executors.newFixedThreadPool(256);
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    void joinsSubmissionsUnsubmissionsAndALeaveMoveEachRoomOnOnce() throws Exception {
+        StompSession stomp = connect();
+        List<String> codes = new ArrayList<>();
+        Map<String, List<String>> seen = new ConcurrentHashMap<>();
+        for (int r = 0; r < ROOMS; r++) {
+            String code = (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+            codes.add(code);
+            seen.put(code, subscribe(stomp, code));
+        }
+        // let the SUBSCRIBE frames reach the broker
+        Thread.sleep(1000);
+
+        // every room's join attempts are queued next to each other, so they race on its lane
+        Map<String, List<String>> tokens = new ConcurrentHashMap<>();
+        List<Callable<Integer>> joins = new ArrayList<>();
+        for (String code : codes) {
+            List<String> roomTokens = new CopyOnWriteArrayList<>();
+            tokens.put(code, roomTokens);
+            for (int j = 0; j < JOIN_ATTEMPTS; j++) {
+                String name = "P" + j;
+                joins.add(() -> {
+                    var joined = rest.postForEntity(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class);
+                    if (joined.getStatusCode().is2xxSuccessful()) roomTokens.add((String) joined.getBody().get("sessionToken"));
+                    return joined.getStatusCode().value();
+                });
+            }
+        }
+        List<Integer> joined = runAtOnce(joins);
+        assertThat(joined).filteredOn(status -> status == 200).hasSize(ROOMS * CAPACITY);
+        assertThat(joined).filteredOn(status -> status == 400).hasSize(ROOMS * (JOIN_ATTEMPTS - CAPACITY));
+        for (String code : codes) {
+            assertThat(tokens.get(code)).as("room %s", code).hasSize(CAPACITY);
+            assertThat(jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM players p JOIN rooms r ON r.id = p.room_id WHERE r.code = ?", Integer.class, code))
+                    .isEqualTo(CAPACITY);
+            assertThat(rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class)).containsKey("gameId");
+        }
+
+        // the first player leaves, the last one changes their mind once, the rest just submit
+        List<Callable<Integer>> moves = new ArrayList<>();
+        for (String code : codes) {
+            List<String> roomTokens = tokens.get(code);
+            moves.add(() -> leaveGame(code, roomTokens.get(0)));
+            for (int p = 1; p < CAPACITY - 1; p++) {
+                String token = roomTokens.get(p);
+                int seed = p;
+                moves.add(() -> submit(code, token, seed));
+            }
+            String last = roomTokens.get(CAPACITY - 1);
+            moves.add(() -> {
+                submit(code, last, CAPACITY - 1);
+                unsubmit(code, last);
+                // another image, so its key is not the one the unsubmission deletes after commit
+                return submit(code, last, CAPACITY);
+            });
+        }
+        assertThat(runAtOnce(moves)).containsOnly(200);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (seen.values().stream().anyMatch(types -> !types.contains("DISCUSS_STARTED")) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        // long enough for a second transition to show up, had there been one
+        Thread.sleep(1000);
+
+        for (String code : codes) {
+            assertThat(seen.get(code)).as("room %s", code).filteredOn("DISCUSS_STARTED"::equals).hasSize(1);
+            assertThat(jdbcTemplate.queryForObject("SELECT status FROM rooms WHERE code = ?", String.class, code))
+                    .isEqualTo("VOTING");
+
+            GameSnapshot game = currentGameResolver.resolve(roomService.findSnapshot(code).orElseThrow()).orElseThrow();
+            CompletionTracker.Completion completion = completionTracker.of(game);
+            List<UUID> active = jdbcTemplate.queryForList(
+                    "SELECT player_id FROM game_participants WHERE game_id = ? AND active", UUID.class, game.id());
+            Integer drawings = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM drawings WHERE game_id = ?", Integer.class, game.id());
+            assertThat(active).hasSize(CAPACITY - 1);
+            assertThat(new HashSet<>(completion.activePlayers())).isEqualTo(new HashSet<>(active));
+            assertThat(drawings).isEqualTo(CAPACITY - 1);
+            assertThat(completion.submittedCount()).isEqualTo(drawings);
+        }
+    }
+
+    /** Releases all requests together and returns their statuses, in the order they were given. */
+    private List<Integer> runAtOnce(List<Callable<Integer>> requests) throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Integer>> running = new ArrayList<>();
+        for (Callable<Integer> request : requests) {
+            running.add(clients.submit(() -> {
+                go.await();
+                return request.call();
+            }));
+        }
+        go.countDown();
+        List<Integer> statuses = new ArrayList<>();
+        for (Future<Integer> f : running) statuses.add(f.get(5, TimeUnit.MINUTES));
+        return statuses;
+    }
+
+    private int submit(String code, String token, int seed) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.IMAGE_PNG);
+        return rest.exchange(url("/api/rooms/" + code + "/drawings?token=" + token),
+                HttpMethod.PUT, new HttpEntity<>(png(seed), headers), Map.class).getStatusCode().value();
+    }
+
+    private int unsubmit(String code, String token) {
+        return rest.exchange(url("/api/rooms/" + code + "/drawings?token=" + token),
+                HttpMethod.DELETE, null, Map.class).getStatusCode().value();
+    }
+
+    private int leaveGame(String code, String token) {
+        return rest.postForEntity(url("/api/rooms/" + code + "/leave-game?token=" + token), null, Map.class)
+                .getStatusCode().value();
+    }
+
+    private StompSession connect() throws Exception {
+        WebSocketStompClient stomp = new WebSocketStompClient(new StandardWebSocketClient());
+        stomp.setMessageConverter(new MappingJackson2MessageConverter());
+        return stomp.connectAsync("ws://localhost:" + port + "/ws/websocket", new StompSessionHandlerAdapter() { })
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    private static List<String> subscribe(StompSession session, String code) {
+        List<String> types = new CopyOnWriteArrayList<>();
+        session.subscribe("/topic/rooms/" + code, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                types.add(String.valueOf(((Map<?, ?>) payload).get("type")));
+            }
+        });
+        return types;
+    }
+
+    private static byte[] png(int seed) throws IOException {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x102030 * (seed + 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
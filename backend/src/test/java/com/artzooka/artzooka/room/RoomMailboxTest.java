@@ -0,0 +1,233 @@
+package com.artzooka.artzooka.room;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Stress test for {@link RoomMailbox}: 1,000 rooms hammered concurrently with the same
+ * check-then-act sequences the controllers run (capacity check before insert, "last submission
+ * moves the phase on"). Room state is deliberately not thread-safe, so any interleaving within a
+ * room shows up as a lost or duplicated transition.
+ */
+class RoomMailboxTest {
+    private static final int ROOMS = 1_000;
+    private static final int CAPACITY = 8;
+    private static final int JOIN_ATTEMPTS = 12;
+
+    private final RoomMailbox mailbox = new RoomMailbox(16, new SimpleMeterRegistry());
+    private final ExecutorService clients = Executors.newFixedThreadPool(64);
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+        mailbox.shutdown();
+    }
+
+    /** Mutable, unsynchronized room state, as a transaction would see it. */
+    private static final class FakeRoom {
+        final List<String> members = new ArrayList<>();
+        final Set<String> submitted = new HashSet<>();
+        String status = "DRAWING";
+        int discussStarted;
+        int showResults;
+        final AtomicInteger inFlight = new AtomicInteger();
+    }
+
+    @Test
+    @Timeout(60)
+    void capacityAndPhaseTransitionsHoldUnderConcurrentLoad() throws Exception {
+        List<FakeRoom> rooms = new ArrayList<>();
+        for (int r = 0; r < ROOMS; r++) rooms.add(new FakeRoom());
+        AtomicBoolean overlapped = new AtomicBoolean();
+        AtomicInteger rejectedJoins = new AtomicInteger();
+
+        List<Runnable> requests = new ArrayList<>();
+        for (int r = 0; r < ROOMS; r++) {
+            String code = "R" + r;
+            FakeRoom room = rooms.get(r);
+            for (int j = 0; j < JOIN_ATTEMPTS; j++) {
+                String name = "p" + j;
+                requests.add(() -> mailbox.call(code, () -> guarded(room, overlapped, () -> {
+                    if (room.members.size() >= CAPACITY) {
+                        rejectedJoins.incrementAndGet();
+                        return null;
+                    }
+                    Thread.yield();
+                    room.members.add(name);
+                    return null;
+                })));
+            }
+            // every participant submits twice, and the host timer fires finish several times
+            for (int p = 0; p < CAPACITY * 2; p++) {
+                String player = "p" + (p % CAPACITY);
+                requests.add(() -> mailbox.call(code, () -> guarded(room, overlapped, () -> {
+                    room.submitted.add(player);
+                    Thread.yield();
+                    if ("DRAWING".equals(room.status) && room.submitted.size() >= CAPACITY) {
+                        room.status = "VOTING";
+                        room.discussStarted++;
+                    }
+                    return null;
+                })));
+            }
+            for (int f = 0; f < 3; f++) {
+                requests.add(() -> mailbox.call(code, () -> guarded(room, overlapped, () -> {
+                    if ("VOTING".equals(room.status)) {
+                        Thread.yield();
+                        room.status = "RESULTS";
+                        room.showResults++;
+                    }
+                    return null;
+                })));
+            }
+        }
+        Collections.shuffle(requests);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable request : requests) futures.add(clients.submit(request));
+        for (Future<?> future : futures) future.get();
+
+        assertThat(overlapped).as("two tasks of one room ran at the same time").isFalse();
+        assertThat(rejectedJoins.get()).isEqualTo(ROOMS * (JOIN_ATTEMPTS - CAPACITY));
+        for (FakeRoom room : rooms) {
+            assertThat(room.members).hasSize(CAPACITY);
+            assertThat(room.discussStarted).isEqualTo(1);
+            // finish calls shuffled ahead of the last submission are no-ops, so results may not be reached
+            assertThat(room.showResults).isLessThanOrEqualTo(1);
+            assertThat(room.showResults == 1).isEqualTo("RESULTS".equals(room.status));
+        }
+        assertThat(mailbox.laneCount()).isEqualTo(ROOMS);
+    }
+
+    @Test
+    @Timeout(10)
+    void tasksForOneRoomRunInSubmissionOrder() throws Exception {
+        List<Integer> seen = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            int n = i;
+            mailbox.execute("ORDER", () -> seen.add(n));
+        }
+        mailbox.call("ORDER", () -> null);
+        assertThat(seen).hasSize(10_000).isSorted();
+    }
+
+    @Test
+    @Timeout(10)
+    void differentRoomsRunInParallel() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        Future<Boolean> a = clients.submit(() -> mailbox.call("A", () -> {
+            bothRunning.countDown();
+            return bothRunning.await(5, TimeUnit.SECONDS);
+        }));
+        Future<Boolean> b = clients.submit(() -> mailbox.call("B", () -> {
+            bothRunning.countDown();
+            return bothRunning.await(5, TimeUnit.SECONDS);
+        }));
+        assertThat(a.get()).isTrue();
+        assertThat(b.get()).isTrue();
+    }
+
+    @Test
+    @Timeout(10)
+    void reentrantCallRunsInline() {
+        String result = mailbox.call("SELF", () -> mailbox.call("SELF", () -> "inner"));
+        assertThat(result).isEqualTo("inner");
+    }
+
+    @Test
+    @Timeout(10)
+    void submitDoesNotWaitForTheLane() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        mailbox.execute("ASYNC", () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        var queued = mailbox.submit("ASYNC", () -> "done");
+        assertThat(queued).isNotDone();
+        release.countDown();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    }
+
+    @Test
+    @Timeout(10)
+    void failingTaskDoesNotStallTheLane() {
+        assertThatThrownBy(() -> mailbox.call("FAIL", () -> { throw new IllegalStateException("boom"); }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("boom");
+        assertThat(mailbox.call("FAIL", () -> "next")).isEqualTo("next");
+    }
+
+    @Test
+    @Timeout(30)
+    void retiringALaneWhileTasksArriveNeverRunsTwoAtOnce() throws Exception {
+        FakeRoom room = new FakeRoom();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        AtomicInteger ran = new AtomicInteger();
+        int tasks = 20_000;
+        AtomicBoolean submitting = new AtomicBoolean(true);
+        Future<?> retiring = clients.submit(() -> {
+            while (submitting.get()) {
+                mailbox.retire("RETIRE");
+                Thread.yield();
+            }
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < 8; c++) {
+            futures.add(clients.submit(() -> {
+                for (int i = 0; i < tasks / 8; i++) {
+                    mailbox.execute("RETIRE", () -> {
+                        try {
+                            guarded(room, overlapped, () -> {
+                                Thread.yield();
+                                return ran.incrementAndGet();
+                            });
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                }
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        submitting.set(false);
+        retiring.get();
+        mailbox.call("RETIRE", () -> null);
+        while (ran.get() < tasks) Thread.sleep(5);
+
+        assertThat(overlapped).as("a retired lane ran alongside its replacement").isFalse();
+        assertThat(ran.get()).isEqualTo(tasks);
+        mailbox.retire("RETIRE");
+        assertThat(mailbox.laneCount()).isZero();
+    }
+
+    private static <T> T guarded(FakeRoom room, AtomicBoolean overlapped, Callable<T> body) throws Exception {
+        if (room.inFlight.incrementAndGet() != 1) overlapped.set(true);
+        try {
+            return body.call();
+        } finally {
+            room.inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.artzooka.artzooka.room;
+
+import com.artzooka.artzooka.player.PlayerRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * A miss is cached unless a write-through to the same room landed while it was being read; writes
+ * to other rooms do not keep it out. A cached room is read again once it expires.
+ */
+class RoomRegistryTest {
+    private final RoomRepository rooms = mock(RoomRepository.class);
+    private final PlayerRepository players = mock(PlayerRepository.class);
+    private final RoomRegistry registry = new RoomRegistry(rooms, players, new SimpleMeterRegistry(), Duration.ofMinutes(10));
+
+    @Test
+    void aWriteToAnotherRoomDuringALoadStillCachesIt() {
+        loadingRunsThen("ABCD", () -> registry.update("WXYZ", room -> room.withStatus("DRAWING")));
+
+        assertThat(registry.find("ABCD")).isPresent();
+        assertThat(registry.find("ABCD")).isPresent();
+
+        verify(rooms, times(1)).findByCode("ABCD");
+        assertThat(registry.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void aWriteToTheSameRoomDuringALoadIsNotCached() {
+        loadingRunsThen("ABCD", () -> registry.update("ABCD", room -> room.withStatus("DRAWING")));
+
+        assertThat(registry.find("ABCD")).isPresent();
+        assertThat(registry.find("ABCD")).isPresent();
+
+        verify(rooms, times(2)).findByCode("ABCD");
+    }
+
+    @Test
+    void anEvictionDuringALoadIsNotUndone() {
+        loadingRunsThen("ABCD", () -> registry.evict("ABCD"));
+
+        assertThat(registry.find("ABCD")).isPresent();
+        when(rooms.findByCode("ABCD")).thenReturn(Optional.empty());
+
+        assertThat(registry.find("ABCD")).isEmpty();
+    }
+
+    @Test
+    void aPeekReadsNothingAndAnExpiredRoomIsReadAgain() throws Exception {
+        RoomRegistry expiring = new RoomRegistry(rooms, players, new SimpleMeterRegistry(), Duration.ofMillis(50));
+        loadingRunsThen("ABCD", () -> { });
+
+        assertThat(expiring.peek("ABCD")).isEmpty();
+        verify(rooms, times(0)).findByCode("ABCD");
+        assertThat(expiring.find("ABCD")).isPresent();
+        assertThat(expiring.peek("ABCD")).isPresent();
+
+        Thread.sleep(100);
+        assertThat(expiring.peek("ABCD")).isEmpty();
+        assertThat(expiring.find("ABCD")).isPresent();
+        verify(rooms, times(2)).findByCode("ABCD");
+    }
+
+    /** The first read of {@code code} runs {@code during} before it returns, as a concurrent commit would. */
+    private void loadingRunsThen(String code, Runnable during) {
+        Room room = new Room();
+        room.setCode(code);
+        AtomicBoolean first = new AtomicBoolean(true);
+        when(rooms.findByCode(code)).thenAnswer(call -> {
+            if (first.getAndSet(false)) during.run();
+            return Optional.of(room);
+        });
+    }
+}
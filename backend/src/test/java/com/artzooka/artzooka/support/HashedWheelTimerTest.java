@@ -0,0 +1,74 @@
+package com.artzooka.artzooka.support;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedWheelTimerTest {
+    // a small wheel so the longer delays below need several rounds
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, TimeUnit.MILLISECONDS, 16);
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    @Timeout(10)
+    void firesInDeadlineOrderAndNotEarly() throws Exception {
+        List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        long start = System.nanoTime();
+        long[] firedAfter = new long[3];
+        int[] delays = {300, 20, 150};
+        for (int i = 0; i < delays.length; i++) {
+            int n = i;
+            timer.schedule(() -> {
+                firedAfter[n] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                fired.add(delays[n]);
+                done.countDown();
+            }, delays[i], TimeUnit.MILLISECONDS);
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fired).containsExactly(20, 150, 300);
+        for (int i = 0; i < delays.length; i++) {
+            assertThat(firedAfter[i]).isGreaterThanOrEqualTo(delays[i]);
+        }
+        assertThat(timer.pendingCount()).isZero();
+    }
+
+    @Test
+    @Timeout(10)
+    void cancelledTimeoutsNeverFire() throws Exception {
+        AtomicInteger fired = new AtomicInteger();
+        List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            timeouts.add(timer.schedule(fired::incrementAndGet, 50 + i % 100, TimeUnit.MILLISECONDS));
+        }
+        for (int i = 0; i < timeouts.size(); i += 2) {
+            assertThat(timeouts.get(i).cancel()).isTrue();
+        }
+        CountDownLatch marker = new CountDownLatch(1);
+        timer.schedule(marker::countDown, 300, TimeUnit.MILLISECONDS);
+        assertThat(marker.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fired.get()).isEqualTo(5_000);
+        assertThat(timeouts.get(0).cancel()).isFalse();
+    }
+
+    @Test
+    @Timeout(10)
+    void overdueDeadlineFiresOnNextTick() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        timer.schedule(fired::countDown, -1_000, TimeUnit.MILLISECONDS);
+        assertThat(fired.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,125 @@
+package com.artzooka.artzooka.vote;
+
+import com.artzooka.artzooka.game.CurrentGameResolver;
+import com.artzooka.artzooka.room.RoomRegistry;
+import com.artzooka.artzooka.room.RoomService;
+import com.artzooka.artzooka.room.RoomSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A vote counts only while the room is voting: not during the drawing, and not once the results
+ * are shown, also on a node that did not close the vote and so never froze its tally.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Testcontainers
+public class VoteControllerIT {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16")
+            .withDatabaseName("artzooka_test")
+            .withUsername("postgres")
+            .withPassword("root");
+
+    /** Drawings go here, not into the working directory's {@code uploads}. */
+    @TempDir
+    static Path uploads;
+
+    @DynamicPropertySource
+    static void overrideProps(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("artzooka.uploads.dir", uploads::toString);
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    RoomService roomService;
+
+    @Autowired
+    RoomRegistry roomRegistry;
+
+    @Autowired
+    CurrentGameResolver currentGameResolver;
+
+    @Test
+    void aVoteIsRefusedWhileDrawing() {
+        String code = newRoom();
+        List<Map<String, Object>> players = join(code);
+        start(code);
+
+        assertThat(vote(code, players.get(0), players.get(1))).isEqualTo(409);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM votes v JOIN rooms r ON r.current_game_id = v.game_id WHERE r.code = ?", Integer.class, code)).isZero();
+    }
+
+    @Test
+    void aVoteIsRefusedOnceTheResultsShowWhereTheTallyWasNeverFrozen() {
+        String code = newRoom();
+        List<Map<String, Object>> players = join(code);
+        start(code);
+        jdbcTemplate.update("UPDATE rooms SET status = 'VOTING' WHERE code = ?", code);
+        forget(code);
+        assertThat(vote(code, players.get(0), players.get(1))).isEqualTo(200);
+
+        // another node showed the results; this one still holds the open tally
+        jdbcTemplate.update("UPDATE rooms SET status = 'RESULTS' WHERE code = ?", code);
+        roomRegistry.drop(code);
+
+        assertThat(vote(code, players.get(1), players.get(2))).isEqualTo(409);
+    }
+
+    /** Drops what this node remembers about the room, as after a restart. */
+    private void forget(String code) {
+        RoomSnapshot room = roomService.findSnapshot(code).orElseThrow();
+        currentGameResolver.evict(room.id());
+        roomRegistry.drop(code);
+    }
+
+    private String newRoom() {
+        return (String) rest.postForObject(url("/api/rooms"), null, Map.class).get("code");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> join(String code) {
+        return List.of("A", "B", "C").stream()
+                .map(name -> (Map<String, Object>) rest.postForObject(url("/api/rooms/" + code + "/join"), Map.of("name", name), Map.class))
+                .toList();
+    }
+
+    private void start(String code) {
+        assertThat(rest.postForObject(url("/api/rooms/" + code + "/start"), null, Map.class)).containsKey("gameId");
+    }
+
+    private int vote(String code, Map<String, Object> voter, Map<String, Object> target) {
+        return rest.postForEntity(url("/api/rooms/" + code + "/votes?token=" + voter.get("sessionToken")
+                + "&targetId=" + target.get("playerId")), null, Map.class).getStatusCode().value();
+    }
+
+    private String url(String path) { return "http://localhost:"+port+path; }
+}
@@ -1,10 +1,11 @@
-import { useEffect, useMemo, useState } from 'react'
-import { useRoomStore } from '../store/useRoomStore'
+import { useEffect, useMemo, useRef, useState } from 'react'
+import { useRoomStore, GalleryItem } from '../store/useRoomStore'
 import { http } from '../api/http'
+import { sendVote, AckRejectedError } from '../ws/roomSocket'
 import { Avatar } from '../components/Avatar'
 import { fireConfetti, playChime } from '../utils/confetti'
 
-interface Item { playerId: string; filePath: string }
+type Item = GalleryItem
 
 export default function Discussion({ onFinishVoting }: { onFinishVoting: () => void }) {
   const { roomCode, players, sessionToken, drawingsVersion, setVoted, voted, playerId, timers, voteTally, view, setView, setPromptCommon, activeGameStatus, activeGamePlayers, notifications, removeNotification, clearNotifications } = useRoomStore()
@@ -13,15 +14,23 @@ export default function Discussion({ onFinishVoting }: { onFinishVoting: () => v
   const [secondsLeft, setSecondsLeft] = useState<number | null>(null)
   const [selectedId, setSelectedId] = useState<string | null>(null)
   const [hoverId, setHoverId] = useState<string | null>(null)
+  const [voteError, setVoteError] = useState<string>('')
+  const gallery = useRoomStore(s => s.gallery)
+  const galleryAtMount = useRef(gallery?.version)
 
   useEffect(() => {
     if (!roomCode) return
     ;(async () => {
       const res = await http.get(`/api/rooms/${roomCode}/drawings`)
-      setItems(res.data)
+      // a gallery pushed while the request was out is newer than the response
+      if (useRoomStore.getState().gallery?.version === galleryAtMount.current) setItems(res.data)
     })()
   }, [roomCode, drawingsVersion])
 
+  useEffect(() => {
+    if (gallery && gallery.version !== galleryAtMount.current) setItems(gallery.drawings)
+  }, [gallery])
+
   // Start vote timer
   useEffect(() => {
     if (!timers.serverTime || !timers.voteSeconds) return
@@ -37,18 +46,32 @@ export default function Discussion({ onFinishVoting }: { onFinishVoting: () => v
       }
       const remainMs = Math.max(0, endAt - now)
       setSecondsLeft(Math.ceil(remainMs / 1000))
-      if (remainMs <= 0 && isAdmin) {
-        void http.post(`/api/rooms/${roomCode}/votes/finish`)
-      }
+      // the server ends voting at the deadline and broadcasts SHOW_RESULTS
     }
     tick()
     const id = setInterval(tick, 250)
     return () => clearInterval(id)
-  }, [timers.serverTime, timers.voteSeconds, timers.voteStartTime, timers.drawSeconds, isAdmin, roomCode])
+  }, [timers.serverTime, timers.voteSeconds, timers.voteStartTime, timers.drawSeconds])
 
   const vote = async (targetId: string) => {
     if (!roomCode || !sessionToken || voted) return
-    await http.post(`/api/rooms/${roomCode}/votes`, null, { params: { token: sessionToken, targetId } })
+    setVoteError('')
+    try {
+      try {
+        await sendVote(roomCode, targetId)
+      } catch (e) {
+        if (e instanceof AckRejectedError) throw e
+        // no usable session or no ACK in time: the REST endpoint takes the same vote
+        await http.post(`/api/rooms/${roomCode}/votes`, null, { params: { token: sessionToken, targetId } })
+      }
+    } catch (e: any) {
+      const error: string = e instanceof AckRejectedError ? e.message : (e?.response?.data?.error || 'Failed to vote')
+      // a timed-out vote may have landed before the fallback; the server keeps the first one
+      if (error !== 'Already voted') {
+        setVoteError(error)
+        return
+      }
+    }
     setVoted(true)
     setSelectedId(targetId)
     fireConfetti(800, 20)
@@ -226,7 +249,7 @@ export default function Discussion({ onFinishVoting }: { onFinishVoting: () => v
           return (
             <div key={it.playerId} id={`card-${it.playerId}`} onMouseEnter={()=>setHoverId(it.playerId)} onMouseLeave={()=>setHoverId(null)} style={{ border: '1px solid #2f2f35', padding: 12, borderRadius: 14, background:'linear-gradient(180deg,#121214,#0f0f10)', position:'relative', transition:'transform 180ms ease, box-shadow 180ms ease', transform: hoverId===it.playerId?'translateY(-2px) scale(1.01)':'none', boxShadow: hoverId===it.playerId?'0 12px 24px rgba(0,0,0,0.35)':'0 8px 20px rgba(0,0,0,0.25)' }}>
               <div style={{ position:'relative' }}>
-                <img src={it.filePath} style={{ width: '100%', background: '#1b1b1f', border:'1px solid #2a2a2f', borderRadius:12, boxShadow:'inset 0 1px 0 rgba(255,255,255,0.03)' }} />
+                <img src={it.thumbnailUrl ?? it.filePath} srcSet={`${it.thumbnailUrl ?? it.filePath} 320w, ${it.mediumUrl ?? it.filePath} 640w, ${it.filePath} 900w`} sizes="33vw" style={{ width: '100%', background: '#1b1b1f', border:'1px solid #2a2a2f', borderRadius:12, boxShadow:'inset 0 1px 0 rgba(255,255,255,0.03)' }} />
                 {selectedId === it.playerId && (
                   <div style={{ position:'absolute', inset:0, display:'flex', alignItems:'center', justifyContent:'center', background:'rgba(0,0,0,0.35)', borderRadius:12 }}>
                     <div style={{ padding:'6px 10px', background:'#132a1e', color:'#a7f3d0', border:'1px solid #1f3d2b', borderRadius:999 }}>You voted ✓</div>
@@ -250,6 +273,7 @@ export default function Discussion({ onFinishVoting }: { onFinishVoting: () => v
       <div style={{ marginTop: 12, display:'flex', justifyContent:'space-between', alignItems:'center' }}>
         <div style={{ color: voted ? '#34d399' : '#9ca3af' }}>
           {voted ? 'Your vote has been cast.' : 'You have not voted yet.'}
+          {voteError && !voted && <div style={{ marginTop: 4, color: '#f87171' }}>{voteError}</div>}
         </div>
         {isAdmin ? (
           <button onClick={finish}>Finish Voting</button>
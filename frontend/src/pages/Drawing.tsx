@@ -23,7 +23,7 @@ export default function Drawing({ onSubmit }: { onSubmit: () => void }) {
   const snapshotRef = useRef<ImageData|null>(null)
   const historyRef = useRef<ImageData[]>([])
 
-  const { roomCode, sessionToken, players, drawingsVersion, timers, view, setView, setPromptCommon, activeGameStatus, activeGamePlayers, notifications, removeNotification, clearNotifications } = useRoomStore()
+  const { roomCode, sessionToken, players, drawingsVersion, timers, view, setView, setPromptCommon, activeGameStatus, activeGamePlayers, notifications, removeNotification, clearNotifications, currentGameId, myPrompt: pushedPrompt } = useRoomStore()
   
 
   const [tool, setTool] = useState<Tool>('pen')
@@ -117,9 +117,8 @@ export default function Drawing({ onSubmit }: { onSubmit: () => void }) {
   // If user refreshes mid-round, ensure we fetch current prompt and submissions immediately
   useEffect(() => {
     if (!roomCode || !sessionToken) return
-    // force-load prompt and submissions on mount
+    // force-load submissions on mount
     ;(async () => {
-      try { await http.get(`/api/rooms/${roomCode}/prompt`, { params: { token: sessionToken } }) } catch {}
       try { const res = await http.get(`/api/rooms/${roomCode}/drawings`); setSubmittedIds(new Set((res.data as Array<{playerId:string}>).map(d=>d.playerId))) } catch {}
     })()
     // eslint-disable-next-line react-hooks/exhaustive-deps
@@ -433,13 +432,11 @@ export default function Drawing({ onSubmit }: { onSubmit: () => void }) {
     try {
       console.log('🚀 Starting upload process...')
       const blob = await savePngBlob()
-      console.log('🚀 Blob obtained, creating FormData...')
-      const form = new FormData()
-      form.append('file', blob, 'drawing.png')
+      console.log('🚀 Blob obtained, streaming upload...')
       const url = `/api/rooms/${roomCode}/drawings?token=${encodeURIComponent(sessionToken)}`
-      console.log('🚀 Posting to:', url)
+      console.log('🚀 Putting to:', url)
       
-      await http.post(url, form, { headers: { 'Content-Type': 'multipart/form-data' } })
+      await http.put(url, blob, { headers: { 'Content-Type': 'image/png' } })
       console.log('🚀 Upload successful!')
       
       // Mark as submitted
@@ -599,8 +596,12 @@ export default function Drawing({ onSubmit }: { onSubmit: () => void }) {
   }
   const onTouchEnd = () => { pinchRef.current = null }
 
-  // Fetch my prompt (per-player)
+  // My prompt (per-player): pushed with the countdown, fetched only if it never arrived
   useEffect(() => {
+    if (pushedPrompt && pushedPrompt.gameId === currentGameId) {
+      setMyPrompt(pushedPrompt.prompt)
+      return
+    }
     if (!roomCode || !sessionToken) return
     ;(async () => {
       try {
@@ -608,20 +609,28 @@ export default function Drawing({ onSubmit }: { onSubmit: () => void }) {
         setMyPrompt(res.data.prompt)
       } catch {}
     })()
-  }, [roomCode, sessionToken])
+  }, [roomCode, sessionToken, pushedPrompt, currentGameId])
 
   // Fetch submitted drawings list for green ticks
+  const gallery = useRoomStore(s => s.gallery)
+  const galleryAtMount = useRef(gallery?.version)
   useEffect(() => {
     if (!roomCode) return
     ;(async () => {
       try {
         const res = await http.get(`/api/rooms/${roomCode}/drawings`)
+        // a gallery pushed while the request was out is newer than the response
+        if (useRoomStore.getState().gallery?.version !== galleryAtMount.current) return
         const ids = new Set<string>((res.data as Array<{playerId:string}>).map(d => d.playerId))
         setSubmittedIds(ids)
       } catch {}
     })()
   }, [roomCode, drawingsVersion])
 
+  useEffect(() => {
+    if (gallery && gallery.version !== galleryAtMount.current) setSubmittedIds(new Set(gallery.drawings.map(d => d.playerId)))
+  }, [gallery])
+
   // Build a cursor that reflects tool and size
   const cursorStyle = useMemo(() => {
     if (tool === 'pen' || tool === 'eraser') {
@@ -53,9 +53,9 @@ export default function Menu({ onEnterLobby }: { onEnterLobby: () => void }) {
 
   const maskedCode = useMemo(() => (showCode ? code : code.replace(/./g, '•')), [code, showCode])
 
-  const saveAvatar = async (token: string) => {
+  const saveAvatar = async (roomCode: string, token: string) => {
     try {
-      await http.post('/api/player/avatar', { avatar: JSON.stringify(avatar) }, { params: { token } })
+      await http.post(`/api/rooms/${roomCode}/avatar`, { avatar: JSON.stringify(avatar) }, { params: { token } })
     } catch {}
   }
 
@@ -92,7 +92,7 @@ export default function Menu({ onEnterLobby }: { onEnterLobby: () => void }) {
       isAdmin: join.data.isAdmin || false
     })
     
-    await saveAvatar(join.data.sessionToken)
+    await saveAvatar(roomCode, join.data.sessionToken)
     onEnterLobby()
     } catch (e: any) {
       console.error('createRoom error', e)
@@ -140,7 +140,7 @@ export default function Menu({ onEnterLobby }: { onEnterLobby: () => void }) {
       isAdmin: join.data.isAdmin || false
     })
     
-    await saveAvatar(join.data.sessionToken)
+    await saveAvatar(roomCode, join.data.sessionToken)
     onEnterLobby()
     } catch (e: any) {
       setError(e?.response?.data?.error || 'Failed to join room')
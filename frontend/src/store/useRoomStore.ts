@@ -4,6 +4,13 @@ type View = 'menu' | 'lobby' | 'draw' | 'discuss' | 'results'
 
 interface Player { id: string; name: string; isAdmin: boolean; avatar?: string }
 
+export interface GalleryItem { playerId: string; filePath: string; thumbnailUrl?: string; mediumUrl?: string }
+
+interface GalleryState { gameId: string; version: number; drawings: GalleryItem[] }
+
+// a VOTE_DELTA as broadcast; tallySeq numbers the game's votes, apart from the room's event seq
+export interface VoteDelta { gameId: string; tallySeq: number; targetId: string; count: number }
+
 interface TimersState { serverTime?: number; drawSeconds?: number; voteSeconds?: number; voteStartTime?: number }
 
 interface RoomState {
@@ -20,11 +27,19 @@ interface RoomState {
   countdownSeconds?: number
   nextGame?: any
   promptCommon?: string
+  currentGameId?: string
+  // this player's own prompt, pushed on /user/queue/prompt
+  myPrompt?: { gameId: string; prompt: string }
   view: View
   drawingsVersion: number
+  // last gallery pushed with DRAWING_UPLOADED
+  gallery?: GalleryState
   voted: boolean
   timers: TimersState
   voteTally: Record<string, number>
+  // game and sequence number of the last vote in voteTally
+  voteGameId?: string
+  voteSeq: number
   activeGameStatus?: 'DRAWING' | 'VOTING' | 'RESULTS'
   activeGameEndTime?: number
   activeGamePlayers?: string[] // Player IDs currently in the active game
@@ -37,11 +52,14 @@ interface RoomState {
   setNextGame: (payload: any) => void
   setPromptCommon: (p: string | undefined) => void
   setCurrentGameId: (gameId: string) => void
+  setMyPrompt: (gameId: string, prompt: string) => void
   setView: (v: View) => void
   bumpDrawingsVersion: () => void
+  setGallery: (g: GalleryState) => void
   setVoted: (v: boolean) => void
   setTimers: (t: TimersState) => void
-  setVoteTally: (tally: Record<string, number>) => void
+  setVoteTally: (tally: Record<string, number>, gameId?: string, tallySeq?: number) => void
+  applyVoteDelta: (delta: VoteDelta) => boolean
   setActiveGameStatus: (status?: 'DRAWING' | 'VOTING' | 'RESULTS', endTime?: number, activePlayers?: string[]) => void
   removeActiveGamePlayer: (playerId: string) => void
   addNotification: (message: string) => void
@@ -51,7 +69,7 @@ interface RoomState {
   reset: () => void
 }
 
-export const useRoomStore = create<RoomState>((set) => ({
+export const useRoomStore = create<RoomState>((set, get) => ({
   roomCode: null,
   roomId: null,
   playerId: null,
@@ -66,9 +84,11 @@ export const useRoomStore = create<RoomState>((set) => ({
   currentGameId: undefined,
   view: 'menu',
   drawingsVersion: 0,
+  gallery: undefined,
   voted: false,
   timers: {},
   voteTally: {},
+  voteSeq: 0,
   activeGameStatus: undefined,
   activeGameEndTime: undefined,
   activeGamePlayers: undefined,
@@ -86,11 +106,24 @@ export const useRoomStore = create<RoomState>((set) => ({
   setNextGame: (payload) => set({ nextGame: payload }),
   setPromptCommon: (p) => set({ promptCommon: p, view: 'draw' }),
   setCurrentGameId: (gameId) => set({ currentGameId: gameId }),
+  setMyPrompt: (gameId, prompt) => set({ myPrompt: { gameId, prompt } }),
   setView: (v) => set({ view: v }),
   bumpDrawingsVersion: () => set((s) => ({ drawingsVersion: s.drawingsVersion + 1 })),
+  // versions only grow, so a push overtaken by a newer one is dropped
+  setGallery: (g) => set((s) => (s.gallery && s.gallery.version >= g.version ? {} : { gallery: g })),
   setVoted: (v) => set({ voted: v }),
   setTimers: (t) => set({ timers: t }),
-  setVoteTally: (tally) => set({ voteTally: tally }),
+  setVoteTally: (tally, gameId, tallySeq) => set((s) => ({ voteTally: tally, voteGameId: gameId ?? s.voteGameId, voteSeq: tallySeq ?? s.voteSeq })),
+  // false when a delta was missed and the tally needs fetching again
+  applyVoteDelta: ({ gameId, tallySeq, targetId, count }) => {
+    const s = get()
+    const base = s.voteGameId === gameId ? s.voteSeq : 0
+    if (tallySeq <= base) return true
+    if (tallySeq !== base + 1) return false
+    const tally = s.voteGameId === gameId ? s.voteTally : {}
+    set({ voteTally: { ...tally, [targetId]: count }, voteGameId: gameId, voteSeq: tallySeq })
+    return true
+  },
   setActiveGameStatus: (status, endTime, activePlayers) => set((state) => {
     console.log('🎮 setActiveGameStatus called:', { 
       oldStatus: state.activeGameStatus, 
@@ -133,5 +166,5 @@ export const useRoomStore = create<RoomState>((set) => ({
     notifications: state.notifications.filter(n => n.id !== id)
   })),
   clearNotifications: () => set({ notifications: [] }),
-  reset: () => set({ roomCode: null, roomId: null, playerId: null, sessionToken: null, players: [], drawSeconds: 120, voteSeconds: 60, maxPlayers: 8, countdownStartAt: undefined, countdownSeconds: undefined, nextGame: undefined, promptCommon: undefined, currentGameId: undefined, view: 'menu', drawingsVersion: 0, voted: false, timers: {}, voteTally: {}, activeGameStatus: undefined, activeGameEndTime: undefined, activeGamePlayers: undefined, notifications: [] })
+  reset: () => set({ roomCode: null, roomId: null, playerId: null, sessionToken: null, players: [], drawSeconds: 120, voteSeconds: 60, maxPlayers: 8, countdownStartAt: undefined, countdownSeconds: undefined, nextGame: undefined, promptCommon: undefined, currentGameId: undefined, myPrompt: undefined, view: 'menu', drawingsVersion: 0, gallery: undefined, voted: false, timers: {}, voteTally: {}, voteGameId: undefined, voteSeq: 0, activeGameStatus: undefined, activeGameEndTime: undefined, activeGamePlayers: undefined, notifications: [] })
 }))
@@ -2,22 +2,155 @@ import SockJS from 'sockjs-client'
 import { Client } from '@stomp/stompjs'
 import type { IMessage } from '@stomp/stompjs'
 import { useRoomStore } from '../store/useRoomStore'
+import type { VoteDelta } from '../store/useRoomStore'
 import { log } from '../utils/logger'
 
 let client: Client | null = null
+// votes sent over the session, by request-id, until their ACK arrives
+const pendingAcks = new Map<string, { resolve: () => void; reject: (e: Error) => void }>()
+type RoomEventPayload = { type: string; seq?: number; [k: string]: any }
+
+/** The server answered a message with a failed ACK; unlike a transport error, resending will not help. */
+export class AckRejectedError extends Error {
+  readonly status?: number
+  constructor(message: string, status?: number) {
+    super(message)
+    this.name = 'AckRejectedError'
+    this.status = status
+  }
+}
+// number of the last room event applied; events at or below it are duplicates
+let lastSeq: number | undefined
+// live events held back while missed ones are fetched, so they are applied in order
+let replaying: RoomEventPayload[] | null = null
+// native WebSocket attempts that closed before STOMP connected; after two, SockJS is used instead
+let nativeFailures = 0
 
 export function connectRoomTopic(roomCode: string) {
 	const url = (import.meta as any).env.VITE_API_BASE || 'http://localhost:8080'
+	lastSeq = undefined
+	replaying = null
+	let stompConnected = false
 	client = new Client({
-		webSocketFactory: () => new SockJS(`${url}/ws`) as any,
+		// the room in the URL lets the proxy route a room's sockets to the node that holds its state;
+		// a raw WebSocket (with permessage-deflate when the browser offers it) unless it keeps failing
+		webSocketFactory: () => {
+			const room = encodeURIComponent(roomCode)
+			if (typeof WebSocket !== 'undefined' && nativeFailures < 2) {
+				return new WebSocket(`${url.replace(/^http/, 'ws')}/ws-native?room=${room}`)
+			}
+			return new SockJS(`${url}/ws?room=${room}`) as any
+		},
     reconnectDelay: 2000,
+    heartbeatIncoming: 10000,
+    heartbeatOutgoing: 10000,
     debug: (m) => log.info('WS', m)
 	})
+  client.onWebSocketClose = () => {
+    if (!stompConnected) nativeFailures++
+    stompConnected = false
+  }
+  // authenticate the session once, so votes and reactions can be sent over it
+  client.beforeConnect = () => {
+    const token = useRoomStore.getState().sessionToken
+    if (client) client.connectHeaders = token ? { token } : {}
+  }
 	client.onConnect = () => {
     log.info('WS connected to room', roomCode)
+    stompConnected = true
+    const reconnected = lastSeq !== undefined
+    client?.subscribe('/user/queue/acks', (msg: IMessage) => {
+      try {
+        const ack = JSON.parse(msg.body) as { requestId?: string; ok: boolean; status?: number; error?: string }
+        const pending = ack.requestId ? pendingAcks.get(ack.requestId) : undefined
+        if (!pending) return
+        pendingAcks.delete(ack.requestId!)
+        if (ack.ok) pending.resolve()
+        else pending.reject(new AckRejectedError(ack.error || 'Rejected', ack.status))
+      } catch {}
+    })
+    // this player's prompt arrives with the countdown, ahead of GAME_STARTED or just after it
+    client?.subscribe('/user/queue/prompt', (msg: IMessage) => {
+      try {
+        const pushed = JSON.parse(msg.body) as { gameId: string; prompt: string }
+        useRoomStore.getState().setMyPrompt(pushed.gameId, pushed.prompt)
+      } catch {}
+    })
 		client?.subscribe(`/topic/rooms/${roomCode}`, (msg: IMessage) => {
 			try {
-				const payload = JSON.parse(msg.body) as { type: string; [k: string]: any }
+				const payload = JSON.parse(msg.body) as RoomEventPayload
+				if (replaying) replaying.push(payload)
+				else receive(payload)
+			} catch {}
+		})
+		// subscribed first, so nothing published from here on is missed
+		if (reconnected) resync()
+	}
+	const receive = (payload: RoomEventPayload) => {
+		if (typeof payload.seq === 'number') {
+			if (lastSeq !== undefined && payload.seq <= lastSeq) return
+			lastSeq = payload.seq
+		}
+		try { handleRoomEvent(payload) } catch {}
+	}
+	// asks for the events missed since the last one applied; the server sends a snapshot when it no longer has them all
+	const resync = () => {
+		if (replaying) return
+		replaying = []
+		fetch(`${url}/api/rooms/${roomCode}/events?since=${lastSeq ?? 0}`)
+			.then((r) => r.json())
+			.then((res) => {
+				if (res.events) {
+					res.events.forEach(receive)
+				} else if (res.room) {
+					applySnapshot(res.room, res.game, res.tally)
+					lastSeq = res.seq
+				}
+			})
+			.catch(() => {})
+			.finally(() => {
+				const held = replaying || []
+				replaying = null
+				held.forEach(receive)
+			})
+	}
+	// the room as it is now, for a client that missed events; a phase it missed is entered the way its event would have
+	const applySnapshot = (room: any, game: any, tally: any) => {
+		const s = useRoomStore.getState()
+		s.setPlayers(room.players)
+		s.setSettings({ drawSeconds: room.drawSeconds, voteSeconds: room.voteSeconds, maxPlayers: room.maxPlayers })
+		if (game) {
+			s.setCurrentGameId(game.gameId)
+			if (game.gallery) s.setGallery(game.gallery)
+		}
+		if (tally?.gameId) s.setVoteTally(tally.tally, tally.gameId, tally.tallySeq)
+		const status = room.status as 'LOBBY' | 'DRAWING' | 'VOTING' | 'RESULTS'
+		// a whole game may have been missed too, so the same phase of another game still counts as a change
+		if (status === (s.activeGameStatus ?? 'LOBBY') && (!game || game.gameId === s.currentGameId)) return
+		if (status === 'LOBBY') {
+			handleRoomEvent({ type: 'GAME_ENDED', reason: 'Resynchronized' })
+			// a game that ended while the socket was away leaves nothing to draw or vote on
+			if (s.view === 'draw' || s.view === 'discuss') {
+				s.setPromptCommon(undefined)
+				s.setView('lobby')
+			}
+			return
+		}
+		if (!game) return
+		const participants: string[] = room.activeGameParticipants || []
+		const playing = !!s.playerId && participants.includes(s.playerId)
+		if (!playing) {
+			// joined or left mid-game: only the lobby's game banner follows
+			s.setActiveGameStatus(status, game.phaseEndsAt ?? Date.now() + 30 * 1000, participants)
+		} else if (status === 'DRAWING') {
+			handleRoomEvent({ type: 'GAME_STARTED', ...game, activeGameParticipants: participants })
+		} else {
+			s.setActiveGameStatus(s.activeGameStatus, s.activeGameEndTime, participants)
+			if (status === 'VOTING') handleRoomEvent({ type: 'DISCUSS_STARTED', serverTime: game.voteStartTime, voteSeconds: game.voteSeconds })
+			else handleRoomEvent({ type: 'SHOW_RESULTS', gameId: game.gameId })
+		}
+	}
+	const handleRoomEvent = (payload: RoomEventPayload) => {
         log.info('WS message', payload.type, payload)
         console.log('🔧 WebSocket handler called for:', payload.type)
         if (payload.type === 'PLAYER_JOINED') {
@@ -64,6 +197,10 @@ export function connectRoomTopic(roomCode: string) {
             g.gain.exponentialRampToValueAtTime(0.00001, ctx.currentTime + 0.15); o.stop(ctx.currentTime + 0.16)
           } catch {}
 				}
+        if (payload.type === 'RESYNC') {
+          // this node lost events for the room; catch up from the room's log
+          resync()
+        }
         if (payload.type === 'AVATAR_UPDATED') {
           fetch(`${url}/api/rooms/${roomCode}`)
             .then((r) => r.json())
@@ -95,6 +232,7 @@ export function connectRoomTopic(roomCode: string) {
           store.addNotification(`${payload.playerName} left the game`)
         }
         if (payload.type === 'GAME_STARTED') {
+          useRoomStore.getState().setCurrentGameId(payload.gameId)
           const now = Date.now()
           const delayMs = Math.max(0, payload.serverTime - now)
           if (delayMs > 200) {
@@ -158,16 +296,38 @@ export function connectRoomTopic(roomCode: string) {
 					const endTime = payload.serverTime + (payload.voteSeconds * 1000)
 					s.setActiveGameStatus('VOTING', endTime, s.activeGamePlayers)
 				}
+				if (payload.type === 'VOTE_DELTA') {
+					// deltas carry one count each; on a gap, fetch the whole tally once
+					if (!useRoomStore.getState().applyVoteDelta(payload as VoteDelta)) {
+						fetch(`${url}/api/rooms/${roomCode}/votes/tally`)
+							.then((r) => r.json())
+							.then((t) => {
+								const s = useRoomStore.getState()
+								if (s.voteGameId !== t.gameId || t.tallySeq > s.voteSeq) s.setVoteTally(t.tally, t.gameId, t.tallySeq)
+							})
+					}
+				}
 				if (payload.type === 'VOTE_UPDATE') {
 					useRoomStore.getState().setVoteTally(payload.tally)
 				}
-        if (payload.type === 'REACTION') {
-          // bubble a one-off browser event so UI can animate the reaction
-          const ev = new CustomEvent('artzooka:reaction', { detail: payload })
-          window.dispatchEvent(ev)
+        if (payload.type === 'REACTION_BATCH') {
+          // one browser event per target and emoji, so the UI animates a bubble for each (capped per batch)
+          const counts = (payload.counts || {}) as Record<string, Record<string, number>>
+          for (const [targetId, byEmoji] of Object.entries(counts)) {
+            for (const [emoji, count] of Object.entries(byEmoji)) {
+              for (let i = 0; i < Math.min(count, 3); i++) {
+                window.dispatchEvent(new CustomEvent('artzooka:reaction', { detail: { targetId, emoji, count } }))
+              }
+            }
+          }
         }
 				if (payload.type === 'DRAWING_UPLOADED') {
-					useRoomStore.getState().bumpDrawingsVersion()
+					// the event carries the gallery; only refetch if it does not
+					if (payload.drawings) {
+						useRoomStore.getState().setGallery({ gameId: payload.gameId, version: payload.version, drawings: payload.drawings })
+					} else {
+						useRoomStore.getState().bumpDrawingsVersion()
+					}
 				}
 				if (payload.type === 'SHOW_RESULTS') {
 					const s = useRoomStore.getState()
@@ -208,12 +368,32 @@ export function connectRoomTopic(roomCode: string) {
         if (payload.type === 'SETTINGS_UPDATED') {
           useRoomStore.getState().setSettings({ drawSeconds: payload.drawSeconds, voteSeconds: payload.voteSeconds, maxPlayers: payload.maxPlayers })
         }
-			} catch {}
-		})
 	}
 	client.activate()
 }
 
+/**
+ * Sends a vote over the open session and resolves on its ACK. A vote the server refused rejects with
+ * {@link AckRejectedError}; without a connected, authenticated session (or without an ACK in time) it
+ * rejects with a plain Error and the caller should fall back to the REST endpoint.
+ */
+export function sendVote(roomCode: string, targetId: string, timeoutMs = 3000): Promise<void> {
+  if (!client?.connected || !useRoomStore.getState().sessionToken) return Promise.reject(new Error('Not connected'))
+  const requestId = Math.random().toString(36).slice(2)
+  return new Promise<void>((resolve, reject) => {
+    const timer = setTimeout(() => { pendingAcks.delete(requestId); reject(new Error('No acknowledgement')) }, timeoutMs)
+    pendingAcks.set(requestId, {
+      resolve: () => { clearTimeout(timer); resolve() },
+      reject: (e) => { clearTimeout(timer); reject(e) }
+    })
+    client!.publish({
+      destination: `/app/rooms/${roomCode}/votes`,
+      headers: { 'request-id': requestId, 'content-type': 'application/json' },
+      body: JSON.stringify({ targetId })
+    })
+  })
+}
+
 export function disconnectRoomTopic() {
 	client?.deactivate()
 	client = null
@@ -0,0 +1,37 @@
+import { test, beforeEach } from 'node:test'
+import assert from 'node:assert/strict'
+import { useRoomStore } from '../src/store/useRoomStore.js'
+import type { VoteDelta } from '../src/store/useRoomStore.js'
+
+const game = 'f1c0a9a4-6f2e-4b1e-9d7a-3f5c2b8e0a11'
+const alice = '0d9f5c1e-2a3b-4c5d-8e9f-a0b1c2d3e4f5'
+const bob = '7a8b9c0d-1e2f-4a3b-9c4d-5e6f7a8b9c0d'
+
+// a VOTE_DELTA frame as the server writes it: the tally's own number, then the room's event number
+const frame = (tallySeq: number, targetId: string, count: number, seq: number) =>
+  JSON.parse(`{"type":"VOTE_DELTA","roomCode":"ABCD","gameId":"${game}","tallySeq":${tallySeq},` +
+    `"targetId":"${targetId}","count":${count},"seq":${seq}}`) as VoteDelta
+
+beforeEach(() => useRoomStore.getState().reset())
+
+test('consecutive deltas apply without a refetch, whatever the event numbers', () => {
+  const eventSeq = 1_760_000_000_000_000
+  const { applyVoteDelta } = useRoomStore.getState()
+
+  assert.equal(applyVoteDelta(frame(1, alice, 1, eventSeq + 1)), true)
+  assert.equal(applyVoteDelta(frame(2, bob, 1, eventSeq + 2)), true)
+  assert.equal(applyVoteDelta(frame(3, alice, 2, eventSeq + 3)), true)
+
+  const s = useRoomStore.getState()
+  assert.deepEqual(s.voteTally, { [alice]: 2, [bob]: 1 })
+  assert.equal(s.voteSeq, 3)
+})
+
+test('a missed delta asks for the tally, a repeated one is ignored', () => {
+  const { applyVoteDelta } = useRoomStore.getState()
+  applyVoteDelta(frame(1, alice, 1, 11))
+
+  assert.equal(applyVoteDelta(frame(1, alice, 1, 11)), true)
+  assert.equal(applyVoteDelta(frame(3, bob, 1, 13)), false)
+  assert.deepEqual(useRoomStore.getState().voteTally, { [alice]: 1 })
+})